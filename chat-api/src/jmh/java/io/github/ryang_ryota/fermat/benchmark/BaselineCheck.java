@@ -0,0 +1,77 @@
+package io.github.ryang_ryota.fermat.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMHの結果（-rf json）を、リポジトリに保存したベースラインと比較するツール。
+ * - ベンチマーク名とパラメータが一致する結果どうしを比較し、許容範囲を超えて遅くなったものを報告します。
+ * - 1件でも退行があれば例外で終了します（ベースラインにない結果は比較しません）。
+ *
+ * 実行例: ./mvnw -Pjmh test-compile exec:exec exec:java@jmh-baseline
+ */
+public final class BaselineCheck {
+
+    private BaselineCheck() {
+    }
+
+    /**
+     * @param args [0] ベースラインのJSON, [1] 今回の結果のJSON, [2] 許容する悪化率（例: 0.3 は30%まで）
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("usage: BaselineCheck <baseline.json> <result.json> [tolerance]");
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.3;
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = index(mapper.readTree(new File(args[0])));
+        Map<String, JsonNode> current = index(mapper.readTree(new File(args[1])));
+
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.printf("%-70s (ベースラインなし)%n", entry.getKey());
+                continue;
+            }
+            double baseScore = base.path("primaryMetric").path("score").asDouble();
+            double score = entry.getValue().path("primaryMetric").path("score").asDouble();
+            String unit = entry.getValue().path("primaryMetric").path("scoreUnit").asText();
+            // スループット（ops/時間）は大きいほど、それ以外（時間/op）は小さいほど良い
+            boolean throughput = "thrpt".equals(entry.getValue().path("mode").asText());
+            double change = throughput ? (baseScore - score) / baseScore : (score - baseScore) / baseScore;
+            String line = String.format("%-70s %12.3f -> %12.3f %-8s %+7.1f%%",
+                    entry.getKey(), baseScore, score, unit, change * 100);
+            System.out.println(line);
+            if (change > tolerance) {
+                regressions.add(line);
+            }
+        }
+        if (!regressions.isEmpty()) {
+            throw new IllegalStateException(String.format("ベースラインから %.0f%% を超えて悪化したベンチマークがあります:%n%s",
+                    tolerance * 100, String.join(System.lineSeparator(), regressions)));
+        }
+    }
+
+    /**
+     * 結果をベンチマーク名＋パラメータをキーとして索引化する。
+     */
+    private static Map<String, JsonNode> index(JsonNode results) {
+        Map<String, JsonNode> index = new LinkedHashMap<>();
+        for (JsonNode result : results) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText()
+                    .replace("io.github.ryang_ryota.fermat.benchmark.", ""));
+            result.path("params").properties()
+                    .forEach(param -> key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText()));
+            index.put(key.toString(), result);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.ryang_ryota.fermat.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.BufferRecycler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChromaDBの検索リクエストの組み立てと、検索レスポンスの解析方式を比較するベンチマーク。
+ * - request*: 埋め込みベクトルを query_embeddings に書き出す（現行は JSONArray に Float をボックス化して格納）
+ * - response*: documents と distances を取り出す（現行は org.json で全体をツリーに変換）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChromaCodecBenchmark {
+
+    // 埋め込みベクトルの次元数（all-MiniLM-L6-v2）
+    @Param({"384"})
+    public int dimension;
+
+    // 取得する件数
+    @Param({"3"})
+    public int nResults;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final ObjectReader jsonReader = new ObjectMapper().readerFor(JsonNode.class);
+
+    private float[] embedding;
+
+    private String response;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        embedding = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            embedding[i] = (float) random.nextGaussian() * 0.1f;
+        }
+        // 1件あたり約500文字のドキュメント
+        JSONArray documents = new JSONArray();
+        JSONArray distances = new JSONArray();
+        for (int i = 0; i < nResults; i++) {
+            documents.put("フェルマーの最終定理は、3以上の自然数 n について x^n + y^n = z^n を満たす自然数の組が存在しないという定理である。"
+                    .repeat(8) + i);
+            distances.put(0.1 * (i + 1));
+        }
+        JSONObject json = new JSONObject();
+        json.put("ids", new JSONArray().put(new JSONArray(List.of("a", "b", "c"))));
+        json.put("documents", new JSONArray().put(documents));
+        json.put("distances", new JSONArray().put(distances));
+        json.put("metadatas", new JSONArray().put(new JSONArray()));
+        json.put("include", new JSONArray(List.of("distances", "documents")));
+        response = json.toString();
+    }
+
+    /**
+     * 現行方式（ChromaService と同じ）: JSONArray / JSONObject を組み立てて toString する。
+     */
+    @Benchmark
+    public String requestJsonArray() {
+        JSONArray embeddingArray = new JSONArray();
+        for (float value : embedding) {
+            embeddingArray.put(value);
+        }
+        JSONArray queryEmbeddings = new JSONArray();
+        queryEmbeddings.put(embeddingArray);
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("include", new JSONArray(List.of("distances", "documents")));
+        requestBody.put("n_results", nResults);
+        requestBody.put("query_embeddings", queryEmbeddings);
+        return requestBody.toString();
+    }
+
+    /**
+     * StringBuilder に float をそのまま書き出す（ボックス化なし）。
+     */
+    @Benchmark
+    public String requestStringBuilder() {
+        StringBuilder builder = new StringBuilder(64 + dimension * 14);
+        builder.append("{\"include\":[\"distances\",\"documents\"],\"n_results\":").append(nResults)
+                .append(",\"query_embeddings\":[[");
+        for (int i = 0; i < embedding.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(embedding[i]);
+        }
+        return builder.append("]]}").toString();
+    }
+
+    /**
+     * Jackson のストリーミング出力で書き出す（ボックス化なし）。
+     */
+    @Benchmark
+    public String requestJacksonGenerator() throws IOException {
+        SegmentedStringWriter writer = new SegmentedStringWriter(new BufferRecycler());
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("include");
+            generator.writeString("distances");
+            generator.writeString("documents");
+            generator.writeEndArray();
+            generator.writeNumberField("n_results", nResults);
+            generator.writeArrayFieldStart("query_embeddings");
+            generator.writeStartArray();
+            for (float value : embedding) {
+                generator.writeNumber(value);
+            }
+            generator.writeEndArray();
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return writer.getAndClear();
+    }
+
+    /**
+     * 現行方式（ChromaService.parseResponse と同じ）: org.json でツリーに変換して取り出す。
+     */
+    @Benchmark
+    public List<String> responseOrgJson() {
+        JSONObject json = new JSONObject(response);
+        JSONArray documents = json.getJSONArray("documents").getJSONArray(0);
+        JSONArray distances = json.optJSONArray("distances");
+        JSONArray firstDistances = distances == null ? null : distances.optJSONArray(0);
+        List<String> documentList = new ArrayList<>(documents.length());
+        List<Double> distanceList = new ArrayList<>(documents.length());
+        for (int i = 0; i < documents.length(); i++) {
+            documentList.add(documents.getString(i));
+            distanceList.add(firstDistances == null ? Double.NaN : firstDistances.optDouble(i, Double.NaN));
+        }
+        return documentList;
+    }
+
+    /**
+     * Jackson の readTree でツリーに変換して取り出す。
+     */
+    @Benchmark
+    public List<String> responseJacksonTree() throws IOException {
+        JsonNode json = jsonReader.readValue(response);
+        JsonNode documents = json.path("documents").path(0);
+        JsonNode distances = json.path("distances").path(0);
+        List<String> documentList = new ArrayList<>(documents.size());
+        List<Double> distanceList = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            documentList.add(documents.get(i).asText());
+            distanceList.add(distances.path(i).asDouble(Double.NaN));
+        }
+        return documentList;
+    }
+
+    /**
+     * Jackson のストリーミングパーサーで必要なフィールドだけを取り出す（不要なフィールドは読み飛ばす）。
+     */
+    @Benchmark
+    public List<String> responseJacksonStreaming() throws IOException {
+        List<String> documentList = new ArrayList<>(nResults);
+        List<Double> distanceList = new ArrayList<>(nResults);
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("documents".equals(field)) {
+                    readFirstRow(parser, () -> documentList.add(parser.getText()));
+                } else if ("distances".equals(field)) {
+                    readFirstRow(parser, () -> distanceList.add(parser.getDoubleValue()));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return documentList;
+    }
+
+    /**
+     * 2次元配列の最初の行の要素を読み、残りの行は読み飛ばす。
+     */
+    private static void readFirstRow(JsonParser parser, IOAction action) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            if (first) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    action.run();
+                }
+                first = false;
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOAction {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.ryang_ryota.fermat.benchmark;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * クエリ埋め込み（all-MiniLM-L6-v2）のコストを測るベンチマーク。
+ * - warm*: 読み込み済みのモデルで、1件ずつ埋め込む場合とまとめて埋め込む場合
+ * - 起動直後の最初の1件は EmbeddingColdBenchmark で測る
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    // まとめて埋め込む件数
+    @Param({"8"})
+    public int batchSize;
+
+    private EmbeddingModel model;
+
+    private List<TextSegment> segments;
+
+    @Setup
+    public void setUp() {
+        model = new AllMiniLmL6V2EmbeddingModel();
+        segments = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            segments.add(TextSegment.from("フェルマーの最終定理の証明で使われた概念は何ですか？ " + i));
+        }
+        // 読み込み直後の初回推論を計測から外す
+        model.embed(segments.get(0));
+    }
+
+    /**
+     * 読み込み済みのモデルで1件埋め込む。
+     */
+    @Benchmark
+    public void warmSingle(Blackhole blackhole) {
+        blackhole.consume(model.embed(segments.get(0)).content().vector());
+    }
+
+    /**
+     * batchSize 件を1件ずつ埋め込む。
+     */
+    @Benchmark
+    public void warmSequential(Blackhole blackhole) {
+        for (TextSegment segment : segments) {
+            blackhole.consume(model.embed(segment).content().vector());
+        }
+    }
+
+    /**
+     * batchSize 件をまとめて埋め込む（EmbeddingService のマイクロバッチに相当）。
+     */
+    @Benchmark
+    public void warmBatched(Blackhole blackhole) {
+        blackhole.consume(model.embedAll(segments).content());
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.ryang_ryota.fermat.benchmark;
+
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * アプリケーション起動直後の最初のクエリ埋め込みのコストを測るベンチマーク。
+ * - ONNXモデルはクラス内で共有されるため、フォークしたJVMごとに1回だけ計測する（クラスロード・モデル読み込み・初回推論を含む）。
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class EmbeddingColdBenchmark {
+
+    @Benchmark
+    public void firstQuery(Blackhole blackhole) {
+        blackhole.consume(new AllMiniLmL6V2EmbeddingModel()
+                .embed("フェルマーの最終定理の証明で使われた概念は何ですか？").content().vector());
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.ryang_ryota.fermat.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.github.ryang_ryota.fermat.codec.OllamaNdjsonDecoder;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ollama のストリーミング応答（NDJSON）のデコード方式を比較するベンチマーク。
+ * - legacy*: 行ごとに String を生成し、readTree で JsonNode ツリーを構築する従来の方式
+ * - streaming*: ノンブロッキングパーサーで受信バッファから直接フィールドを取り出す方式
+ * 1回の操作は「1回答分（tokens 行＋完了行）」のデコード。割り当て量は -prof gc で確認する。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OllamaDecodeBenchmark {
+
+    // 1回答あたりのトークン数
+    @Param({"300"})
+    public int tokens;
+
+    // 1行ずつ届くチャンク（Ollama はトークンごとにフラッシュする）
+    private List<byte[]> chunks;
+
+    private final ObjectReader jsonReader = new ObjectMapper().readerFor(JsonNode.class);
+
+    private final StringDecoder stringDecoder = StringDecoder.textPlainOnly();
+
+    private final OllamaNdjsonDecoder decoder = new OllamaNdjsonDecoder();
+
+    @Setup
+    public void setUp() {
+        chunks = new ArrayList<>(tokens + 1);
+        String[] words = {"フェルマー", "の", "最終", "定理", "は", " Wiles", " によって", "証明", "された", "。"};
+        for (int i = 0; i < tokens; i++) {
+            String line = "{\"model\":\"mistral\",\"created_at\":\"2026-10-18T08:00:00.000000Z\",\"response\":\""
+                    + words[i % words.length] + "\",\"done\":false}\n";
+            chunks.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        // 完了行には大きな context 配列が含まれる
+        String context = String.join(",", Collections.nCopies(2048, "12345"));
+        String last = "{\"model\":\"mistral\",\"created_at\":\"2026-10-18T08:00:10.000000Z\",\"response\":\"\","
+                + "\"done\":true,\"done_reason\":\"stop\",\"context\":[" + context + "],"
+                + "\"total_duration\":10000000000,\"prompt_eval_count\":512,\"eval_count\":" + tokens
+                + ",\"eval_duration\":9000000000}\n";
+        chunks.add(last.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 従来方式のコア部分: 行 String 生成 → readTree → response 取得。
+     */
+    @Benchmark
+    public void legacyReadTree(Blackhole blackhole) throws Exception {
+        for (byte[] chunk : chunks) {
+            String line = new String(chunk, StandardCharsets.UTF_8);
+            JsonNode json = jsonReader.readValue(line);
+            blackhole.consume(json.path("response").asText());
+        }
+    }
+
+    /**
+     * 新方式のコア部分: 受信バッファをそのままノンブロッキングパーサーに渡す。
+     */
+    @Benchmark
+    public void streamingParser(Blackhole blackhole) {
+        try (OllamaNdjsonDecoder.TokenParser parser = new OllamaNdjsonDecoder.TokenParser()) {
+            for (byte[] chunk : chunks) {
+                parser.feed(ByteBuffer.wrap(chunk), blackhole::consume);
+            }
+        }
+    }
+
+    /**
+     * 従来方式（WebClient の bodyToFlux(String.class) ＋ flatMap(readTree) と同等）。
+     */
+    @Benchmark
+    public void legacyFlux(Blackhole blackhole) {
+        stringDecoder.decode(dataBuffers(), ResolvableType.forClass(String.class), MimeTypeUtils.TEXT_PLAIN, null)
+                .flatMap(line -> {
+                    try {
+                        JsonNode json = jsonReader.readValue(line);
+                        return Flux.just(json.path("response").asText());
+                    } catch (Exception e) {
+                        return Flux.empty();
+                    }
+                })
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+
+    /**
+     * 新方式（OllamaService.generateTokenStream のデコード部分と同等）。
+     */
+    @Benchmark
+    public void streamingFlux(Blackhole blackhole) {
+        decoder.decode(dataBuffers())
+                .map(OllamaToken::response)
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+
+    private Flux<DataBuffer> dataBuffers() {
+        return Flux.fromIterable(chunks).map(DefaultDataBufferFactory.sharedInstance::wrap);
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.ryang_ryota.fermat.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * プロンプトの組み立て方式を比較するベンチマーク。
+ * - format: 現行方式（ChatService.buildPrompt と同じテンプレートを String.format で埋める）
+ * - concat / builder: 書式解析を行わずに連結する方式
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptBenchmark {
+
+    private static final String TEMPLATE = "あなたは数学の専門家です。以下の文脈を参考に日本語で質問に答えてください。\n\n" +
+            "【文脈】\n%s\n\n" +
+            "【質問】%s\n" +
+            "【回答】";
+
+    private static final String HEADER = "あなたは数学の専門家です。以下の文脈を参考に日本語で質問に答えてください。\n\n【文脈】\n";
+
+    // 文脈の文字数（検索で得たドキュメントを連結したもの）
+    @Param({"1500"})
+    public int contextChars;
+
+    private String context;
+
+    private String query;
+
+    @Setup
+    public void setUp() {
+        String sentence = "フェルマーの最終定理は、3以上の自然数 n について x^n + y^n = z^n を満たす自然数の組が存在しないという定理である。\n";
+        context = sentence.repeat(contextChars / sentence.length() + 1).substring(0, contextChars);
+        query = "フェルマーの最終定理は誰がどのように証明しましたか？";
+    }
+
+    @Benchmark
+    public String format() {
+        return String.format(TEMPLATE, context, query);
+    }
+
+    @Benchmark
+    public String concat() {
+        return HEADER + context + "\n\n【質問】" + query + "\n【回答】";
+    }
+
+    @Benchmark
+    public String builder() {
+        return new StringBuilder(HEADER.length() + context.length() + query.length() + 16)
+                .append(HEADER)
+                .append(context)
+                .append("\n\n【質問】")
+                .append(query)
+                .append("\n【回答】")
+                .toString();
+    }
+}
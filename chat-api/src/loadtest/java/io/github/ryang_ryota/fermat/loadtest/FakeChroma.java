@@ -0,0 +1,62 @@
+package io.github.ryang_ryota.fermat.loadtest;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+
+/**
+ * 負荷試験用のChromaDBの代替サーバー。
+ * - 検索API（/query）に対し、指定した遅延の後に固定のドキュメントを返します。
+ * - ローカルインデックスの同期（/count, /get）には空のコレクションとして応答します。
+ */
+public final class FakeChroma implements AutoCloseable {
+
+    private static final String COLLECTION = "/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}";
+
+    private final DisposableServer server;
+
+    /**
+     * @param nResults 返すドキュメント数
+     * @param latency  検索の応答までの遅延
+     */
+    public FakeChroma(int nResults, Duration latency) {
+        String response = queryResponse(nResults);
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .post(COLLECTION + "/query", (request, res) -> res.header("Content-Type", "application/json")
+                                .sendString(request.receive().aggregate().asString().then(Mono.delay(latency)).thenReturn(response)))
+                        .get(COLLECTION + "/count", (request, res) -> res.sendString(Mono.just("0")))
+                        .post(COLLECTION + "/get", (request, res) -> res.header("Content-Type", "application/json")
+                                .sendString(Mono.just("{\"ids\":[],\"embeddings\":[],\"documents\":[]}"))))
+                .bindNow();
+    }
+
+    private static String queryResponse(int nResults) {
+        StringBuilder documents = new StringBuilder();
+        StringBuilder distances = new StringBuilder();
+        String document = "フェルマーの最終定理は、3以上の自然数 n について x^n + y^n = z^n を満たす自然数の組が存在しないという定理である。"
+                .repeat(8);
+        for (int i = 0; i < nResults; i++) {
+            if (i > 0) {
+                documents.append(',');
+                distances.append(',');
+            }
+            documents.append('"').append(document).append(i).append('"');
+            distances.append(0.1 * (i + 1));
+        }
+        return "{\"documents\":[[" + documents + "]],\"distances\":[[" + distances + "]]}";
+    }
+
+    public int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
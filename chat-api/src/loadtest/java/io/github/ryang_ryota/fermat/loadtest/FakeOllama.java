@@ -0,0 +1,88 @@
+package io.github.ryang_ryota.fermat.loadtest;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 負荷試験用のOllamaの代替サーバー。
+ * - /api/generate に対し、最初のトークンまでの遅延とトークン間隔を指定してNDJSONをストリーミングします。
+ * - 完了行には eval_count / eval_duration / prompt_eval_count を含めます。
+ * - stream=false のリクエスト（モデル常駐のための定期リクエスト）には完了行のみを返します。
+ */
+public final class FakeOllama implements AutoCloseable {
+
+    private static final String[] WORDS = {"フェルマー", "の", "最終", "定理", "は", " Wiles", " によって", "証明", "された", "。"};
+
+    private final DisposableServer server;
+
+    // 実行中・累計の生成リクエスト数
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * @param tokens        1回答あたりのトークン数
+     * @param firstTokenLatency 最初のトークンまでの遅延
+     * @param tokenInterval トークン間隔
+     */
+    public FakeOllama(int tokens, Duration firstTokenLatency, Duration tokenInterval) {
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/api/tags", (request, response) -> response.header("Content-Type", "application/json")
+                                .sendString(Mono.just("{\"models\":[{\"name\":\"mistral:latest\"}]}")))
+                        .post("/api/generate", (request, response) -> response
+                                .header("Content-Type", "application/x-ndjson")
+                                .sendString(request.receive().aggregate().asString()
+                                        .flatMapMany(body -> body.contains("\"stream\":false")
+                                                ? Flux.just(doneLine(0, tokenInterval))
+                                                : stream(tokens, firstTokenLatency, tokenInterval)))))
+                .bindNow();
+    }
+
+    private Flux<String> stream(int tokens, Duration firstTokenLatency, Duration tokenInterval) {
+        Flux<String> lines = Flux.concat(
+                        Mono.delay(firstTokenLatency).map(tick -> tokenLine(0)),
+                        Flux.interval(tokenInterval).take(Math.max(0, tokens - 1)).map(tick -> tokenLine(tick.intValue() + 1)))
+                .concatWith(Mono.fromSupplier(() -> doneLine(tokens, tokenInterval)));
+        return lines
+                .doOnSubscribe(subscription -> {
+                    requests.increment();
+                    peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                })
+                .doFinally(signal -> active.decrementAndGet());
+    }
+
+    private static String tokenLine(int index) {
+        return "{\"model\":\"mistral\",\"response\":\"" + WORDS[index % WORDS.length] + "\",\"done\":false}\n";
+    }
+
+    private static String doneLine(int tokens, Duration tokenInterval) {
+        return "{\"model\":\"mistral\",\"response\":\"\",\"done\":true,\"prompt_eval_count\":512,\"eval_count\":" + tokens
+                + ",\"eval_duration\":" + tokenInterval.toNanos() * tokens + "}\n";
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.port();
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    public int peakActive() {
+        return peakActive.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
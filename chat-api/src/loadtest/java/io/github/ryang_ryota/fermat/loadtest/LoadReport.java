@@ -0,0 +1,150 @@
+package io.github.ryang_ryota.fermat.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 負荷試験の計測結果を集計し、表示するクラス。
+ * - 最初のトークンまでの時間・トークン間隔・完了までの時間をHdrHistogram（マイクロ秒）に記録します。
+ * - 試験の前後でGC回数・GC時間・ヒープ使用量・割り当て量の差分を取ります（アプリケーションと負荷クライアントの合計）。
+ */
+public final class LoadReport {
+
+    // 記録できる最大値（1時間、マイクロ秒）
+    private static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final Histogram firstToken = new ConcurrentHistogram(MAX_MICROS, 3);
+    private final Histogram interToken = new ConcurrentHistogram(MAX_MICROS, 3);
+    private final Histogram total = new ConcurrentHistogram(MAX_MICROS, 3);
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+
+    private final Map<String, long[]> gcBefore = new LinkedHashMap<>();
+    private long allocatedBefore;
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * 計測を開始する（GCの累計値を記録し、ヒープのピーク値をリセットする）。
+     */
+    public void start() {
+        System.gc();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcBefore.put(gc.getName(), new long[]{gc.getCollectionCount(), gc.getCollectionTime()});
+        }
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+        allocatedBefore = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * 計測を終了する。
+     */
+    public void stop() {
+        endNanos = System.nanoTime();
+    }
+
+    public void recordFirstToken(long nanos) {
+        firstToken.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+        tokens.increment();
+    }
+
+    public void recordInterToken(long nanos) {
+        interToken.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+        tokens.increment();
+    }
+
+    public void recordCompleted(long nanos) {
+        total.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+        completed.increment();
+    }
+
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    public void recordFailed() {
+        failed.increment();
+    }
+
+    /**
+     * 集計結果を出力する。
+     * @param out        出力先
+     * @param clients    同時接続クライアント数
+     * @param fakeOllama Ollamaの代替サーバー
+     */
+    public void print(PrintStream out, int clients, FakeOllama fakeOllama) {
+        double seconds = (endNanos - startNanos) / 1e9;
+        long requests = completed.sum() + rejected.sum() + failed.sum();
+        out.println();
+        out.printf("clients=%d requests=%d completed=%d rejected(503)=%d failed=%d wall=%.1fs%n",
+                clients, requests, completed.sum(), rejected.sum(), failed.sum(), seconds);
+        out.printf("throughput: %.1f req/s, %.1f tokens/s (Ollama peak concurrent generations=%d)%n",
+                completed.sum() / seconds, tokens.sum() / seconds, fakeOllama.peakActive());
+        out.println();
+        out.printf("%-14s %10s %10s %10s %10s %10s%n", "(ms)", "p50", "p95", "p99", "max", "count");
+        printRow(out, "first token", firstToken);
+        printRow(out, "inter-token", interToken);
+        printRow(out, "total", total);
+        out.println();
+
+        long heapUsed = 0;
+        long heapPeak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            heapUsed += pool.getUsage().getUsed();
+            heapPeak += pool.getPeakUsage().getUsed();
+        }
+        long heapMax = Runtime.getRuntime().maxMemory();
+        out.printf("heap: used=%dMB peak=%dMB max=%dMB%n", heapUsed >> 20, heapPeak >> 20, heapMax >> 20);
+        long allocated = allocatedBytes() - allocatedBefore;
+        if (allocatedBefore >= 0 && requests > 0) {
+            out.printf("allocated: %dMB (%.1f MB/s, %.1f KB/request)%n",
+                    allocated >> 20, allocated / seconds / (1 << 20), allocated / 1024.0 / requests);
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long[] before = gcBefore.getOrDefault(gc.getName(), new long[2]);
+            out.printf("gc[%s]: count=%d time=%dms%n",
+                    gc.getName(), gc.getCollectionCount() - before[0], gc.getCollectionTime() - before[1]);
+        }
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram histogram) {
+        out.printf("%-14s %10.1f %10.1f %10.1f %10.1f %10d%n", name,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(95) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getMaxValue() / 1000.0,
+                histogram.getTotalCount());
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+
+    /**
+     * 全スレッドの割り当て量の累計（取得できない場合は-1）。
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.ryang_ryota.fermat.loadtest;
+
+import io.github.ryang_ryota.fermat.FermatApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * /chat/stream の負荷試験ハーネス。
+ * - ChromaDBとOllamaをプロセス内の代替サーバー（FakeChroma, FakeOllama）で置き換え、ネットワークなしで実行できます。
+ * - アプリケーションを同じプロセスで起動し、多数のSSEクライアントから同時にリクエストを送ります。
+ * - 最初のトークンまでの時間・トークン間隔・完了までの時間の分位点、スループット、ヒープ・GCの統計を出力します。
+ *
+ * 引数は --key=value 形式で指定します。loadtest.* は本ハーネスの設定、それ以外はアプリケーションの設定として渡されます。
+ * 実行例: ./mvnw -Ploadtest test-compile exec:exec -Dloadtest.args="--loadtest.clients=1000 --fermat.generation.max-concurrent=64"
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int clients = intOption(options, "loadtest.clients", 200);
+        int requestsPerClient = intOption(options, "loadtest.requests-per-client", 1);
+        Duration rampUp = Duration.ofMillis(intOption(options, "loadtest.ramp-up-ms", 2000));
+        int tokens = intOption(options, "loadtest.tokens", 100);
+        Duration firstTokenLatency = Duration.ofMillis(intOption(options, "loadtest.first-token-ms", 200));
+        Duration tokenInterval = Duration.ofMillis(intOption(options, "loadtest.token-interval-ms", 20));
+        Duration chromaLatency = Duration.ofMillis(intOption(options, "loadtest.chroma-latency-ms", 5));
+        // false にすると全クライアントが同じ質問を送る（検索・生成の合流が効く）
+        boolean distinctQueries = Boolean.parseBoolean(options.getOrDefault("loadtest.distinct-queries", "true"));
+        String framing = options.getOrDefault("loadtest.framing", "token");
+
+        try (FakeChroma fakeChroma = new FakeChroma(3, chromaLatency);
+             FakeOllama fakeOllama = new FakeOllama(tokens, firstTokenLatency, tokenInterval);
+             ConfigurableApplicationContext app = startApplication(options, fakeChroma, fakeOllama, clients)) {
+            int port = Integer.parseInt(app.getEnvironment().getRequiredProperty("local.server.port"));
+            ConnectionProvider provider = ConnectionProvider.builder("loadtest")
+                    .maxConnections(clients)
+                    .pendingAcquireMaxCount(-1)
+                    .build();
+            WebClient client = WebClient.builder()
+                    .baseUrl("http://localhost:" + port)
+                    .clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider)))
+                    .build();
+
+            System.out.printf("warming up (chat-api on port %d)...%n", port);
+            streamOnce(client, "warmup", framing, new LoadReport()).block(Duration.ofMinutes(1));
+
+            System.out.printf("running: clients=%d requests/client=%d tokens=%d first-token=%dms interval=%dms%n",
+                    clients, requestsPerClient, tokens, firstTokenLatency.toMillis(), tokenInterval.toMillis());
+            LoadReport report = new LoadReport();
+            report.start();
+            Flux.range(0, clients)
+                    .flatMap(i -> Mono.delay(rampUp.multipliedBy(i).dividedBy(clients))
+                                    .thenMany(Flux.range(0, requestsPerClient)
+                                            .concatMap(n -> streamOnce(client,
+                                                    distinctQueries ? "フェルマーの最終定理について " + i + "-" + n : "フェルマーの最終定理について",
+                                                    framing, report))),
+                            clients)
+                    .blockLast();
+            report.stop();
+            report.print(System.out, clients, fakeOllama);
+            provider.disposeLater().block();
+        }
+    }
+
+    /**
+     * 代替サーバーに接続するよう設定してアプリケーションを起動する。
+     * ここでの設定は application.properties より優先され、引数で同じキーを指定すると引数が優先される。
+     */
+    private static ConfigurableApplicationContext startApplication(Map<String, String> options, FakeChroma fakeChroma,
+                                                                   FakeOllama fakeOllama, int clients) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("chroma.host", "localhost");
+        properties.put("chroma.port", String.valueOf(fakeChroma.port()));
+        properties.put("spring.ai.ollama.base-url", fakeOllama.baseUrl());
+        properties.put("fermat.ollama.backends", fakeOllama.baseUrl());
+        // Spring AI の Chroma ベクトルストアは起動時にChromaDBへ接続するため使用しない
+        properties.put("spring.autoconfigure.exclude",
+                "org.springframework.ai.vectorstore.chroma.autoconfigure.ChromaVectorStoreAutoConfiguration");
+        // 毎回生成させるため回答キャッシュは使わない。生成の同時実行数と待ち行列はクライアント数に合わせる
+        properties.put("fermat.answer-cache.enabled", "false");
+        properties.put("fermat.ollama.keep-warm.enabled", "false");
+        properties.put("fermat.generation.max-concurrent", String.valueOf(clients));
+        properties.put("fermat.generation.queue-capacity", String.valueOf(clients));
+        properties.put("fermat.generation.max-wait-ms", "600000");
+        properties.put("fermat.ollama.pool.max-connections", String.valueOf(clients));
+        properties.put("spring.mvc.async.request-timeout", "10m");
+        properties.put("logging.level.root", "WARN");
+        properties.putAll(options);
+        // devtools の再起動が有効だと main が別のクラスローダーで再実行され、代替サーバーと計測が二重になる
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        String[] args = properties.entrySet().stream()
+                .filter(entry -> !entry.getKey().startsWith("loadtest."))
+                .map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(FermatApplication.class).run(args);
+    }
+
+    /**
+     * 1回のSSEリクエストを送り、トークンの到着時刻を記録する。
+     */
+    private static Mono<Void> streamOnce(WebClient client, String query, String framing, LoadReport report) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            long[] last = {0};
+            boolean[] rejected = {false};
+            return client.get()
+                    .uri(builder -> builder.path("/chat/stream")
+                            .queryParam("query", query)
+                            .queryParam("framing", framing)
+                            .build())
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .retrieve()
+                    .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                    })
+                    .doOnNext(event -> {
+                        long now = System.nanoTime();
+                        if ("error".equals(event.event())) {
+                            // 応答の開始後に待ち行列から拒否された
+                            rejected[0] = true;
+                            return;
+                        }
+                        if ("done".equals(event.event()) || event.data() == null) {
+                            // 回答の終わりの通知・切断検知用のコメント（トークンではない）
+                            return;
+                        }
+                        if (last[0] == 0) {
+                            report.recordFirstToken(now - start);
+                        } else {
+                            report.recordInterToken(now - last[0]);
+                        }
+                        last[0] = now;
+                    })
+                    .then(Mono.fromRunnable(() -> {
+                        if (rejected[0]) {
+                            report.recordRejected();
+                        } else {
+                            report.recordCompleted(System.nanoTime() - start);
+                        }
+                    }))
+                    .onErrorResume(WebClientResponseException.ServiceUnavailable.class, e -> {
+                        report.recordRejected();
+                        return Mono.empty();
+                    })
+                    .onErrorResume(e -> {
+                        report.recordFailed();
+                        return Mono.empty();
+                    })
+                    .then();
+        });
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -1,13 +1,23 @@
 package io.github.ryang_ryota.fermat;
 
+import io.github.ryang_ryota.fermat.config.IngestionRunnerConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FermatApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(FermatApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(FermatApplication.class, args);
+		// 一括登録の実行後は、その結果を終了コードにして終了する
+		IngestionRunnerConfig.IngestionRunner ingestionRunner =
+				context.getBeanProvider(IngestionRunnerConfig.IngestionRunner.class).getIfAvailable();
+		if (ingestionRunner != null && ingestionRunner.exitOnComplete()) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
@@ -0,0 +1,279 @@
+package io.github.ryang_ryota.fermat.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * このクラスは、Ollama のストリーミング応答（NDJSON）を受信バッファから直接デコードするデコーダーです。
+ * - Jackson のノンブロッキングパーサーに DataBuffer の中身をそのまま渡し、行ごとの String や JsonNode ツリーを生成しません。
+ * - 必要なフィールド（response, done, eval_count, eval_duration, prompt_eval_count, context）だけを取り出し、OllamaToken として返します。
+ * - 不正な行はその行の改行までを読み飛ばし、次の行から解析を再開します。
+ */
+public class OllamaNdjsonDecoder {
+
+    // パーサー生成用のファクトリ（スレッドセーフ）
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * DataBuffer のストリームを OllamaToken のストリームに変換する。
+     * 受け取った DataBuffer は解析後に解放される。
+     *
+     * @param body Ollama の応答ボディ
+     * @return 1行（1 JSONオブジェクト）ごとのトークン
+     */
+    public Flux<OllamaToken> decode(Flux<DataBuffer> body) {
+        return Flux.using(TokenParser::new,
+                parser -> body.concatMapIterable(parser::feed)
+                        .concatWith(Flux.defer(() -> Flux.fromIterable(parser.finish()))),
+                TokenParser::close);
+    }
+
+    /**
+     * 1ストリーム分の解析状態を保持するパーサー。
+     * スレッドセーフではないため、1つの応答ボディに対して1インスタンスを使用する。
+     */
+    public static final class TokenParser implements AutoCloseable {
+
+        private JsonParser parser;
+
+        // 現在のネストの深さ（トップレベルのオブジェクト内が1）
+        private int depth;
+
+        // 直近に読んだトップレベルのフィールド名
+        private String field;
+
+        // 解析中のオブジェクトの値
+        private String response;
+        private boolean done;
+        private long evalCount;
+        private long evalDuration;
+        private long promptEvalCount;
+        private String error;
+
+        // 会話のトークン列（context 配列）。contextLength が負の場合は含まれていない
+        private int[] context = new int[0];
+        private int contextLength = -1;
+
+        // context 配列の要素を読んでいる最中かどうか
+        private boolean readingContext;
+
+        // 不正な行を読み飛ばしている最中かどうか
+        private boolean skippingLine;
+
+        // これまでパーサーに渡したバイト数（エラー位置の算出に使用）
+        private long bytesFed;
+
+        public TokenParser() {
+            this.parser = newParser();
+        }
+
+        /**
+         * DataBuffer を解析し、完成したトークンを返す。バッファは解放される。
+         * @param buffer 受信したバッファ
+         * @return このバッファで完成したトークン（通常は0〜1件）
+         */
+        public List<OllamaToken> feed(DataBuffer buffer) {
+            List<OllamaToken> tokens = new ArrayList<>(1);
+            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                while (iterator.hasNext()) {
+                    feed(iterator.next(), tokens::add);
+                }
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+            return tokens;
+        }
+
+        /**
+         * ByteBuffer を解析し、完成したトークンを consumer に渡す。
+         * @param buffer   受信したバイト列
+         * @param consumer 完成したトークンの受け取り先
+         */
+        public void feed(ByteBuffer buffer, Consumer<OllamaToken> consumer) {
+            ByteBuffer input = buffer;
+            while (input.hasRemaining()) {
+                if (skippingLine) {
+                    input = skipLine(input, input.position());
+                    continue;
+                }
+                int start = input.position();
+                long fedBefore = bytesFed;
+                bytesFed += input.remaining();
+                try {
+                    ((ByteBufferFeeder) parser.getNonBlockingInputFeeder()).feedInput(input);
+                    drain(consumer);
+                    return;
+                } catch (IOException e) {
+                    // 不正な行: パーサーを作り直し、エラー位置から次の改行までを読み飛ばす
+                    long consumed = parser.currentLocation().getByteOffset() - fedBefore;
+                    int errorPosition = start + (int) Math.max(0, Math.min(consumed, buffer.limit() - start));
+                    reset();
+                    skippingLine = true;
+                    input = buffer.duplicate().position(Math.min(errorPosition, buffer.limit()));
+                }
+            }
+        }
+
+        /**
+         * 入力の終端を通知し、未完了の行があれば破棄する。
+         * @return 終端処理で完成したトークン（通常は空）
+         */
+        public List<OllamaToken> finish() {
+            List<OllamaToken> tokens = new ArrayList<>(1);
+            parser.getNonBlockingInputFeeder().endOfInput();
+            try {
+                drain(tokens::add);
+            } catch (IOException e) {
+                // 末尾の不完全な行は無視する
+            }
+            return tokens;
+        }
+
+        @Override
+        public void close() {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * パーサーから取り出せるトークンを全て処理する。
+         */
+        private void drain(Consumer<OllamaToken> consumer) throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                switch (token) {
+                    case START_OBJECT -> {
+                        if (++depth == 1) {
+                            clearValues();
+                        }
+                    }
+                    case END_OBJECT -> {
+                        if (depth-- == 1) {
+                            consumer.accept(complete());
+                        }
+                    }
+                    case START_ARRAY -> {
+                        if (depth++ == 1 && "context".equals(field)) {
+                            readingContext = true;
+                            contextLength = 0;
+                        }
+                    }
+                    case END_ARRAY -> {
+                        if (--depth == 1) {
+                            readingContext = false;
+                        }
+                    }
+                    case FIELD_NAME -> {
+                        if (depth == 1) {
+                            field = parser.currentName();
+                        }
+                    }
+                    default -> {
+                        if (depth == 1) {
+                            readValue(token);
+                        } else if (readingContext && depth == 2 && token == JsonToken.VALUE_NUMBER_INT) {
+                            appendContext(parser.getIntValue());
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * トップレベルのフィールド値のうち、必要なものだけを取り出す。
+         */
+        private void readValue(JsonToken token) throws IOException {
+            if (field == null) {
+                return;
+            }
+            switch (field) {
+                case "response" -> response = parser.getText();
+                case "done" -> done = token == JsonToken.VALUE_TRUE;
+                case "eval_count" -> evalCount = parser.getValueAsLong();
+                case "eval_duration" -> evalDuration = parser.getValueAsLong();
+                case "prompt_eval_count" -> promptEvalCount = parser.getValueAsLong();
+                case "error" -> error = parser.getText();
+                default -> {
+                    // 使用しないフィールドは読み飛ばす
+                }
+            }
+        }
+
+        private OllamaToken complete() {
+            if (error != null) {
+                throw new OllamaStreamException(error);
+            }
+            return new OllamaToken(response == null ? "" : response, done, evalCount, evalDuration, promptEvalCount,
+                    contextLength < 0 ? null : Arrays.copyOf(context, contextLength));
+        }
+
+        private void appendContext(int value) {
+            if (contextLength == context.length) {
+                context = Arrays.copyOf(context, Math.max(256, context.length * 2));
+            }
+            context[contextLength++] = value;
+        }
+
+        private void clearValues() {
+            field = null;
+            response = null;
+            done = false;
+            evalCount = 0;
+            evalDuration = 0;
+            promptEvalCount = 0;
+            error = null;
+            contextLength = -1;
+            readingContext = false;
+        }
+
+        /**
+         * 次の改行までを読み飛ばし、改行の次の位置から始まるバッファを返す。
+         */
+        private ByteBuffer skipLine(ByteBuffer buffer, int from) {
+            for (int i = from; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    skippingLine = false;
+                    return buffer.duplicate().position(i + 1);
+                }
+            }
+            return buffer.duplicate().position(buffer.limit());
+        }
+
+        private void reset() {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // 破棄するパーサーのため無視する
+            }
+            parser = newParser();
+            depth = 0;
+            bytesFed = 0;
+            clearValues();
+        }
+
+        private static JsonParser newParser() {
+            try {
+                return JSON_FACTORY.createNonBlockingByteBufferParser();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.ryang_ryota.fermat.codec;
+
+/**
+ * Ollama がストリーミング応答の途中で error フィールドを返した場合にスローされる例外。
+ */
+public class OllamaStreamException extends RuntimeException {
+
+    /**
+     * @param message Ollama が返したエラーメッセージ
+     */
+    public OllamaStreamException(String message) {
+        super("Ollamaエラー: " + message);
+    }
+}
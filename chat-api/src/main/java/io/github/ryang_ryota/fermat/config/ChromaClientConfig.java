@@ -0,0 +1,56 @@
+package io.github.ryang_ryota.fermat.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * このクラスは、ChromaDBとの通信に使用するWebClientを定義する設定クラスです。
+ * - 接続プールを明示的に設定し、リクエストごとのコネクション確立を避けます。
+ * - 接続・応答のタイムアウトを設定し、ChromaDBが遅延してもイベントループを占有しないようにします。
+ */
+@Configuration
+public class ChromaClientConfig {
+
+    /**
+     * ChromaDB専用の接続プール付きWebClientを生成する。
+     *
+     * @param host                ChromaDBのホスト名
+     * @param port                ChromaDBのポート番号
+     * @param maxConnections      プールの最大接続数
+     * @param pendingAcquireMax   接続取得待ちの最大件数
+     * @param maxIdleMillis       アイドル接続を破棄するまでの時間（ミリ秒）
+     * @param connectTimeoutMillis 接続タイムアウト（ミリ秒）
+     * @param responseTimeoutMillis 応答タイムアウト（ミリ秒）
+     * @return ChromaDB用WebClient
+     */
+    @Bean
+    public WebClient chromaWebClient(@Value("${chroma.host}") String host,
+                                     @Value("${chroma.port}") int port,
+                                     @Value("${fermat.chroma.pool.max-connections:50}") int maxConnections,
+                                     @Value("${fermat.chroma.pool.pending-acquire-max-count:500}") int pendingAcquireMax,
+                                     @Value("${fermat.chroma.pool.max-idle-ms:30000}") long maxIdleMillis,
+                                     @Value("${fermat.chroma.connect-timeout-ms:2000}") int connectTimeoutMillis,
+                                     @Value("${fermat.chroma.response-timeout-ms:10000}") long responseTimeoutMillis) {
+        ConnectionProvider provider = ConnectionProvider.builder("chroma")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .maxIdleTime(Duration.ofMillis(maxIdleMillis))
+                .evictInBackground(Duration.ofMillis(maxIdleMillis))
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMillis));
+        return WebClient.builder()
+                .baseUrl(String.format("http://%s:%d", host, port))
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.ryang_ryota.fermat.config;
+
+import io.github.ryang_ryota.fermat.model.ConnectionPoolStats;
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reactor Netty の接続プールから通知されるメトリクスを保持し、統計情報として参照できるようにするクラス。
+ * - 接続先（プール名＋アドレス）ごとに、使用中・アイドル・取得待ちの接続数を参照できます。
+ * - ConnectionProvider の metrics(true, () -> registry) に渡して使用します。
+ */
+public class ConnectionPoolMetricsRegistry implements ConnectionProvider.MeterRegistrar {
+
+    // 接続先ごとのメトリクス（キー: プールID）
+    private final Map<String, Registration> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress,
+                                ConnectionPoolMetrics metrics) {
+        pools.put(id, new Registration(poolName, String.valueOf(remoteAddress), metrics));
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress) {
+        pools.remove(id);
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 接続先ごとの接続数のスナップショット
+     */
+    public List<ConnectionPoolStats> stats() {
+        List<ConnectionPoolStats> stats = new ArrayList<>(pools.size());
+        for (Registration registration : pools.values()) {
+            ConnectionPoolMetrics metrics = registration.metrics();
+            stats.add(new ConnectionPoolStats(registration.poolName(), registration.remoteAddress(),
+                    metrics.acquiredSize(), metrics.idleSize(), metrics.allocatedSize(),
+                    metrics.pendingAcquireSize(), metrics.maxAllocatedSize(), metrics.maxPendingAcquireSize()));
+        }
+        return stats;
+    }
+
+    private record Registration(String poolName, String remoteAddress, ConnectionPoolMetrics metrics) {
+    }
+}
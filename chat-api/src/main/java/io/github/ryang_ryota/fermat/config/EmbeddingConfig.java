@@ -0,0 +1,24 @@
+package io.github.ryang_ryota.fermat.config;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * このクラスは、クエリの埋め込み（ベクトル化）に使用するモデルを定義する設定クラスです。
+ * - ONNXモデルとトークナイザーの読み込みはコストが高いため、アプリケーション全体で1インスタンスのみ生成します。
+ */
+@Configuration
+public class EmbeddingConfig {
+
+    /**
+     * all-MiniLM-L6-v2 埋め込みモデルを生成する。
+     *
+     * @return アプリケーション全体で共有する埋め込みモデル
+     */
+    @Bean
+    public EmbeddingModel queryEmbeddingModel() {
+        return new AllMiniLmL6V2EmbeddingModel();
+    }
+}
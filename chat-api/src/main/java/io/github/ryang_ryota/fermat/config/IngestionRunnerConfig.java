@@ -0,0 +1,100 @@
+package io.github.ryang_ryota.fermat.config;
+
+import io.github.ryang_ryota.fermat.service.IngestionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * このクラスは、起動時にOpenAlexのJSONLファイルをChromaDBへ一括登録するための設定クラスです。
+ * - fermat.ingest.enabled=true の場合のみ有効になり、fermat.ingest.input のファイル（またはディレクトリ）を登録します。
+ * - 完了後はアプリケーションを終了します（失敗した場合は終了コード1）。終了コードは {@link IngestionRunner} が
+ *   ExitCodeGenerator として返し、SpringApplication.exit で取り出します。
+ * 実行例: ./mvnw spring-boot:run -Dspring-boot.run.arguments="--spring.main.web-application-type=none
+ *         --fermat.ingest.enabled=true --fermat.ingest.input=/data"
+ */
+@Slf4j
+@Configuration
+public class IngestionRunnerConfig {
+
+    /**
+     * 一括登録を実行するApplicationRunnerを生成する。
+     *
+     * @param ingestionService 一括登録サービス
+     * @param inputs           入力ファイルまたはディレクトリ（カンマ区切り）
+     * @param exitOnComplete   完了後にアプリケーションを終了するか
+     * @return 一括登録を実行するApplicationRunner
+     */
+    @Bean
+    @ConditionalOnProperty(name = "fermat.ingest.enabled", havingValue = "true")
+    public IngestionRunner ingestionRunner(IngestionService ingestionService,
+                                           @Value("${fermat.ingest.input:}") String[] inputs,
+                                           @Value("${fermat.ingest.exit-on-complete:true}") boolean exitOnComplete) {
+        return new IngestionRunner(ingestionService, inputs, exitOnComplete);
+    }
+
+    /**
+     * 一括登録を実行し、その結果を終了コードとして返すApplicationRunner。
+     * アプリケーションの終了は起動側（FermatApplication）が SpringApplication.exit で行う。
+     */
+    public static class IngestionRunner implements ApplicationRunner, ExitCodeGenerator {
+
+        private final IngestionService ingestionService;
+
+        private final String[] inputs;
+
+        private final boolean exitOnComplete;
+
+        // 一括登録の結果（成功: 0、失敗: 1）
+        private volatile int exitCode;
+
+        IngestionRunner(IngestionService ingestionService, String[] inputs, boolean exitOnComplete) {
+            this.ingestionService = ingestionService;
+            this.inputs = inputs;
+            this.exitOnComplete = exitOnComplete;
+        }
+
+        @Override
+        public void run(ApplicationArguments args) {
+            try {
+                List<Path> paths = Arrays.stream(inputs)
+                        .map(String::trim)
+                        .filter(input -> !input.isEmpty())
+                        .map(Path::of)
+                        .toList();
+                List<Path> files = IngestionService.listInputs(paths);
+                if (files.isEmpty()) {
+                    throw new IllegalArgumentException("fermat.ingest.input に入力ファイルがありません");
+                }
+                ingestionService.ingest(files);
+                exitCode = 0;
+            } catch (Exception e) {
+                log.error("一括登録に失敗しました: {}", e.getMessage(), e);
+                exitCode = 1;
+            }
+        }
+
+        @Override
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * 完了後にアプリケーションを終了するかを返す。
+         *
+         * @return 終了する場合は true
+         */
+        public boolean exitOnComplete() {
+            return exitOnComplete;
+        }
+    }
+}
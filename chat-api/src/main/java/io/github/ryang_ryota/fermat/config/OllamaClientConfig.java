@@ -0,0 +1,65 @@
+package io.github.ryang_ryota.fermat.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * このクラスは、Ollamaとの通信に使用するWebClientを定義する設定クラスです。
+ * - 接続プールを明示的に設定し、生成リクエストごとのコネクション確立を避けます（プールはノードごとに分かれます）。
+ * - 複数ノードに振り分けるため、ベースURLは設定せず、リクエストごとに送信先のURLを指定します。
+ * - 接続・応答のタイムアウトを設定します（応答タイムアウトはトークン間の無通信時間に適用されます）。
+ * - 接続プールのメトリクスを ConnectionPoolMetricsRegistry に登録し、/stats から参照できるようにします。
+ */
+@Configuration
+public class OllamaClientConfig {
+
+    /**
+     * 接続プールのメトリクスを保持するレジストリを生成する。
+     * @return 接続プールのメトリクスのレジストリ
+     */
+    @Bean
+    public ConnectionPoolMetricsRegistry connectionPoolMetricsRegistry() {
+        return new ConnectionPoolMetricsRegistry();
+    }
+
+    /**
+     * Ollama専用の接続プール付きWebClientを生成する。
+     *
+     * @param maxConnections        ノードあたりのプールの最大接続数
+     * @param pendingAcquireMax     接続取得待ちの最大件数
+     * @param maxIdleMillis         アイドル接続を破棄するまでの時間（ミリ秒）
+     * @param connectTimeoutMillis  接続タイムアウト（ミリ秒）
+     * @param responseTimeoutMillis 応答タイムアウト（ミリ秒、モデルの読み込み時間を考慮して長めに設定する）
+     * @param metricsRegistry       接続プールのメトリクスのレジストリ
+     * @return Ollama用WebClient
+     */
+    @Bean
+    public WebClient ollamaWebClient(@Value("${fermat.ollama.pool.max-connections:32}") int maxConnections,
+                                     @Value("${fermat.ollama.pool.pending-acquire-max-count:256}") int pendingAcquireMax,
+                                     @Value("${fermat.ollama.pool.max-idle-ms:60000}") long maxIdleMillis,
+                                     @Value("${fermat.ollama.connect-timeout-ms:2000}") int connectTimeoutMillis,
+                                     @Value("${fermat.ollama.response-timeout-ms:120000}") long responseTimeoutMillis,
+                                     ConnectionPoolMetricsRegistry metricsRegistry) {
+        ConnectionProvider provider = ConnectionProvider.builder("ollama")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMax)
+                .maxIdleTime(Duration.ofMillis(maxIdleMillis))
+                .evictInBackground(Duration.ofMillis(maxIdleMillis))
+                .metrics(true, () -> metricsRegistry)
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMillis));
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
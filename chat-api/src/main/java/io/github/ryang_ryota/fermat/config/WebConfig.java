@@ -22,10 +22,12 @@ public class WebConfig implements WebMvcConfigurer {
         registry.addMapping("/**")
                 // フロントエンド（Viteのデフォルトポート）からのアクセスのみ許可
                 .allowedOrigins("http://localhost:5173")
-                // 許可するHTTPメソッドを指定（GET, POST）
-                .allowedMethods("GET", "POST")
+                // 許可するHTTPメソッドを指定（GET, POST, DELETE。DELETE は会話セッションの削除に使う）
+                .allowedMethods("GET", "POST", "DELETE")
                 // すべてのヘッダーを許可
                 .allowedHeaders("*")
+                // 混雑時の 503 で返す再試行までの時間をフロントエンドから参照できるようにする
+                .exposedHeaders("Retry-After")
                 // Cookieなどの認証情報を許可
                 .allowCredentials(true);
     }
@@ -0,0 +1,33 @@
+package io.github.ryang_ryota.fermat.config;
+
+import io.github.ryang_ryota.fermat.controller.ChatWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * このクラスは、WebSocketのエンドポイントを登録するための設定クラスです。
+ * - /chat/ws: 1つの接続で複数のチャットのストリーミング応答を配信する（ChatWebSocketHandler）
+ * - CORS設定（WebConfig）と同じく、フロントエンド（ポート5173）からの接続のみ許可します。
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    // 多重化したチャットのストリーミング応答を配信するハンドラー
+    private final ChatWebSocketHandler chatWebSocketHandler;
+
+    /**
+     * WebSocketのハンドラーを登録するメソッド。
+     *
+     * @param registry ハンドラーの登録先
+     */
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(chatWebSocketHandler, "/chat/ws")
+                .setAllowedOrigins("http://localhost:5173");
+    }
+}
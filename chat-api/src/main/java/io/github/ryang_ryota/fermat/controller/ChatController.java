@@ -1,43 +1,279 @@
 package io.github.ryang_ryota.fermat.controller;
 
+import io.github.ryang_ryota.fermat.model.ChatBatchRequest;
+import io.github.ryang_ryota.fermat.model.ChatBatchResult;
+import io.github.ryang_ryota.fermat.model.ChatRequest;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
 import io.github.ryang_ryota.fermat.service.ChatService;
+import io.github.ryang_ryota.fermat.service.DeadlineExceededException;
+import io.github.ryang_ryota.fermat.service.GenerationRejectedException;
+import io.github.ryang_ryota.fermat.service.GenerationScheduler;
+import io.github.ryang_ryota.fermat.service.PipelineMetrics;
+import io.github.ryang_ryota.fermat.service.RequestDeadline;
+import io.github.ryang_ryota.fermat.service.ResumableStreamStore;
+import io.github.ryang_ryota.fermat.util.TokenCoalescer;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
 
 /**
  * このクラスは、チャット用のAPIエンドポイントを提供するコントローラーです。
  * - フロントエンドからのリクエストを受け取り、AIによる回答をストリーミング（SSE）で返します。
  * - Spring WebFluxのFluxとServerSentEventを利用し、リアルタイムに応答を送信します。
+ * - framing=coalesced を指定すると、最初のトークン以降を時間枠・バイト数ごとにまとめて1イベントで送信します。
+ * - sessionId を指定すると会話として扱い、続けて質問した場合は前回までの会話を踏まえて回答します（DELETE /chat/sessions/{id} で終了）。
+ * - contextTokens / contextDocuments / mmrLambda を指定すると、プロンプトに含めるコンテキストの選択をリクエストごとに変更できます。
+ * - 生成の待ち行列が満杯の場合は 503 と Retry-After を返し、queueEvents=true の場合は待ち順位を queue イベントで送信します。
+ * - 回答のイベントにはIDを付け、切断後に Last-Event-ID を付けて再接続すると、生成し直さずに続きから配信します
+ *   （生成が残っていない場合は生成し直し、イベントIDの生成IDが変わります）。回答の終わりには done イベントを送ります。
+ * - リクエストごとに期限（RequestDeadline）を設定し、埋め込み・検索・待ち行列・生成をその期限までに打ち切ります（error イベントで通知）。
+ * - 一定間隔でコメント行を送り、トークンを送っていない間（待ち行列・検索中）でもクライアントの切断を検知して生成をキャンセルします。
+ * - POST /chat/batch で複数の質問をまとめて受け付け、回答が完了した順に1行1件のNDJSONで返します。
  */
 @RestController
 @RequestMapping("/chat")
 @RequiredArgsConstructor
 public class ChatController {
 
+    // クライアントIDを指定しない場合のID（全員が同じ待ち行列に並ぶ）
+    private static final String ANONYMOUS_CLIENT = "anonymous";
+
+    // 一括処理の生成が並ぶ待ち行列のID（対話的な利用者の待ち行列と交互に処理される）
+    private static final String BATCH_CLIENT = "batch";
+
     // チャット処理を担当するサービスクラス
     private final ChatService chatService;
 
+    // 生成スケジューラ（待ち行列が満杯であれば応答を開始する前に拒否する）
+    private final GenerationScheduler generationScheduler;
+
+    // パイプラインのメトリクス（配信中のSSEストリーム数）
+    private final PipelineMetrics pipelineMetrics;
+
+    // 再開用に回答のイベントを保持するストア
+    private final ResumableStreamStore resumableStreamStore;
+
+    // framing を指定しない場合の送信方式（token: 1トークン1イベント / coalesced: まとめて送信）
+    @Value("${fermat.sse.framing:token}")
+    private String defaultFraming = "token";
+
+    // coalesced の場合にトークンをまとめる時間枠（ミリ秒）
+    @Value("${fermat.sse.coalesce.window-ms:30}")
+    private long coalesceWindowMs = 30;
+
+    // coalesced の場合に1イベントにまとめる量の上限（UTF-8のバイト数）
+    @Value("${fermat.sse.coalesce.max-bytes:512}")
+    private int coalesceMaxBytes = 512;
+
+    // リクエスト全体の期限（受付から、埋め込み・検索・待ち行列・生成を終えるまで）
+    @Value("${fermat.request.deadline:120s}")
+    private Duration requestDeadline = Duration.ofSeconds(120);
+
+    // 切断検知用のコメント行を送る間隔（ミリ秒、0以下で送らない）
+    @Value("${fermat.sse.heartbeat-interval-ms:5000}")
+    private long heartbeatIntervalMs = 5000;
+
+    // 一括処理で1回のリクエストに含められる質問数の上限
+    @Value("${fermat.batch.max-questions:1000}")
+    private int batchMaxQuestions = 1000;
+
+    // 一括処理で parallelism を指定しない場合の同時生成数
+    @Value("${fermat.batch.parallelism:2}")
+    private int batchParallelism = 2;
+
+    // 一括処理で指定できる同時生成数の上限
+    @Value("${fermat.batch.max-parallelism:4}")
+    private int batchMaxParallelism = 4;
+
     /**
      * AIチャットのストリーミング応答を返すエンドポイント。
      * フロントエンドからGETリクエストで呼び出されます。
      *
-     * @param query ユーザーからの質問内容（クエリパラメータで受け取る）
+     * @param query       ユーザーからの質問内容（クエリパラメータで受け取る）
+     * @param framing     送信方式（token / coalesced、省略時は設定値）
+     * @param queueEvents 生成の待ち順位を queue イベントで送信するか
+     * @param contextOptions コンテキストの選択の設定（contextTokens / contextDocuments / mmrLambda、省略時は設定値）
+     * @param sessionId   会話セッションID（省略時は単発の質問として扱う）
+     * @param clientId    クライアントID（X-Client-Id ヘッダー。生成の待ち行列をクライアント間で公平に処理するために使用）
+     * @param lastEventId 最後に受け取ったイベントのID（Last-Event-ID ヘッダー。再接続時に EventSource が送る）
      * @return AIの回答を逐次送信するServerSentEvent（SSE）ストリーム
      * <p>
      * - produces = MediaType.TEXT_EVENT_STREAM_VALUE により、SSE形式でレスポンスを返す
      * - Flux<String>でAIからの回答トークンを逐次取得し、SSEイベントとしてクライアントに送信
      */
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ServerSentEvent<String>> chatStream(@RequestParam("query") String query) {
-        return chatService.processChatStream(query)
+    public Flux<ServerSentEvent<String>> chatStream(@RequestParam("query") String query,
+                                                    @RequestParam(value = "framing", required = false) String framing,
+                                                    @RequestParam(value = "queueEvents", defaultValue = "false") boolean queueEvents,
+                                                    ContextOptions contextOptions,
+                                                    @RequestParam(value = "sessionId", required = false) String sessionId,
+                                                    @RequestHeader(value = "X-Client-Id", required = false) String clientId,
+                                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            // 生成中・生成済みの回答が残っていれば、続きから配信する（待ち行列には並ばない）
+            Optional<Flux<ServerSentEvent<String>>> resumed = resumableStreamStore.resume(lastEventId);
+            if (resumed.isPresent()) {
+                return observe(resumed.get());
+            }
+        }
+
+        // 待ち行列が満杯であれば、応答を開始する前に 503 で拒否する（受け付けた場合は生成までの枠を確保する）
+        GenerationScheduler.Reservation reservation = new GenerationScheduler.Reservation();
+        generationScheduler.checkAdmission(reservation);
+
+        long start = System.nanoTime();
+        // 期限は購読時ではなくリクエストの受付時から数える
+        RequestDeadline deadline = RequestDeadline.after(requestDeadline);
+        Flux<String> tokens = chatService.processChatStream(query, contextOptions, sessionId);
+        if ("coalesced".equalsIgnoreCase(framing == null ? defaultFraming : framing)) {
+            // 最初のトークンは即座に、以降は時間枠・バイト数ごとにまとめて送信する
+            tokens = TokenCoalescer.coalesce(tokens, Duration.ofMillis(coalesceWindowMs), coalesceMaxBytes,
+                    Schedulers.parallel());
+        }
+        AtomicBoolean first = new AtomicBoolean();
+        Flux<ServerSentEvent<String>> events = tokens
                 // 各トークンをSSEイベントとしてラップして返す
-                .map(token -> ServerSentEvent.builder(token).build());
+                .map(token -> ServerSentEvent.builder(token).build())
+                // 回答の最初のイベントまでの時間を記録する（待ち順位の queue イベントは含めない）
+                .doOnNext(event -> {
+                    if (first.compareAndSet(false, true)) {
+                        pipelineMetrics.recordFirstEvent(System.nanoTime() - start);
+                    }
+                })
+                // 回答の終わりを done イベントで通知する（切断と区別し、切断時だけ再接続させるため）
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<String>builder("").event("done").build()));
+        // 確保した枠を生成で使う（生成に至らなければ最初のイベントで返却する）
+        events = reservation.bind(events);
+        // 再開用のIDを付け、切断されても再接続を待つ間は生成を続ける
+        events = resumableStreamStore.start(events);
+
+        String client = clientId == null || clientId.isBlank() ? ANONYMOUS_CLIENT : clientId;
+        Flux<ServerSentEvent<String>> stream = queueEvents
+                ? withQueueEvents(events, client)
+                : events.contextWrite(Context.of(GenerationScheduler.CLIENT_ID_KEY, client));
+        return observe(stream.contextWrite(Context.of(RequestDeadline.CONTEXT_KEY, deadline)));
+    }
+
+    /**
+     * 複数の質問をまとめて処理し、回答が完了した順にNDJSON（1行に1件の結果）で返すエンドポイント。
+     * 埋め込みと検索はまとめて行い、生成は parallelism 件ずつ並列に行います。
+     * 生成は一括処理専用の待ち行列に並ぶため、対話的な利用者の待ち時間を一括処理が占有することはありません。
+     * 質問ごとの失敗は error を設定した結果として返し、残りの質問の処理は続けます。
+     *
+     * @param request 質問の一覧と同時生成数
+     * @return 各質問の結果（完了した順。index / id で質問と対応付ける）
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ChatBatchResult> chatBatch(@RequestBody ChatBatchRequest request) {
+        List<ChatRequest> questions = request.getQuestions();
+        if (questions == null || questions.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "questions must not be empty");
+        }
+        if (questions.size() > batchMaxQuestions) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "questions must not exceed " + batchMaxQuestions);
+        }
+        if (questions.stream().anyMatch(q -> q == null || q.getQuery() == null || q.getQuery().isBlank())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "query must not be blank");
+        }
+        int parallelism = request.getParallelism() == null ? batchParallelism : request.getParallelism();
+        parallelism = Math.max(1, Math.min(parallelism, batchMaxParallelism));
+        return chatService.processBatch(questions, ContextOptions.defaults(), parallelism)
+                .contextWrite(Context.of(GenerationScheduler.CLIENT_ID_KEY, BATCH_CLIENT));
+    }
+
+    /**
+     * 配信するストリームにエラーの通知・切断検知用のコメント行・配信中のストリーム数と配信時間の記録を付ける。
+     */
+    private Flux<ServerSentEvent<String>> observe(Flux<ServerSentEvent<String>> stream) {
+        // 応答の開始後に拒否された場合・期限を過ぎた場合は error イベントで通知する
+        Flux<ServerSentEvent<String>> events = stream
+                .onErrorResume(e -> e instanceof GenerationRejectedException || e instanceof DeadlineExceededException,
+                        e -> Flux.just(ServerSentEvent.<String>builder(e.getMessage()).event("error").build()));
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return withHeartbeat(events)
+                    .doOnError(e -> pipelineMetrics.recordError(PipelineMetrics.Stage.STREAM))
+                    .doOnSubscribe(subscription -> pipelineMetrics.streamOpened())
+                    .doFinally(signal -> {
+                        pipelineMetrics.recordStage(PipelineMetrics.Stage.STREAM, System.nanoTime() - start);
+                        pipelineMetrics.streamClosed();
+                    });
+        });
+    }
+
+    /**
+     * 回答のイベントを送っていない間も一定間隔でコメント行を送る。
+     * サーブレットでは書き込みに失敗するまでクライアントの切断を検知できないため、
+     * 待ち行列や検索の間に切断されても、次のコメント行の書き込みで購読をキャンセルし、生成を始めずに済むようにする。
+     */
+    private Flux<ServerSentEvent<String>> withHeartbeat(Flux<ServerSentEvent<String>> events) {
+        if (heartbeatIntervalMs <= 0) {
+            return events;
+        }
+        Duration interval = Duration.ofMillis(heartbeatIntervalMs);
+        return Flux.defer(() -> {
+            Sinks.Empty<Void> finished = Sinks.empty();
+            Flux<ServerSentEvent<String>> heartbeats = Flux.interval(interval, interval)
+                    .map(tick -> ServerSentEvent.<String>builder().comment("keepalive").build())
+                    .takeUntilOther(finished.asMono());
+            return Flux.merge(events.doFinally(signal -> finished.tryEmitEmpty()), heartbeats);
+        });
+    }
+
+    /**
+     * 会話セッションを終了するエンドポイント。保存済みの会話のトークン列を破棄します。
+     *
+     * @param sessionId 会話セッションID
+     */
+    @DeleteMapping("/sessions/{sessionId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void endSession(@PathVariable("sessionId") String sessionId) {
+        chatService.endSession(sessionId);
     }
-}
 
+    /**
+     * 生成の待ち順位を queue イベントとして回答のイベントに合流させる。
+     */
+    private Flux<ServerSentEvent<String>> withQueueEvents(Flux<ServerSentEvent<String>> events, String client) {
+        return Flux.defer(() -> {
+            // 待ち順位はスケジューラのロック内で通知されるため、直列化されている
+            Sinks.Many<Integer> positions = Sinks.many().unicast().onBackpressureBuffer();
+            IntConsumer listener = positions::tryEmitNext;
+            Flux<ServerSentEvent<String>> answer = events
+                    .doFinally(signal -> positions.tryEmitComplete())
+                    .contextWrite(Context.of(GenerationScheduler.CLIENT_ID_KEY, client,
+                            GenerationScheduler.QUEUE_LISTENER_KEY, listener));
+            return Flux.merge(
+                    positions.asFlux()
+                            .distinctUntilChanged()
+                            .map(position -> ServerSentEvent.builder(String.valueOf(position)).event("queue").build()),
+                    answer);
+        });
+    }
+}
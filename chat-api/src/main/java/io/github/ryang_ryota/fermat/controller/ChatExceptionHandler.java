@@ -0,0 +1,30 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import io.github.ryang_ryota.fermat.service.GenerationRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * このクラスは、コントローラーで発生した例外をHTTPレスポンスに変換するクラスです。
+ * - 生成の待ち行列が満杯の場合は 503 Service Unavailable と Retry-After ヘッダーを返します。
+ */
+@RestControllerAdvice
+public class ChatExceptionHandler {
+
+    /**
+     * 生成を受け付けなかった場合のレスポンスを返す。
+     * @param e 生成を受け付けなかったことを表す例外
+     * @return 503 と Retry-After（秒）を含むレスポンス（SSEを要求したクライアントにも返せるようテキストで返す）
+     */
+    @ExceptionHandler(GenerationRejectedException.class)
+    public ResponseEntity<String> handleGenerationRejected(GenerationRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+}
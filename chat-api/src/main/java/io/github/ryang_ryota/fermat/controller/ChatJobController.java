@@ -0,0 +1,81 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import io.github.ryang_ryota.fermat.model.ChatJobRequest;
+import io.github.ryang_ryota.fermat.model.ChatJobStatus;
+import io.github.ryang_ryota.fermat.service.ChatJobService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+
+/**
+ * このクラスは、非同期チャットジョブのAPIエンドポイントを提供するコントローラーです。
+ * - POST /chat/jobs で質問を受け付け、生成を待たずにジョブIDを返します（202 Accepted）。
+ * - GET /chat/jobs/{id} でジョブの状態と、完了していれば回答を返します（再起動後も取得できます）。
+ * - GET /chat/jobs/{id}/stream で生成済みのトークンを返してから、生成中のトークンに合流してSSEで配信します
+ *   （完了すると回答全体を done イベントで、失敗すると理由を error イベントで送ります）。
+ */
+@RestController
+@RequestMapping("/chat/jobs")
+@RequiredArgsConstructor
+public class ChatJobController {
+
+    // 非同期チャットジョブを処理するサービス
+    private final ChatJobService chatJobService;
+
+    /**
+     * 質問をジョブとして受け付けるエンドポイント。
+     *
+     * @param request 質問文と優先度
+     * @return 受け付けたジョブの状態（Location ヘッダーにジョブのURL）
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ChatJobStatus> submit(@RequestBody ChatJobRequest request) {
+        if (request.getQuery() == null || request.getQuery().isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "query must not be blank");
+        }
+        ChatJobStatus status = chatJobService.submit(request.getQuery(),
+                request.getPriority() == null ? 0 : request.getPriority());
+        return ResponseEntity.accepted().location(URI.create("/chat/jobs/" + status.id())).body(status);
+    }
+
+    /**
+     * ジョブの状態を返すエンドポイント。
+     *
+     * @param id ジョブID
+     * @return ジョブの状態（ジョブがない場合は 404）
+     */
+    @GetMapping("/{id}")
+    public ChatJobStatus status(@PathVariable("id") String id) {
+        return chatJobService.status(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "job not found"));
+    }
+
+    /**
+     * ジョブの回答をSSEで配信するエンドポイント。
+     *
+     * @param id ジョブID
+     * @return トークンのイベントと、最後に done（回答全体）または error（失敗した理由）のイベント（ジョブがない場合は 404）
+     */
+    @GetMapping(value = "/{id}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> stream(@PathVariable("id") String id) {
+        return chatJobService.tail(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "job not found"))
+                .map(entry -> switch (entry.type()) {
+                    case COMPLETED -> ServerSentEvent.builder(entry.data()).event("done").build();
+                    case FAILED -> ServerSentEvent.builder(entry.data()).event("error").build();
+                    default -> ServerSentEvent.builder(entry.data()).build();
+                });
+    }
+}
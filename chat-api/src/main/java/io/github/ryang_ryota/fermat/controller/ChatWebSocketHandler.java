@@ -0,0 +1,400 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import io.github.ryang_ryota.fermat.model.ContextOptions;
+import io.github.ryang_ryota.fermat.model.WebSocketStats;
+import io.github.ryang_ryota.fermat.service.ChatService;
+import io.github.ryang_ryota.fermat.service.DeadlineExceededException;
+import io.github.ryang_ryota.fermat.service.GenerationRejectedException;
+import io.github.ryang_ryota.fermat.service.GenerationScheduler;
+import io.github.ryang_ryota.fermat.service.PipelineMetrics;
+import io.github.ryang_ryota.fermat.service.RequestDeadline;
+import io.github.ryang_ryota.fermat.util.TokenCoalescer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * このクラスは、1つのWebSocket接続（/chat/ws）で複数のチャットのストリーミング応答を同時に配信するハンドラーです。
+ * - 質問ごとに接続を開く /chat/stream（SSE）と異なり、接続とハンドシェイクを使い回し、ストリームIDで応答を振り分けます。
+ * - クライアントからのフレーム（JSON）:
+ *   chat（{"op":"chat","id":"1","query":"...","credit":64, ...}）で開始、credit（{"op":"credit","id":"1","n":64}）で
+ *   受信できるフレーム数を追加、cancel（{"op":"cancel","id":"1"}）で中断します。
+ *   chat では /chat/stream と同じ framing / queueEvents / sessionId / contextTokens / contextDocuments / mmrLambda を指定できます。
+ * - サーバーからのフレーム: 「種別:ストリームID:内容」の1行のテキストです（JSONにしないため、トークンごとのフレームが小さい）。
+ *   種別は t（トークン）、q（待ち順位）、d（完了）、e（エラー。内容はメッセージ）です。
+ * - ストリームごとに、クライアントが与えたクレジット（フレーム数）の分だけ上流に要求し、送信するフレーム数を制限します
+ *   （d / e はクレジットを消費しません）。Ollama の応答の読み取りはクレジットどおりには止まらず、生成の合流（SingleFlight の
+ *   replay）が先読みする分（既定で256トークン）まで先行してから止まります。合流した他の購読者がいる場合は、
+ *   最も遅い購読者に合わせて止まります。
+ * - cancel・切断されたストリームは購読を解除し、Ollama への生成リクエストも中断します。
+ * - ストリームごとに /chat/stream と同じ期限（RequestDeadline）を設定し、過ぎた場合は e フレームで通知します。
+ * - 送信はストリーム間で直列化し、送信待ちが上限を超えた接続は閉じます。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatWebSocketHandler extends TextWebSocketHandler {
+
+    // フレームの種別
+    static final char TOKEN = 't';
+    static final char QUEUE = 'q';
+    static final char DONE = 'd';
+    static final char ERROR = 'e';
+
+    // クライアントIDを指定しない場合のID（/chat/stream と同じく、全員が同じ待ち行列に並ぶ）
+    private static final String ANONYMOUS_CLIENT = "anonymous";
+
+    // ストリームIDに使える文字（区切り文字の「:」を含まない）
+    private static final Pattern STREAM_ID = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    // チャット処理を担当するサービスクラス
+    private final ChatService chatService;
+
+    // 生成スケジューラ（待ち行列が満杯であればストリームを開始しない）
+    private final GenerationScheduler generationScheduler;
+
+    // パイプラインのメトリクス（配信中のストリーム数・最初のイベントまでの時間）
+    private final PipelineMetrics pipelineMetrics;
+
+    // framing を指定しない場合の送信方式（token: 1トークン1フレーム / coalesced: まとめて送信）
+    @Value("${fermat.sse.framing:token}")
+    private String defaultFraming = "token";
+
+    // coalesced の場合にトークンをまとめる時間枠（ミリ秒）
+    @Value("${fermat.sse.coalesce.window-ms:30}")
+    private long coalesceWindowMs = 30;
+
+    // coalesced の場合に1フレームにまとめる量の上限（UTF-8のバイト数）
+    @Value("${fermat.sse.coalesce.max-bytes:512}")
+    private int coalesceMaxBytes = 512;
+
+    // 1接続あたりの同時ストリーム数の上限
+    @Value("${fermat.ws.max-streams:16}")
+    private int maxStreams = 16;
+
+    // chat で credit を指定しない場合の初期クレジット（フレーム数）
+    @Value("${fermat.ws.initial-credit:64}")
+    private int initialCredit = 64;
+
+    // 1回の送信にかけられる時間の上限（ミリ秒。超えた接続は閉じる）
+    @Value("${fermat.ws.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis = 10000;
+
+    // 送信待ちのフレームのバイト数の上限（超えた接続は閉じる）
+    @Value("${fermat.ws.send-buffer-bytes:524288}")
+    private int sendBufferBytes = 524288;
+
+    // ストリームごとの期限（chat フレームの受付から、埋め込み・検索・待ち行列・生成を終えるまで）
+    @Value("${fermat.request.deadline:120s}")
+    private Duration requestDeadline = Duration.ofSeconds(120);
+
+    // 接続中のWebSocket接続（WebSocketSessionのID → 接続の状態）
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    // 統計情報
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final AtomicLong streams = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        String clientId = session.getHandshakeHeaders().getFirst("X-Client-Id");
+        WebSocketSession sender = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMillis, sendBufferBytes);
+        connections.put(session.getId(),
+                new Connection(sender, clientId == null || clientId.isBlank() ? ANONYMOUS_CLIENT : clientId));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        JSONObject frame;
+        try {
+            frame = new JSONObject(message.getPayload());
+        } catch (JSONException e) {
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, "", "invalid frame"));
+            return;
+        }
+        String id = frame.optString("id");
+        if (!STREAM_ID.matcher(id).matches()) {
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, "", "invalid stream id"));
+            return;
+        }
+        switch (frame.optString("op")) {
+            case "chat" -> startStream(connection, id, frame);
+            case "credit" -> {
+                StreamSubscriber stream = connection.streams.get(id);
+                long n = frame.optLong("n");
+                if (stream != null && n > 0) {
+                    stream.request(n);
+                }
+            }
+            case "cancel" -> {
+                StreamSubscriber stream = connection.streams.get(id);
+                if (stream != null) {
+                    stream.dispose();
+                }
+            }
+            default -> {
+                rejected.incrementAndGet();
+                connection.send(frame(ERROR, id, "unknown op"));
+            }
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = connections.remove(session.getId());
+        if (connection != null) {
+            // 切断された接続のストリームは購読を解除し、Ollama への生成も中断する
+            connection.streams.values().forEach(StreamSubscriber::dispose);
+        }
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 接続数・ストリーム数・キャンセル数
+     */
+    public WebSocketStats stats() {
+        return new WebSocketStats(connections.size(), activeStreams.get(), streams.get(), cancelled.get(),
+                rejected.get());
+    }
+
+    /**
+     * フレームの項目が省略されているか、数値であるかを判定する。
+     */
+    private static boolean isNumberOrAbsent(JSONObject frame, String key) {
+        return !frame.has(key) || frame.opt(key) instanceof Number;
+    }
+
+    /**
+     * 件数の項目を取り出す（int の範囲を超える値は桁あふれさせずに丸め、設定ファイルの上限への丸めは ContextAssembler が行う）。
+     */
+    private static Integer optCount(JSONObject frame, String key) {
+        if (!frame.has(key)) {
+            return null;
+        }
+        double value = frame.optDouble(key);
+        return (int) Math.clamp(value, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * chat フレームのストリームを開始する。
+     */
+    private void startStream(Connection connection, String id, JSONObject frame) {
+        String query = frame.optString("query");
+        if (query.isBlank()) {
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, id, "query is required"));
+            return;
+        }
+        if (!isNumberOrAbsent(frame, "contextTokens") || !isNumberOrAbsent(frame, "contextDocuments")
+                || !isNumberOrAbsent(frame, "mmrLambda")) {
+            // 不正な値は接続全体ではなく、このストリームだけを拒否する
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, id, "invalid context options"));
+            return;
+        }
+        if (connection.streams.containsKey(id)) {
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, id, "stream id in use"));
+            return;
+        }
+        if (connection.streams.size() >= maxStreams) {
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, id, "too many streams"));
+            return;
+        }
+        GenerationScheduler.Reservation reservation = new GenerationScheduler.Reservation();
+        try {
+            // 待ち行列が満杯であれば、応答を開始する前に拒否する（受け付けた場合は生成までの枠を確保する）
+            generationScheduler.checkAdmission(reservation);
+        } catch (GenerationRejectedException e) {
+            rejected.incrementAndGet();
+            connection.send(frame(ERROR, id, e.getMessage()));
+            return;
+        }
+
+        ContextOptions options = new ContextOptions(
+                optCount(frame, "contextTokens"),
+                optCount(frame, "contextDocuments"),
+                frame.has("mmrLambda") ? frame.optDouble("mmrLambda") : null);
+        String sessionId = frame.optString("sessionId", null);
+        Flux<String> tokens = reservation.bind(chatService.processChatStream(query, options, sessionId));
+        if ("coalesced".equalsIgnoreCase(frame.optString("framing", defaultFraming))) {
+            // 最初のトークンは即座に、以降は時間枠・バイト数ごとにまとめて送信する
+            tokens = TokenCoalescer.coalesce(tokens, Duration.ofMillis(coalesceWindowMs), coalesceMaxBytes,
+                    Schedulers.parallel());
+        }
+        Flux<String> frames = tokens.map(token -> frame(TOKEN, id, token));
+        frames = frame.optBoolean("queueEvents")
+                ? withQueueFrames(frames, id, connection.clientId)
+                : frames.contextWrite(Context.of(GenerationScheduler.CLIENT_ID_KEY, connection.clientId));
+        frames = frames.contextWrite(Context.of(RequestDeadline.CONTEXT_KEY, RequestDeadline.after(requestDeadline)));
+
+        long credit = frame.optLong("credit", initialCredit);
+        StreamSubscriber stream = new StreamSubscriber(connection, id, credit > 0 ? credit : initialCredit);
+        connection.streams.put(id, stream);
+        streams.incrementAndGet();
+        activeStreams.incrementAndGet();
+        pipelineMetrics.streamOpened();
+        frames.subscribe(stream);
+    }
+
+    /**
+     * 生成の待ち順位を q フレームとして回答のフレームに合流させる。
+     */
+    private Flux<String> withQueueFrames(Flux<String> frames, String id, String client) {
+        return Flux.defer(() -> {
+            // 待ち順位はスケジューラのロック内で通知されるため、直列化されている
+            Sinks.Many<Integer> positions = Sinks.many().unicast().onBackpressureBuffer();
+            IntConsumer listener = positions::tryEmitNext;
+            Flux<String> answer = frames
+                    .doFinally(signal -> positions.tryEmitComplete())
+                    .contextWrite(Context.of(GenerationScheduler.CLIENT_ID_KEY, client,
+                            GenerationScheduler.QUEUE_LISTENER_KEY, listener));
+            // 回答側の先読みを1件にし、クレジットを超えて上流に要求しないようにする
+            return Flux.merge(1,
+                    positions.asFlux()
+                            .distinctUntilChanged()
+                            .map(position -> frame(QUEUE, id, String.valueOf(position))),
+                    answer);
+        });
+    }
+
+    /**
+     * サーバーからのフレームを組み立てる。
+     * @param type    種別（t / q / d / e）
+     * @param id      ストリームID
+     * @param payload 内容
+     * @return 「種別:ストリームID:内容」
+     */
+    static String frame(char type, String id, String payload) {
+        return new StringBuilder(id.length() + payload.length() + 3)
+                .append(type).append(':').append(id).append(':').append(payload)
+                .toString();
+    }
+
+    /**
+     * 1つのWebSocket接続の状態。
+     */
+    private static final class Connection {
+
+        // 送信を直列化し、送信待ちの上限を設けたセッション
+        private final WebSocketSession sender;
+
+        // 生成の待ち行列で使うクライアントID（X-Client-Id ヘッダー）
+        private final String clientId;
+
+        // 配信中のストリーム（ストリームID → 購読）
+        private final Map<String, StreamSubscriber> streams = new ConcurrentHashMap<>();
+
+        private Connection(WebSocketSession sender, String clientId) {
+            this.sender = sender;
+            this.clientId = clientId;
+        }
+
+        /**
+         * フレームを送信する。送信待ちが上限を超えた場合は、デコレーターが接続を閉じる。
+         */
+        private void send(String frame) {
+            try {
+                sender.sendMessage(new TextMessage(frame));
+            } catch (IOException | RuntimeException e) {
+                log.debug("WebSocketの送信に失敗しました: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 1つのストリームの購読。クライアントのクレジットの分だけ上流に要求し、受け取ったフレームを送信する。
+     */
+    private final class StreamSubscriber extends BaseSubscriber<String> {
+
+        private final Connection connection;
+
+        private final String id;
+
+        private final long credit;
+
+        // 購読の開始時刻（最初のトークンまでの時間・配信時間の計測用）
+        private final long start = System.nanoTime();
+
+        private volatile boolean firstToken = true;
+
+        private StreamSubscriber(Connection connection, String id, long credit) {
+            this.connection = connection;
+            this.id = id;
+            this.credit = credit;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(credit);
+        }
+
+        @Override
+        protected void hookOnNext(String frame) {
+            if (firstToken && frame.charAt(0) == TOKEN) {
+                firstToken = false;
+                pipelineMetrics.recordFirstEvent(System.nanoTime() - start);
+            }
+            connection.send(frame);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            connection.send(frame(DONE, id, ""));
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            if (!(throwable instanceof GenerationRejectedException || throwable instanceof DeadlineExceededException)) {
+                pipelineMetrics.recordError(PipelineMetrics.Stage.STREAM);
+            }
+            connection.send(frame(ERROR, id, throwable.getMessage() == null ? "error" : throwable.getMessage()));
+        }
+
+        @Override
+        protected void hookOnCancel() {
+            cancelled.incrementAndGet();
+        }
+
+        @Override
+        protected void hookFinally(SignalType type) {
+            connection.streams.remove(id, this);
+            activeStreams.decrementAndGet();
+            pipelineMetrics.recordStage(PipelineMetrics.Stage.STREAM, System.nanoTime() - start);
+            pipelineMetrics.streamClosed();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import io.github.ryang_ryota.fermat.config.ConnectionPoolMetricsRegistry;
+import io.github.ryang_ryota.fermat.service.ChatJobService;
+import io.github.ryang_ryota.fermat.service.ChatService;
+import io.github.ryang_ryota.fermat.service.ChromaQueryGuard;
+import io.github.ryang_ryota.fermat.service.ContextAssembler;
+import io.github.ryang_ryota.fermat.service.ConversationSessionStore;
+import io.github.ryang_ryota.fermat.service.EmbeddingService;
+import io.github.ryang_ryota.fermat.service.GenerationScheduler;
+import io.github.ryang_ryota.fermat.service.LexicalIndex;
+import io.github.ryang_ryota.fermat.service.LocalVectorIndex;
+import io.github.ryang_ryota.fermat.service.OllamaBackendPool;
+import io.github.ryang_ryota.fermat.service.PipelineMetrics;
+import io.github.ryang_ryota.fermat.service.QueryEmbeddingCache;
+import io.github.ryang_ryota.fermat.service.ResumableStreamStore;
+import io.github.ryang_ryota.fermat.service.SemanticAnswerCache;
+import io.github.ryang_ryota.fermat.service.WarmupService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * このクラスは、各コンポーネントの内部統計情報を参照するためのコントローラーです。
+ * - 運用時の状態確認（キュー長やバッチサイズ等）に使用します。
+ */
+@RestController
+@RequiredArgsConstructor
+public class StatsController {
+
+    // 埋め込みエンジン
+    private final EmbeddingService embeddingService;
+
+    // クエリ埋め込みキャッシュ
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
+    // ローカルの近似最近傍インデックス
+    private final LocalVectorIndex localVectorIndex;
+
+    // 語彙検索インデックス
+    private final LexicalIndex lexicalIndex;
+
+    // ChromaDBへの検索のガード
+    private final ChromaQueryGuard chromaQueryGuard;
+
+    // チャット処理サービス（同一リクエストの合流）
+    private final ChatService chatService;
+
+    // コンテキストの選択
+    private final ContextAssembler contextAssembler;
+
+    // 会話セッションの保存先
+    private final ConversationSessionStore conversationSessionStore;
+
+    // 再開用に保持しているSSEの回答
+    private final ResumableStreamStore resumableStreamStore;
+
+    // 生成スケジューラ
+    private final GenerationScheduler generationScheduler;
+
+    // 意味的回答キャッシュ
+    private final SemanticAnswerCache semanticAnswerCache;
+
+    // Ollamaノードの振り分け
+    private final OllamaBackendPool ollamaBackendPool;
+
+    // 接続プールのメトリクス
+    private final ConnectionPoolMetricsRegistry connectionPoolMetricsRegistry;
+
+    // 起動時のウォームアップ
+    private final WarmupService warmupService;
+
+    // WebSocketのチャット接続
+    private final ChatWebSocketHandler chatWebSocketHandler;
+
+    // パイプラインのメトリクス（配信・無駄になった生成時間）
+    private final PipelineMetrics pipelineMetrics;
+
+    // 非同期チャットジョブ
+    private final ChatJobService chatJobService;
+
+    /**
+     * 統計情報を返すエンドポイント。
+     *
+     * @return コンポーネント名をキーとした統計情報
+     */
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("startup", warmupService.stats());
+        stats.put("embedding", embeddingService.stats());
+        stats.put("embeddingCache", queryEmbeddingCache.stats());
+        stats.put("localIndex", localVectorIndex.stats());
+        stats.put("lexicalIndex", lexicalIndex.stats());
+        stats.put("chromaQuery", chromaQueryGuard.stats());
+        stats.put("coalescing", chatService.coalescingStats());
+        stats.put("context", contextAssembler.stats());
+        stats.put("sessions", conversationSessionStore.stats());
+        stats.put("resume", resumableStreamStore.stats());
+        stats.put("generation", generationScheduler.stats());
+        stats.put("generationTime", pipelineMetrics.generationTimeStats());
+        stats.put("answerCache", semanticAnswerCache.stats());
+        stats.put("ollamaBackends", ollamaBackendPool.stats());
+        stats.put("connectionPools", connectionPoolMetricsRegistry.stats());
+        stats.put("websocket", chatWebSocketHandler.stats());
+        stats.put("jobs", chatJobService.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 意味的回答キャッシュ（SemanticAnswerCache）の統計情報のスナップショット。
+ *
+ * @param size        現在保持している回答数
+ * @param capacity    保持できる回答数の上限
+ * @param hits        キャッシュヒット数
+ * @param misses      キャッシュミス数
+ * @param evictions   容量超過で追い出した回答数
+ * @param expirations 有効期限切れで破棄した回答数
+ */
+public record AnswerCacheStats(
+        int size,
+        int capacity,
+        long hits,
+        long misses,
+        long evictions,
+        long expirations
+) {
+}
@@ -0,0 +1,31 @@
+package io.github.ryang_ryota.fermat.model;
+
+import java.util.List;
+
+/**
+ * 検索の候補から選び、トークン数の上限に収めたプロンプト用のコンテキスト。
+ *
+ * @param documents   プロンプトに含めるドキュメント（選択順。上限に合わせて末尾を切り詰めたものを含む）
+ * @param tokens      コンテキストの見積もりトークン数
+ * @param savedTokens 上位のドキュメントをそのまま連結した場合と比べて削減した見積もりトークン数
+ * @param duplicates  重複として除外した候補の数
+ */
+public record AssembledContext(
+        List<String> documents,
+        int tokens,
+        int savedTokens,
+        int duplicates
+) {
+
+    /**
+     * プロンプトに埋め込むため、ドキュメントを改行区切りで結合する。
+     * @return 結合済みのコンテキスト文字列
+     */
+    public String text() {
+        StringBuilder sb = new StringBuilder();
+        for (String document : documents) {
+            sb.append(document).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,17 @@
+package io.github.ryang_ryota.fermat.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * 複数の質問をまとめて処理するリクエスト（/chat/batch のリクエストボディ）。
+ * parallelism を省略した場合は設定ファイルの値を使い、上限を超える値は上限に丸めます。
+ */
+@Getter
+@Setter
+public class ChatBatchRequest {
+    private List<ChatRequest> questions;
+    private Integer parallelism;
+}
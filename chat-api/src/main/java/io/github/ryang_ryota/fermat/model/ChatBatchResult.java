@@ -0,0 +1,21 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 一括処理の1件の質問の結果（/chat/batch のNDJSONの1行）。
+ *
+ * @param index         リクエストの questions での位置（0始まり）
+ * @param id            リクエストで指定したID（指定しなかった場合は null）
+ * @param query         質問文
+ * @param answer        回答（失敗した場合は null）
+ * @param error         失敗した理由（成功した場合は null）
+ * @param elapsedMillis 生成の開始から完了までの時間（ミリ秒、検索の時間は含めない）
+ */
+public record ChatBatchResult(
+        int index,
+        String id,
+        String query,
+        String answer,
+        String error,
+        long elapsedMillis
+) {
+}
@@ -0,0 +1,15 @@
+package io.github.ryang_ryota.fermat.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 非同期チャットジョブの受付リクエスト（POST /chat/jobs のリクエストボディ）。
+ * priority が大きいジョブほど先に生成します（省略時は0。同じ優先度のジョブは受付順）。
+ */
+@Getter
+@Setter
+public class ChatJobRequest {
+    private String query;
+    private Integer priority;
+}
@@ -0,0 +1,31 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 非同期チャットジョブ（ChatJobService）の統計情報のスナップショット。
+ *
+ * @param queued        生成を待っているジョブの数
+ * @param running       生成中のジョブの数
+ * @param workers       同時に生成するジョブの数の上限
+ * @param queueCapacity 生成を待てるジョブの数の上限
+ * @param submitted     受け付けたジョブの累計
+ * @param completed     生成が完了したジョブの累計
+ * @param failed        生成に失敗したジョブの累計
+ * @param deferred      対話的なリクエストを優先するため、または生成の待ち行列が満杯のため、生成の開始を見送った回数
+ * @param recovered     起動時にログから読み直し、生成をやり直したジョブの数
+ * @param logSegments   ジョブログのセグメント数
+ * @param logBytes      ジョブログに書き込まれているバイト数
+ */
+public record ChatJobStats(
+        int queued,
+        int running,
+        int workers,
+        int queueCapacity,
+        long submitted,
+        long completed,
+        long failed,
+        long deferred,
+        long recovered,
+        int logSegments,
+        long logBytes
+) {
+}
@@ -0,0 +1,27 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 非同期チャットジョブの状態（POST /chat/jobs・GET /chat/jobs/{id} のレスポンス）。
+ *
+ * @param id          ジョブID
+ * @param state       状態（QUEUED / RUNNING / COMPLETED / FAILED）
+ * @param query       質問文
+ * @param priority    優先度
+ * @param position    生成を待っているジョブのうち、このジョブより先に生成するジョブの数（待っていない場合は null）
+ * @param answer      回答（生成中の場合はそれまでのトークン、生成前・失敗した場合は null）
+ * @param error       失敗した理由（失敗していない場合は null）
+ * @param submittedAt 受け付けた時刻（エポックミリ秒）
+ * @param finishedAt  生成が完了・失敗した時刻（エポックミリ秒、終わっていない場合は null）
+ */
+public record ChatJobStatus(
+        String id,
+        String state,
+        String query,
+        int priority,
+        Integer position,
+        String answer,
+        String error,
+        long submittedAt,
+        Long finishedAt
+) {
+}
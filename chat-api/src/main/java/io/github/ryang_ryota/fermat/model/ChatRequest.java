@@ -3,9 +3,13 @@ package io.github.ryang_ryota.fermat.model;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * 1件の質問（/chat/batch のリクエストの各要素）。
+ * id を指定すると、結果に同じIDを付けて返します（結果は完了した順に返るため、質問との対応付けに使う）。
+ */
 @Getter
 @Setter
 public class ChatRequest {
+    private String id;
     private String query;
 }
-
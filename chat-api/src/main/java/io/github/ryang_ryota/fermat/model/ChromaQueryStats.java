@@ -0,0 +1,29 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * ChromaDBへの検索のガード（ChromaQueryGuard）の統計情報のスナップショット。
+ *
+ * @param circuitState     サーキットブレーカーの状態（CLOSED / OPEN / HALF_OPEN）
+ * @param queries          ChromaDBに送った検索の数（ヘッジを除く）
+ * @param hedges           送ったヘッジの数
+ * @param hedgeWins        ヘッジの方が先に返った検索の数
+ * @param hedgeDelayMillis ヘッジを送るまでの現在の待ち時間（ミリ秒。標本が足りない場合は −1）
+ * @param trips            サーキットブレーカーが開いた回数
+ * @param shortCircuited   サーキットブレーカーが開いていたため送らなかった検索の数
+ * @param staleFallbacks   検索に失敗し、同じ・近い質問の直近の検索結果で代替した数
+ * @param emptyFallbacks   検索に失敗し、代替できる検索結果がなかったため空のコンテキストにした数
+ * @param staleEntries     フォールバック用に保持している検索結果の数（概算）
+ */
+public record ChromaQueryStats(
+        String circuitState,
+        long queries,
+        long hedges,
+        long hedgeWins,
+        long hedgeDelayMillis,
+        long trips,
+        long shortCircuited,
+        long staleFallbacks,
+        long emptyFallbacks,
+        long staleEntries
+) {
+}
@@ -0,0 +1,25 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 接続プール（接続先ごと）の統計情報のスナップショット。
+ *
+ * @param pool               プール名
+ * @param remoteAddress      接続先のアドレス
+ * @param acquired           使用中の接続数
+ * @param idle               アイドル状態の接続数
+ * @param allocated          確立済みの接続数（使用中＋アイドル）
+ * @param pendingAcquire     接続の取得を待っているリクエスト数
+ * @param maxAllocated       最大接続数
+ * @param maxPendingAcquire  接続取得待ちの最大件数
+ */
+public record ConnectionPoolStats(
+        String pool,
+        String remoteAddress,
+        int acquired,
+        int idle,
+        int allocated,
+        int pendingAcquire,
+        int maxAllocated,
+        int maxPendingAcquire
+) {
+}
@@ -0,0 +1,25 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * リクエストごとのコンテキスト選択の設定（/chat/stream のクエリパラメータ）。
+ * 指定しなかった項目（null）は設定ファイルの値を使います。トークン数・ドキュメント数は設定ファイルの値を上限とし、
+ * それを超える値は上限に丸めます。
+ *
+ * @param contextTokens    コンテキストの見積もりトークン数の上限
+ * @param contextDocuments プロンプトに含めるドキュメント数の上限
+ * @param mmrLambda        MMRの関連性と多様性の重み（1.0で関連性のみ、0.0で多様性のみ）
+ */
+public record ContextOptions(
+        Integer contextTokens,
+        Integer contextDocuments,
+        Double mmrLambda
+) {
+
+    /**
+     * 全ての項目で設定ファイルの値を使う設定を返す。
+     * @return 全ての項目が未指定の設定
+     */
+    public static ContextOptions defaults() {
+        return new ContextOptions(null, null, null);
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * コンテキストの選択（ContextAssembler）の統計情報のスナップショット。
+ *
+ * @param assembled   コンテキストを組み立てた回数
+ * @param candidates  検索で得た候補の累計
+ * @param selected    プロンプトに含めたドキュメントの累計
+ * @param duplicates  重複として除外した候補の累計
+ * @param truncated   上限に合わせて切り詰めたドキュメントの累計
+ * @param tokens      コンテキストの見積もりトークン数の累計
+ * @param savedTokens 上位のドキュメントをそのまま連結した場合と比べて削減した見積もりトークン数の累計
+ */
+public record ContextStats(
+        long assembled,
+        long candidates,
+        long selected,
+        long duplicates,
+        long truncated,
+        long tokens,
+        long savedTokens
+) {
+}
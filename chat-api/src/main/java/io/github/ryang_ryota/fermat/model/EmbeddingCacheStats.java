@@ -0,0 +1,23 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * クエリ埋め込みキャッシュ（QueryEmbeddingCache）の統計情報のスナップショット。
+ *
+ * @param size        現在保持しているベクトル数（概算）
+ * @param weightBytes 現在のメモリ使用量の概算（バイト）
+ * @param maxBytes    メモリ使用量の上限（バイト）
+ * @param hits        キャッシュヒット数
+ * @param misses      キャッシュミス数
+ * @param evictions   上限超過で追い出したベクトル数
+ * @param hitRatio    ヒット率（0.0〜1.0）
+ */
+public record EmbeddingCacheStats(
+        long size,
+        long weightBytes,
+        long maxBytes,
+        long hits,
+        long misses,
+        long evictions,
+        double hitRatio
+) {
+}
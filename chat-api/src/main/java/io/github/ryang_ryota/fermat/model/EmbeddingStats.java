@@ -0,0 +1,23 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 埋め込みエンジン（EmbeddingService）の統計情報のスナップショット。
+ *
+ * @param queueDepth     バッチ化を待っているリクエスト数
+ * @param submitted      受け付けた埋め込みリクエストの累計
+ * @param rejected       キューが満杯で拒否したリクエストの累計
+ * @param batches        実行したバッチ（embedAll呼び出し）の累計
+ * @param lastBatchSize  直近のバッチサイズ
+ * @param maxBatchSize   これまでの最大バッチサイズ
+ * @param avgBatchSize   平均バッチサイズ
+ */
+public record EmbeddingStats(
+        int queueDepth,
+        long submitted,
+        long rejected,
+        long batches,
+        int lastBatchSize,
+        int maxBatchSize,
+        double avgBatchSize
+) {
+}
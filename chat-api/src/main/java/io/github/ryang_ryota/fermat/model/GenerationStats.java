@@ -0,0 +1,25 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 生成スケジューラ（GenerationScheduler）の統計情報のスナップショット。
+ *
+ * @param running        実行中の生成数
+ * @param maxConcurrent  同時に実行できる生成数の上限（ノードあたりの上限 × 利用できるノード数）
+ * @param queued         待ち行列に並んでいる生成数
+ * @param queueCapacity  待ち行列の上限
+ * @param waitingClients 待ち行列に並んでいるクライアント数
+ * @param admitted       実行を開始した生成の累計
+ * @param rejected       待ち行列が満杯で拒否した生成の累計
+ * @param timedOut       待ち時間の上限を超えた生成の累計
+ */
+public record GenerationStats(
+        int running,
+        int maxConcurrent,
+        int queued,
+        int queueCapacity,
+        int waitingClients,
+        long admitted,
+        long rejected,
+        long timedOut
+) {
+}
@@ -0,0 +1,27 @@
+package io.github.ryang_ryota.fermat.model;
+
+import java.util.Map;
+
+/**
+ * 生成時間の内訳（配信できた生成と無駄になった生成）と、リクエストの期限切れの統計情報のスナップショット。
+ *
+ * @param delivered        完了して配信できた生成の数
+ * @param deliveredSeconds 完了して配信できた生成の合計時間（秒）
+ * @param wasted           キャンセル・期限切れ・失敗で完了しなかった生成の数
+ * @param wastedSeconds    完了しなかった生成に費やした合計時間（秒）
+ * @param cancelled        クライアントの切断等で購読がキャンセルされた生成の数
+ * @param timedOut         生成時間の上限またはリクエストの期限で打ち切った生成の数
+ * @param failed           エラーで失敗した生成の数
+ * @param deadlineExceeded 期限を過ぎた段階（embedding / chroma_query / retrieval / queue / generation）ごとのリクエスト数
+ */
+public record GenerationTimeStats(
+        long delivered,
+        double deliveredSeconds,
+        long wasted,
+        double wastedSeconds,
+        long cancelled,
+        long timedOut,
+        long failed,
+        Map<String, Long> deadlineExceeded
+) {
+}
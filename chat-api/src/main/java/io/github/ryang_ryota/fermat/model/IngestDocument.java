@@ -0,0 +1,19 @@
+package io.github.ryang_ryota.fermat.model;
+
+import java.util.Map;
+
+/**
+ * ChromaDBへ登録する1件のドキュメント（OpenAlexの1論文）。
+ *
+ * @param id       ドキュメントID（OpenAlexのWork ID。例: W2118559）
+ * @param text     埋め込み・登録するテキスト（タイトルと要旨）
+ * @param metadata ChromaDBに保存するメタデータ（値は文字列・数値のみ）
+ * @param line     入力ファイル内の行番号（1始まり。再開位置の記録に使う）
+ */
+public record IngestDocument(
+        String id,
+        String text,
+        Map<String, Object> metadata,
+        long line
+) {
+}
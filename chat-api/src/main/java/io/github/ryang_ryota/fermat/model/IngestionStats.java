@@ -0,0 +1,21 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 一括登録（IngestionService）の実行結果。
+ *
+ * @param files          処理した入力ファイル数
+ * @param documents      ChromaDBへ登録（upsert）したドキュメント数
+ * @param skipped        テキストがない・解析できないため読み飛ばした行数
+ * @param batches        実行したupsertリクエスト数
+ * @param elapsedMillis  所要時間（ミリ秒）
+ * @param docsPerSecond  1秒あたりの登録件数
+ */
+public record IngestionStats(
+        int files,
+        long documents,
+        long skipped,
+        long batches,
+        long elapsedMillis,
+        double docsPerSecond
+) {
+}
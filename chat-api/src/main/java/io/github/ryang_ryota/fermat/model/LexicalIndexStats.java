@@ -0,0 +1,27 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 語彙検索インデックス（LexicalIndex）の統計情報のスナップショット。
+ *
+ * @param enabled       語彙検索インデックスが有効か
+ * @param ready         検索に使える状態か（初回の読み込みが完了しているか）
+ * @param size          検索対象のドキュメント数
+ * @param terms         登録されている語の種類数
+ * @param refreshes     成功した更新の累計
+ * @param failures      失敗した更新の累計
+ * @param queries       語彙検索を行った累計
+ * @param matched       1件以上のドキュメントが該当した語彙検索の累計
+ * @param lastRefreshAt 最後に更新が成功した時刻（エポックミリ秒、未更新の場合は0）
+ */
+public record LexicalIndexStats(
+        boolean enabled,
+        boolean ready,
+        int size,
+        int terms,
+        long refreshes,
+        long failures,
+        long queries,
+        long matched,
+        long lastRefreshAt
+) {
+}
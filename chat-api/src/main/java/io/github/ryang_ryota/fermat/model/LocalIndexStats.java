@@ -0,0 +1,27 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * ローカルベクトルインデックス（LocalVectorIndex）の統計情報のスナップショット。
+ *
+ * @param enabled        ローカルインデックスが有効か
+ * @param ready          検索に使える状態か（初回の読み込みが完了しているか）
+ * @param size           検索対象のベクトル数
+ * @param loadedOffset   ChromaDBのコレクションから読み込み済みの件数
+ * @param refreshes      成功した更新の累計
+ * @param fullRebuilds   全件を読み込み直した更新の累計（初回の読み込みを含む）
+ * @param failures       失敗した更新の累計
+ * @param localQueries   ローカルで応答した検索の累計
+ * @param lastRefreshAt  最後に更新が成功した時刻（エポックミリ秒、未更新の場合は0）
+ */
+public record LocalIndexStats(
+        boolean enabled,
+        boolean ready,
+        int size,
+        long loadedOffset,
+        long refreshes,
+        long fullRebuilds,
+        long failures,
+        long localQueries,
+        long lastRefreshAt
+) {
+}
@@ -0,0 +1,25 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * Ollamaバックエンド（1ノード）の統計情報のスナップショット。
+ *
+ * @param url                  ノードのベースURL
+ * @param healthy              直近のヘルスチェック（/api/tags）に成功しているか
+ * @param ejected              連続した失敗により一時的に振り分け対象から外されているか
+ * @param outstanding          実行中のリクエスト数
+ * @param requests             送信したリクエストの累計
+ * @param failures             失敗したリクエストの累計
+ * @param avgFirstTokenMillis  最初のトークンが届くまでの時間の移動平均（ミリ秒）
+ * @param avgDurationMillis    生成が完了するまでの時間の移動平均（ミリ秒）
+ */
+public record OllamaBackendStats(
+        String url,
+        boolean healthy,
+        boolean ejected,
+        int outstanding,
+        long requests,
+        long failures,
+        double avgFirstTokenMillis,
+        double avgDurationMillis
+) {
+}
@@ -0,0 +1,28 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * Ollama の /api/generate ストリーミング応答（NDJSON）の1行分を表すトークン。
+ *
+ * @param response     生成されたテキスト断片
+ * @param done         生成が完了した行かどうか
+ * @param evalCount    生成したトークン数（done 行のみ。それ以外は0）
+ * @param evalDuration 生成にかかった時間（ナノ秒。done 行のみ。それ以外は0）
+ * @param promptEvalCount プロンプトのトークン数（done 行のみ。それ以外は0）
+ * @param context      会話のトークン列（done 行のみ。次のリクエストに渡すと会話を続けられる。含まれない場合は null）
+ */
+public record OllamaToken(
+        String response,
+        boolean done,
+        long evalCount,
+        long evalDuration,
+        long promptEvalCount,
+        int[] context
+) {
+
+    /**
+     * 会話のトークン列を含まないトークンを作成する。
+     */
+    public OllamaToken(String response, boolean done, long evalCount, long evalDuration, long promptEvalCount) {
+        this(response, done, evalCount, evalDuration, promptEvalCount, null);
+    }
+}
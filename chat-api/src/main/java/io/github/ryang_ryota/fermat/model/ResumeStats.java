@@ -0,0 +1,25 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 再開可能なSSEストリームの保存先（ResumableStreamStore）の統計情報のスナップショット。
+ *
+ * @param size        現在保持している生成の数（概算）
+ * @param weightBytes 現在のメモリ使用量の概算（バイト）
+ * @param maxBytes    メモリ使用量の上限（バイト）
+ * @param started     開始した生成の数
+ * @param resumed     Last-Event-ID で再開した（生成し直さずに済んだ）接続の数
+ * @param misses      Last-Event-ID を受け取ったが、生成が残っていないため生成し直した接続の数
+ * @param abandoned   再接続を待つ猶予を過ぎたため中断した生成の数
+ * @param evictions   メモリ使用量の上限を超えたため追い出した生成の数
+ */
+public record ResumeStats(
+        long size,
+        long weightBytes,
+        long maxBytes,
+        long started,
+        long resumed,
+        long misses,
+        long abandoned,
+        long evictions
+) {
+}
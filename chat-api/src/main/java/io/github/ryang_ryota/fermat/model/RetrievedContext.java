@@ -0,0 +1,70 @@
+package io.github.ryang_ryota.fermat.model;
+
+import java.util.List;
+
+/**
+ * ChromaDBのベクトル検索（と語彙検索）で得られた関連コンテキスト（プロンプトに使う文書を選ぶ前の候補）。
+ *
+ * @param query          ユーザーからの質問文
+ * @param queryEmbedding 質問文の埋め込みベクトル
+ * @param documents      類似度の高い順に並んだドキュメント本文
+ * @param distances      各ドキュメントとの距離（documents と同じ順序。語彙検索でのみ見つかったものは NaN）
+ * @param embeddings     各ドキュメントの埋め込みベクトル（documents と同じ順序。取得できなかった場合は空。
+ *                       語彙検索でのみ見つかったものは null）
+ * @param fallback       検索に失敗したため、直近の検索結果（なければ空）で代替したコンテキストか
+ */
+public record RetrievedContext(
+        String query,
+        float[] queryEmbedding,
+        List<String> documents,
+        List<Double> distances,
+        List<float[]> embeddings,
+        boolean fallback
+) {
+
+    /**
+     * 検索で得られたコンテキストを生成する。
+     * @param query          質問文
+     * @param queryEmbedding 質問文の埋め込みベクトル
+     * @param documents      類似度の高い順に並んだドキュメント本文
+     * @param distances      各ドキュメントとの距離
+     * @param embeddings     各ドキュメントの埋め込みベクトル
+     */
+    public RetrievedContext(String query, float[] queryEmbedding, List<String> documents, List<Double> distances,
+                            List<float[]> embeddings) {
+        this(query, queryEmbedding, documents, distances, embeddings, false);
+    }
+
+    /**
+     * ドキュメントの埋め込みベクトルを含まないコンテキストを生成する。
+     * @param query          質問文
+     * @param queryEmbedding 質問文の埋め込みベクトル
+     * @param documents      類似度の高い順に並んだドキュメント本文
+     * @param distances      各ドキュメントとの距離
+     */
+    public RetrievedContext(String query, float[] queryEmbedding, List<String> documents, List<Double> distances) {
+        this(query, queryEmbedding, documents, distances, List.of(), false);
+    }
+
+    /**
+     * 検索結果が得られなかった場合の空のコンテキストを生成する。
+     * @param query          質問文
+     * @param queryEmbedding 質問文の埋め込みベクトル
+     * @return ドキュメントを含まないコンテキスト
+     */
+    public static RetrievedContext empty(String query, float[] queryEmbedding) {
+        return new RetrievedContext(query, queryEmbedding, List.of(), List.of());
+    }
+
+    /**
+     * プロンプトに埋め込むため、ドキュメントを改行区切りで結合する。
+     * @return 結合済みのコンテキスト文字列
+     */
+    public String text() {
+        StringBuilder sb = new StringBuilder();
+        for (String document : documents) {
+            sb.append(document).append("\n");
+        }
+        return sb.toString();
+    }
+}
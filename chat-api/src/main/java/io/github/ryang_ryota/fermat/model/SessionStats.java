@@ -0,0 +1,25 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 会話セッションの保存先（ConversationSessionStore）の統計情報のスナップショット。
+ *
+ * @param size        現在保持しているセッション数（概算）
+ * @param weightBytes 現在のメモリ使用量の概算（バイト）
+ * @param maxBytes    メモリ使用量の上限（バイト）
+ * @param started     新しく始まった会話のターン数（セッションが見つからなかった回数）
+ * @param resumed     保存済みの会話を続けたターン数
+ * @param resets      会話のトークン列が上限を超えたため破棄したセッション数
+ * @param evictions   メモリ使用量の上限を超えたため追い出したセッション数
+ * @param expirations 一定時間使われなかったため破棄したセッション数
+ */
+public record SessionStats(
+        long size,
+        long weightBytes,
+        long maxBytes,
+        long started,
+        long resumed,
+        long resets,
+        long evictions,
+        long expirations
+) {
+}
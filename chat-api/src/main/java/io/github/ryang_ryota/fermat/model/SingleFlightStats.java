@@ -0,0 +1,15 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 同一リクエストの合流（SingleFlight）の統計情報のスナップショット。
+ *
+ * @param inFlight   現在実行中の上流処理の数
+ * @param executions 実際に上流処理を開始した回数
+ * @param coalesced  実行中の上流処理に合流した回数
+ */
+public record SingleFlightStats(
+        int inFlight,
+        long executions,
+        long coalesced
+) {
+}
@@ -0,0 +1,27 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * 起動時のウォームアップ（WarmupService）の結果のスナップショット。
+ *
+ * @param enabled            ウォームアップが有効か
+ * @param completed          ウォームアップが完了したか（完了するまで readiness は DOWN）
+ * @param warmupMillis       ウォームアップにかかった時間（ミリ秒）
+ * @param timeToReadyMillis  JVMの起動から準備完了までの時間（ミリ秒。未完了の場合は −1）
+ * @param firstRequestMillis 起動後最初のリクエストで、最初のSSEイベントを送るまでの時間（ミリ秒。未計測の場合は −1）
+ * @param embeddings         ウォームアップで実行した埋め込みの回数
+ * @param parses             ウォームアップで実行した応答の解析の回数
+ * @param connections        ウォームアップで開いた接続の数（ChromaDB と各Ollamaノードの合計）
+ * @param failures           ウォームアップ中に失敗した処理の数
+ */
+public record WarmupStats(
+        boolean enabled,
+        boolean completed,
+        long warmupMillis,
+        long timeToReadyMillis,
+        long firstRequestMillis,
+        int embeddings,
+        int parses,
+        int connections,
+        int failures
+) {
+}
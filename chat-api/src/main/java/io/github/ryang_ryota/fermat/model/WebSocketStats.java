@@ -0,0 +1,19 @@
+package io.github.ryang_ryota.fermat.model;
+
+/**
+ * WebSocketのチャット接続（/chat/ws）の統計情報のスナップショット。
+ *
+ * @param connections   接続中のWebSocket接続数
+ * @param activeStreams 配信中のストリーム数（全接続の合計）
+ * @param streams       開始したストリームの累計
+ * @param cancelled     完了前にキャンセルされたストリームの累計（cancel フレームと切断による）
+ * @param rejected      開始できなかったストリームの累計（不正なフレーム・同時ストリーム数の上限・生成の待ち行列の満杯）
+ */
+public record WebSocketStats(
+        int connections,
+        int activeStreams,
+        long streams,
+        long cancelled,
+        long rejected
+) {
+}
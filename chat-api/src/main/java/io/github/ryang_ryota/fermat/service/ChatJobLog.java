@@ -0,0 +1,434 @@
+package io.github.ryang_ryota.fermat.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * このクラスは、非同期チャットジョブの受付・トークン・結果を記録する追記専用のログです。
+ * - ログは固定サイズのセグメントファイル（segment-00000001.log …）に分け、書き込み中のセグメントをメモリマップして追記します。
+ *   書き込みはページキャッシュへのコピーだけで済み、プロセスが停止しても書き込んだレコードは失われません
+ *   （OSの停止に備えて、ジョブの完了時にディスクへ書き出します）。
+ * - 追記はトークンを受け取るスレッドで行うため、I/Oを待つ処理は追記のロックの外で行います。書き出しは書き込み中のセグメントを
+ *   ロックの外で書き出し、次のセグメントはあらかじめ別スレッドで作成・メモリマップしておきます。切り替えた後の書き込みを
+ *   終えたセグメントの書き出しと古いセグメントの削除も別スレッドで行います。
+ * - 各レコードは「長さ・CRC32・種別・時刻・ジョブID・データ」の形式です。起動時に全セグメントを読み直してジョブごとの
+ *   レコードの位置を復元し、途中まで書かれたレコード（CRCが一致しない・長さが不正）以降は捨てて、そこから追記を続けます。
+ * - セグメント数が上限を超えると最も古いセグメントを削除し、そこに受付レコードがあったジョブを忘れます（保持期間の制御）。
+ *   ただし、完了していないジョブの受付レコードがあるセグメントは、そのジョブが完了するまで削除しません
+ *   （待ち行列・生成中のジョブを忘れると、後続のレコードを受付レコードなしに追記することになるため）。
+ */
+@Slf4j
+@Service
+public class ChatJobLog {
+
+    /**
+     * レコードの種別。
+     */
+    public enum Type {
+        // ジョブの受付（データは質問と優先度のJSON）
+        SUBMITTED,
+        // 生成の開始（再起動後にやり直した場合は、最後の開始以降のトークンが有効）
+        STARTED,
+        // 回答のトークン
+        TOKEN,
+        // 生成の完了（データは回答全体）
+        COMPLETED,
+        // 生成の失敗（データは失敗した理由）
+        FAILED
+    }
+
+    /**
+     * 1件のレコード。
+     *
+     * @param type      種別
+     * @param timestamp 書き込んだ時刻（エポックミリ秒）
+     * @param jobId     ジョブID
+     * @param data      データ
+     */
+    public record Entry(Type type, long timestamp, String jobId, String data) {
+    }
+
+    // セグメントファイル名の接頭辞・接尾辞
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // レコードのヘッダ（長さ・CRC32）のバイト数
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+
+    // レコード本体の固定部分（種別・時刻・ジョブIDの長さ・データの長さ）のバイト数
+    private static final int FIXED_BODY_BYTES = Byte.BYTES + Long.BYTES + Short.BYTES + Integer.BYTES;
+
+    // ログを保存するディレクトリ
+    private final Path directory;
+
+    // セグメントファイルのサイズ（バイト）
+    private final int segmentBytes;
+
+    // 保持するセグメント数の上限
+    private final int maxSegments;
+
+    // セグメント番号 → メモリマップしたセグメント
+    private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<>();
+
+    // ジョブID → レコードの位置（上位32ビットがセグメント番号、下位32ビットがセグメント内の位置）。受付順
+    private final Map<String, List<Long>> index = new LinkedHashMap<>();
+
+    // 書き込み中のセグメントの番号と書き込み位置
+    private int currentSegment;
+    private int writePosition;
+
+    // 書き込みを終えたセグメントの番号 → 書き込まれているバイト数
+    private final Map<Integer, Integer> sealedBytes = new TreeMap<>();
+
+    // セグメントの作成・書き出し・削除を行うスレッド
+    private final Executor io;
+
+    // あらかじめ作成した次のセグメントの番号とメモリマップ（まだ作成していない場合はnull）
+    private int spareSegment;
+    private MappedByteBuffer spare;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param directory   ログを保存するディレクトリ
+     * @param segmentSize セグメントファイルのサイズ
+     * @param maxSegments 保持するセグメント数の上限
+     * @throws IOException ログを読み込めない・作成できない場合
+     */
+    @Autowired
+    public ChatJobLog(@Value("${fermat.jobs.log.directory:data/jobs}") Path directory,
+                      @Value("${fermat.jobs.log.segment-size:64MB}") DataSize segmentSize,
+                      @Value("${fermat.jobs.log.max-segments:16}") int maxSegments) throws IOException {
+        this(directory, segmentSize, maxSegments, Schedulers.boundedElastic()::schedule);
+    }
+
+    /**
+     * テスト用コンストラクタ
+     * @param directory   ログを保存するディレクトリ
+     * @param segmentSize セグメントファイルのサイズ
+     * @param maxSegments 保持するセグメント数の上限
+     * @param io          セグメントの作成・書き出し・削除を行うスレッド
+     * @throws IOException ログを読み込めない・作成できない場合
+     */
+    ChatJobLog(Path directory, DataSize segmentSize, int maxSegments, Executor io) throws IOException {
+        this.directory = directory;
+        this.io = io;
+        // メモリマップできるのは2GB未満（ジョブID・データの長さの上限もこのサイズで決まる）
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(4096, segmentSize.toBytes()));
+        this.maxSegments = Math.max(1, maxSegments);
+        Files.createDirectories(directory);
+        recover();
+        prepareSpare();
+    }
+
+    /**
+     * レコードを追記する。
+     * @param type  種別
+     * @param jobId ジョブID
+     * @param data  データ
+     * @return 追記したレコード
+     * @throws IllegalArgumentException レコードがセグメントに収まらない場合
+     * @throws IllegalStateException    受付レコード以外を、ログにないジョブに追記しようとした場合
+     * @throws UncheckedIOException     次のセグメントを作成できておらず、この場で作成することもできない場合
+     */
+    public synchronized Entry append(Type type, String jobId, String data) {
+        if (type != Type.SUBMITTED && !index.containsKey(jobId)) {
+            throw new IllegalStateException("ジョブがログにありません: " + jobId);
+        }
+        byte[] id = jobId.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = data.getBytes(StandardCharsets.UTF_8);
+        int length = FIXED_BODY_BYTES + id.length + payload.length;
+        // 続くレコードがないことを示す長さ0の終端の分も空けておく
+        if (id.length > Short.MAX_VALUE || HEADER_BYTES + length + Integer.BYTES > segmentBytes) {
+            throw new IllegalArgumentException("レコードがセグメントに収まりません: " + length + " bytes");
+        }
+        if (writePosition + HEADER_BYTES + length + Integer.BYTES > segmentBytes) {
+            roll();
+        }
+        MappedByteBuffer buffer = segments.get(currentSegment);
+        long timestamp = System.currentTimeMillis();
+        int body = writePosition + HEADER_BYTES;
+        buffer.put(body, (byte) type.ordinal());
+        buffer.putLong(body + Byte.BYTES, timestamp);
+        buffer.putShort(body + Byte.BYTES + Long.BYTES, (short) id.length);
+        buffer.put(body + Byte.BYTES + Long.BYTES + Short.BYTES, id);
+        int dataOffset = body + Byte.BYTES + Long.BYTES + Short.BYTES + id.length;
+        buffer.putInt(dataOffset, payload.length);
+        buffer.put(dataOffset + Integer.BYTES, payload);
+        buffer.putInt(body + length, 0);
+        buffer.putInt(writePosition + Integer.BYTES, crc(buffer, body, length));
+        // 長さは最後に書き込む（途中で停止した場合、このレコードは読み直し時に終端として扱われる）
+        buffer.putInt(writePosition, length);
+        index.computeIfAbsent(jobId, key -> new ArrayList<>()).add(position(currentSegment, writePosition));
+        writePosition += HEADER_BYTES + length;
+        return new Entry(type, timestamp, jobId, data);
+    }
+
+    /**
+     * 書き込み中のセグメントをディスクに書き出す（ジョブの完了時など、OSの停止に備える場合に呼ぶ）。
+     * 呼び出した時点までに書き込まれた範囲を、追記のロックを持たずに書き出す（書き出しの間も追記は待たない）。
+     * 書き込みを終えたセグメントは、切り替えたときに別スレッドで書き出す。
+     */
+    public void force() {
+        MappedByteBuffer buffer;
+        int written;
+        synchronized (this) {
+            buffer = segments.get(currentSegment);
+            written = writePosition;
+        }
+        buffer.force(0, written);
+    }
+
+    /**
+     * ジョブのレコードを書き込んだ順に読み出す。
+     * @param jobId ジョブID
+     * @return レコード（ジョブがない、または保持期間を過ぎた場合は空）
+     */
+    public synchronized List<Entry> read(String jobId) {
+        List<Long> positions = index.get(jobId);
+        if (positions == null) {
+            return List.of();
+        }
+        List<Entry> entries = new ArrayList<>(positions.size());
+        for (long position : positions) {
+            entries.add(decode(position));
+        }
+        return entries;
+    }
+
+    /**
+     * ログにあるジョブのIDを受付順に取得する。
+     * @return ジョブID
+     */
+    public synchronized List<String> jobIds() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * 保持しているセグメント数を取得する。
+     * @return セグメント数
+     */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 保持しているセグメントに書き込まれているバイト数を取得する。
+     * @return バイト数
+     */
+    public synchronized long sizeBytes() {
+        return sealedBytes.values().stream().mapToLong(Integer::longValue).sum() + writePosition;
+    }
+
+    /**
+     * 既存のセグメントを読み直し、レコードの位置と書き込み位置を復元する。
+     */
+    private void recover() throws IOException {
+        List<Integer> numbers;
+        try (Stream<Path> files = Files.list(directory)) {
+            numbers = files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        if (numbers.isEmpty()) {
+            currentSegment = 1;
+            segments.put(currentSegment, map(currentSegment));
+            return;
+        }
+        for (int number : numbers) {
+            if (!segments.isEmpty()) {
+                sealedBytes.put(currentSegment, writePosition);
+            }
+            MappedByteBuffer buffer = map(number);
+            segments.put(number, buffer);
+            currentSegment = number;
+            writePosition = scan(number, buffer);
+        }
+        // 受付レコードのセグメントが失われたジョブは忘れる
+        index.values().removeIf(positions -> decode(positions.get(0)).type() != Type.SUBMITTED);
+        log.info("ジョブログを読み込みました: {}件のジョブ, {}セグメント", index.size(), segments.size());
+    }
+
+    /**
+     * セグメント内のレコードを先頭から読み、位置を索引に登録する。
+     * @return 最後の正しいレコードの次の位置
+     */
+    private int scan(int number, MappedByteBuffer buffer) {
+        int position = 0;
+        while (position + HEADER_BYTES + Integer.BYTES <= segmentBytes) {
+            int length = buffer.getInt(position);
+            if (length < FIXED_BODY_BYTES || position + HEADER_BYTES + length + Integer.BYTES > segmentBytes) {
+                break;
+            }
+            int body = position + HEADER_BYTES;
+            if (crc(buffer, body, length) != buffer.getInt(position + Integer.BYTES)) {
+                log.warn("ジョブログの途中で壊れたレコードを検出しました（以降を破棄します）: segment={}, position={}",
+                        number, position);
+                break;
+            }
+            Entry entry = decode(buffer, body, length);
+            index.computeIfAbsent(entry.jobId(), key -> new ArrayList<>()).add(position(number, position));
+            position += HEADER_BYTES + length;
+        }
+        // 壊れたレコード以降を終端にして、そこから追記を続ける
+        buffer.putInt(position, 0);
+        return position;
+    }
+
+    /**
+     * 新しいセグメントに切り替え、上限を超えた古いセグメントを削除する。
+     * 書き込みを終えたセグメントの書き出しと古いセグメントの削除は別スレッドで行い、次のセグメントもそこで用意しておく。
+     */
+    private void roll() {
+        MappedByteBuffer sealed = segments.get(currentSegment);
+        int sealedLength = writePosition;
+        sealedBytes.put(currentSegment, sealedLength);
+        MappedByteBuffer next = spareSegment == currentSegment + 1 ? spare : null;
+        if (next == null) {
+            // 次のセグメントの作成が間に合っていない場合だけ、この場で作成する
+            try {
+                next = map(currentSegment + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        currentSegment++;
+        writePosition = 0;
+        segments.put(currentSegment, next);
+        spare = null;
+        List<Integer> expired = new ArrayList<>();
+        while (segments.size() > maxSegments) {
+            int oldest = segments.firstKey();
+            if (holdsUnfinishedJob(oldest)) {
+                // 完了していないジョブを忘れないよう、完了してから次に切り替えるときに削除する
+                log.warn("完了していないジョブがあるため、古いジョブログを保持します: segment={}, {}セグメント",
+                        oldest, segments.size());
+                break;
+            }
+            segments.remove(oldest);
+            sealedBytes.remove(oldest);
+            drop(oldest);
+            expired.add(oldest);
+        }
+        io.execute(() -> {
+            sealed.force(0, sealedLength);
+            for (int number : expired) {
+                try {
+                    Files.deleteIfExists(segmentFile(number));
+                } catch (IOException e) {
+                    log.warn("古いジョブログを削除できませんでした: {}", e.getMessage());
+                }
+            }
+        });
+        prepareSpare();
+    }
+
+    /**
+     * 書き込み中のセグメントの次のセグメントを、別スレッドで作成してメモリマップしておく。
+     */
+    private synchronized void prepareSpare() {
+        int number = currentSegment + 1;
+        spareSegment = number;
+        io.execute(() -> {
+            MappedByteBuffer buffer;
+            try {
+                buffer = map(number);
+            } catch (IOException e) {
+                log.warn("次のジョブログを作成できませんでした: segment={}, {}", number, e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                if (spareSegment == number) {
+                    spare = buffer;
+                }
+            }
+        });
+    }
+
+    /**
+     * 完了していないジョブの受付レコードがセグメントにあるかを判定する。
+     */
+    private boolean holdsUnfinishedJob(int number) {
+        for (List<Long> positions : index.values()) {
+            if ((int) (positions.get(0) >>> 32) != number) {
+                continue;
+            }
+            Type last = decode(positions.get(positions.size() - 1)).type();
+            if (last != Type.COMPLETED && last != Type.FAILED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 削除したセグメントのレコードを索引から取り除く。受付レコードが残っていないジョブは忘れる。
+     */
+    private void drop(int number) {
+        index.values().forEach(positions -> positions.removeIf(position -> (int) (position >>> 32) == number));
+        index.values().removeIf(positions -> positions.isEmpty() || decode(positions.get(0)).type() != Type.SUBMITTED);
+    }
+
+    private Entry decode(long position) {
+        MappedByteBuffer buffer = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        return decode(buffer, offset + HEADER_BYTES, buffer.getInt(offset));
+    }
+
+    private static Entry decode(MappedByteBuffer buffer, int body, int length) {
+        Type type = Type.values()[buffer.get(body)];
+        long timestamp = buffer.getLong(body + Byte.BYTES);
+        byte[] id = new byte[buffer.getShort(body + Byte.BYTES + Long.BYTES)];
+        buffer.get(body + Byte.BYTES + Long.BYTES + Short.BYTES, id);
+        int dataOffset = body + Byte.BYTES + Long.BYTES + Short.BYTES + id.length;
+        byte[] data = new byte[buffer.getInt(dataOffset)];
+        buffer.get(dataOffset + Integer.BYTES, data);
+        return new Entry(type, timestamp, new String(id, StandardCharsets.UTF_8),
+                new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static int crc(MappedByteBuffer buffer, int body, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(body, length));
+        return (int) crc.getValue();
+    }
+
+    private MappedByteBuffer map(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(number),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // マップはチャネルを閉じても有効（新しいセグメントは0で埋まったファイルになる）
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+}
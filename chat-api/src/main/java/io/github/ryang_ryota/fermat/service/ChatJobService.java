@@ -0,0 +1,447 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.ChatJobStats;
+import io.github.ryang_ryota.fermat.model.ChatJobStatus;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、質問を非同期のジョブとして受け付け、バックグラウンドで回答を生成するサービスです。
+ * - 受け付けたジョブは待ち行列に並べ、すぐにジョブIDを返します（SSEの接続を開いたまま待つ必要はありません）。
+ * - 生成は ChatService のパイプライン（検索・回答キャッシュ・合流・生成スケジューラ）をそのまま使い、
+ *   同時に生成するジョブの数を workers に制限します。生成スケジューラではジョブ専用の待ち行列（CLIENT_ID）に並ぶため、
+ *   対話的な利用者と交互に処理されます。さらに、対話的なリクエストが生成を待っている間は新しいジョブの生成を始めません。
+ * - 待ち行列のジョブは優先度の高い順（同じ優先度は受付順）に生成します。
+ * - 受付・生成の開始・トークン・結果は ChatJobLog に追記します。再起動後は、完了していないジョブを待ち行列に戻して生成し直し、
+ *   完了したジョブの結果はログから取得できます。生成はアプリケーションの起動が完了してから開始します。
+ * - 生成の待ち行列が満杯の場合は、ジョブを失敗にせず待ち行列に戻し、時間を置いて生成し直します（バーストを拒否せず後回しにする）。
+ */
+@Slf4j
+@Service
+public class ChatJobService {
+
+    // ジョブの生成が並ぶ生成スケジューラの待ち行列のID
+    public static final String CLIENT_ID = "jobs";
+
+    // ジョブの状態
+    private static final String QUEUED = "QUEUED";
+    private static final String RUNNING = "RUNNING";
+    private static final String COMPLETED = "COMPLETED";
+    private static final String FAILED = "FAILED";
+
+    // チャット処理を担当するサービス
+    private final ChatService chatService;
+
+    // ジョブの受付・トークン・結果を記録するログ
+    private final ChatJobLog jobLog;
+
+    // 生成スケジューラ（対話的なリクエストが待っているかを確認する）
+    private final GenerationScheduler generationScheduler;
+
+    // 同時に生成するジョブの数の上限
+    private final int workers;
+
+    // 生成を待てるジョブの数の上限
+    private final int queueCapacity;
+
+    // 生成の開始を見送った場合に、次に開始を試みるまでの時間
+    private final Duration retryDelay;
+
+    // 生成の開始・再試行を実行するスケジューラ
+    private final Scheduler scheduler;
+
+    // 生成を待っているジョブ（優先度の高い順、同じ優先度は受付順）
+    private final PriorityQueue<Job> pending = new PriorityQueue<>(
+            Comparator.comparingInt((Job job) -> -job.priority).thenComparingLong(job -> job.sequence));
+
+    // ジョブIDをキーとした生成を待っている・生成中のジョブ
+    private final Map<String, Job> active = new ConcurrentHashMap<>();
+
+    // 受付順の連番
+    private final AtomicLong sequence = new AtomicLong();
+
+    // 生成中のジョブの数と、再試行を予約済みか（this で保護）
+    private int running;
+    private boolean retryScheduled;
+
+    // 生成を開始できるか（アプリケーションの起動完了後）、停止処理を開始したか
+    private volatile boolean started;
+    private volatile boolean stopped;
+
+    // 統計情報
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param chatService         チャット処理サービス
+     * @param jobLog              ジョブのログ
+     * @param generationScheduler 生成スケジューラ
+     * @param workers             同時に生成するジョブの数の上限
+     * @param queueCapacity       生成を待てるジョブの数の上限
+     * @param retryDelay          生成の開始を見送った場合に、次に開始を試みるまでの時間
+     */
+    @Autowired
+    public ChatJobService(ChatService chatService, ChatJobLog jobLog, GenerationScheduler generationScheduler,
+                          @Value("${fermat.jobs.workers:2}") int workers,
+                          @Value("${fermat.jobs.queue-capacity:10000}") int queueCapacity,
+                          @Value("${fermat.jobs.retry-delay:1s}") Duration retryDelay) {
+        this(chatService, jobLog, generationScheduler, workers, queueCapacity, retryDelay, Schedulers.parallel());
+    }
+
+    ChatJobService(ChatService chatService, ChatJobLog jobLog, GenerationScheduler generationScheduler,
+                   int workers, int queueCapacity, Duration retryDelay, Scheduler scheduler) {
+        this.chatService = chatService;
+        this.jobLog = jobLog;
+        this.generationScheduler = generationScheduler;
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.retryDelay = retryDelay;
+        this.scheduler = scheduler;
+        recover();
+    }
+
+    /**
+     * アプリケーションの起動が完了したら、待ち行列（再起動前に完了していないジョブを含む）の生成を開始する。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startDispatch() {
+        started = true;
+        scheduler.schedule(this::dispatch);
+    }
+
+    /**
+     * 質問をジョブとして受け付ける。生成はバックグラウンドで行う。
+     * @param query    質問文
+     * @param priority 優先度（大きいほど先に生成する）
+     * @return 受け付けたジョブの状態
+     * @throws GenerationRejectedException ジョブの待ち行列が満杯の場合
+     */
+    public ChatJobStatus submit(String query, int priority) {
+        synchronized (this) {
+            if (pending.size() >= queueCapacity) {
+                throw new GenerationRejectedException("ジョブの待ち行列が満杯です", retryDelay);
+            }
+        }
+        String id = UUID.randomUUID().toString();
+        ChatJobLog.Entry entry = jobLog.append(ChatJobLog.Type.SUBMITTED, id,
+                new JSONObject().put("query", query).put("priority", priority).toString());
+        Job job = new Job(id, query, priority, sequence.incrementAndGet(), entry.timestamp());
+        active.put(id, job);
+        synchronized (this) {
+            pending.add(job);
+        }
+        submitted.increment();
+        ChatJobStatus status = status(job);
+        scheduler.schedule(this::dispatch);
+        return status;
+    }
+
+    /**
+     * ジョブの状態を取得する。
+     * @param id ジョブID
+     * @return ジョブの状態（ジョブがない、または保持期間を過ぎた場合は空）
+     */
+    public Optional<ChatJobStatus> status(String id) {
+        Job job = active.get(id);
+        if (job != null) {
+            return Optional.of(status(job));
+        }
+        List<ChatJobLog.Entry> entries = jobLog.read(id);
+        return entries.isEmpty() ? Optional.empty() : Optional.of(status(id, entries));
+    }
+
+    /**
+     * ジョブの回答を購読する。生成済みのトークンを返してから、生成中のトークンに合流する。
+     * 最後に COMPLETED（データは回答全体）または FAILED（データは失敗した理由）のレコードを返して完了する。
+     * @param id ジョブID
+     * @return トークンと結果のレコード（ジョブがない、または保持期間を過ぎた場合は空）
+     */
+    public Optional<Flux<ChatJobLog.Entry>> tail(String id) {
+        Job job = active.get(id);
+        if (job == null) {
+            List<ChatJobLog.Entry> entries = jobLog.read(id);
+            return entries.isEmpty() ? Optional.empty() : Optional.of(Flux.fromIterable(answerEntries(entries)));
+        }
+        return Optional.of(Flux.defer(() -> {
+            Sinks.Many<ChatJobLog.Entry> live = Sinks.many().unicast().onBackpressureBuffer();
+            List<ChatJobLog.Entry> snapshot;
+            // トークンの追記と配信はジョブのロック内で行うため、ログの読み出しと購読の登録の間に漏れ・重複はない
+            synchronized (job) {
+                // 生成を待っているジョブ（再起動前に途中まで生成したものを含む）の生成済みのトークンは無効
+                snapshot = QUEUED.equals(job.state) ? List.of() : answerEntries(jobLog.read(id));
+                if (job.finished) {
+                    return Flux.fromIterable(snapshot);
+                }
+                job.subscribers.add(live);
+            }
+            return Flux.fromIterable(snapshot)
+                    .concatWith(live.asFlux())
+                    .doFinally(signal -> {
+                        synchronized (job) {
+                            job.subscribers.remove(live);
+                        }
+                    });
+        }));
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 待機中・生成中のジョブの数等のスナップショット
+     */
+    public synchronized ChatJobStats stats() {
+        return new ChatJobStats(pending.size(), running, workers, queueCapacity, submitted.sum(), completed.sum(),
+                failed.sum(), deferred.sum(), recovered.sum(), jobLog.segmentCount(), jobLog.sizeBytes());
+    }
+
+    /**
+     * 生成中のジョブを中断する（ログには完了していないジョブとして残り、次回の起動時に生成し直す）。
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        active.values().forEach(job -> {
+            Disposable subscription = job.subscription;
+            if (subscription != null) {
+                subscription.dispose();
+            }
+        });
+    }
+
+    /**
+     * ログから完了していないジョブを読み直し、待ち行列に戻す。
+     */
+    private void recover() {
+        for (String id : jobLog.jobIds()) {
+            List<ChatJobLog.Entry> entries = jobLog.read(id);
+            ChatJobLog.Type last = entries.get(entries.size() - 1).type();
+            if (last == ChatJobLog.Type.COMPLETED || last == ChatJobLog.Type.FAILED) {
+                continue;
+            }
+            ChatJobLog.Entry first = entries.get(0);
+            JSONObject request = new JSONObject(first.data());
+            Job job = new Job(id, request.getString("query"), request.optInt("priority"), sequence.incrementAndGet(),
+                    first.timestamp());
+            active.put(id, job);
+            pending.add(job);
+            recovered.increment();
+        }
+        if (!pending.isEmpty()) {
+            log.info("完了していないジョブを待ち行列に戻しました: {}件", pending.size());
+        }
+    }
+
+    /**
+     * 実行枠の空きがあれば、待ち行列のジョブの生成を開始する。
+     * 対話的なリクエストが生成を待っている間は開始せず、時間を置いて再度試みる。
+     */
+    private void dispatch() {
+        List<Job> starting = new ArrayList<>();
+        synchronized (this) {
+            while (started && !stopped && running < workers && !pending.isEmpty()) {
+                if (generationScheduler.stats().queued() > 0) {
+                    defer();
+                    break;
+                }
+                running++;
+                starting.add(pending.poll());
+            }
+        }
+        starting.forEach(this::start);
+    }
+
+    /**
+     * 時間を置いて生成の開始を再度試みる（予約済みであれば何もしない）。
+     */
+    private synchronized void defer() {
+        if (retryScheduled) {
+            return;
+        }
+        retryScheduled = true;
+        deferred.increment();
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                retryScheduled = false;
+            }
+            dispatch();
+        }, retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void start(Job job) {
+        synchronized (job) {
+            jobLog.append(ChatJobLog.Type.STARTED, job.id, "");
+            job.state = RUNNING;
+            job.answer.setLength(0);
+        }
+        job.subscription = chatService.processChatStream(job.query)
+                .contextWrite(Context.of(GenerationScheduler.CLIENT_ID_KEY, CLIENT_ID))
+                .subscribe(token -> onToken(job, token), error -> onError(job, error), () -> onComplete(job));
+    }
+
+    private void onToken(Job job, String token) {
+        synchronized (job) {
+            ChatJobLog.Entry entry = jobLog.append(ChatJobLog.Type.TOKEN, job.id, token);
+            job.answer.append(token);
+            job.subscribers.forEach(subscriber -> subscriber.tryEmitNext(entry));
+        }
+    }
+
+    private void onComplete(Job job) {
+        synchronized (job) {
+            job.finish(COMPLETED, jobLog.append(ChatJobLog.Type.COMPLETED, job.id, job.answer.toString()));
+        }
+        completed.increment();
+        release(job);
+    }
+
+    private void onError(Job job, Throwable error) {
+        synchronized (job) {
+            if (error instanceof GenerationRejectedException && job.answer.isEmpty()) {
+                // 生成の待ち行列が満杯・待ち時間の上限を超えた場合は、失敗にせず待ち行列に戻す
+                job.state = QUEUED;
+                synchronized (this) {
+                    running--;
+                    pending.add(job);
+                    defer();
+                }
+                return;
+            }
+            log.warn("ジョブの生成に失敗しました: id={}, {}", job.id, error.getMessage());
+            String reason = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+            job.finish(FAILED, jobLog.append(ChatJobLog.Type.FAILED, job.id, reason));
+        }
+        failed.increment();
+        release(job);
+    }
+
+    /**
+     * 実行枠を返し、次のジョブの生成を開始する。結果はOSの停止に備えてディスクに書き出す。
+     */
+    private void release(Job job) {
+        active.remove(job.id);
+        synchronized (this) {
+            running--;
+        }
+        // 書き出しはI/Oを待つため、生成のトークンを受け取るスレッドでは行わない
+        Schedulers.boundedElastic().schedule(jobLog::force);
+        scheduler.schedule(this::dispatch);
+    }
+
+    /**
+     * 生成を待っているジョブのうち、指定したジョブより先に生成するジョブの数を数える。
+     */
+    private synchronized int position(Job job) {
+        int ahead = 0;
+        for (Job other : pending) {
+            if (pending.comparator().compare(other, job) < 0) {
+                ahead++;
+            }
+        }
+        return ahead;
+    }
+
+    private ChatJobStatus status(Job job) {
+        synchronized (job) {
+            boolean queued = QUEUED.equals(job.state);
+            return new ChatJobStatus(job.id, job.state, job.query, job.priority, queued ? position(job) : null,
+                    queued ? null : job.answer.toString(), null, job.submittedAt, null);
+        }
+    }
+
+    /**
+     * ログのレコードからジョブの状態を復元する（完了・失敗したジョブ）。
+     */
+    private static ChatJobStatus status(String id, List<ChatJobLog.Entry> entries) {
+        ChatJobLog.Entry first = entries.get(0);
+        ChatJobLog.Entry last = entries.get(entries.size() - 1);
+        JSONObject request = new JSONObject(first.data());
+        boolean succeeded = last.type() == ChatJobLog.Type.COMPLETED;
+        boolean finished = succeeded || last.type() == ChatJobLog.Type.FAILED;
+        return new ChatJobStatus(id, succeeded ? COMPLETED : finished ? FAILED : QUEUED, request.getString("query"),
+                request.optInt("priority"), null, succeeded ? last.data() : null,
+                finished && !succeeded ? last.data() : null, first.timestamp(), finished ? last.timestamp() : null);
+    }
+
+    /**
+     * 最後の生成の開始以降のトークンと結果のレコードを取り出す。
+     */
+    private static List<ChatJobLog.Entry> answerEntries(List<ChatJobLog.Entry> entries) {
+        List<ChatJobLog.Entry> answer = new ArrayList<>();
+        for (ChatJobLog.Entry entry : entries) {
+            switch (entry.type()) {
+                case STARTED -> answer.clear();
+                case TOKEN, COMPLETED, FAILED -> answer.add(entry);
+                default -> {
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * 生成を待っている・生成中のジョブ。状態・回答・購読者はジョブのロックで保護する。
+     */
+    private static final class Job {
+        private final String id;
+        private final String query;
+        private final int priority;
+        private final long sequence;
+        private final long submittedAt;
+        private final StringBuilder answer = new StringBuilder();
+        // 配信中に購読者がキャンセル（doFinally で削除）しても反復を続けられるようにする
+        private final List<Sinks.Many<ChatJobLog.Entry>> subscribers = new CopyOnWriteArrayList<>();
+        private String state = QUEUED;
+        private boolean finished;
+        private volatile Disposable subscription;
+
+        private Job(String id, String query, int priority, long sequence, long submittedAt) {
+            this.id = id;
+            this.query = query;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.submittedAt = submittedAt;
+        }
+
+        /**
+         * 結果のレコードを購読者に配信し、購読を完了する。
+         */
+        private void finish(String state, ChatJobLog.Entry result) {
+            this.state = state;
+            this.finished = true;
+            subscribers.forEach(subscriber -> {
+                subscriber.tryEmitNext(result);
+                subscriber.tryEmitComplete();
+            });
+            subscribers.clear();
+        }
+    }
+}
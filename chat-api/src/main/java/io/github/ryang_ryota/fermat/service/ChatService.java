@@ -1,60 +1,320 @@
 package io.github.ryang_ryota.fermat.service;
 
+import io.github.ryang_ryota.fermat.model.AssembledContext;
+import io.github.ryang_ryota.fermat.model.ChatBatchResult;
+import io.github.ryang_ryota.fermat.model.ChatRequest;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.model.SingleFlightStats;
+import io.github.ryang_ryota.fermat.util.QueryNormalizer;
+import io.github.ryang_ryota.fermat.util.SingleFlight;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * このクラスは、チャット処理のビジネスロジックを担当するサービスクラスです。
  * - ユーザーの質問から関連コンテキストを取得（ChromaDB）
- * - AIプロンプトを構築
+ * - 候補から重複を除き、多様なドキュメントをトークン数の上限内で選択（ContextAssembler）
+ * - AIプロンプトを構築（固定の指示文を先頭に置き、Ollama側のプロンプトキャッシュが効くようにする）
  * - Ollamaを呼び出し、ストリーミング形式でAI回答を取得
+ * - 同じ質問・同じプロンプトの処理が実行中であれば、新たに実行せず結果を共有（合流）
+ * - 意味的に同じ質問への回答がキャッシュにあれば、生成せずにそのまま返却
+ * - Ollamaへの生成は GenerationScheduler を通し、同時実行数を制限
+ * - プロンプト構築の所要時間とプロンプトの文字数を PipelineMetrics に記録
+ * - セッションIDを指定した場合は会話として扱い、前回のターンで受け取ったトークン列（Ollama の context）を渡して、
+ *   指示文やこれまでの会話を送り直さずに今回のターンだけを送る（回答キャッシュと合流は使わない）
+ * - 購読時のReactorコンテキストにリクエストの期限（RequestDeadline）があれば、検索・待ち行列・生成をその期限までに打ち切る
+ *   （合流した検索・生成は、それぞれの呼び出し元の期限で待つのをやめ、全員がやめた時点で上流をキャンセルする）
+ * - 複数の質問の一括処理では、埋め込みと検索をまとめて行い、生成は指定した並列数で実行して完了した順に結果を返す
  */
 @Service
 public class ChatService {
 
+    // プロンプトの固定の先頭部分（全てのリクエスト・会話の最初のターンで共通）
+    private static final String PROMPT_PREFIX =
+            "あなたは数学の専門家です。以下の文脈を参考に日本語で質問に答えてください。\n\n";
+
     // ChromaDB（ベクトルストア）操作サービス
     private final ChromaService chromaService;
     // Ollama（AIモデル）操作サービス
     private final OllamaService ollamaService;
 
+    // 質問の埋め込みベクトルをキーとした回答キャッシュ
+    private final SemanticAnswerCache semanticAnswerCache;
+
+    // Ollamaへの生成の同時実行数を制限するスケジューラ
+    private final GenerationScheduler generationScheduler;
+
+    // パイプラインのメトリクス
+    private final PipelineMetrics pipelineMetrics;
+
+    // 検索の候補からプロンプトに含めるドキュメントを選ぶサービス
+    private final ContextAssembler contextAssembler;
+
+    // 会話セッションのトークン列の保存先
+    private final ConversationSessionStore sessionStore;
+
+    // 実行中の同一処理への合流を有効にするか
+    @Value("${fermat.coalescing.enabled:true}")
+    private boolean coalescingEnabled = true;
+
+    // 正規化した質問文をキーとした検索処理の合流
+    private final SingleFlight<String, RetrievedContext> retrievals = new SingleFlight<>();
+
+    // プロンプトをキーとした生成処理の合流
+    private final SingleFlight<String, String> generations = new SingleFlight<>();
+
     /**
      * 依存性注入コンストラクタ
      * @param chromaService ChromaDB操作サービス
      * @param ollamaService Ollama操作サービス
+     * @param semanticAnswerCache 回答キャッシュ
+     * @param generationScheduler 生成スケジューラ
+     * @param pipelineMetrics パイプラインのメトリクス
+     * @param contextAssembler コンテキストの選択
+     * @param sessionStore 会話セッションの保存先
      */
     @Autowired
-    public ChatService(ChromaService chromaService, OllamaService ollamaService) {
+    public ChatService(ChromaService chromaService, OllamaService ollamaService,
+                       SemanticAnswerCache semanticAnswerCache, GenerationScheduler generationScheduler,
+                       PipelineMetrics pipelineMetrics, ContextAssembler contextAssembler,
+                       ConversationSessionStore sessionStore) {
         this.chromaService = chromaService;
         this.ollamaService = ollamaService;
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.generationScheduler = generationScheduler;
+        this.pipelineMetrics = pipelineMetrics;
+        this.contextAssembler = contextAssembler;
+        this.sessionStore = sessionStore;
     }
 
     /**
      * チャット処理のメインフロー（ストリーミング対応）
      * 1. ChromaDBから関連コンテキスト取得
-     * 2. プロンプト構築
-     * 3. Ollamaでストリーミング回答生成
+     * 2. 回答キャッシュを参照（ヒットすれば保存済みの回答をそのまま返す）
+     * 3. 候補からドキュメントを選び、プロンプト構築
+     * 4. Ollamaでストリーミング回答生成
+     * - 各ステップは購読時に遅延実行され、呼び出し元のスレッドをブロックしません。
+     * - 同じ質問の検索、同じプロンプトの生成が実行中であれば、それに合流して結果を共有します。
      * @param query ユーザーからの質問
      * @return AIの回答トークンを逐次返すFluxストリーム
      */
     public Flux<String> processChatStream(String query) {
-        // ステップ1: ChromaDBから関連コンテキストを取得
-        // - 質問内容に基づき、ベクトル検索で関連知識を抽出
-        String context = chromaService.retrieveContext(query);
-
-        // ステップ2: AIプロンプトを構築
-        // - 取得したコンテキストと質問を組み合わせた指示文を作成
-        String prompt = String.format(
-                "あなたは数学の専門家です。以下の文脈を参考に日本語で質問に答えてください。\n\n" +
-                        "【文脈】\n%s\n\n" +
-                        "【質問】%s\n" +
-                        "【回答】",
-                context, query
-        );
-
-        // ステップ3: OllamaでAI回答をストリーミング形式で生成
-        // - 構築したプロンプトをAIモデルに送信
-        // - 回答をトークン単位で逐次返すFluxストリームを返却
-        return ollamaService.generateResponseStream(prompt);
+        return processChatStream(query, ContextOptions.defaults());
+    }
+
+    /**
+     * チャット処理のメインフロー（コンテキストの選択をリクエストごとに設定する）。
+     * @param query   ユーザーからの質問
+     * @param options コンテキストの選択の設定
+     * @return AIの回答トークンを逐次返すFluxストリーム
+     */
+    public Flux<String> processChatStream(String query, ContextOptions options) {
+        return processChatStream(query, options, null);
+    }
+
+    /**
+     * チャット処理のメインフロー（セッションIDを指定した場合は会話の続きとして生成する）。
+     * @param query     ユーザーからの質問
+     * @param options   コンテキストの選択の設定
+     * @param sessionId 会話セッションID（null または空の場合は単発の質問として扱う）
+     * @return AIの回答トークンを逐次返すFluxストリーム
+     */
+    public Flux<String> processChatStream(String query, ContextOptions options, String sessionId) {
+        Flux<String> tokens;
+        if (sessionId != null && !sessionId.isBlank()) {
+            tokens = retrieve(query).flatMapMany(context -> converse(context, query, options, sessionId));
+        } else {
+            // ステップ1: ChromaDBから関連コンテキストを取得
+            // - 質問内容に基づき、ベクトル検索で関連知識を抽出（非同期）
+            tokens = retrieve(query)
+                    // ステップ2〜4: キャッシュを参照し、なければOllamaでAI回答をストリーミング形式で生成
+                    .flatMapMany(context -> answer(context, query, options));
+        }
+        // 期限切れはリクエストごとに（合流した呼び出し元もそれぞれ）数える
+        return tokens.doOnError(DeadlineExceededException.class,
+                e -> pipelineMetrics.recordDeadlineExceeded(e.getStage()));
+    }
+
+    /**
+     * 複数の質問をまとめて処理する（一括処理）。
+     * 1. 全ての質問の埋め込みと検索を、ChromaServiceの一括検索でまとめて行う
+     * 2. 各質問の回答を、回答キャッシュ・合流・生成スケジューラを通して最大 parallelism 件ずつ並列に生成する
+     *    （生成スケジューラに拒否された質問は、失敗にせず Retry-After の時間を置いて生成し直す）
+     * 3. 回答が完了した順に結果を返す（失敗した質問は error を設定した結果を返し、残りの質問の処理は続ける）
+     * @param questions   質問
+     * @param options     コンテキストの選択の設定
+     * @param parallelism 同時に生成する質問数の上限
+     * @return 完了した順の各質問の結果
+     */
+    public Flux<ChatBatchResult> processBatch(List<ChatRequest> questions, ContextOptions options, int parallelism) {
+        List<String> queries = questions.stream().map(ChatRequest::getQuery).toList();
+        return chromaService.retrieveContexts(queries)
+                .flatMapMany(contexts -> Flux.range(0, questions.size())
+                        .flatMap(index -> answerOne(index, questions.get(index), contexts.get(index), options),
+                                Math.max(1, parallelism)));
+    }
+
+    /**
+     * 一括処理の1件の質問の回答を生成し、結果にまとめる。
+     */
+    private Mono<ChatBatchResult> answerOne(int index, ChatRequest question, RetrievedContext context,
+                                            ContextOptions options) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            // 一括処理は対話的な利用者より長く待てるため、待ち行列が満杯・待ち時間の上限を超えた場合は時間を置いて並び直す
+            // （拒否は生成の開始前に起きるため、回答の途中からやり直すことはない）
+            return Flux.defer(() -> answer(context, question.getQuery(), options))
+                    .retryWhen(Retry.withThrowable(errors -> errors.concatMap(e ->
+                            e instanceof GenerationRejectedException rejected
+                                    ? Mono.delay(rejected.getRetryAfter())
+                                    : Mono.error(e))))
+                    .collect(Collectors.joining())
+                    .map(answer -> new ChatBatchResult(index, question.getId(), question.getQuery(), answer, null,
+                            elapsedMillis(start)))
+                    .onErrorResume(e -> Mono.just(new ChatBatchResult(index, question.getId(), question.getQuery(),
+                            null, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage(),
+                            elapsedMillis(start))));
+        });
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * 回答キャッシュを参照し、ヒットしなければプロンプトを構築して回答を生成する。
+     * @param context 関連コンテキスト
+     * @param query   ユーザーからの質問
+     * @param options コンテキストの選択の設定
+     * @return AIの回答トークン
+     */
+    private Flux<String> answer(RetrievedContext context, String query, ContextOptions options) {
+        // キャッシュは埋め込みベクトルだけをキーにするため、設定ファイルと異なるコンテキストの設定では使わない
+        boolean cacheable = contextAssembler.usesDefaults(options);
+        Optional<List<String>> cached = cacheable ? semanticAnswerCache.lookup(context.queryEmbedding()) : Optional.empty();
+        if (cached.isPresent()) {
+            // キャッシュヒット: 保存済みのトークンを待ち時間なしで再生する
+            return Flux.fromIterable(cached.get());
+        }
+        long start = System.nanoTime();
+        AssembledContext assembled = contextAssembler.assemble(context, options);
+        String prompt = buildPrompt(assembled.text(), query);
+        pipelineMetrics.recordStage(PipelineMetrics.Stage.PROMPT_BUILD, System.nanoTime() - start);
+        pipelineMetrics.recordPrompt(prompt.length());
+        // 合流した生成は1つの実行枠を共有する
+        Supplier<Flux<String>> generation =
+                () -> generationScheduler.schedule(() -> ollamaService.generateResponseStream(prompt));
+        if (!cacheable || assembled.documents().isEmpty() || context.fallback()) {
+            // コンテキストなし、または検索の失敗で代替したコンテキストで生成した回答はキャッシュしない
+            // （ChromaDBの復旧後も、古い・別の質問の文書に基づく回答を返し続けないようにする）
+            return generate(prompt, generation);
+        }
+        return generate(prompt, () -> recordAnswer(context.queryEmbedding(), generation.get()));
+    }
+
+    /**
+     * 会話の1ターンを生成する。
+     * - 保存済みのトークン列があれば、今回の文脈と質問だけをプロンプトにする（指示文と過去の会話はトークン列に含まれる）
+     * - 同じセッションのターンは同じOllamaノードに送り、ノード上のKVキャッシュを再利用する
+     * - 生成が完了した時点で、次のターンに渡すトークン列を保存する
+     * - 回答は会話の流れに依存するため、回答キャッシュの参照・保存と、他のリクエストとの合流は行わない
+     */
+    private Flux<String> converse(RetrievedContext context, String query, ContextOptions options, String sessionId) {
+        long start = System.nanoTime();
+        AssembledContext assembled = contextAssembler.assemble(context, options);
+        int[] history = sessionStore.context(sessionId);
+        String prompt = history == null ? buildPrompt(assembled.text(), query) : buildTurn(assembled.text(), query);
+        pipelineMetrics.recordStage(PipelineMetrics.Stage.PROMPT_BUILD, System.nanoTime() - start);
+        pipelineMetrics.recordPrompt(prompt.length());
+        return generationScheduler.schedule(() -> ollamaService.generateTokenStream(prompt, history, sessionId)
+                .doOnNext(token -> {
+                    if (token.done() && token.context() != null) {
+                        sessionStore.update(sessionId, token.context());
+                    }
+                })
+                .map(OllamaToken::response));
+    }
+
+    /**
+     * 会話セッションを終了し、保存済みのトークン列を破棄する。
+     * @param sessionId 会話セッションID
+     */
+    public void endSession(String sessionId) {
+        sessionStore.remove(sessionId);
+    }
+
+    /**
+     * 生成が最後まで完了した回答をキャッシュに保存する。
+     * 途中でキャンセル・失敗した回答は保存しない。
+     */
+    private Flux<String> recordAnswer(float[] embedding, Flux<String> tokens) {
+        return Flux.defer(() -> {
+            List<String> answer = new ArrayList<>();
+            return tokens.doOnNext(answer::add)
+                    .doOnComplete(() -> semanticAnswerCache.put(embedding, answer));
+        });
+    }
+
+    /**
+     * 合流の統計情報を取得する。
+     * @return 検索・生成それぞれの統計情報
+     */
+    public Map<String, SingleFlightStats> coalescingStats() {
+        return Map.of("retrieval", retrievals.stats(), "generation", generations.stats());
+    }
+
+    private Mono<RetrievedContext> retrieve(String query) {
+        // 検索処理の組み立て自体は軽量（購読されるまで実行されない）
+        Mono<RetrievedContext> retrieval = chromaService.retrieveContext(query);
+        if (!coalescingEnabled) {
+            return retrieval;
+        }
+        // 合流した検索は最初の呼び出し元の期限で実行されるため、呼び出し元ごとの期限でも待つのをやめる
+        return RequestDeadline.bound(retrievals.executeMono(QueryNormalizer.normalize(query), () -> retrieval),
+                "retrieval");
+    }
+
+    private Flux<String> generate(String prompt, Supplier<Flux<String>> generation) {
+        if (!coalescingEnabled) {
+            return generation.get();
+        }
+        // 合流した生成も同様に、呼び出し元ごとの期限で待つのをやめる
+        return RequestDeadline.bound(generations.execute(prompt, generation), "generation");
+    }
+
+    /**
+     * 取得したコンテキストと質問を組み合わせたAIプロンプトを構築する。
+     * 固定の指示文を先頭に置くことで、リクエストが異なってもプロンプトの先頭が一致し、Ollama側のプロンプトキャッシュが効く。
+     * @param context 関連コンテキスト
+     * @param query   ユーザーからの質問
+     * @return AIへの指示文
+     */
+    String buildPrompt(String context, String query) {
+        return PROMPT_PREFIX + buildTurn(context, query);
+    }
+
+    /**
+     * 会話の続きのターンのプロンプトを構築する（指示文は最初のターンで送信済み）。
+     * @param context 関連コンテキスト
+     * @param query   ユーザーからの質問
+     * @return 今回のターンの指示文
+     */
+    String buildTurn(String context, String query) {
+        return "【文脈】\n" + context + "\n\n" +
+                "【質問】" + query + "\n" +
+                "【回答】";
     }
 }
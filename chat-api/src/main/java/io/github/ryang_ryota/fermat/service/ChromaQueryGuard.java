@@ -0,0 +1,418 @@
+package io.github.ryang_ryota.fermat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.ryang_ryota.fermat.model.ChromaQueryStats;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.util.QueryNormalizer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * このクラスは、ChromaDBへの検索リクエストのテールレイテンシと障害を抑えるためのガードです。
+ * - ヘッジ: 検索が直近の応答時間の p95 を過ぎても返らない場合に、同じ検索をもう1回送り、先に返った方を使います
+ *   （遅い方はキャンセルします）。p95 は1回目の検索の応答時間（ヘッジに負けた場合はキャンセルまでの時間）から求めます。ヘッジの数は直近の検索数の一定割合までに制限し（検索ごとに貯まる予算から使う）、
+ *   ChromaDBの負荷を倍増させません。
+ * - サーキットブレーカー: 検索が連続して失敗した場合は一定時間ChromaDBに送らずに即座に失敗させ、
+ *   時間が経った後の最初の1件（プローブ）が成功した時点で再開します。
+ * - 古いコンテキストへのフォールバック: 成功した検索結果を件数上限付きで保持し、検索に失敗した場合は
+ *   同じ質問（正規化後）、なければ埋め込みベクトルが十分近い質問の検索結果を返します。
+ * - ヘッジ・遮断・フォールバックの回数を PipelineMetrics と統計情報に記録します。
+ */
+@Slf4j
+@Service
+public class ChromaQueryGuard {
+
+    // 応答時間の標本数（直近のこの件数から p95 を求める）
+    private static final int LATENCY_SAMPLES = 256;
+
+    // p95 を計算し直す間隔（標本数）
+    private static final int RECOMPUTE_INTERVAL = 32;
+
+    // ヘッジの予算を貯められる上限（検索数換算。遅延が続くと、直近この件数の検索の一定割合までしかヘッジしない）
+    private static final int HEDGE_BUDGET_QUERIES = 100;
+
+    /**
+     * サーキットブレーカーの状態。
+     */
+    public enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * サーキットブレーカーが開いているため、ChromaDBに送らずに失敗させたことを表す例外。
+     */
+    public static class CircuitOpenException extends RuntimeException {
+
+        CircuitOpenException() {
+            super("ChromaDBへの検索を一時的に停止しています（サーキットブレーカー）");
+        }
+    }
+
+    // ヘッジを有効にするか
+    private final boolean hedgeEnabled;
+
+    // ヘッジを送るまでの待ち時間を決める百分位（0.95 で p95）
+    private final double hedgePercentile;
+
+    // ヘッジを送るまでの待ち時間の下限
+    private final long minHedgeDelayNanos;
+
+    // ヘッジを始めるのに必要な応答時間の標本数
+    private final int minSamples;
+
+    // 検索数に対するヘッジ数の上限の割合
+    private final double maxHedgeRatio;
+
+    // ヘッジの予算の上限（件数）
+    private final double maxHedgeBudget;
+
+    // サーキットブレーカーを開く連続失敗回数
+    private final int failureThreshold;
+
+    // サーキットブレーカーを開いておく時間（ミリ秒）
+    private final long openMillis;
+
+    // フォールバックに使うとみなす埋め込みベクトルのコサイン類似度の閾値
+    private final double similarityThreshold;
+
+    // 成功した検索結果（正規化した質問文 → 検索結果。上限が0の場合は null で無効）
+    private final Cache<String, RetrievedContext> lastGood;
+
+    private final PipelineMetrics pipelineMetrics;
+
+    private final LongSupplier clock;
+
+    private final Scheduler scheduler;
+
+    // 直近の応答時間（ナノ秒）のリングバッファ（this で同期）
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyNext;
+
+    // ヘッジを送るまでの待ち時間（ナノ秒。標本が足りない場合は −1）
+    private volatile long hedgeDelayNanos = -1;
+
+    // ヘッジに使える予算（検索ごとに maxHedgeRatio 件分貯まり、ヘッジごとに1件分使う。this で同期）
+    private double hedgeBudget;
+
+    // サーキットブレーカーの状態（this で同期）
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+
+    // 統計情報
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder trips = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder staleFallbacks = new LongAdder();
+    private final LongAdder emptyFallbacks = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param hedgeEnabled        ヘッジを有効にするか
+     * @param hedgePercentile     ヘッジを送るまでの待ち時間を決める百分位
+     * @param minHedgeDelayMillis ヘッジを送るまでの待ち時間の下限（ミリ秒）
+     * @param minSamples          ヘッジを始めるのに必要な応答時間の標本数
+     * @param maxHedgeRatio       検索数に対するヘッジ数の上限の割合
+     * @param failureThreshold    サーキットブレーカーを開く連続失敗回数
+     * @param openMillis          サーキットブレーカーを開いておく時間（ミリ秒）
+     * @param fallbackEntries     フォールバック用に保持する検索結果の件数の上限（0 の場合は無効）
+     * @param fallbackMaxAge      フォールバックに使える検索結果の古さの上限
+     * @param similarityThreshold フォールバックに使うとみなすコサイン類似度の閾値
+     * @param pipelineMetrics     パイプラインのメトリクス
+     */
+    @Autowired
+    public ChromaQueryGuard(@Value("${fermat.chroma.hedge.enabled:true}") boolean hedgeEnabled,
+                            @Value("${fermat.chroma.hedge.percentile:0.95}") double hedgePercentile,
+                            @Value("${fermat.chroma.hedge.min-delay-ms:10}") long minHedgeDelayMillis,
+                            @Value("${fermat.chroma.hedge.min-samples:20}") int minSamples,
+                            @Value("${fermat.chroma.hedge.max-ratio:0.1}") double maxHedgeRatio,
+                            @Value("${fermat.chroma.circuit.failure-threshold:5}") int failureThreshold,
+                            @Value("${fermat.chroma.circuit.open-duration-ms:10000}") long openMillis,
+                            @Value("${fermat.chroma.fallback.max-entries:512}") int fallbackEntries,
+                            @Value("${fermat.chroma.fallback.max-age:30m}") Duration fallbackMaxAge,
+                            @Value("${fermat.chroma.fallback.similarity-threshold:0.9}") double similarityThreshold,
+                            PipelineMetrics pipelineMetrics) {
+        this(hedgeEnabled, hedgePercentile, minHedgeDelayMillis, minSamples, maxHedgeRatio, failureThreshold,
+                openMillis, fallbackEntries, fallbackMaxAge, similarityThreshold, pipelineMetrics,
+                System::currentTimeMillis, Schedulers.parallel());
+    }
+
+    ChromaQueryGuard(boolean hedgeEnabled, double hedgePercentile, long minHedgeDelayMillis, int minSamples,
+                     double maxHedgeRatio, int failureThreshold, long openMillis, int fallbackEntries,
+                     Duration fallbackMaxAge, double similarityThreshold, PipelineMetrics pipelineMetrics,
+                     LongSupplier clock, Scheduler scheduler) {
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgePercentile = Math.min(1.0, Math.max(0.0, hedgePercentile));
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minHedgeDelayMillis));
+        this.minSamples = Math.max(1, Math.min(LATENCY_SAMPLES, minSamples));
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.maxHedgeBudget = Math.max(1.0, maxHedgeRatio * HEDGE_BUDGET_QUERIES);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.similarityThreshold = similarityThreshold;
+        this.pipelineMetrics = pipelineMetrics;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.lastGood = fallbackEntries <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(fallbackEntries)
+                .expireAfterWrite(fallbackMaxAge)
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * 検索リクエストを、サーキットブレーカーとヘッジを通して実行する。
+     * @param query 検索リクエストを作成する関数（ヘッジの場合はもう1回呼ばれる）
+     * @return レスポンスボディ（サーキットブレーカーが開いている場合は CircuitOpenException で失敗）
+     */
+    public Mono<String> execute(Supplier<Mono<String>> query) {
+        return Mono.defer(() -> {
+            if (!tryAcquire(clock.getAsLong())) {
+                shortCircuited.increment();
+                return Mono.error(new CircuitOpenException());
+            }
+            queries.increment();
+            depositHedgeBudget();
+            return hedged(query)
+                    .doOnNext(body -> onSuccess())
+                    .doOnError(e -> onFailure(clock.getAsLong()))
+                    .doOnCancel(this::onCancel);
+        });
+    }
+
+    /**
+     * 成功した検索結果をフォールバック用に保持する。
+     * @param context 検索結果
+     */
+    public void remember(RetrievedContext context) {
+        if (lastGood != null && !context.documents().isEmpty()) {
+            lastGood.put(QueryNormalizer.normalize(context.query()), context);
+        }
+    }
+
+    /**
+     * 検索に失敗した場合に使う、同じ質問または近い質問の直近の検索結果を探す。
+     * @param query     質問文
+     * @param embedding 質問文の埋め込みベクトル
+     * @return 質問文と埋め込みベクトルを今回のものに差し替えた検索結果（見つからない場合は空のコンテキスト。
+     *         いずれも代替したコンテキストとして印を付ける）
+     */
+    public RetrievedContext fallback(String query, float[] embedding) {
+        Optional<RetrievedContext> stale = findStale(query, embedding);
+        if (stale.isEmpty()) {
+            emptyFallbacks.increment();
+            pipelineMetrics.recordChromaFallback(false);
+            return new RetrievedContext(query, embedding, List.of(), List.of(), List.of(), true);
+        }
+        staleFallbacks.increment();
+        pipelineMetrics.recordChromaFallback(true);
+        RetrievedContext context = stale.get();
+        return new RetrievedContext(query, embedding, context.documents(), context.distances(), context.embeddings(),
+                true);
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return ヘッジ・遮断・フォールバックの回数等のスナップショット
+     */
+    public ChromaQueryStats stats() {
+        CircuitState current;
+        synchronized (this) {
+            current = state;
+        }
+        long delay = hedgeDelayNanos;
+        return new ChromaQueryStats(current.name(), queries.sum(), hedges.sum(), hedgeWins.sum(),
+                delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay), trips.sum(), shortCircuited.sum(),
+                staleFallbacks.sum(), emptyFallbacks.sum(), lastGood == null ? 0 : lastGood.estimatedSize());
+    }
+
+    /**
+     * 1回目の検索を送り、p95 を過ぎても返らなければ2回目（ヘッジ）を送って、先に値を返した方を使う。
+     * 1回目が先に失敗した場合は、ヘッジを送らずに（送っていればキャンセルして）その失敗を返す。
+     */
+    private Mono<String> hedged(Supplier<Mono<String>> query) {
+        AtomicBoolean hedgeWon = new AtomicBoolean();
+        Mono<String> primary = timed(query, hedgeWon);
+        long delay = hedgeDelayNanos;
+        if (!hedgeEnabled || delay < 0) {
+            return primary;
+        }
+        Mono<String> hedge = Mono.delay(Duration.ofNanos(delay), scheduler)
+                .flatMap(tick -> {
+                    // 予算が尽きている場合は送らない（ChromaDB自体が遅い場合に負荷を倍増させない）
+                    if (!tryTakeHedgeBudget()) {
+                        return Mono.<String>never();
+                    }
+                    hedges.increment();
+                    pipelineMetrics.recordChromaHedge(false);
+                    // ヘッジの応答時間は記録しない（遅れて送るため、記録すると待ち時間が短い側に偏る）。
+                    // ヘッジが失敗した場合は、1回目の結果を待つ
+                    return Mono.defer(query).doOnNext(body -> hedgeWon.set(true))
+                            .onErrorResume(e -> Mono.never());
+                });
+        // ヘッジは値を返すまで信号を出さないため、1回目の値・失敗・ヘッジの値のうち最初のものが結果になる
+        return Mono.firstWithSignal(primary, hedge)
+                .doOnNext(body -> {
+                    if (hedgeWon.get()) {
+                        hedgeWins.increment();
+                        pipelineMetrics.recordChromaHedge(true);
+                    }
+                });
+    }
+
+    /**
+     * 1回目の検索リクエストを作成し、成功した場合は応答時間を記録する。
+     * ヘッジに負けてキャンセルされた場合も、それまでの経過時間を応答時間の下限として記録する
+     * （遅い応答ほどヘッジに負けるため、記録しないと p95 が遅い側を取りこぼして下がり続ける）。
+     */
+    private Mono<String> timed(Supplier<Mono<String>> query, AtomicBoolean hedgeWon) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return query.get().doFinally(signal -> {
+                if (signal == SignalType.ON_COMPLETE || signal == SignalType.CANCEL && hedgeWon.get()) {
+                    recordLatency(System.nanoTime() - start);
+                }
+            });
+        });
+    }
+
+    /**
+     * 応答時間を記録し、一定件数ごとにヘッジを送るまでの待ち時間を計算し直す。
+     */
+    private synchronized void recordLatency(long nanos) {
+        latencies[latencyNext] = nanos;
+        latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+        latencyCount++;
+        if (latencyCount >= minSamples && (latencyCount == minSamples || latencyCount % RECOMPUTE_INTERVAL == 0)) {
+            long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(hedgePercentile * sorted.length) - 1;
+            hedgeDelayNanos = Math.max(minHedgeDelayNanos, sorted[Math.max(0, index)]);
+        }
+    }
+
+    /**
+     * 検索1件分のヘッジの予算を貯める（上限を超えた分は捨てる）。
+     */
+    private synchronized void depositHedgeBudget() {
+        hedgeBudget = Math.min(maxHedgeBudget, hedgeBudget + maxHedgeRatio);
+    }
+
+    /**
+     * ヘッジ1件分の予算を使う。
+     * @return 予算が残っていた場合は true
+     */
+    private synchronized boolean tryTakeHedgeBudget() {
+        if (hedgeBudget < 1.0) {
+            return false;
+        }
+        hedgeBudget -= 1.0;
+        return true;
+    }
+
+    /**
+     * 検索を送ってよいか判定する。開いてから一定時間が経っていれば、最初の1件だけをプローブとして通す。
+     */
+    private synchronized boolean tryAcquire(long now) {
+        return switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> false;
+            case OPEN -> {
+                if (now < openUntil) {
+                    yield false;
+                }
+                state = CircuitState.HALF_OPEN;
+                yield true;
+            }
+        };
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != CircuitState.CLOSED) {
+            state = CircuitState.CLOSED;
+            log.info("ChromaDBへの検索を再開しました");
+        }
+    }
+
+    private synchronized void onFailure(long now) {
+        if (state == CircuitState.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            state = CircuitState.OPEN;
+            openUntil = now + openMillis;
+            consecutiveFailures = 0;
+            trips.increment();
+            pipelineMetrics.recordChromaCircuitTrip();
+            log.warn("ChromaDBへの検索が連続して失敗したため、一時的に停止します（{}ミリ秒）", openMillis);
+        }
+    }
+
+    /**
+     * プローブがキャンセルされた場合（クライアントの切断・期限切れ）は、次の検索を改めてプローブにする。
+     */
+    private synchronized void onCancel() {
+        if (state == CircuitState.HALF_OPEN) {
+            state = CircuitState.OPEN;
+        }
+    }
+
+    /**
+     * 同じ質問（正規化後）、なければ埋め込みベクトルのコサイン類似度が最も高い質問の検索結果を探す。
+     */
+    private Optional<RetrievedContext> findStale(String query, float[] embedding) {
+        if (lastGood == null) {
+            return Optional.empty();
+        }
+        RetrievedContext exact = lastGood.getIfPresent(QueryNormalizer.normalize(query));
+        if (exact != null || embedding == null || embedding.length == 0) {
+            return Optional.ofNullable(exact);
+        }
+        // 失敗時だけ通る経路のため、件数上限までの線形探索で十分
+        RetrievedContext best = null;
+        double bestScore = similarityThreshold;
+        for (Map.Entry<String, RetrievedContext> entry : lastGood.asMap().entrySet()) {
+            float[] other = entry.getValue().queryEmbedding();
+            if (other == null || other.length != embedding.length) {
+                continue;
+            }
+            double score = cosine(embedding, other);
+            if (score >= bestScore) {
+                best = entry.getValue();
+                bestScore = score;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / Math.sqrt(normA * normB);
+    }
+}
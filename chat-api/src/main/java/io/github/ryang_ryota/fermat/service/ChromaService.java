@@ -1,51 +1,47 @@
 package io.github.ryang_ryota.fermat.service;
 
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.*;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.util.ReciprocalRankFusion;
+import lombok.extern.slf4j.Slf4j;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+
 /**
  * ChromaService.java
  *
  * このクラスは、ChromaDB（ベクトルデータベース）と通信し、
  * ユーザーの質問に関連する知識（コンテキスト）を検索・取得するサービスです。
  * - クエリを埋め込みベクトルに変換し、ChromaDBに類似検索リクエストを送信します。
- * - 最も関連性の高いドキュメントを複数取得し、AIへのプロンプト生成に利用します。
+ * - 関連性の高いドキュメントを候補として多めに（埋め込みベクトルとともに）取得し、
+ *   ContextAssembler がその中からプロンプトに使うドキュメントを選びます。
+ * - 埋め込みは専用スレッドプールで、検索は接続プール付きWebClientで非同期に実行するため、
+ *   呼び出し元（イベントループ）のスレッドをブロックしません。
+ * - 埋め込みと並行して語彙検索（BM25）を行い、ベクトル検索の結果とRRFで統合します（人名・定理番号等の完全一致を拾うため）。
+ * - 埋め込み・検索の所要時間とエラー数を PipelineMetrics に記録します。
+ * - リクエストの期限（RequestDeadline）を過ぎた埋め込み・検索は打ち切り、ChromaDBへのリクエストも中断します。
+ * - ChromaDBへの検索は ChromaQueryGuard を通し、遅い検索のヘッジ・連続失敗時の遮断を行います。
+ *   検索に失敗した場合は空のコンテキストではなく、同じ・近い質問の直近の検索結果で代替します。
+ * - 一括処理（/chat/batch）では、質問をまとめて埋め込み、複数行の query_embeddings を1回のリクエストで検索します。
  *
  * @author YourName
  * @version 1.0
  */
-
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
-import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-
-import java.util.List;
-
-/**
- * ChromaDBとの連携を担当するサービスクラス。
- * ベクトル検索により、関連知識を取得します。
- */
+@Slf4j
 @Service
 public class ChromaService {
 
-    // ChromaDBのホスト名
-    @Value("${chroma.host}")
-    private String chromaHost;
-
-    // ChromaDBのポート番号
-    @Value("${chroma.port}")
-    private int chromaPort;
-
     // ChromaDBのテナント名
     @Value("${chroma.tenant}")
     private String chromaTenant;
@@ -58,73 +54,355 @@ public class ChromaService {
     @Value("${chroma.collection-id}")
     private String collectionId;
 
-    // HTTP通信を行うためのRestTemplate
-    private final RestTemplate restTemplate = new RestTemplate();
+    // 取得する候補の件数
+    @Value("${fermat.chroma.n-results:12}")
+    private int nResults;
+
+    // 語彙検索で取得する件数
+    @Value("${fermat.lexical.n-results:8}")
+    private int lexicalResults = 8;
+
+    // 一括処理で1回の検索リクエストに含める質問数の上限
+    @Value("${fermat.batch.chroma-rows:64}")
+    private int batchRows = 64;
+
+    // RRFの順位の減衰を緩める定数
+    @Value("${fermat.lexical.rrf-k:60}")
+    private int rrfK = 60;
+
+    // クエリを埋め込みベクトルに変換する共有エンジン
+    private final EmbeddingService embeddingService;
+
+    // ChromaDB専用の接続プール付きWebClient
+    private final WebClient chromaWebClient;
+
+    // 正規化した質問文をキーとするクエリ埋め込みキャッシュ
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
+    // コレクションを複製したローカルの近似最近傍インデックス
+    private final LocalVectorIndex localVectorIndex;
+
+    // パイプラインのメトリクス
+    private final PipelineMetrics pipelineMetrics;
+
+    // ドキュメント本文のBM25インデックス
+    private final LexicalIndex lexicalIndex;
+
+    // ChromaDBへの検索のヘッジ・サーキットブレーカー・フォールバック
+    private final ChromaQueryGuard queryGuard;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param embeddingService 共有の埋め込みエンジン
+     * @param chromaWebClient  ChromaDB用WebClient
+     * @param queryEmbeddingCache クエリ埋め込みキャッシュ
+     * @param localVectorIndex    ローカルの近似最近傍インデックス
+     * @param pipelineMetrics     パイプラインのメトリクス
+     * @param lexicalIndex        語彙検索インデックス
+     * @param queryGuard          ChromaDBへの検索のガード
+     */
+    @Autowired
+    public ChromaService(EmbeddingService embeddingService,
+                         @Qualifier("chromaWebClient") WebClient chromaWebClient,
+                         QueryEmbeddingCache queryEmbeddingCache,
+                         LocalVectorIndex localVectorIndex,
+                         PipelineMetrics pipelineMetrics,
+                         LexicalIndex lexicalIndex,
+                         ChromaQueryGuard queryGuard) {
+        this.embeddingService = embeddingService;
+        this.chromaWebClient = chromaWebClient;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.localVectorIndex = localVectorIndex;
+        this.pipelineMetrics = pipelineMetrics;
+        this.lexicalIndex = lexicalIndex;
+        this.queryGuard = queryGuard;
+    }
 
     /**
      * ユーザーの質問（query）に基づき、ChromaDBから関連コンテキストを取得します。
-     * 1. クエリを埋め込みベクトルに変換
+     * 1. クエリを埋め込みベクトルに変換（キャッシュになければ埋め込みエンジンの専用スレッドで実行）
      * 2. ChromaDBのREST APIにベクトル検索リクエストを送信
-     * 3. 最も関連性の高いドキュメントを複数取得し、結合して返却
+     * 3. 最も関連性の高いドキュメントを複数取得して返却
+     * 4. 埋め込みと並行して語彙検索を行い、ベクトル検索の結果とRRFで統合
      * @param query ユーザーからの質問文
-     * @return 検索で得られた関連知識（複数ドキュメントを結合した文字列）
+     * @return 検索で得られた関連コンテキスト（購読されるまで処理は開始されない）
      */
-    public String retrieveContext(String query) {
+    public Mono<RetrievedContext> retrieveContext(String query) {
+        Mono<RetrievedContext> vector = embedQuery(query)
+                .flatMap(embedding -> retrieveContext(query, embedding));
+        if (!lexicalIndex.isReady()) {
+            return vector;
+        }
+        // zip は先に埋め込み（専用スレッドで実行）を開始し、その間に語彙検索を呼び出し元のスレッドで行う
+        return Mono.zip(vector, Mono.fromSupplier(() -> lexicalSearch(query)))
+                .map(results -> ReciprocalRankFusion.fuse(results.getT1(), results.getT2(), rrfK, nResults));
+    }
+
+    /**
+     * 語彙検索を行う（メモリ上のインデックスを引くだけのため、イベントループ上で実行してよい）。
+     * @param query ユーザーからの質問文
+     * @return BM25スコアの高い順のドキュメント本文
+     */
+    private List<String> lexicalSearch(String query) {
+        long start = System.nanoTime();
+        List<String> documents = lexicalIndex.search(query, lexicalResults);
+        pipelineMetrics.recordStage(PipelineMetrics.Stage.LEXICAL_SEARCH, System.nanoTime() - start);
+        return documents;
+    }
 
-        // 1. クエリを埋め込みベクトルに変換
-        var embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        var embedding = embeddingModel.embed(query).content().vector();
+    /**
+     * 質問文の埋め込みベクトルを取得する。同じ質問（正規化後）の埋め込みはキャッシュから返す。
+     * @param query ユーザーからの質問文
+     * @return 埋め込みベクトル
+     */
+    private Mono<float[]> embedQuery(String query) {
+        return Mono.defer(() -> {
+            float[] cached = queryEmbeddingCache.get(query);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            long start = System.nanoTime();
+            return RequestDeadline.bound(embeddingService.embedReactive(query), "embedding")
+                    .doOnNext(embedding -> {
+                        pipelineMetrics.recordStage(PipelineMetrics.Stage.EMBEDDING, System.nanoTime() - start);
+                        queryEmbeddingCache.put(query, embedding);
+                    })
+                    .doOnError(e -> pipelineMetrics.recordError(PipelineMetrics.Stage.EMBEDDING));
+        });
+    }
 
-        // ベクトルをJSONArray形式に変換（ChromaDB API仕様に合わせる）
-        JSONArray embeddingArray = new JSONArray();
-        for (Float value : embedding) {
-            embeddingArray.put(value);
+    /**
+     * 埋め込み済みのクエリベクトルを使い、ChromaDBから関連コンテキストを取得します。
+     * ローカルインデックスが利用可能であればそれを検索し、そうでなければChromaDBに問い合わせます。
+     * @param query     ユーザーからの質問文
+     * @param embedding 質問文の埋め込みベクトル
+     * @return 検索で得られた関連コンテキスト（エラー時は直近の検索結果による代替、なければ空のコンテキスト）
+     */
+    public Mono<RetrievedContext> retrieveContext(String query, float[] embedding) {
+        long localStart = System.nanoTime();
+        Optional<RetrievedContext> local = localVectorIndex.search(query, embedding, nResults);
+        if (local.isPresent()) {
+            pipelineMetrics.recordStage(PipelineMetrics.Stage.LOCAL_INDEX, System.nanoTime() - localStart);
+            return Mono.just(local.get());
         }
-        // ChromaDB API仕様：クエリベクトルは2次元配列で渡す必要がある
-        JSONArray queryEmbeddings = new JSONArray();
-        queryEmbeddings.put(embeddingArray);
 
-        // 2. ChromaDBのREST APIエンドポイントURLを組み立て
-        String url = String.format("http://%s:%d/api/v2/tenants/%s/databases/%s/collections/%s/query",
-                chromaHost, chromaPort, chromaTenant, chromaDatabase, collectionId);
+        JSONObject requestBody = queryBody(List.of(embedding));
+
+        // ChromaDBにPOSTリクエストを送信し、検索結果を取得（所要時間は購読から応答の解析までを計測）
+        Mono<RetrievedContext> remote = Mono.defer(() -> {
+            long start = System.nanoTime();
+            return queryGuard.execute(() -> query(requestBody))
+                    .map(body -> parseResponse(query, embedding, body))
+                    .doOnNext(context -> {
+                        pipelineMetrics.recordStage(PipelineMetrics.Stage.CHROMA_QUERY, System.nanoTime() - start);
+                        queryGuard.remember(context);
+                    });
+        });
+        return RequestDeadline.bound(remote, "chroma_query")
+                // 期限切れはリクエスト全体を打ち切るため、代替のコンテキストで続けずにそのまま伝える
+                .onErrorResume(e -> !(e instanceof DeadlineExceededException), e -> {
+                    // エラー発生時はログを出力し、同じ・近い質問の直近の検索結果（なければ空のコンテキスト）を返す
+                    if (e instanceof ChromaQueryGuard.CircuitOpenException) {
+                        log.debug("ChromaDBへの検索を遮断中のため、直近の検索結果で代替します");
+                    } else {
+                        pipelineMetrics.recordError(PipelineMetrics.Stage.CHROMA_QUERY);
+                        log.warn("ChromaDBエラー: {}", e.getMessage());
+                    }
+                    return Mono.just(queryGuard.fallback(query, embedding));
+                })
+                .defaultIfEmpty(RetrievedContext.empty(query, embedding));
+    }
+
+    /**
+     * 複数の質問の関連コンテキストをまとめて取得します（一括処理用）。
+     * 1. 埋め込みキャッシュにない質問を、一括処理用の大きなバッチで埋め込む
+     * 2. ローカルインデックスが利用可能な質問はそれを検索し、残りは複数行の query_embeddings で ChromaDBに問い合わせる
+     * 3. 語彙検索インデックスが利用可能であれば、質問ごとにRRFで統合する
+     * 検索リクエストは応答時間の分布が単発の検索と異なるため、ヘッジ・サーキットブレーカーは通さず、
+     * 失敗した行だけを直近の検索結果で代替します。
+     * @param queries 質問文
+     * @return queries と同じ順序の関連コンテキスト
+     */
+    public Mono<List<RetrievedContext>> retrieveContexts(List<String> queries) {
+        return embedQueries(queries).flatMap(embeddings -> {
+            RetrievedContext[] results = new RetrievedContext[queries.size()];
+            List<Integer> remote = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                long localStart = System.nanoTime();
+                Optional<RetrievedContext> local = localVectorIndex.search(queries.get(i), embeddings.get(i), nResults);
+                if (local.isPresent()) {
+                    pipelineMetrics.recordStage(PipelineMetrics.Stage.LOCAL_INDEX, System.nanoTime() - localStart);
+                    results[i] = local.get();
+                } else {
+                    remote.add(i);
+                }
+            }
+            return Flux.fromIterable(remote)
+                    .buffer(Math.max(1, batchRows))
+                    .concatMap(rows -> queryRows(queries, embeddings, rows, results))
+                    .then(Mono.fromSupplier(() -> {
+                        List<RetrievedContext> contexts = new ArrayList<>(results.length);
+                        for (int i = 0; i < results.length; i++) {
+                            contexts.add(lexicalIndex.isReady()
+                                    ? ReciprocalRankFusion.fuse(results[i], lexicalSearch(queries.get(i)), rrfK, nResults)
+                                    : results[i]);
+                        }
+                        return contexts;
+                    }));
+        });
+    }
+
+    /**
+     * 質問文の埋め込みベクトルをまとめて取得する。キャッシュにない質問だけを一括処理用のバッチで埋め込む。
+     */
+    private Mono<List<float[]>> embedQueries(List<String> queries) {
+        return Mono.defer(() -> {
+            float[][] embeddings = new float[queries.size()][];
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                embeddings[i] = queryEmbeddingCache.get(queries.get(i));
+                if (embeddings[i] == null) {
+                    missing.add(i);
+                }
+            }
+            if (missing.isEmpty()) {
+                return Mono.just(List.of(embeddings));
+            }
+            long start = System.nanoTime();
+            return embeddingService.embedAll(missing.stream().map(queries::get).toList())
+                    .map(vectors -> {
+                        pipelineMetrics.recordStage(PipelineMetrics.Stage.EMBEDDING, System.nanoTime() - start);
+                        for (int i = 0; i < missing.size(); i++) {
+                            int index = missing.get(i);
+                            embeddings[index] = vectors.get(i);
+                            queryEmbeddingCache.put(queries.get(index), vectors.get(i));
+                        }
+                        return List.of(embeddings);
+                    })
+                    .doOnError(e -> pipelineMetrics.recordError(PipelineMetrics.Stage.EMBEDDING));
+        });
+    }
+
+    /**
+     * 複数の質問を1回の検索リクエスト（複数行の query_embeddings）でChromaDBに問い合わせ、結果を results に格納する。
+     * 失敗した場合は、各質問を直近の検索結果（なければ空のコンテキスト）で代替する。
+     */
+    private Mono<Void> queryRows(List<String> queries, List<float[]> embeddings, List<Integer> rows,
+                                 RetrievedContext[] results) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            JSONObject requestBody = queryBody(rows.stream().map(embeddings::get).toList());
+            return query(requestBody)
+                    .doOnNext(body -> {
+                        JSONObject json = new JSONObject(body);
+                        for (int row = 0; row < rows.size(); row++) {
+                            int index = rows.get(row);
+                            results[index] = parseRow(queries.get(index), embeddings.get(index), json, row);
+                            queryGuard.remember(results[index]);
+                        }
+                        pipelineMetrics.recordStage(PipelineMetrics.Stage.CHROMA_QUERY, System.nanoTime() - start);
+                    })
+                    .onErrorResume(e -> {
+                        pipelineMetrics.recordError(PipelineMetrics.Stage.CHROMA_QUERY);
+                        log.warn("ChromaDBエラー（一括検索 {}件）: {}", rows.size(), e.getMessage());
+                        for (int index : rows) {
+                            results[index] = queryGuard.fallback(queries.get(index), embeddings.get(index));
+                        }
+                        return Mono.empty();
+                    })
+                    .then();
+        });
+    }
+
+    /**
+     * ChromaDBの検索リクエストのボディを作成する。
+     * @param embeddings クエリベクトル（1件につき1行）
+     * @return 検索リクエストのボディ
+     */
+    private JSONObject queryBody(List<float[]> embeddings) {
+        // ChromaDB API仕様：クエリベクトルは2次元配列で渡す必要がある（1行が1件の質問）
+        JSONArray queryEmbeddings = new JSONArray();
+        for (float[] embedding : embeddings) {
+            // ベクトルをJSONArray形式に変換（ChromaDB API仕様に合わせる）
+            JSONArray embeddingArray = new JSONArray();
+            for (float value : embedding) {
+                embeddingArray.put(value);
+            }
+            queryEmbeddings.put(embeddingArray);
+        }
 
-        // 3. ChromaDB API仕様に合わせたリクエストボディを作成
+        // ChromaDB API仕様に合わせたリクエストボディを作成
         JSONObject requestBody = new JSONObject();
-        // "include"で取得する情報を指定（距離とドキュメント本文）
-        requestBody.put("include", new JSONArray(List.of("distances", "documents")));
-        // 取得する件数（ここでは上位3件）
-        requestBody.put("n_results", 3);
+        // "include"で取得する情報を指定（距離とドキュメント本文、重複除去・MMRに使う埋め込みベクトル）
+        requestBody.put("include", new JSONArray(List.of("distances", "documents", "embeddings")));
+        // 取得する件数（質問ごと）
+        requestBody.put("n_results", nResults);
         // クエリベクトルを指定
         requestBody.put("query_embeddings", queryEmbeddings);
+        return requestBody;
+    }
 
-        // HTTPヘッダー設定（JSON送信）
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-
-        // HTTPリクエストエンティティを作成
-        HttpEntity<String> entity = new HttpEntity<>(requestBody.toString(), headers);
-
-        try {
-            // 4. ChromaDBにPOSTリクエストを送信し、検索結果を取得
-            ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
-
-            // レスポンスが正常なら、ドキュメント部分を抽出して結合
-            if (response.getStatusCode().is2xxSuccessful()) {
-                JSONObject body = new JSONObject(response.getBody());
-                // 検索結果のドキュメント部分（最も類似したものから順に配列で取得）
-                JSONArray documents = body.getJSONArray("documents").getJSONArray(0);
-                // 複数ドキュメントを改行区切りで結合
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < documents.length(); i++) {
-                    sb.append(documents.getString(i)).append("\n");
+    /**
+     * ChromaDBの検索APIにリクエストを送信する。
+     * @param requestBody 検索リクエストのボディ
+     * @return レスポンスボディ（JSON）
+     */
+    private Mono<String> query(JSONObject requestBody) {
+        return chromaWebClient.post()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}/query",
+                        chromaTenant, chromaDatabase, collectionId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requestBody.toString())
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+
+    /**
+     * ChromaDBの検索レスポンスからドキュメントと距離を抽出する（ウォームアップからも呼び出す）。
+     * @param query     質問文
+     * @param embedding 質問文の埋め込みベクトル
+     * @param body      レスポンスボディ（JSON）
+     * @return 関連コンテキスト
+     */
+    RetrievedContext parseResponse(String query, float[] embedding, String body) {
+        return parseRow(query, embedding, new JSONObject(body), 0);
+    }
+
+    /**
+     * ChromaDBの検索レスポンスから、指定した行（query_embeddings の何件目か）のドキュメントと距離を抽出する。
+     * @param query     質問文
+     * @param embedding 質問文の埋め込みベクトル
+     * @param json      レスポンスボディ
+     * @param row       行
+     * @return 関連コンテキスト
+     */
+    private RetrievedContext parseRow(String query, float[] embedding, JSONObject json, int row) {
+        // 検索結果のドキュメント部分（最も類似したものから順に配列で取得）
+        JSONArray documents = json.getJSONArray("documents").getJSONArray(row);
+        JSONArray distances = json.optJSONArray("distances");
+        JSONArray firstDistances = distances == null ? null : distances.optJSONArray(row);
+        JSONArray embeddings = json.optJSONArray("embeddings");
+        JSONArray firstEmbeddings = embeddings == null ? null : embeddings.optJSONArray(row);
+
+        List<String> documentList = new ArrayList<>(documents.length());
+        List<Double> distanceList = new ArrayList<>(documents.length());
+        List<float[]> embeddingList = new ArrayList<>(documents.length());
+        for (int i = 0; i < documents.length(); i++) {
+            documentList.add(documents.getString(i));
+            distanceList.add(firstDistances == null ? Double.NaN : firstDistances.optDouble(i, Double.NaN));
+            JSONArray values = firstEmbeddings == null ? null : firstEmbeddings.optJSONArray(i);
+            if (values != null) {
+                float[] vector = new float[values.length()];
+                for (int j = 0; j < vector.length; j++) {
+                    vector[j] = (float) values.getDouble(j);
                 }
-                return sb.toString();
+                embeddingList.add(vector);
             }
-        } catch (Exception e) {
-            // エラー発生時は詳細を標準エラー出力に出力し、空文字を返す
-            System.err.println("ChromaDBエラー: " + e.getMessage());
         }
-        // 正常に取得できなかった場合は空文字を返す
-        return "";
+        // 一部のドキュメントのベクトルが欠けている場合は、ベクトルを使わない
+        if (embeddingList.size() != documentList.size()) {
+            embeddingList = List.of();
+        }
+        return new RetrievedContext(query, embedding, documentList, distanceList, embeddingList);
     }
 }
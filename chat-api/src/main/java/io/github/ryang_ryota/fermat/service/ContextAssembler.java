@@ -0,0 +1,255 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.AssembledContext;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
+import io.github.ryang_ryota.fermat.model.ContextStats;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.util.TokenEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、検索で得た候補からプロンプトに含めるドキュメントを選び、トークン数の上限に収めるサービスです。
+ * 1. 同じ本文、または埋め込みベクトルのコサイン類似度がしきい値以上の候補を重複として除外
+ * 2. MMR（Maximal Marginal Relevance）で、質問との関連性が高く互いに似ていないドキュメントを選択
+ * 3. 見積もりトークン数が上限を超えないよう、選択順に追加（上限を超える最後のドキュメントは切り詰める）
+ * - プロンプトの前処理（prefill）の時間は文脈の長さに比例するため、上限を設けて最初のトークンまでの時間を抑えます。
+ * - 上位のドキュメントをそのまま連結した場合と比べて削減したトークン数を、統計情報とメトリクスに記録します。
+ * - 候補の埋め込みベクトルがない場合は、重複除去を本文の一致のみで行い、検索結果の順に選びます。
+ *   語彙検索でのみ見つかった候補（埋め込みベクトルが null）は、検索結果の順位を関連性として使います。
+ */
+@Service
+public class ContextAssembler {
+
+    // 切り詰めたドキュメントとして含める最小のトークン数（残りがこれ未満の場合は含めない）
+    private static final int MIN_TRUNCATED_TOKENS = 32;
+
+    // パイプラインのメトリクス
+    private final PipelineMetrics pipelineMetrics;
+
+    // コンテキストの見積もりトークン数の上限
+    private final int maxTokens;
+
+    // プロンプトに含めるドキュメント数の上限
+    private final int maxDocuments;
+
+    // MMRの関連性と多様性の重み
+    private final double mmrLambda;
+
+    // 重複とみなすコサイン類似度のしきい値
+    private final double duplicateThreshold;
+
+    // 統計情報
+    private final LongAdder assembled = new LongAdder();
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder selected = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder savedTokens = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param pipelineMetrics    パイプラインのメトリクス
+     * @param maxTokens          コンテキストの見積もりトークン数の上限
+     * @param maxDocuments       プロンプトに含めるドキュメント数の上限
+     * @param mmrLambda          MMRの関連性と多様性の重み（1.0で関連性のみ）
+     * @param duplicateThreshold 重複とみなすコサイン類似度のしきい値
+     */
+    public ContextAssembler(PipelineMetrics pipelineMetrics,
+                            @Value("${fermat.context.max-tokens:1024}") int maxTokens,
+                            @Value("${fermat.context.max-documents:3}") int maxDocuments,
+                            @Value("${fermat.context.mmr-lambda:0.7}") double mmrLambda,
+                            @Value("${fermat.context.duplicate-threshold:0.95}") double duplicateThreshold) {
+        this.pipelineMetrics = pipelineMetrics;
+        this.maxTokens = maxTokens;
+        this.maxDocuments = maxDocuments;
+        this.mmrLambda = mmrLambda;
+        this.duplicateThreshold = duplicateThreshold;
+    }
+
+    /**
+     * 検索の候補からプロンプト用のコンテキストを組み立てる。
+     * @param context 検索で得た候補
+     * @param options リクエストごとの設定（未指定の項目は設定ファイルの値）
+     * @return プロンプト用のコンテキスト
+     */
+    public AssembledContext assemble(RetrievedContext context, ContextOptions options) {
+        ContextOptions effective = resolve(options);
+        int tokenBudget = effective.contextTokens();
+        int documentLimit = effective.contextDocuments();
+        double lambda = effective.mmrLambda();
+
+        List<String> documents = context.documents();
+        List<float[]> embeddings = context.embeddings().size() == documents.size() && !documents.isEmpty()
+                ? context.embeddings() : null;
+
+        List<Integer> unique = deduplicate(documents, embeddings);
+        int duplicateCount = documents.size() - unique.size();
+        List<Integer> order = embeddings == null
+                ? unique.subList(0, Math.min(documentLimit, unique.size()))
+                : mmr(unique, context.queryEmbedding(), embeddings, documentLimit, lambda);
+
+        List<String> chosen = new ArrayList<>(order.size());
+        int used = 0;
+        int truncatedCount = 0;
+        for (int index : order) {
+            String document = documents.get(index);
+            int size = TokenEstimator.estimate(document);
+            if (used + size <= tokenBudget) {
+                chosen.add(document);
+                used += size;
+                continue;
+            }
+            int remaining = tokenBudget - used;
+            if (remaining >= MIN_TRUNCATED_TOKENS) {
+                String head = TokenEstimator.truncate(document, remaining);
+                chosen.add(head);
+                used += TokenEstimator.estimate(head);
+                truncatedCount++;
+            }
+            break;
+        }
+
+        // 改善前（上位のドキュメントをそのまま連結）のトークン数との差を削減量とする
+        int baseline = 0;
+        for (int i = 0; i < Math.min(documentLimit, documents.size()); i++) {
+            baseline += TokenEstimator.estimate(documents.get(i));
+        }
+        int saved = Math.max(0, baseline - used);
+
+        assembled.increment();
+        candidates.add(documents.size());
+        selected.add(chosen.size());
+        duplicates.add(duplicateCount);
+        truncated.add(truncatedCount);
+        tokens.add(used);
+        savedTokens.add(saved);
+        pipelineMetrics.recordContext(used, saved);
+        return new AssembledContext(chosen, used, saved, duplicateCount);
+    }
+
+    /**
+     * リクエストごとの設定が、設定ファイルの値と同じコンテキストになるか判定する。
+     * 回答はコンテキストの選択の設定にも依存するため、異なる場合は回答キャッシュを使わない。
+     * @param options リクエストごとの設定
+     * @return 未指定の項目を補った結果が設定ファイルの値と一致する場合は true
+     */
+    public boolean usesDefaults(ContextOptions options) {
+        return resolve(options).equals(new ContextOptions(maxTokens, maxDocuments, mmrLambda));
+    }
+
+    /**
+     * 未指定の項目を設定ファイルの値で補い、範囲外の値を丸めた設定を返す。
+     * トークン数・ドキュメント数は設定ファイルの値を上限とする（リクエストで上限を外せないようにする）。
+     */
+    private ContextOptions resolve(ContextOptions options) {
+        int tokenBudget = options.contextTokens() == null ? maxTokens : Math.clamp(options.contextTokens(), 0, maxTokens);
+        int documentLimit = options.contextDocuments() == null
+                ? maxDocuments : Math.clamp(options.contextDocuments(), 0, maxDocuments);
+        double lambda = options.mmrLambda() == null || options.mmrLambda().isNaN()
+                ? mmrLambda : Math.clamp(options.mmrLambda(), 0.0, 1.0);
+        return new ContextOptions(tokenBudget, documentLimit, lambda);
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 候補数・選択数・削減したトークン数等のスナップショット
+     */
+    public ContextStats stats() {
+        return new ContextStats(assembled.sum(), candidates.sum(), selected.sum(), duplicates.sum(),
+                truncated.sum(), tokens.sum(), savedTokens.sum());
+    }
+
+    /**
+     * 関連性の高い順に候補を見て、採用済みの候補と重複するものを除外する。
+     * @return 残った候補の番号（関連性の高い順）
+     */
+    private List<Integer> deduplicate(List<String> documents, List<float[]> embeddings) {
+        List<Integer> unique = new ArrayList<>(documents.size());
+        Set<String> texts = new HashSet<>();
+        for (int i = 0; i < documents.size(); i++) {
+            if (!texts.add(documents.get(i).strip())) {
+                continue;
+            }
+            boolean duplicate = false;
+            if (embeddings != null && embeddings.get(i) != null) {
+                for (int kept : unique) {
+                    if (cosine(embeddings.get(i), embeddings.get(kept)) >= duplicateThreshold) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+            }
+            if (!duplicate) {
+                unique.add(i);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * MMRで候補から最大 limit 件を選ぶ。
+     * score = λ × 質問との類似度 − (1 − λ) × 選択済みのドキュメントとの最大類似度
+     * @return 選んだ候補の番号（選択順）
+     */
+    private static List<Integer> mmr(List<Integer> candidates, float[] queryEmbedding, List<float[]> embeddings,
+                                     int limit, double lambda) {
+        double[] relevance = new double[embeddings.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            int index = candidates.get(i);
+            // ベクトルがない、または質問と次元数が異なる場合は、検索結果の順位を関連性として使う
+            float[] embedding = embeddings.get(index);
+            relevance[index] = queryEmbedding != null && embedding != null && queryEmbedding.length == embedding.length
+                    ? cosine(queryEmbedding, embedding)
+                    : 1.0 - (double) i / candidates.size();
+        }
+        List<Integer> remaining = new ArrayList<>(candidates);
+        List<Integer> chosen = new ArrayList<>(Math.min(limit, candidates.size()));
+        while (chosen.size() < limit && !remaining.isEmpty()) {
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int r = 0; r < remaining.size(); r++) {
+                int index = remaining.get(r);
+                double redundancy = 0.0;
+                for (int c : chosen) {
+                    redundancy = Math.max(redundancy, cosine(embeddings.get(index), embeddings.get(c)));
+                }
+                double score = lambda * relevance[index] - (1.0 - lambda) * redundancy;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = r;
+                }
+            }
+            chosen.add(remaining.remove(best));
+        }
+        return chosen;
+    }
+
+    /**
+     * コサイン類似度（ベクトルがない、次元数が異なる、またはゼロベクトルの場合は0）。
+     */
+    static double cosine(float[] a, float[] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return 0.0;
+        }
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0.0 || normB == 0.0) {
+            return 0.0;
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.ryang_ryota.fermat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.github.ryang_ryota.fermat.model.SessionStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、セッションIDをキーとして会話のトークン列（Ollama の context）を保持するストアです。
+ * - 次のターンでトークン列を Ollama に渡すことで、指示文やこれまでの会話をプロンプトとして送り直さずに続きを生成できます。
+ * - トークン列は int[] のまま保持し、メモリ使用量の上限（バイト数）を超えると W-TinyLFU（Caffeine）で追い出します。
+ * - 一定時間使われなかったセッションは破棄します（Ollama の keep_alive を過ぎるとノード側のKVキャッシュも失われるため）。
+ * - トークン列が上限を超えたセッションは破棄し、次のターンを新しい会話として始めます（モデルの num_ctx を超えると
+ *   先頭の指示文から切り捨てられるため）。
+ * - 同じセッションで同時に生成した場合は、後に完了したターンのトークン列が残ります。
+ */
+@Service
+public class ConversationSessionStore {
+
+    // 1エントリあたりの固定オーバーヘッド（ノード・配列ヘッダ・キー文字列ヘッダ等の概算）
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    // メモリ使用量の上限（バイト）
+    private final long maxBytes;
+
+    // 保持する会話のトークン数の上限
+    private final int maxContextTokens;
+
+    // セッションIDをキーとした会話のトークン列（上限が0の場合は null で無効）
+    private final Cache<String, int[]> sessions;
+
+    // 統計情報
+    private final LongAdder started = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param maxSize          セッションのメモリ使用量の上限（0 の場合は無効）
+     * @param idleTimeout      セッションを破棄するまでの未使用時間
+     * @param maxContextTokens 保持する会話のトークン数の上限
+     */
+    @Autowired
+    public ConversationSessionStore(@Value("${fermat.session.max-size:64MB}") DataSize maxSize,
+                                    @Value("${fermat.session.idle-timeout:30m}") Duration idleTimeout,
+                                    @Value("${fermat.session.max-context-tokens:3072}") int maxContextTokens) {
+        this(maxSize, idleTimeout, maxContextTokens, Ticker.systemTicker());
+    }
+
+    ConversationSessionStore(DataSize maxSize, Duration idleTimeout, int maxContextTokens, Ticker ticker) {
+        this.maxBytes = Math.max(0, maxSize.toBytes());
+        this.maxContextTokens = maxContextTokens;
+        this.sessions = maxBytes == 0 ? null : Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(ConversationSessionStore::weigh)
+                .expireAfterAccess(idleTimeout)
+                .ticker(ticker)
+                // 追い出しと同じスレッドで数える（removalListener は非同期に呼ばれるため）
+                .evictionListener((String sessionId, int[] context, RemovalCause cause) -> {
+                    if (cause == RemovalCause.EXPIRED) {
+                        expirations.increment();
+                    } else if (cause == RemovalCause.SIZE) {
+                        evictions.increment();
+                    }
+                })
+                // 期限切れの掃除も呼び出し元のスレッドで行う（統計情報に即座に反映するため）
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * セッションの会話のトークン列を取得する。
+     * @param sessionId セッションID
+     * @return 会話のトークン列（新しい会話の場合は null）。共有されるため、呼び出し側で書き換えてはいけない
+     */
+    public int[] context(String sessionId) {
+        int[] context = sessions == null ? null : sessions.getIfPresent(sessionId);
+        if (context == null) {
+            started.increment();
+        } else {
+            resumed.increment();
+        }
+        return context;
+    }
+
+    /**
+     * ターンの完了時に、次のターンに渡す会話のトークン列を保存する。
+     * 上限を超えた場合はセッションを破棄し、次のターンを新しい会話として始める。
+     * @param sessionId セッションID
+     * @param context   Ollama の完了行で受け取った会話のトークン列
+     */
+    public void update(String sessionId, int[] context) {
+        if (sessions == null) {
+            return;
+        }
+        if (context.length > maxContextTokens) {
+            sessions.invalidate(sessionId);
+            resets.increment();
+            return;
+        }
+        sessions.put(sessionId, context);
+    }
+
+    /**
+     * セッションを終了する。
+     * @param sessionId セッションID
+     */
+    public void remove(String sessionId) {
+        if (sessions != null) {
+            sessions.invalidate(sessionId);
+        }
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return セッション数・メモリ使用量・会話を続けたターン数等のスナップショット
+     */
+    public SessionStats stats() {
+        if (sessions == null) {
+            return new SessionStats(0, 0, 0, started.sum(), resumed.sum(), resets.sum(), 0, 0);
+        }
+        long weight = sessions.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new SessionStats(sessions.estimatedSize(), weight, maxBytes, started.sum(), resumed.sum(),
+                resets.sum(), evictions.sum(), expirations.sum());
+    }
+
+    /**
+     * 1セッションのメモリ使用量を概算する。
+     */
+    private static int weigh(String sessionId, int[] context) {
+        return ENTRY_OVERHEAD_BYTES + sessionId.length() * Character.BYTES + context.length * Integer.BYTES;
+    }
+}
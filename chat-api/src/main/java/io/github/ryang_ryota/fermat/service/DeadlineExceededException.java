@@ -0,0 +1,28 @@
+package io.github.ryang_ryota.fermat.service;
+
+/**
+ * リクエスト全体の期限（RequestDeadline）を過ぎたため、処理を打ち切ったことを表す例外。
+ * 応答の開始後に発生した場合は、クライアントに error イベントで通知します。
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    // 期限を過ぎた段階（embedding / chroma_query / retrieval / queue / generation）
+    private final String stage;
+
+    /**
+     * コンストラクタ
+     * @param stage 期限を過ぎた段階
+     */
+    public DeadlineExceededException(String stage) {
+        super("応答の期限を超えました（" + stage + "）");
+        this.stage = stage;
+    }
+
+    /**
+     * 期限を過ぎた段階を取得する。
+     * @return 段階
+     */
+    public String getStage() {
+        return stage;
+    }
+}
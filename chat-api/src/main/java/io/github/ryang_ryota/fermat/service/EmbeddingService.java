@@ -0,0 +1,280 @@
+package io.github.ryang_ryota.fermat.service;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.github.ryang_ryota.fermat.model.EmbeddingStats;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、クエリ文字列を埋め込みベクトルに変換する共有エンジンです。
+ * - 埋め込みモデルはアプリケーション全体で1つだけ保持し、リクエストごとの再生成を行いません。
+ * - 同時に届いた embed 呼び出しをマイクロバッチにまとめ、1バッチにつき1回だけ embedAll を呼び出します。
+ * - バッチの実行は専用の上限付きスレッドプールで行い、呼び出し元のスレッドをブロックしません。
+ * - 一括処理（/chat/batch）の大量のテキストは、マイクロバッチのキューを通さず、専用の1スレッドで大きなバッチにまとめて変換します
+ *   （対話的なリクエストのキューを埋めず、推論に使うスレッドも1つに限る）。
+ */
+@Slf4j
+@Service
+public class EmbeddingService {
+
+    // 共有の埋め込みモデル（all-MiniLM-L6-v2）
+    private final EmbeddingModel embeddingModel;
+
+    // 1バッチにまとめる最大件数
+    private final int maxBatchSize;
+
+    // 最初のリクエストが届いてからバッチを締め切るまでの最大待ち時間（ナノ秒）
+    private final long maxWaitNanos;
+
+    // バッチ化を待つリクエストのキュー（上限付き）
+    private final BlockingQueue<PendingEmbedding> queue;
+
+    // バッチを実行するワーカースレッドプール
+    private final ThreadPoolExecutor workers;
+
+    // キューからリクエストを取り出してバッチを組み立てるスレッド
+    private final Thread dispatcher;
+
+    // 一括処理の1バッチの最大件数
+    private final int bulkBatchSize;
+
+    // 一括処理のバッチを順に実行するスレッド
+    private final Scheduler bulkScheduler = Schedulers.newSingle("embedding-bulk", true);
+
+    private volatile boolean running = true;
+
+    // 統計情報
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedTexts = new LongAdder();
+    private final AtomicInteger lastBatchSize = new AtomicInteger();
+    private final AtomicInteger maxObservedBatchSize = new AtomicInteger();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param embeddingModel 共有の埋め込みモデル
+     * @param maxBatchSize   1バッチの最大件数
+     * @param maxWaitMillis  バッチを締め切るまでの最大待ち時間（ミリ秒）
+     * @param queueCapacity  待機キューの上限
+     * @param threads        バッチを実行するワーカースレッド数
+     */
+    @Autowired
+    public EmbeddingService(EmbeddingModel embeddingModel,
+                            @Value("${fermat.embedding.max-batch-size:32}") int maxBatchSize,
+                            @Value("${fermat.embedding.max-wait-ms:2}") long maxWaitMillis,
+                            @Value("${fermat.embedding.queue-capacity:1024}") int queueCapacity,
+                            @Value("${fermat.embedding.threads:2}") int threads,
+                            @Value("${fermat.embedding.bulk-batch-size:256}") int bulkBatchSize) {
+        this.embeddingModel = embeddingModel;
+        this.bulkBatchSize = Math.max(1, bulkBatchSize);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        // ワーカーが全て埋まっている場合はディスパッチャー自身が実行し、自然に背圧をかける
+        AtomicInteger workerIndex = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads),
+                r -> {
+                    Thread t = new Thread(r, "embedding-worker-" + workerIndex.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.dispatcher = new Thread(this::dispatchLoop, "embedding-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    EmbeddingService(EmbeddingModel embeddingModel, int maxBatchSize, long maxWaitMillis, int queueCapacity,
+                     int threads) {
+        this(embeddingModel, maxBatchSize, maxWaitMillis, queueCapacity, threads, 256);
+    }
+
+    /**
+     * テキストを非同期に埋め込みベクトルへ変換する。
+     * 同時に届いた他のリクエストとまとめて1回の embedAll で処理される。
+     *
+     * @param text 埋め込み対象のテキスト
+     * @return 埋め込みベクトルを返すCompletableFuture（キューが満杯の場合は RejectedExecutionException で失敗）
+     */
+    public CompletableFuture<float[]> embed(String text) {
+        PendingEmbedding pending = new PendingEmbedding(text, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            rejected.increment();
+            pending.future().completeExceptionally(
+                    new RejectedExecutionException("埋め込みキューが満杯です"));
+            return pending.future();
+        }
+        submitted.increment();
+        return pending.future();
+    }
+
+    /**
+     * テキストを非同期に埋め込みベクトルへ変換するMonoを返す。
+     * 購読されるまでキューには投入されず、推論は埋め込みエンジンの専用スレッドで実行される。
+     *
+     * @param text 埋め込み対象のテキスト
+     * @return 埋め込みベクトルを返すMono
+     */
+    public Mono<float[]> embedReactive(String text) {
+        return Mono.fromFuture(() -> embed(text));
+    }
+
+    /**
+     * 大量のテキストを、一括処理用の大きなバッチに分けて順に埋め込みベクトルへ変換する。
+     * 推論は一括処理用の専用スレッドで実行され、対話的なリクエストのマイクロバッチとは別に処理される。
+     *
+     * @param texts 埋め込み対象のテキスト
+     * @return texts と同じ順序の埋め込みベクトル
+     */
+    public Mono<List<float[]>> embedAll(List<String> texts) {
+        return Flux.fromIterable(texts)
+                .buffer(bulkBatchSize)
+                .concatMap(chunk -> Mono.fromCallable(() -> embedChunk(chunk)).subscribeOn(bulkScheduler))
+                .collectList()
+                .map(chunks -> {
+                    List<float[]> vectors = new ArrayList<>(texts.size());
+                    chunks.forEach(vectors::addAll);
+                    return vectors;
+                });
+    }
+
+    /**
+     * 一括処理の1バッチを embedAll で変換する。
+     */
+    private List<float[]> embedChunk(List<String> chunk) {
+        recordBatch(chunk.size());
+        List<TextSegment> segments = new ArrayList<>(chunk.size());
+        for (String text : chunk) {
+            segments.add(TextSegment.from(text));
+        }
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        List<float[]> vectors = new ArrayList<>(embeddings.size());
+        for (Embedding embedding : embeddings) {
+            vectors.add(embedding.vector());
+        }
+        return vectors;
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return キュー長・バッチサイズ等のスナップショット
+     */
+    public EmbeddingStats stats() {
+        long batchCount = batches.sum();
+        double average = batchCount == 0 ? 0.0 : (double) batchedTexts.sum() / batchCount;
+        return new EmbeddingStats(queue.size(), submitted.sum(), rejected.sum(), batchCount,
+                lastBatchSize.get(), maxObservedBatchSize.get(), average);
+    }
+
+    /**
+     * キューからリクエストを取り出し、最大件数または最大待ち時間に達するまでバッチに集める。
+     */
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                PendingEmbedding first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingEmbedding> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                // 既に溜まっている分はまとめて取り出す
+                queue.drainTo(batch, maxBatchSize - 1);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingEmbedding next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                workers.execute(() -> runBatch(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 1バッチ分のテキストを embedAll で一括変換し、各リクエストに結果を返す。
+     * @param batch バッチ化されたリクエスト
+     */
+    private void runBatch(List<PendingEmbedding> batch) {
+        recordBatch(batch.size());
+        try {
+            List<TextSegment> segments = new ArrayList<>(batch.size());
+            for (PendingEmbedding pending : batch) {
+                segments.add(TextSegment.from(pending.text()));
+            }
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(embeddings.get(i).vector());
+            }
+        } catch (Exception e) {
+            log.warn("埋め込みバッチの処理に失敗しました（{}件）: {}", batch.size(), e.getMessage());
+            for (PendingEmbedding pending : batch) {
+                pending.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void recordBatch(int size) {
+        batches.increment();
+        batchedTexts.add(size);
+        lastBatchSize.set(size);
+        maxObservedBatchSize.accumulateAndGet(size, Math::max);
+    }
+
+    /**
+     * アプリケーション終了時にスレッドを停止し、未処理のリクエストを失敗させる。
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        workers.shutdown();
+        bulkScheduler.dispose();
+        List<PendingEmbedding> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (PendingEmbedding pending : remaining) {
+            pending.future().completeExceptionally(
+                    new RejectedExecutionException("埋め込みエンジンは停止しました"));
+        }
+    }
+
+    /**
+     * バッチ化を待っている1件の埋め込みリクエスト。
+     */
+    private record PendingEmbedding(String text, CompletableFuture<float[]> future) {
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.ryang_ryota.fermat.service;
+
+import java.time.Duration;
+
+/**
+ * 生成の待ち行列が満杯、または待ち時間の上限を超えたために生成を受け付けなかったことを表す例外。
+ * クライアントには 503 Service Unavailable と Retry-After で再試行を促します。
+ */
+public class GenerationRejectedException extends RuntimeException {
+
+    // クライアントに再試行を促すまでの時間
+    private final Duration retryAfter;
+
+    /**
+     * コンストラクタ
+     * @param message    エラーメッセージ
+     * @param retryAfter 再試行までの時間
+     */
+    public GenerationRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 再試行までの時間を取得する。
+     * @return 再試行までの時間
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
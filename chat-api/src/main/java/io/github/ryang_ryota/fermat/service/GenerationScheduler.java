@@ -0,0 +1,419 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.GenerationStats;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * このクラスは、Ollamaへの生成リクエストの同時実行数を制限し、待ち行列を公平に処理するスケジューラです。
+ * - 同時に実行できる生成数を上限で制限し、超えた分は上限付きの待ち行列に並べます。
+ *   上限はOllamaノードあたりの値に、利用できるノード数（OllamaBackendPool）を掛けたものです（ノードを増やすと同時生成数も増える）。
+ * - 待ち行列はクライアントごとに分け、クライアント間で1件ずつ順番に実行します（1人の大量リクエストが他の人を待たせない）。
+ * - 待ち行列が満杯の場合や、待ち時間の上限を超えた場合は GenerationRejectedException で失敗させます。
+ * - 応答を開始する前に 503 を返せるよう、受付時に枠を確保できます（checkAdmission）。確保した枠は生成の実行枠の取得で使い、
+ *   生成に至らなかった場合（回答キャッシュ・合流）は最初の値を返した時点で返却します。
+ * - リクエストの期限（RequestDeadline）が待ち時間の上限より先に来る場合は、期限で待機を打ち切り DeadlineExceededException で失敗させます。
+ * - クライアントIDと待ち順位の通知先は、購読時のReactorコンテキスト（CLIENT_ID_KEY / QUEUE_LISTENER_KEY）から取得します。
+ *   待ち順位は変わった場合だけ、スケジューラのロックを離してから通知します。
+ * - 待機はロックで止めずに購読の完了を遅らせるだけなので、呼び出し元のスレッドをブロックしません。
+ */
+@Service
+public class GenerationScheduler {
+
+    /**
+     * クライアントIDを格納するReactorコンテキストのキー（未指定の場合は全員が同じクライアントとして扱われる）。
+     */
+    public static final String CLIENT_ID_KEY = GenerationScheduler.class.getName() + ".clientId";
+
+    /**
+     * 待ち順位（1始まり）の通知先（IntConsumer）を格納するReactorコンテキストのキー。
+     */
+    public static final String QUEUE_LISTENER_KEY = GenerationScheduler.class.getName() + ".queueListener";
+
+    private static final String ANONYMOUS = "anonymous";
+
+    // 受付時に確保した枠（Reservation）を格納するReactorコンテキストのキー
+    private static final String RESERVATION_KEY = GenerationScheduler.class.getName() + ".reservation";
+
+    private static final IntConsumer NO_LISTENER = position -> { };
+
+    // 待機中・許可済み・取り消し済み
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    // 同時に実行できる生成数の上限（Ollamaインスタンスあたり）
+    private final int maxConcurrent;
+
+    // 利用できるOllamaノード数（同時に実行できる生成数の上限に掛ける）
+    private final IntSupplier backendCount;
+
+    // 待ち行列の上限
+    private final int queueCapacity;
+
+    // 待ち行列での待ち時間の上限
+    private final Duration maxWait;
+
+    // 拒否したクライアントに再試行を促すまでの時間
+    private final Duration retryAfter;
+
+    // クライアントごとの待ち行列（挿入順が実行の順番。先頭のクライアントから1件ずつ取り出して末尾へ回す）
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>();
+
+    // 実行中の生成数・待ち行列の件数・受付時に確保してまだ使われていない枠の数（this で同期）
+    private int running;
+    private int queued;
+    private int reserved;
+
+    // 統計情報
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param maxConcurrent     Ollamaノードあたりの同時に実行できる生成数の上限
+     * @param queueCapacity     待ち行列の上限
+     * @param maxWaitMillis     待ち行列での待ち時間の上限（ミリ秒）
+     * @param retryAfterSeconds 拒否したクライアントに再試行を促すまでの時間（秒）
+     * @param backendPool       Ollamaノードの振り分け（利用できるノード数を上限に掛ける。ない場合は1台とみなす）
+     */
+    @Autowired
+    public GenerationScheduler(@Value("${fermat.generation.max-concurrent:4}") int maxConcurrent,
+                               @Value("${fermat.generation.queue-capacity:64}") int queueCapacity,
+                               @Value("${fermat.generation.max-wait-ms:30000}") long maxWaitMillis,
+                               @Value("${fermat.generation.retry-after-seconds:5}") long retryAfterSeconds,
+                               ObjectProvider<OllamaBackendPool> backendPool) {
+        this(maxConcurrent, queueCapacity, Duration.ofMillis(maxWaitMillis), Duration.ofSeconds(retryAfterSeconds),
+                backendCount(backendPool.getIfAvailable()));
+    }
+
+    /**
+     * Ollamaノードが1台の場合のコンストラクタ
+     * @param maxConcurrent     同時に実行できる生成数の上限
+     * @param queueCapacity     待ち行列の上限
+     * @param maxWaitMillis     待ち行列での待ち時間の上限（ミリ秒）
+     * @param retryAfterSeconds 拒否したクライアントに再試行を促すまでの時間（秒）
+     */
+    public GenerationScheduler(int maxConcurrent, int queueCapacity, long maxWaitMillis, long retryAfterSeconds) {
+        this(maxConcurrent, queueCapacity, Duration.ofMillis(maxWaitMillis), Duration.ofSeconds(retryAfterSeconds));
+    }
+
+    GenerationScheduler(int maxConcurrent, int queueCapacity, Duration maxWait, Duration retryAfter) {
+        this(maxConcurrent, queueCapacity, maxWait, retryAfter, () -> 1);
+    }
+
+    GenerationScheduler(int maxConcurrent, int queueCapacity, Duration maxWait, Duration retryAfter,
+                        IntSupplier backendCount) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.backendCount = backendCount;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.maxWait = maxWait;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 生成処理を、同時実行数の上限内で実行する。上限に達している場合は待ち行列に並べ、順番が来てから実行する。
+     * 生成処理が完了・失敗・キャンセルされると、次の待ち行列の生成に実行枠を渡す。
+     *
+     * @param generation 生成処理を作成する関数（実行枠を得てから呼ばれる）
+     * @return 生成結果のストリーム（拒否された場合は GenerationRejectedException で失敗）
+     */
+    public <T> Flux<T> schedule(Supplier<? extends Flux<T>> generation) {
+        return Flux.deferContextual(context -> {
+            String clientId = context.getOrDefault(CLIENT_ID_KEY, ANONYMOUS);
+            IntConsumer listener = context.getOrDefault(QUEUE_LISTENER_KEY, NO_LISTENER);
+            RequestDeadline deadline = RequestDeadline.from(context).orElse(null);
+            Reservation reservation = context.getOrDefault(RESERVATION_KEY, null);
+            return acquire(clientId, listener, deadline, reservation)
+                    .flatMapMany(permit -> generation.get().doFinally(signal -> release()));
+        });
+    }
+
+    /**
+     * 実行枠・待ち行列に空きがあれば枠を確保し、なければ生成を始める前に拒否する（応答を開始する前に 503 を返すため）。
+     * 確保した枠は、回答のストリームを {@link Reservation#bind(Flux)} で包んで購読すると、その生成の実行枠の取得で使われる。
+     * @param reservation 確保した枠を保持させる予約
+     * @throws GenerationRejectedException 実行中・待機中・確保済みの件数が上限に達している場合
+     */
+    public void checkAdmission(Reservation reservation) {
+        synchronized (this) {
+            if (running + queued + reserved < concurrencyLimit() + queueCapacity) {
+                reserved++;
+                reservation.hold(this);
+                return;
+            }
+        }
+        rejected.increment();
+        throw new GenerationRejectedException("生成の待ち行列が満杯です", retryAfter);
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 実行中・待機中の件数等のスナップショット
+     */
+    public synchronized GenerationStats stats() {
+        return new GenerationStats(running, concurrencyLimit(), queued, queueCapacity, queues.size(),
+                admitted.sum(), rejected.sum(), timedOut.sum());
+    }
+
+    /**
+     * 実行枠を取得する。空きがなければ待ち行列に並び、順番が来た時点で完了する。
+     */
+    private Mono<Boolean> acquire(String clientId, IntConsumer listener, RequestDeadline deadline,
+                                  Reservation reservation) {
+        // リクエストの期限が待ち時間の上限より先に来る場合は、期限までしか待たない
+        Duration remaining = deadline == null ? null : deadline.remaining();
+        boolean bounded = remaining != null && remaining.compareTo(maxWait) < 0;
+        return Mono.<Boolean>create(sink -> {
+                    Waiter waiter = null;
+                    boolean admit = false;
+                    List<PositionUpdate> updates = List.of();
+                    synchronized (this) {
+                        // 受付時に確保した枠があれば使う（確保済みのため、待ち行列の上限を超えても並べる）
+                        boolean reservedSlot = reservation != null && reservation.consume();
+                        if (reservedSlot) {
+                            reserved--;
+                        }
+                        int limit = concurrencyLimit();
+                        if (running < limit && queued == 0) {
+                            running++;
+                            admit = true;
+                        } else if (reservedSlot || (queued < queueCapacity
+                                && running + queued + reserved < limit + queueCapacity)) {
+                            waiter = new Waiter(clientId, sink, listener);
+                            queues.computeIfAbsent(clientId, id -> new ArrayDeque<>()).addLast(waiter);
+                            queued++;
+                            updates = positionUpdates();
+                        }
+                    }
+                    notifyPositions(updates);
+                    // 生成処理の開始（購読）はロックの外で行う
+                    if (admit) {
+                        admitted.increment();
+                        sink.success(Boolean.TRUE);
+                        return;
+                    }
+                    if (waiter == null) {
+                        rejected.increment();
+                        sink.error(new GenerationRejectedException("生成の待ち行列が満杯です", retryAfter));
+                        return;
+                    }
+                    Waiter queuedWaiter = waiter;
+                    sink.onCancel(() -> cancel(queuedWaiter));
+                })
+                .timeout(bounded ? remaining : maxWait)
+                .onErrorMap(TimeoutException.class, e -> {
+                    if (bounded) {
+                        return new DeadlineExceededException("queue");
+                    }
+                    timedOut.increment();
+                    return new GenerationRejectedException("生成の待ち時間が上限を超えました", retryAfter);
+                });
+    }
+
+    /**
+     * 実行枠を返却し、待ち行列に生成があれば次のクライアントに実行枠を渡す。
+     * ノードの復帰で上限が増えていれば空いた分も渡し、ノードの除外で上限が減っていれば上限を下回るまで渡さない。
+     */
+    private void release() {
+        List<Waiter> granted = new ArrayList<>();
+        List<PositionUpdate> updates;
+        synchronized (this) {
+            running--;
+            int limit = concurrencyLimit();
+            while (running < limit) {
+                Waiter next = pollNext();
+                if (next == null) {
+                    break;
+                }
+                running++;
+                admitted.increment();
+                granted.add(next);
+            }
+            if (granted.isEmpty()) {
+                return;
+            }
+            updates = positionUpdates();
+        }
+        // 順位は次の生成を始める前に通知する（同期的に完了する生成が続けて枠を渡しても、通知が後回しにならないようにする）
+        notifyPositions(updates);
+        for (Waiter next : granted) {
+            next.sink().success(Boolean.TRUE);
+        }
+    }
+
+    private static IntSupplier backendCount(OllamaBackendPool backendPool) {
+        return backendPool == null ? () -> 1 : backendPool::availableCount;
+    }
+
+    /**
+     * 現在の同時に実行できる生成数の上限（ノードあたりの上限 × 利用できるノード数）。
+     */
+    private int concurrencyLimit() {
+        return maxConcurrent * Math.max(1, backendCount.getAsInt());
+    }
+
+    /**
+     * 待機中に購読が取り消された場合は待ち行列から外す。既に実行枠を渡していた場合は返却する。
+     */
+    private void cancel(Waiter waiter) {
+        if (waiter.state().compareAndSet(WAITING, CANCELLED)) {
+            List<PositionUpdate> updates;
+            synchronized (this) {
+                ArrayDeque<Waiter> queue = queues.get(waiter.clientId());
+                if (queue != null && queue.remove(waiter)) {
+                    queued--;
+                    if (queue.isEmpty()) {
+                        queues.remove(waiter.clientId());
+                    }
+                }
+                updates = positionUpdates();
+            }
+            notifyPositions(updates);
+        } else if (waiter.state().get() == GRANTED) {
+            release();
+        }
+    }
+
+    /**
+     * 先頭のクライアントから1件取り出し、そのクライアントを末尾に回す（this で同期して呼ぶこと）。
+     */
+    private Waiter pollNext() {
+        while (!queues.isEmpty()) {
+            String clientId = queues.keySet().iterator().next();
+            ArrayDeque<Waiter> queue = queues.remove(clientId);
+            Waiter waiter = queue.pollFirst();
+            if (!queue.isEmpty()) {
+                queues.put(clientId, queue);
+            }
+            queued--;
+            if (waiter.state().compareAndSet(WAITING, GRANTED)) {
+                return waiter;
+            }
+            // 取り消し処理と競合した場合は次のクライアントへ
+        }
+        return null;
+    }
+
+    /**
+     * 待機中の全員の現在の待ち順位を求め、前回から変わったものを返す（this で同期して呼ぶこと）。
+     * クライアント間で1件ずつ順番に実行するため、順位は「各クライアントの待ち件数」と「自分の前にいるクライアント」から求める。
+     * 通知先の呼び出しはロックの外で行う（{@link #notifyPositions(List)}）。
+     */
+    private List<PositionUpdate> positionUpdates() {
+        List<PositionUpdate> updates = new ArrayList<>();
+        List<ArrayDeque<Waiter>> rotation = new ArrayList<>(queues.values());
+        int[] sizes = new int[rotation.size()];
+        for (int c = 0; c < sizes.length; c++) {
+            sizes[c] = rotation.get(c).size();
+        }
+        for (int c = 0; c < rotation.size(); c++) {
+            int index = 0;
+            for (Waiter waiter : rotation.get(c)) {
+                // 自分より前の周回で実行される件数と、同じ周回で自分より前のクライアントの件数
+                int ahead = index;
+                for (int other = 0; other < sizes.length; other++) {
+                    if (other != c) {
+                        ahead += Math.min(sizes[other], index + (other < c ? 1 : 0));
+                    }
+                }
+                int position = ahead + 1;
+                if (waiter.listener() != NO_LISTENER && waiter.position().getAndSet(position) != position) {
+                    updates.add(new PositionUpdate(waiter, position));
+                }
+                index++;
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * 変わった待ち順位を通知する（ロックの外で呼ぶ）。
+     * 通知までの間に順位が再び変わった場合や、実行枠を得た・取り消された場合は、古い順位を通知しない。
+     */
+    private static void notifyPositions(List<PositionUpdate> updates) {
+        for (PositionUpdate update : updates) {
+            Waiter waiter = update.waiter();
+            if (waiter.state().get() == WAITING && waiter.position().get() == update.position()) {
+                waiter.listener().accept(update.position());
+            }
+        }
+    }
+
+    /**
+     * 受付時に確保した枠。{@link #checkAdmission(Reservation)} で確保し、{@link #bind(Flux)} で回答のストリームに結び付ける。
+     */
+    public static final class Reservation {
+
+        private final AtomicBoolean held = new AtomicBoolean();
+
+        private volatile GenerationScheduler scheduler;
+
+        /**
+         * 回答のストリームの生成で枠を使えるようにし、生成に至らずに値を返した場合や終了した場合は枠を返却する。
+         * @param stream 回答のストリーム
+         * @return 枠を結び付けたストリーム
+         */
+        public <T> Flux<T> bind(Flux<T> stream) {
+            return stream.doOnNext(value -> release())
+                    .doFinally(signal -> release())
+                    .contextWrite(Context.of(RESERVATION_KEY, this));
+        }
+
+        private void hold(GenerationScheduler owner) {
+            scheduler = owner;
+            held.set(true);
+        }
+
+        /**
+         * 枠を使う（スケジューラのロック内で呼ぶこと）。
+         */
+        private boolean consume() {
+            return held.compareAndSet(true, false);
+        }
+
+        private void release() {
+            if (held.compareAndSet(true, false)) {
+                synchronized (scheduler) {
+                    scheduler.reserved--;
+                }
+            }
+        }
+    }
+
+    /**
+     * 待ち行列に並んでいる1件の生成（position は最後に求めた待ち順位、未通知の場合は0）。
+     */
+    private record Waiter(String clientId, MonoSink<Boolean> sink, IntConsumer listener, AtomicInteger state,
+                          AtomicInteger position) {
+        private Waiter(String clientId, MonoSink<Boolean> sink, IntConsumer listener) {
+            this(clientId, sink, listener, new AtomicInteger(WAITING), new AtomicInteger());
+        }
+    }
+
+    /**
+     * ロックの外で通知する待ち順位。
+     */
+    private record PositionUpdate(Waiter waiter, int position) {
+    }
+}
@@ -0,0 +1,338 @@
+package io.github.ryang_ryota.fermat.service;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.github.ryang_ryota.fermat.model.IngestDocument;
+import io.github.ryang_ryota.fermat.model.IngestionStats;
+import io.github.ryang_ryota.fermat.util.IngestCheckpoint;
+import io.github.ryang_ryota.fermat.util.OpenAlexJsonlReader;
+import io.github.ryang_ryota.fermat.util.TextChunker;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * このクラスは、OpenAlexのWorkをJSONLファイルから読み込み、ChromaDBへ一括登録するサービスです。
+ * - 埋め込みにはクエリと同じ all-MiniLM-L6-v2 モデル（EmbeddingConfig のBean）を使い、検索時とベクトル空間を揃えます。
+ * - ファイルは1行ずつ読み込み、バッチ単位で 読み込み → チャンク分割・埋め込み → upsert の順に流します。
+ *   各段階で同時に扱うバッチ数に上限があるため、ファイルの大きさに関わらずメモリ使用量は一定です。
+ * - 長い要旨は文単位のチャンク（ID: WorkのID#番号）に分割し、2番目以降のチャンクの先頭にもタイトルを付けます。
+ * - 埋め込みは複数のバッチを専用スレッドで並行して実行し、upsertは実行中のリクエスト数に上限を設けます。
+ * - 登録が完了した行数を入力ファイルごとに保存し、途中で停止しても次回はその続きから再開します。
+ * - 一定間隔で登録件数とスループットをログに出力します。
+ */
+@Slf4j
+@Service
+public class IngestionService {
+
+    // ChromaDBのテナント名
+    @Value("${chroma.tenant}")
+    private String chromaTenant;
+
+    // ChromaDBのデータベース名
+    @Value("${chroma.database}")
+    private String chromaDatabase;
+
+    // 登録先のコレクションID（コレクション名の指定がない場合に使用）
+    @Value("${chroma.collection-id}")
+    private String collectionId;
+
+    // 共有の埋め込みモデル（all-MiniLM-L6-v2）
+    private final EmbeddingModel embeddingModel;
+
+    // ChromaDB専用の接続プール付きWebClient
+    private final WebClient chromaWebClient;
+
+    // 1回のupsertで登録する論文数（チャンク数はこれ以上になる）
+    private final int batchSize;
+
+    // 1チャンクの見積もりトークン数の上限（0以下の場合は分割しない）
+    private final int chunkMaxTokens;
+
+    // 隣り合うチャンクで重複させるトークン数の上限
+    private final int chunkOverlapTokens;
+
+    // 並行して埋め込むバッチ数
+    private final int embeddingThreads;
+
+    // 同時に実行するupsertリクエスト数の上限
+    private final int maxInFlight;
+
+    // upsertが失敗した場合の再試行回数
+    private final int maxRetries;
+
+    // 進捗をログに出力する間隔
+    private final Duration reportInterval;
+
+    // 登録先のコレクション名（指定した場合は存在しなければ作成する）
+    private final String collectionName;
+
+    // 再開位置を保存するファイル
+    private final Path checkpointFile;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param embeddingModel   共有の埋め込みモデル
+     * @param chromaWebClient  ChromaDB用WebClient
+     * @param batchSize        1回のupsertで登録する論文数
+     * @param chunkMaxTokens   1チャンクの見積もりトークン数の上限
+     * @param chunkOverlapTokens 隣り合うチャンクで重複させるトークン数の上限
+     * @param embeddingThreads 並行して埋め込むバッチ数
+     * @param maxInFlight      同時に実行するupsertリクエスト数の上限
+     * @param maxRetries       upsertが失敗した場合の再試行回数
+     * @param reportIntervalMillis 進捗をログに出力する間隔（ミリ秒）
+     * @param collectionName   登録先のコレクション名（空の場合は chroma.collection-id を使う）
+     * @param checkpointFile   再開位置を保存するファイル
+     */
+    @Autowired
+    public IngestionService(EmbeddingModel embeddingModel,
+                            @Qualifier("chromaWebClient") WebClient chromaWebClient,
+                            @Value("${fermat.ingest.batch-size:256}") int batchSize,
+                            @Value("${fermat.ingest.chunk.max-tokens:256}") int chunkMaxTokens,
+                            @Value("${fermat.ingest.chunk.overlap-tokens:32}") int chunkOverlapTokens,
+                            @Value("${fermat.ingest.embedding-threads:2}") int embeddingThreads,
+                            @Value("${fermat.ingest.max-in-flight:4}") int maxInFlight,
+                            @Value("${fermat.ingest.max-retries:3}") int maxRetries,
+                            @Value("${fermat.ingest.report-interval-ms:10000}") long reportIntervalMillis,
+                            @Value("${fermat.ingest.collection-name:}") String collectionName,
+                            @Value("${fermat.ingest.checkpoint-file:ingest-checkpoint.json}") String checkpointFile) {
+        this.embeddingModel = embeddingModel;
+        this.chromaWebClient = chromaWebClient;
+        this.batchSize = Math.max(1, batchSize);
+        this.chunkMaxTokens = chunkMaxTokens;
+        this.chunkOverlapTokens = Math.max(0, chunkOverlapTokens);
+        this.embeddingThreads = Math.max(1, embeddingThreads);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.reportInterval = Duration.ofMillis(reportIntervalMillis);
+        this.collectionName = collectionName;
+        this.checkpointFile = Path.of(checkpointFile);
+    }
+
+    /**
+     * 入力ファイルを順に読み込み、ChromaDBへ登録する。呼び出し元のスレッドは完了までブロックされる。
+     * @param inputs 入力ファイル（.jsonl または .jsonl.gz）
+     * @return 実行結果
+     * @throws IOException 入力ファイル・再開位置のファイルを読み込めない場合
+     */
+    public IngestionStats ingest(List<Path> inputs) throws IOException {
+        IngestCheckpoint checkpoint = new IngestCheckpoint(checkpointFile);
+        String collection = resolveCollection();
+        Progress progress = new Progress(System.nanoTime());
+        Scheduler embeddingScheduler = Schedulers.newParallel("ingest-embedding", embeddingThreads, true);
+        try {
+            for (Path input : inputs) {
+                ingestFile(input, collection, checkpoint, embeddingScheduler, progress);
+            }
+        } finally {
+            embeddingScheduler.dispose();
+        }
+        IngestionStats stats = progress.snapshot(inputs.size());
+        log.info("一括登録が完了しました（{}ファイル、登録{}件、読み飛ばし{}件、{}秒、{}件/秒）",
+                stats.files(), stats.documents(), stats.skipped(), stats.elapsedMillis() / 1000,
+                String.format("%.1f", stats.docsPerSecond()));
+        return stats;
+    }
+
+    /**
+     * 1つの入力ファイルを再開位置から読み込み、登録する。
+     */
+    private void ingestFile(Path input, String collection, IngestCheckpoint checkpoint,
+                            Scheduler embeddingScheduler, Progress progress) throws IOException {
+        long startLine = checkpoint.position(input);
+        try (OpenAlexJsonlReader reader = new OpenAlexJsonlReader(input, startLine)) {
+            log.info("{} の登録を開始します（{}行目から）", input, startLine + 1);
+            // ファイルの読み込みはイベントループ以外のスレッドで行う
+            Flux.fromIterable(() -> reader)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .buffer(batchSize)
+                    .flatMapSequential(batch -> Mono.fromCallable(() -> embed(batch))
+                            .subscribeOn(embeddingScheduler), embeddingThreads, 1)
+                    .flatMapSequential(batch -> upsert(collection, batch), maxInFlight, 1)
+                    // 入力順に完了したバッチまでを再開位置として保存する
+                    .publishOn(Schedulers.boundedElastic(), 1)
+                    .doOnNext(batch -> {
+                        checkpoint.save(input, batch.lastLine());
+                        progress.add(batch.documents().size());
+                    })
+                    .blockLast();
+            checkpoint.save(input, reader.linesRead());
+            progress.skipped += reader.skipped();
+        }
+    }
+
+    /**
+     * バッチ内のドキュメントをチャンクに分割してまとめて埋め込み、upsertのリクエストボディを作成する（埋め込み用スレッドで実行）。
+     */
+    private EmbeddedBatch embed(List<IngestDocument> documents) {
+        JSONArray ids = new JSONArray();
+        JSONArray texts = new JSONArray();
+        JSONArray metadatas = new JSONArray();
+        List<TextSegment> segments = new ArrayList<>(documents.size());
+        for (IngestDocument document : documents) {
+            List<String> chunks = TextChunker.chunk(document.text(), chunkMaxTokens, chunkOverlapTokens);
+            Object title = document.metadata().get("title");
+            for (int i = 0; i < chunks.size(); i++) {
+                String chunk = chunks.get(i);
+                if (i > 0 && title != null) {
+                    // 2番目以降のチャンクにもどの論文の内容かが分かるようタイトルを付ける
+                    chunk = title + "\n" + chunk;
+                }
+                JSONObject metadata = new JSONObject(document.metadata());
+                metadata.put("work_id", document.id());
+                metadata.put("chunk", i);
+                ids.put(document.id() + "#" + i);
+                texts.put(chunk);
+                metadatas.put(metadata);
+                segments.add(TextSegment.from(chunk));
+            }
+        }
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+
+        JSONArray embeddingArrays = new JSONArray();
+        for (Embedding embedding : embeddings) {
+            JSONArray vector = new JSONArray();
+            for (float value : embedding.vector()) {
+                vector.put(value);
+            }
+            embeddingArrays.put(vector);
+        }
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("ids", ids);
+        requestBody.put("embeddings", embeddingArrays);
+        requestBody.put("documents", texts);
+        requestBody.put("metadatas", metadatas);
+        return new EmbeddedBatch(documents, requestBody.toString());
+    }
+
+    /**
+     * 埋め込み済みのバッチをChromaDBへupsertする。失敗した場合は間隔を空けて再試行する。
+     */
+    private Mono<EmbeddedBatch> upsert(String collection, EmbeddedBatch batch) {
+        return chromaWebClient.post()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}/upsert",
+                        chromaTenant, chromaDatabase, collection)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(batch.requestBody())
+                .retrieve()
+                .toBodilessEntity()
+                .retryWhen(Retry.backoff(maxRetries, Duration.ofMillis(500))
+                        .doBeforeRetry(signal -> log.warn("upsertに失敗したため再試行します（{}回目）: {}",
+                                signal.totalRetries() + 1, signal.failure().getMessage())))
+                .thenReturn(batch);
+    }
+
+    /**
+     * 登録先のコレクションIDを取得する。コレクション名の指定がある場合は、存在しなければ作成する。
+     */
+    private String resolveCollection() {
+        if (collectionName == null || collectionName.isBlank()) {
+            return collectionId;
+        }
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("name", collectionName);
+        requestBody.put("get_or_create", true);
+        String body = chromaWebClient.post()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections", chromaTenant, chromaDatabase)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requestBody.toString())
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(Duration.ofSeconds(30));
+        String id = new JSONObject(body).getString("id");
+        log.info("登録先のコレクション: {}（{}）", collectionName, id);
+        return id;
+    }
+
+    /**
+     * 入力に指定されたパスを入力ファイルの一覧に展開する。ディレクトリの場合は直下の .jsonl / .gz ファイルを名前順に返す。
+     * @param paths 入力ファイルまたはディレクトリ
+     * @return 入力ファイルの一覧
+     * @throws IOException ディレクトリを読み込めない場合
+     */
+    public static List<Path> listInputs(List<Path> paths) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (!Files.isDirectory(path)) {
+                files.add(path);
+                continue;
+            }
+            try (Stream<Path> children = Files.list(path)) {
+                children.filter(child -> {
+                            String name = child.getFileName().toString();
+                            return Files.isRegularFile(child) && (name.endsWith(".jsonl") || name.endsWith(".gz"));
+                        })
+                        .sorted()
+                        .forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 埋め込み済みのバッチ。
+     * @param documents   バッチ内のドキュメント（入力順）
+     * @param requestBody upsertのリクエストボディ（JSON）
+     */
+    private record EmbeddedBatch(List<IngestDocument> documents, String requestBody) {
+
+        long lastLine() {
+            return documents.get(documents.size() - 1).line();
+        }
+    }
+
+    /**
+     * 登録件数とスループットの集計（入力順に完了したバッチを1スレッドずつ集計する）。
+     */
+    private final class Progress {
+
+        private final long startNanos;
+        private long lastReportNanos;
+        private long documents;
+        private long batches;
+        private long skipped;
+
+        private Progress(long startNanos) {
+            this.startNanos = startNanos;
+            this.lastReportNanos = startNanos;
+        }
+
+        private void add(int count) {
+            documents += count;
+            batches++;
+            long now = System.nanoTime();
+            if (now - lastReportNanos >= reportInterval.toNanos()) {
+                lastReportNanos = now;
+                log.info("登録中: {}件（{}件/秒）", documents,
+                        String.format("%.1f", documents / ((now - startNanos) / 1e9)));
+            }
+        }
+
+        private IngestionStats snapshot(int files) {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            double seconds = elapsedNanos / 1e9;
+            return new IngestionStats(files, documents, skipped, batches, elapsedNanos / 1_000_000,
+                    seconds == 0 ? 0.0 : documents / seconds);
+        }
+    }
+}
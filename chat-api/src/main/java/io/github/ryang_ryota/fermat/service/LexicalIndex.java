@@ -0,0 +1,239 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.LexicalIndexStats;
+import io.github.ryang_ryota.fermat.util.Bm25Index;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、ChromaDBのコレクションのドキュメント本文からBM25の転置インデックスを構築し、
+ * 語彙（キーワード）検索を行うためのサービスです。
+ * - 人名・「Taniyama–Shimura」・定理番号のように、埋め込みベクトルでは近さが表れにくい語を含む質問を拾います。
+ * - 検索はメモリ上のポスティングリストをなめるだけで、マイクロ秒単位で終わります。
+ * - 起動時にコレクション全体の本文をページ単位で読み込み、以降は定期的に追加分だけを読み込んで構築中のポスティングリストに
+ *   追加します（BM25の統計量は全体に依存するため、統計量を計算し直したインデックスに差し替えます。検索はロックを取りません）。
+ * - ChromaDBからの読み込みはブロックするため、@Scheduled のスレッド（ヘルスチェック等と共有）ではなく専用のスレッドで行います。
+ * - 初回の読み込みが終わるまでは空の結果を返し、ベクトル検索の結果だけが使われます。
+ */
+@Slf4j
+@Service
+public class LexicalIndex {
+
+    // ChromaDBのテナント名
+    @Value("${chroma.tenant}")
+    private String chromaTenant;
+
+    // ChromaDBのデータベース名
+    @Value("${chroma.database}")
+    private String chromaDatabase;
+
+    // 読み込むコレクションID
+    @Value("${chroma.collection-id}")
+    private String collectionId;
+
+    // ChromaDB専用の接続プール付きWebClient
+    private final WebClient chromaWebClient;
+
+    // 語彙検索を有効にするか
+    private final boolean enabled;
+
+    // 1回の読み込みで取得する件数
+    private final int pageSize;
+
+    // ChromaDBへの1リクエストあたりの待ち時間の上限
+    private final Duration requestTimeout;
+
+    // 検索に使うインデックス（初回の読み込みが終わるまでは null）
+    private volatile Bm25Index index;
+
+    // 読み込み済みのドキュメントを登録したビルダー（更新処理からのみ変更する。初回の読み込みが終わるまでは null）
+    private Bm25Index.Builder builder;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    // 読み込みとインデックスの構築を行うスレッド
+    private final Scheduler refreshScheduler = Schedulers.newSingle("lexical-refresh", true);
+
+    // 統計情報
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private volatile long lastRefreshAt;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param chromaWebClient ChromaDB用WebClient
+     * @param enabled         語彙検索を有効にするか
+     * @param pageSize        1回の読み込みで取得する件数
+     * @param requestTimeout  ChromaDBへの1リクエストあたりの待ち時間の上限
+     */
+    @Autowired
+    public LexicalIndex(@Qualifier("chromaWebClient") WebClient chromaWebClient,
+                        @Value("${fermat.lexical.enabled:true}") boolean enabled,
+                        @Value("${fermat.lexical.page-size:1000}") int pageSize,
+                        @Value("${fermat.lexical.request-timeout:30s}") Duration requestTimeout) {
+        this.chromaWebClient = chromaWebClient;
+        this.enabled = enabled;
+        this.pageSize = Math.max(1, pageSize);
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * 語彙検索できる状態か。
+     * @return 初回の読み込みが完了していれば true
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * 質問文に含まれる語でドキュメントを検索する。
+     * @param query    ユーザーからの質問文
+     * @param nResults 取得する件数
+     * @return BM25スコアの高い順のドキュメント本文（検索できる状態でない場合は空）
+     */
+    public List<String> search(String query, int nResults) {
+        Bm25Index current = index;
+        if (current == null) {
+            return List.of();
+        }
+        List<Bm25Index.Hit> hits = current.search(query, nResults);
+        queries.increment();
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        matched.increment();
+        List<String> result = new ArrayList<>(hits.size());
+        for (Bm25Index.Hit hit : hits) {
+            result.add(hit.document());
+        }
+        return result;
+    }
+
+    /**
+     * ChromaDBのコレクションから未読み込みの本文を読み込み、インデックスを更新する。
+     * 起動直後に1回実行され、以降は一定間隔で実行される（読み込みは専用のスレッドに任せ、すぐに戻る）。
+     */
+    @Scheduled(fixedDelayString = "${fermat.lexical.refresh-interval-ms:300000}")
+    public void refresh() {
+        if (!enabled || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshScheduler.schedule(this::load);
+    }
+
+    /**
+     * アプリケーション終了時に読み込みのスレッドを停止する。
+     */
+    @PreDestroy
+    public void shutdown() {
+        refreshScheduler.dispose();
+    }
+
+    /**
+     * 未読み込みの本文を読み込んでビルダーに追加し、追加があればインデックスを構築し直す（専用のスレッドで実行する）。
+     */
+    private void load() {
+        try {
+            long count = fetchCount();
+            // 初回、または件数が減った（削除された）場合は全件を読み込み直す
+            boolean reload = index == null || count < builder.size();
+            Bm25Index.Builder next = reload ? new Bm25Index.Builder() : builder;
+            int before = reload ? 0 : index.size();
+            while (next.size() < count) {
+                List<String> page = fetchPage(next.size());
+                if (page.isEmpty()) {
+                    break;
+                }
+                // 追加分だけを字句解析し、読み込み済みのポスティングリストの末尾に足す
+                page.forEach(next::add);
+            }
+            if (reload || next.size() != before) {
+                index = next.build();
+                builder = next;
+                log.info("語彙検索インデックスを更新しました（追加{}件、合計{}件、語{}種）",
+                        next.size() - before, next.size(), index.termCount());
+            }
+            lastRefreshAt = System.currentTimeMillis();
+            refreshes.increment();
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("語彙検索インデックスの更新に失敗しました: {}", e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 件数・語の種類数・検索回数等のスナップショット
+     */
+    public LexicalIndexStats stats() {
+        Bm25Index current = index;
+        return new LexicalIndexStats(enabled, current != null, current == null ? 0 : current.size(),
+                current == null ? 0 : current.termCount(), refreshes.sum(), failures.sum(), queries.sum(),
+                matched.sum(), lastRefreshAt);
+    }
+
+    /**
+     * コレクションの件数を取得する。
+     */
+    private long fetchCount() {
+        String body = chromaWebClient.get()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}/count",
+                        chromaTenant, chromaDatabase, collectionId)
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(requestTimeout);
+        return body == null ? 0 : Long.parseLong(body.trim());
+    }
+
+    /**
+     * コレクションから offset 件目以降の1ページ分のドキュメント本文を取得する（ベクトルは取得しない）。
+     */
+    private List<String> fetchPage(long offset) {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("include", new JSONArray(List.of("documents")));
+        requestBody.put("limit", pageSize);
+        requestBody.put("offset", offset);
+
+        String body = chromaWebClient.post()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}/get",
+                        chromaTenant, chromaDatabase, collectionId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requestBody.toString())
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(requestTimeout);
+        if (body == null) {
+            return List.of();
+        }
+
+        JSONObject json = new JSONObject(body);
+        JSONArray ids = json.getJSONArray("ids");
+        JSONArray documents = json.optJSONArray("documents");
+        List<String> documentList = new ArrayList<>(ids.length());
+        for (int i = 0; i < ids.length(); i++) {
+            documentList.add(documents == null ? "" : documents.optString(i, ""));
+        }
+        return documentList;
+    }
+}
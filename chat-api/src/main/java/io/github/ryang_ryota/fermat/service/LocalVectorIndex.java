@@ -0,0 +1,299 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.LocalIndexStats;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.util.HnswIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * このクラスは、ChromaDBのコレクションをアプリケーション内のHNSWインデックスに複製し、
+ * ネットワークを介さずに類似検索を行うためのサービスです。
+ * - 起動時にコレクション全体をページ単位で読み込み、以降は定期的に追加分だけを読み込みます。
+ *   追加分は件数と offset だけで判定するため、既存IDの更新（upsert）や、削除と追加で件数が変わらない変更は検出できません。
+ *   そのため一定間隔（full-rebuild-interval）ごとに全件を読み込み直し、反映の遅れをその間隔までに抑えます。
+ * - 更新は複製したインデックスに対して行い、完了後に差し替えるため、検索はロックを取りません。
+ * - 初回の読み込みが終わるまで（またはベクトルの次元数が一致しない場合）は検索を行わず、
+ *   呼び出し元（ChromaService）がリモートのChromaDBに問い合わせます。
+ * - コレクションの件数が減った場合も全件を読み込み直します。
+ */
+@Slf4j
+@Service
+public class LocalVectorIndex {
+
+    // ChromaDBのテナント名
+    @Value("${chroma.tenant}")
+    private String chromaTenant;
+
+    // ChromaDBのデータベース名
+    @Value("${chroma.database}")
+    private String chromaDatabase;
+
+    // 複製するコレクションID
+    @Value("${chroma.collection-id}")
+    private String collectionId;
+
+    // ChromaDB専用の接続プール付きWebClient
+    private final WebClient chromaWebClient;
+
+    // ローカルインデックスを有効にするか
+    private final boolean enabled;
+
+    // 距離の種類（コレクションの hnsw:space に合わせる）
+    private final HnswIndex.Space space;
+
+    // HNSWの最大接続数・構築時の探索幅・検索時の探索幅
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+
+    // 1回の読み込みで取得する件数
+    private final int pageSize;
+
+    // ChromaDBへの1リクエストあたりの待ち時間の上限
+    private final Duration requestTimeout;
+
+    // 全件を読み込み直す間隔（ミリ秒、0以下で件数が減った場合のみ）
+    private final long fullRebuildIntervalMillis;
+
+    // 現在時刻（エポックミリ秒）
+    private final LongSupplier clock;
+
+    // 検索に使うインデックス（初回の読み込みが終わるまでは null）
+    private volatile HnswIndex index;
+
+    // コレクションから読み込み済みの件数（更新処理からのみ変更する）
+    private volatile long loadedOffset;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    // 統計情報
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder localQueries = new LongAdder();
+    private final LongAdder fullRebuilds = new LongAdder();
+    private volatile long lastRefreshAt;
+
+    // 最後に全件を読み込み直した時刻（更新処理からのみ変更する）
+    private long lastFullRebuildAt;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param chromaWebClient ChromaDB用WebClient
+     * @param enabled         ローカルインデックスを有効にするか
+     * @param space           距離の種類（l2 / ip / cosine）
+     * @param m               HNSWの最大接続数
+     * @param efConstruction  HNSWの構築時の探索幅
+     * @param efSearch        HNSWの検索時の探索幅
+     * @param pageSize        1回の読み込みで取得する件数
+     * @param requestTimeout  ChromaDBへの1リクエストあたりの待ち時間の上限
+     * @param fullRebuildInterval 全件を読み込み直す間隔（0で件数が減った場合のみ）
+     */
+    @Autowired
+    public LocalVectorIndex(@Qualifier("chromaWebClient") WebClient chromaWebClient,
+                            @Value("${fermat.local-index.enabled:false}") boolean enabled,
+                            @Value("${fermat.local-index.space:l2}") String space,
+                            @Value("${fermat.local-index.m:16}") int m,
+                            @Value("${fermat.local-index.ef-construction:200}") int efConstruction,
+                            @Value("${fermat.local-index.ef-search:64}") int efSearch,
+                            @Value("${fermat.local-index.page-size:500}") int pageSize,
+                            @Value("${fermat.local-index.request-timeout:30s}") Duration requestTimeout,
+                            @Value("${fermat.local-index.full-rebuild-interval:1h}") Duration fullRebuildInterval) {
+        this(chromaWebClient, enabled, space, m, efConstruction, efSearch, pageSize, requestTimeout,
+                fullRebuildInterval, System::currentTimeMillis);
+    }
+
+    LocalVectorIndex(WebClient chromaWebClient, boolean enabled, String space, int m, int efConstruction,
+                     int efSearch, int pageSize, Duration requestTimeout, Duration fullRebuildInterval,
+                     LongSupplier clock) {
+        this.chromaWebClient = chromaWebClient;
+        this.enabled = enabled;
+        this.space = HnswIndex.Space.of(space);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.pageSize = Math.max(1, pageSize);
+        this.requestTimeout = requestTimeout;
+        this.fullRebuildIntervalMillis = fullRebuildInterval.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * ローカルインデックスで検索できる状態か。
+     * @return 初回の読み込みが完了していれば true
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * ローカルインデックスで類似検索を行う。
+     * @param query     ユーザーからの質問文
+     * @param embedding 質問文の埋め込みベクトル
+     * @param nResults  取得する件数
+     * @return 関連コンテキスト（検索できる状態でない場合は空）
+     */
+    public Optional<RetrievedContext> search(String query, float[] embedding, int nResults) {
+        HnswIndex current = index;
+        if (current == null || embedding.length != current.dimension()) {
+            return Optional.empty();
+        }
+        List<HnswIndex.SearchResult> results = current.search(embedding, nResults, efSearch);
+        List<String> documents = new ArrayList<>(results.size());
+        List<Double> distances = new ArrayList<>(results.size());
+        List<float[]> embeddings = new ArrayList<>(results.size());
+        for (HnswIndex.SearchResult result : results) {
+            documents.add(result.document());
+            distances.add((double) result.distance());
+            embeddings.add(result.vector());
+        }
+        localQueries.increment();
+        return Optional.of(new RetrievedContext(query, embedding, documents, distances, embeddings));
+    }
+
+    /**
+     * ChromaDBのコレクションから未読み込みの分を読み込み、インデックスを差し替える。
+     * 全件を読み込み直す間隔を過ぎている場合は、新しいインデックスに全件を読み込んでから差し替える（読み込み中も検索は古いインデックスで行う）。
+     * 起動直後に1回実行され、以降は一定間隔で実行される（スケジューラのスレッドで実行するためブロックしてよい）。
+     */
+    @Scheduled(fixedDelayString = "${fermat.local-index.refresh-interval-ms:300000}")
+    public void refresh() {
+        if (!enabled || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = clock.getAsLong();
+            long count = fetchCount();
+            HnswIndex next = index;
+            long offset = loadedOffset;
+            boolean rebuild = next == null || count < offset
+                    || fullRebuildIntervalMillis > 0 && now - lastFullRebuildAt >= fullRebuildIntervalMillis;
+            if (rebuild) {
+                // 初回、件数が減った（削除された）場合、または一定間隔ごとに全件を読み込み直す
+                // （既存IDの更新・件数の変わらない入れ替えは件数と offset では検出できないため）
+                next = null;
+                offset = 0;
+            } else if (count > offset) {
+                next = next.copy();
+            }
+            int added = 0;
+            while (offset < count) {
+                Page page = fetchPage(offset);
+                if (page.ids().isEmpty()) {
+                    break;
+                }
+                for (int i = 0; i < page.ids().size(); i++) {
+                    if (next == null) {
+                        next = new HnswIndex(space, page.embeddings().get(i).length, m, efConstruction,
+                                System.nanoTime());
+                    }
+                    next.add(page.ids().get(i), page.embeddings().get(i), page.documents().get(i));
+                }
+                offset += page.ids().size();
+                added += page.ids().size();
+            }
+            if (rebuild) {
+                lastFullRebuildAt = now;
+                fullRebuilds.increment();
+            }
+            if (next != index) {
+                index = next;
+                log.info("ローカルインデックスを更新しました（追加{}件、合計{}件）", added, next == null ? 0 : next.size());
+            }
+            loadedOffset = offset;
+            lastRefreshAt = System.currentTimeMillis();
+            refreshes.increment();
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("ローカルインデックスの更新に失敗しました: {}", e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 件数・更新回数等のスナップショット
+     */
+    public LocalIndexStats stats() {
+        HnswIndex current = index;
+        return new LocalIndexStats(enabled, current != null, current == null ? 0 : current.size(), loadedOffset,
+                refreshes.sum(), fullRebuilds.sum(), failures.sum(), localQueries.sum(), lastRefreshAt);
+    }
+
+    /**
+     * コレクションの件数を取得する。
+     */
+    private long fetchCount() {
+        String body = chromaWebClient.get()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}/count",
+                        chromaTenant, chromaDatabase, collectionId)
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(requestTimeout);
+        return body == null ? 0 : Long.parseLong(body.trim());
+    }
+
+    /**
+     * コレクションから offset 件目以降の1ページ分（ID・ベクトル・ドキュメント）を取得する。
+     */
+    private Page fetchPage(long offset) {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("include", new JSONArray(List.of("embeddings", "documents")));
+        requestBody.put("limit", pageSize);
+        requestBody.put("offset", offset);
+
+        String body = chromaWebClient.post()
+                .uri("/api/v2/tenants/{tenant}/databases/{database}/collections/{collection}/get",
+                        chromaTenant, chromaDatabase, collectionId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(requestBody.toString())
+                .retrieve()
+                .bodyToMono(String.class)
+                .block(requestTimeout);
+        if (body == null) {
+            return new Page(List.of(), List.of(), List.of());
+        }
+
+        JSONObject json = new JSONObject(body);
+        JSONArray ids = json.getJSONArray("ids");
+        JSONArray embeddings = json.getJSONArray("embeddings");
+        JSONArray documents = json.optJSONArray("documents");
+        List<String> idList = new ArrayList<>(ids.length());
+        List<float[]> embeddingList = new ArrayList<>(ids.length());
+        List<String> documentList = new ArrayList<>(ids.length());
+        for (int i = 0; i < ids.length(); i++) {
+            JSONArray values = embeddings.getJSONArray(i);
+            float[] vector = new float[values.length()];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = (float) values.getDouble(j);
+            }
+            idList.add(ids.getString(i));
+            embeddingList.add(vector);
+            documentList.add(documents == null ? "" : documents.optString(i, ""));
+        }
+        return new Page(idList, embeddingList, documentList);
+    }
+
+    /**
+     * コレクションから取得した1ページ分のデータ。
+     */
+    private record Page(List<String> ids, List<float[]> embeddings, List<String> documents) {
+    }
+}
@@ -0,0 +1,329 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.OllamaBackendStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、複数のOllamaノードを束ね、生成リクエストの振り分け先を決めるサービスです。
+ * - 実行中のリクエストが最も少ないノードを選びます（同数の場合は最初のトークンまでの時間が短いノード）。
+ * - 会話セッションの続きは、セッションIDから決まる同じノードに送ります（ノード上のKVキャッシュを再利用するため）。
+ * - 定期的に /api/tags へのヘルスチェックを行い、応答しないノードを振り分け対象から外します。
+ * - 連続して失敗したノードは一定時間、振り分け対象から外します（受動的な除外）。
+ * - 利用できるノードが1つもない場合は、全ノードを対象に振り分けます（全停止を避けるため）。
+ */
+@Slf4j
+@Service
+public class OllamaBackendPool {
+
+    // 移動平均の重み（新しい値の割合）
+    private static final double EWMA_ALPHA = 0.2;
+
+    // ヘルスチェック用WebClient（ノードごとの接続プールを持つOllama用WebClient）
+    private final WebClient webClient;
+
+    // 振り分け先のノード
+    private final List<Backend> backends;
+
+    // 何回連続で失敗したら除外するか
+    private final int ejectionThreshold;
+
+    // 除外する時間（ミリ秒）
+    private final long ejectionMillis;
+
+    // ヘルスチェックの応答待ち時間の上限
+    private final Duration healthCheckTimeout;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param webClient          Ollama用WebClient
+     * @param backendUrls        ノードのベースURL（カンマ区切り）
+     * @param ejectionThreshold  何回連続で失敗したら除外するか
+     * @param ejectionMillis     除外する時間（ミリ秒）
+     * @param healthCheckTimeoutMillis ヘルスチェックの応答待ち時間の上限（ミリ秒）
+     */
+    @Autowired
+    public OllamaBackendPool(@Qualifier("ollamaWebClient") WebClient webClient,
+                             @Value("${fermat.ollama.backends:${spring.ai.ollama.base-url}}") String backendUrls,
+                             @Value("${fermat.ollama.ejection.consecutive-failures:3}") int ejectionThreshold,
+                             @Value("${fermat.ollama.ejection.duration-ms:30000}") long ejectionMillis,
+                             @Value("${fermat.ollama.health-check.timeout-ms:2000}") long healthCheckTimeoutMillis) {
+        this.webClient = webClient;
+        this.backends = Arrays.stream(backendUrls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new Backend(url.endsWith("/") ? url.substring(0, url.length() - 1) : url))
+                .toList();
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("Ollamaのノードが設定されていません");
+        }
+        this.ejectionThreshold = Math.max(1, ejectionThreshold);
+        this.ejectionMillis = ejectionMillis;
+        this.healthCheckTimeout = Duration.ofMillis(healthCheckTimeoutMillis);
+    }
+
+    /**
+     * 振り分け先のノードを選ぶ。
+     * @param excluded 選ばないノード（既に試したノード）
+     * @return 実行中のリクエストが最も少ないノード
+     */
+    public Backend select(Collection<Backend> excluded) {
+        return select(excluded, null);
+    }
+
+    /**
+     * 振り分け先のノードを選ぶ。キーを指定した場合は、利用できるノードのうちキーから決まるノードを選ぶ
+     * （Rendezvous hashing。ノードが除外・復帰しても、他のキーの振り分け先は変わらない）。
+     * @param excluded    選ばないノード（既に試したノード）
+     * @param affinityKey 同じノードに送りたいリクエストのキー（null の場合は負荷で選ぶ）
+     * @return 振り分け先のノード
+     */
+    public Backend select(Collection<Backend> excluded, String affinityKey) {
+        long now = System.currentTimeMillis();
+        List<Backend> candidates = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            if (!excluded.contains(backend) && backend.isAvailable(now)) {
+                candidates.add(backend);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // 利用できるノードがなければ、状態に関わらず未試行のノードから選ぶ
+            for (Backend backend : backends) {
+                if (!excluded.contains(backend)) {
+                    candidates.add(backend);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.addAll(backends);
+        }
+        if (affinityKey != null) {
+            return candidates.stream()
+                    .max(Comparator.comparingLong(backend -> rendezvousScore(affinityKey, backend)))
+                    .orElseThrow();
+        }
+        return candidates.stream()
+                .min(Comparator.comparingInt(Backend::outstanding).thenComparingDouble(Backend::avgFirstTokenMillis))
+                .orElseThrow();
+    }
+
+    /**
+     * キーとノードの組み合わせのスコア（最大のノードを選ぶ）。
+     */
+    private static long rendezvousScore(String key, Backend backend) {
+        // SplitMix64 の最終化処理で、文字列のハッシュ値を偏りなく散らす
+        long z = ((long) key.hashCode() << 32) ^ (backend.url().hashCode() & 0xffffffffL);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 未試行のノードが残っているか。
+     * @param excluded 既に試したノード
+     * @return 残っていれば true
+     */
+    public boolean hasAlternative(Collection<Backend> excluded) {
+        return backends.stream().anyMatch(backend -> !excluded.contains(backend));
+    }
+
+    /**
+     * ノードへのリクエストを計測する（実行中の件数・最初の要素までの時間・完了までの時間・成否）。
+     * @param backend 振り分け先のノード
+     * @param request ノードへのリクエスト
+     * @return 計測付きのリクエスト
+     */
+    public <T> Flux<T> track(Backend backend, Flux<T> request) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            backend.begin();
+            return request
+                    .doOnNext(element -> {
+                        if (first.compareAndSet(true, false)) {
+                            backend.recordFirstToken(System.nanoTime() - start);
+                        }
+                    })
+                    .doOnComplete(() -> backend.recordSuccess(System.nanoTime() - start))
+                    .doOnError(e -> backend.recordFailure(System.currentTimeMillis(), ejectionThreshold, ejectionMillis))
+                    .doFinally(signal -> backend.end());
+        });
+    }
+
+    /**
+     * 全ノードのヘルスチェック（/api/tags）を行う。結果は非同期に反映される。
+     */
+    @Scheduled(fixedDelayString = "${fermat.ollama.health-check.interval-ms:10000}")
+    public void checkHealth() {
+        for (Backend backend : backends) {
+            webClient.get()
+                    .uri(backend.url() + "/api/tags")
+                    .retrieve()
+                    .toBodilessEntity()
+                    .timeout(healthCheckTimeout)
+                    .subscribe(
+                            response -> backend.setHealthy(true),
+                            e -> {
+                                if (backend.setHealthy(false)) {
+                                    log.warn("Ollamaノードのヘルスチェックに失敗しました: {} ({})", backend.url(), e.getMessage());
+                                }
+                            });
+        }
+    }
+
+    /**
+     * 振り分け対象にできるノード数を取得する（ヘルスチェックに失敗したノード・除外中のノードを除く）。
+     * @return 利用できるノード数
+     */
+    public int availableCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Backend backend : backends) {
+            if (backend.isAvailable(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 全ノードを取得する。
+     * @return ノードの一覧
+     */
+    public List<Backend> backends() {
+        return backends;
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return ノードごとの状態・実行中の件数・応答時間のスナップショット
+     */
+    public List<OllamaBackendStats> stats() {
+        long now = System.currentTimeMillis();
+        return backends.stream().map(backend -> backend.stats(now)).toList();
+    }
+
+    /**
+     * 振り分け先のOllamaノード1台分の状態。
+     */
+    public static final class Backend {
+
+        private final String url;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private volatile boolean healthy = true;
+
+        private volatile long ejectedUntil;
+
+        private volatile long lastRequestAt;
+
+        // 移動平均（ミリ秒）。未計測の場合は0
+        private double avgFirstTokenMillis;
+        private double avgDurationMillis;
+
+        private Backend(String url) {
+            this.url = url;
+        }
+
+        /**
+         * ノードのベースURL。
+         * @return ベースURL
+         */
+        public String url() {
+            return url;
+        }
+
+        /**
+         * 最後にリクエストを送った時刻。
+         * @return エポックミリ秒
+         */
+        public long lastRequestAt() {
+            return lastRequestAt;
+        }
+
+        /**
+         * 最後にリクエストを送った時刻を記録する（モデル常駐のための定期リクエストを含む）。
+         */
+        public void touch() {
+            lastRequestAt = System.currentTimeMillis();
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        boolean isAvailable(long now) {
+            return healthy && now >= ejectedUntil;
+        }
+
+        synchronized double avgFirstTokenMillis() {
+            return avgFirstTokenMillis;
+        }
+
+        boolean setHealthy(boolean healthy) {
+            boolean changed = this.healthy != healthy;
+            this.healthy = healthy;
+            return changed;
+        }
+
+        private void begin() {
+            outstanding.incrementAndGet();
+            requests.increment();
+            touch();
+        }
+
+        private void end() {
+            outstanding.decrementAndGet();
+        }
+
+        private synchronized void recordFirstToken(long nanos) {
+            avgFirstTokenMillis = ewma(avgFirstTokenMillis, nanos / 1_000_000.0);
+        }
+
+        private synchronized void recordSuccess(long nanos) {
+            consecutiveFailures.set(0);
+            avgDurationMillis = ewma(avgDurationMillis, nanos / 1_000_000.0);
+        }
+
+        private void recordFailure(long now, int threshold, long ejectionMillis) {
+            failures.increment();
+            if (consecutiveFailures.incrementAndGet() >= threshold) {
+                consecutiveFailures.set(0);
+                ejectedUntil = now + ejectionMillis;
+                log.warn("Ollamaノードを一時的に除外しました: {}（{}ミリ秒）", url, ejectionMillis);
+            }
+        }
+
+        private synchronized OllamaBackendStats stats(long now) {
+            return new OllamaBackendStats(url, healthy, now < ejectedUntil, outstanding.get(), requests.sum(),
+                    failures.sum(), avgFirstTokenMillis, avgDurationMillis);
+        }
+
+        private static double ewma(double average, double value) {
+            return average == 0.0 ? value : average + EWMA_ALPHA * (value - average);
+        }
+    }
+}
@@ -1,36 +1,110 @@
 package io.github.ryang_ryota.fermat.service;
 
+import io.github.ryang_ryota.fermat.codec.OllamaNdjsonDecoder;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * このクラスは、Ollama（ローカルAIモデル）と通信し、AIによる回答をストリーミング形式で取得するサービスです。
  * - Spring WebFluxのWebClientを利用して非同期・ストリーミング通信を実現しています。
  * - OllamaのAPI仕様に従い、プロンプトを送信し、AIの生成する回答をトークン単位で逐次受信します。
+ * - 各リクエストに keep_alive を指定し、定期的な空リクエストでモデルをメモリ上に常駐させます。
+ * - 会話セッションの続きでは、前回の応答で受け取った context（トークン列）を渡し、同じノードに送ります。
+ * - 送信先は OllamaBackendPool が選び、最初のトークンが届く前に失敗した場合は別のノードで再試行します。
+ * - 最初のトークンまでの時間・生成全体の時間・生成速度を PipelineMetrics に記録します。
+ * - 生成するトークン数（num_predict）と生成時間に上限を設け、リクエストの期限（RequestDeadline）が先に来る場合は期限で打ち切ります。
+ *   打ち切り・クライアントの切断による購読のキャンセルは、Ollamaへの接続を閉じることで生成の中断として伝わります。
+ * - 完了した生成の時間（配信）と、キャンセル・期限切れ・失敗で無駄になった生成の時間を分けて記録します。
  */
+@Slf4j
 @Service
 public class OllamaService {
 
-    // Ollama APIのベースURL
-    @Value("${spring.ai.ollama.base-url}")
-    private String ollamaBaseUrl;
-
     // 使用するAIモデル名
     @Value("${spring.ai.ollama.chat.model}")
     private String ollamaModel;
 
-    // WebClient: 非同期HTTP通信のためのSpring標準クライアント
-    private final WebClient webClient = WebClient.builder().build();
+    // モデルをメモリ上に保持する時間（Ollamaの keep_alive。例: 30m、-1 で無期限）
+    @Value("${fermat.ollama.keep-alive:30m}")
+    private String keepAlive = "30m";
+
+    // 1回の生成にかける時間の上限（リクエストの期限が先に来る場合はそちらで打ち切る）
+    @Value("${fermat.ollama.max-generation-time:90s}")
+    private Duration maxGenerationTime = Duration.ofSeconds(90);
+
+    // モデルを常駐させるための定期リクエストを送るか
+    @Value("${fermat.ollama.keep-warm.enabled:true}")
+    private boolean keepWarmEnabled = true;
+
+    // 定期リクエストの間隔（ミリ秒）。この間に生成リクエストがあれば送らない
+    @Value("${fermat.ollama.keep-warm.interval-ms:240000}")
+    private long keepWarmIntervalMillis = 240000;
+
+    // 最初のトークンが届く前に失敗した場合に、別のノードを含めて何回まで試すか
+    @Value("${fermat.ollama.max-attempts:2}")
+    private int maxAttempts = 2;
+
+    // Ollama専用の接続プール付きWebClient（接続プールはノードごとに分かれる）
+    private final WebClient webClient;
+
+    // Ollamaノードの振り分け
+    private final OllamaBackendPool backendPool;
 
-    // JSONパース用のObjectMapper
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    // パイプラインのメトリクス
+    private final PipelineMetrics pipelineMetrics;
+
+    // NDJSONデコーダー（受信バッファから直接トークンを取り出す）
+    private final OllamaNdjsonDecoder decoder = new OllamaNdjsonDecoder();
+
+    // Ollamaの options に渡す生成オプション（起動時に一度だけ組み立て、全リクエストで共有する読み取り専用のMap）
+    private final Map<String, Object> generationOptions;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param webClient   Ollama用WebClient
+     * @param backendPool Ollamaノードの振り分け
+     * @param pipelineMetrics パイプラインのメトリクス
+     * @param options     生成オプション（Ollamaの options に渡すJSON。例: {"num_ctx":4096,"temperature":0.2}）
+     * @param numPredict  1回の生成で生成するトークン数の上限（Ollamaの num_predict。options に指定がある場合はそちらを優先、0以下で無制限）
+     */
+    @Autowired
+    public OllamaService(@Qualifier("ollamaWebClient") WebClient webClient, OllamaBackendPool backendPool,
+                         PipelineMetrics pipelineMetrics,
+                         @Value("${fermat.ollama.options:}") String options,
+                         @Value("${fermat.ollama.num-predict:1024}") int numPredict) {
+        this.webClient = webClient;
+        this.backendPool = backendPool;
+        this.pipelineMetrics = pipelineMetrics;
+        Map<String, Object> generationOptions = options.isBlank() ? new HashMap<>() : new JSONObject(options).toMap();
+        if (numPredict > 0) {
+            generationOptions.putIfAbsent("num_predict", numPredict);
+        }
+        this.generationOptions = Collections.unmodifiableMap(generationOptions);
+    }
+
+    /**
+     * テスト用コンストラクタ（生成オプションなし、num_predict は既定値）
+     */
+    OllamaService(WebClient webClient, OllamaBackendPool backendPool, PipelineMetrics pipelineMetrics) {
+        this(webClient, backendPool, pipelineMetrics, "", 1024);
+    }
 
     /**
      * Ollama APIにプロンプトを送信し、AIの回答をストリーミングで受信する
@@ -38,40 +112,178 @@ public class OllamaService {
      * @param prompt ユーザーの質問やコンテキストを含むAIへの指示文
      * @return AIの回答をトークン単位で逐次返すFluxストリーム
      *
+     * - 各行の"response"フィールドのみを返却する（完了行では空文字）
+     */
+    public Flux<String> generateResponseStream(String prompt) {
+        return generateTokenStream(prompt).map(OllamaToken::response);
+    }
+
+    /**
+     * Ollama APIにプロンプトを送信し、AIの回答をトークン（メタデータ付き）のストリームで受信する
+     *
+     * @param prompt ユーザーの質問やコンテキストを含むAIへの指示文
+     * @return 1行ごとのトークン（完了行には生成トークン数・生成時間を含む）
+     *
      * - Ollama API（/api/generate）にPOSTリクエストを送信
      * - "stream": true を指定することで、AIの回答を1トークンずつストリーミングで受信
-     * - 受信した各行はJSON形式なので、responseフィールドのみを抽出して返却
-     * - パース失敗時（不正なJSON等）は無視して次のトークンへ
+     * - 受信バッファ（NDJSON）を行文字列やJSONツリーに変換せず、直接必要なフィールドだけを取り出す
+     * - 不正なJSON行は無視して次のトークンへ
+     * - 最初のトークンが届く前に失敗した場合は、未試行のノードで再試行する（届いた後の失敗はそのまま伝える）
      */
-    public Flux<String> generateResponseStream(String prompt) {
-        // OllamaのAPIエンドポイントURL
-        String url = ollamaBaseUrl + "/api/generate";
+    public Flux<OllamaToken> generateTokenStream(String prompt) {
+        return generateTokenStream(prompt, null, null);
+    }
 
-        // APIリクエストボディ（モデル名・プロンプト・ストリーミング指定）
+    /**
+     * 会話の続きとして、Ollama APIにプロンプトを送信し、AIの回答をトークンのストリームで受信する
+     *
+     * @param prompt      今回のターンの指示文（これまでの会話は context に含まれる）
+     * @param context     前回の応答の完了行で受け取った会話のトークン列（null の場合は新しい会話）
+     * @param affinityKey 同じノードに送るためのキー（セッションID等。null の場合は負荷で振り分ける）
+     * @return 1行ごとのトークン（完了行には次のターンに渡す context を含む）
+     *
+     * - context を渡すと、Ollamaはこれまでの会話をトークン化し直さずに続きとして扱う
+     * - ノード上のKVキャッシュに前回の会話が残っていれば、その部分のプロンプト処理（prefill）が省略される
+     */
+    public Flux<OllamaToken> generateTokenStream(String prompt, int[] context, String affinityKey) {
+        // APIリクエストボディ（モデル名・プロンプト・ストリーミング指定・モデルの保持時間・生成オプション・会話のトークン列）
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", ollamaModel);
         requestBody.put("prompt", prompt);
         requestBody.put("stream", true);
+        requestBody.put("keep_alive", keepAlive);
+        if (!generationOptions.isEmpty()) {
+            requestBody.put("options", generationOptions);
+        }
+        if (context != null) {
+            requestBody.put("context", context);
+        }
+
+        // 試したノードと計測の開始時刻は購読ごとに記録する
+        return Flux.deferContextual(subscriberContext -> {
+            GenerationTimer timer = new GenerationTimer(System.nanoTime());
+            // 生成時間の上限とリクエストの期限のうち、先に来る方で打ち切る
+            Duration limit = RequestDeadline.from(subscriberContext)
+                    .map(RequestDeadline::remaining)
+                    .filter(remaining -> remaining.compareTo(maxGenerationTime) < 0)
+                    .orElse(maxGenerationTime);
+            return RequestDeadline.limit(attempt(requestBody, affinityKey, new ArrayList<>(), 1)
+                                    .doOnNext(timer::onToken), limit, "generation")
+                    .doOnComplete(timer::onComplete)
+                    .doOnError(timer::onError)
+                    .doOnCancel(timer::onCancel);
+        });
+    }
+
+    /**
+     * 選んだノードに生成リクエストを送る。最初のトークンが届く前に失敗した場合は別のノードで再試行する。
+     */
+    private Flux<OllamaToken> attempt(Map<String, Object> requestBody, String affinityKey,
+                                      List<OllamaBackendPool.Backend> tried, int attempt) {
+        OllamaBackendPool.Backend backend = backendPool.select(tried, affinityKey);
+        tried.add(backend);
+        AtomicBoolean started = new AtomicBoolean();
 
         // WebClientでPOSTリクエストを送信し、ストリーミングレスポンスを逐次受信
-        return webClient.post()
-                .uri(url)
+        Flux<OllamaToken> tokens = decoder.decode(webClient.post()
+                .uri(backend.url() + "/api/generate")
                 .contentType(MediaType.APPLICATION_JSON)
                 // OllamaはNDJSON（1行ごとにJSON）も返すためacceptに指定
                 .accept(MediaType.APPLICATION_NDJSON, MediaType.APPLICATION_JSON)
                 .bodyValue(requestBody)
                 .retrieve()
-                .bodyToFlux(String.class)
-                .flatMap(line -> {
-                    try {
-                        // 1行ごとのJSONをパースし、"response"フィールドのみ抽出
-                        JsonNode json = objectMapper.readTree(line);
-                        String token = json.path("response").asText();
-                        return Flux.just(token);
-                    } catch (Exception e) {
-                        // パース失敗時は無視して次へ
-                        return Flux.empty();
-                    }
-                });
+                .bodyToFlux(DataBuffer.class));
+        return backendPool.track(backend, tokens)
+                .doOnNext(token -> started.set(true))
+                .onErrorResume(e -> !started.get() && attempt < maxAttempts && backendPool.hasAlternative(tried),
+                        e -> {
+                            log.warn("Ollamaノードへの生成リクエストに失敗したため、別のノードで再試行します: {} ({})",
+                                    backend.url(), e.getMessage());
+                            return attempt(requestBody, affinityKey, tried, attempt + 1);
+                        });
+    }
+
+    /**
+     * プロンプトなしの生成リクエストを各ノードに送り、モデルをメモリ上に読み込んだままにする。
+     * 直近の間隔内に生成リクエストがあったノードには、その keep_alive で保持されているため送らない。
+     */
+    @Scheduled(fixedDelayString = "${fermat.ollama.keep-warm.interval-ms:240000}")
+    public void keepModelLoaded() {
+        if (!keepWarmEnabled) {
+            return;
+        }
+        // prompt を省略するとOllamaはモデルの読み込みだけを行い、即座に応答する
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", ollamaModel);
+        requestBody.put("stream", false);
+        requestBody.put("keep_alive", keepAlive);
+        for (OllamaBackendPool.Backend backend : backendPool.backends()) {
+            if (System.currentTimeMillis() - backend.lastRequestAt() < keepWarmIntervalMillis) {
+                continue;
+            }
+            backend.touch();
+            webClient.post()
+                    .uri(backend.url() + "/api/generate")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(requestBody)
+                    .retrieve()
+                    .toBodilessEntity()
+                    .subscribe(
+                            response -> log.debug("Ollamaモデルの常駐リクエストに成功しました: {}", backend.url()),
+                            e -> log.warn("Ollamaモデルの常駐リクエストに失敗しました: {} ({})", backend.url(), e.getMessage()));
+        }
+    }
+
+    /**
+     * 1回の生成の計測状態。トークンは逐次通知されるため同期は不要（終了の通知だけはキャンセルと競合しうる）。
+     */
+    private final class GenerationTimer {
+
+        private final long start;
+
+        private boolean started;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private GenerationTimer(long start) {
+            this.start = start;
+        }
+
+        private void onToken(OllamaToken token) {
+            if (!started) {
+                started = true;
+                pipelineMetrics.recordFirstToken(System.nanoTime() - start);
+            }
+            if (token.done()) {
+                pipelineMetrics.recordEval(token);
+            }
+        }
+
+        private void onComplete() {
+            if (finished.compareAndSet(false, true)) {
+                long nanos = System.nanoTime() - start;
+                pipelineMetrics.recordGeneration(nanos);
+                pipelineMetrics.recordStage(PipelineMetrics.Stage.GENERATION, nanos);
+                pipelineMetrics.recordGenerationOutcome(PipelineMetrics.Outcome.DELIVERED, nanos);
+            }
+        }
+
+        private void onError(Throwable e) {
+            if (finished.compareAndSet(false, true)) {
+                boolean expired = e instanceof DeadlineExceededException;
+                if (!expired) {
+                    pipelineMetrics.recordError(PipelineMetrics.Stage.GENERATION);
+                }
+                pipelineMetrics.recordGenerationOutcome(
+                        expired ? PipelineMetrics.Outcome.DEADLINE_EXCEEDED : PipelineMetrics.Outcome.FAILED,
+                        System.nanoTime() - start);
+            }
+        }
+
+        private void onCancel() {
+            if (finished.compareAndSet(false, true)) {
+                pipelineMetrics.recordGenerationOutcome(PipelineMetrics.Outcome.CANCELLED, System.nanoTime() - start);
+            }
+        }
     }
 }
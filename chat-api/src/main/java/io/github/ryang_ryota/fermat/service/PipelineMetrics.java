@@ -0,0 +1,401 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.GenerationTimeStats;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * このクラスは、RAGパイプラインの段階ごとの所要時間・スループット・エラー数を Micrometer に記録するコンポーネントです。
+ * - 埋め込み・ChromaDB検索・プロンプト構築・最初のトークンまで・生成全体・配信（SSE・WebSocketのストリームの開始から終了まで）の
+ *   所要時間をタイマーで記録します。
+ * - プロンプトに含めたコンテキストの見積もりトークン数と、コンテキストの選択で削減したトークン数を記録します。
+ * - 生成速度（トークン/秒）とプロンプトのトークン数は、Ollamaの完了行（eval_count, eval_duration, prompt_eval_count）から算出します。
+ * - 起動から準備完了（ウォームアップ完了）までの時間と、起動後最初のリクエストの最初のイベントまでの時間を記録します。
+ * - 生成の時間を、完了して配信できたもの（delivered）と、キャンセル・期限切れ・失敗で無駄になったものに分けて記録します。
+ * - リクエストの期限（RequestDeadline）を過ぎたリクエスト数を、期限を過ぎた段階ごとに記録します。
+ * - ChromaDBへの検索のヘッジ・サーキットブレーカーの遮断・検索失敗時のフォールバックの回数を記録します。
+ * - メーターは起動時に作成しておき、トークンごとの処理ではレジストリを検索しません。
+ * - /actuator/prometheus から Prometheus 形式で取得できます。
+ */
+@Component
+public class PipelineMetrics {
+
+    /**
+     * パイプラインの段階（メトリクスの stage タグ）。GENERATION は完了した生成、STREAM は配信したストリームの所要時間。
+     */
+    public enum Stage {
+        EMBEDDING("embedding"),
+        LOCAL_INDEX("local_index"),
+        LEXICAL_SEARCH("lexical_search"),
+        CHROMA_QUERY("chroma_query"),
+        PROMPT_BUILD("prompt_build"),
+        GENERATION("generation"),
+        STREAM("stream");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * 生成の終わり方（メトリクスの outcome タグ）。DELIVERED 以外の生成時間は無駄になった時間として扱う。
+     */
+    public enum Outcome {
+        DELIVERED("delivered"),
+        CANCELLED("cancelled"),
+        DEADLINE_EXCEEDED("deadline_exceeded"),
+        FAILED("failed");
+
+        private final String tag;
+
+        Outcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    // 段階ごとの所要時間
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+
+    // 段階ごとのエラー数
+    private final Map<Stage, Counter> errorCounters = new EnumMap<>(Stage.class);
+
+    // 生成リクエストから最初のトークンが届くまでの時間
+    private final Timer firstTokenTimer;
+
+    // 生成リクエストから最後のトークンが届くまでの時間
+    private final Timer generationTimer;
+
+    // 生成速度（Ollamaの eval_count / eval_duration）
+    private final DistributionSummary tokensPerSecond;
+
+    // 生成したトークン数の累計
+    private final Counter generatedTokens;
+
+    // プロンプトの文字数
+    private final DistributionSummary promptChars;
+
+    // プロンプトのトークン数（Ollamaの prompt_eval_count）
+    private final DistributionSummary promptTokens;
+
+    // プロンプトに含めたコンテキストの見積もりトークン数
+    private final DistributionSummary contextTokens;
+
+    // コンテキストの選択で削減した見積もりトークン数の累計
+    private final Counter contextSavedTokens;
+
+    // 終わり方ごとの生成時間（件数と合計時間）
+    private final Map<Outcome, Timer> outcomeTimers = new EnumMap<>(Outcome.class);
+
+    // 期限を過ぎた段階ごとのリクエスト数（期限切れは稀なため、段階の初回にメーターを作成する）
+    private final Map<String, Counter> deadlineCounters = new ConcurrentHashMap<>();
+
+    // ChromaDBへの検索のヘッジ（送った数・ヘッジの方が先に返った数）
+    private final Counter chromaHedges;
+    private final Counter chromaHedgeWins;
+
+    // ChromaDBへの検索のサーキットブレーカーが開いた回数
+    private final Counter chromaCircuitTrips;
+
+    // 検索失敗時のフォールバック（直近の検索結果で代替した数・空のコンテキストにした数）
+    private final Counter chromaStaleFallbacks;
+    private final Counter chromaEmptyFallbacks;
+
+    // メーターの登録先（期限切れの段階ごとのカウンタを作成するため）
+    private final MeterRegistry registry;
+
+    // 配信中のSSEストリーム数
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    // リクエストから回答の最初のSSEイベントを送るまでの時間
+    private final Timer firstEventTimer;
+
+    // JVMの起動から準備完了までの時間（ミリ秒。未完了の場合は −1）
+    private final AtomicLong timeToReadyMillis = new AtomicLong(-1);
+
+    // 起動後最初のリクエストの、最初のSSEイベントまでの時間（ナノ秒。未計測の場合は −1）
+    private final AtomicLong firstRequestNanos = new AtomicLong(-1);
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param registry メーターの登録先
+     */
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("fermat.pipeline.stage")
+                    .description("RAGパイプラインの段階ごとの所要時間")
+                    .tag("stage", stage.tag)
+                    .register(registry));
+            errorCounters.put(stage, Counter.builder("fermat.pipeline.errors")
+                    .description("RAGパイプラインの段階ごとのエラー数")
+                    .tag("stage", stage.tag)
+                    .register(registry));
+        }
+        for (Outcome outcome : Outcome.values()) {
+            outcomeTimers.put(outcome, Timer.builder("fermat.generation.time")
+                    .description("生成の終わり方ごとの生成時間（delivered 以外は無駄になった生成時間）")
+                    .tag("outcome", outcome.tag)
+                    .register(registry));
+        }
+        chromaHedges = Counter.builder("fermat.chroma.hedges")
+                .description("ChromaDBへの検索で、応答が遅いために送ったヘッジの数")
+                .tag("result", "sent")
+                .register(registry);
+        chromaHedgeWins = Counter.builder("fermat.chroma.hedges")
+                .description("ChromaDBへの検索で、応答が遅いために送ったヘッジの数")
+                .tag("result", "won")
+                .register(registry);
+        chromaCircuitTrips = Counter.builder("fermat.chroma.circuit.trips")
+                .description("ChromaDBへの検索のサーキットブレーカーが開いた回数")
+                .register(registry);
+        chromaStaleFallbacks = Counter.builder("fermat.chroma.fallbacks")
+                .description("ChromaDBへの検索に失敗し、フォールバックしたリクエスト数")
+                .tag("result", "stale")
+                .register(registry);
+        chromaEmptyFallbacks = Counter.builder("fermat.chroma.fallbacks")
+                .description("ChromaDBへの検索に失敗し、フォールバックしたリクエスト数")
+                .tag("result", "empty")
+                .register(registry);
+        firstTokenTimer = Timer.builder("fermat.generation.first.token")
+                .description("生成リクエストから最初のトークンが届くまでの時間")
+                .register(registry);
+        generationTimer = Timer.builder("fermat.generation.duration")
+                .description("生成リクエストから生成が完了するまでの時間")
+                .register(registry);
+        tokensPerSecond = DistributionSummary.builder("fermat.generation.tokens.per.second")
+                .description("Ollamaの eval_count / eval_duration から算出した生成速度")
+                .baseUnit("tokens/s")
+                .register(registry);
+        generatedTokens = Counter.builder("fermat.generation.tokens")
+                .description("生成したトークン数の累計（eval_count）")
+                .register(registry);
+        promptChars = DistributionSummary.builder("fermat.prompt.chars")
+                .description("プロンプトの文字数")
+                .baseUnit("chars")
+                .register(registry);
+        promptTokens = DistributionSummary.builder("fermat.prompt.tokens")
+                .description("プロンプトのトークン数（prompt_eval_count）")
+                .baseUnit("tokens")
+                .register(registry);
+        contextTokens = DistributionSummary.builder("fermat.context.tokens")
+                .description("プロンプトに含めたコンテキストの見積もりトークン数")
+                .baseUnit("tokens")
+                .register(registry);
+        contextSavedTokens = Counter.builder("fermat.context.tokens.saved")
+                .description("上位のドキュメントをそのまま連結した場合と比べて削減した見積もりトークン数の累計")
+                .register(registry);
+        Gauge.builder("fermat.sse.active", activeStreams, AtomicInteger::get)
+                .description("配信中のSSEストリーム数")
+                .register(registry);
+        firstEventTimer = Timer.builder("fermat.sse.first.event")
+                .description("リクエストから回答の最初のSSEイベントを送るまでの時間")
+                .register(registry);
+        Gauge.builder("fermat.startup.time.to.ready", timeToReadyMillis, value -> value.get() / 1000.0)
+                .description("JVMの起動からウォームアップが完了して準備完了になるまでの時間（未完了の場合は負）")
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("fermat.startup.first.request", firstRequestNanos, value -> value.get() / 1e9)
+                .description("起動後最初のリクエストで、最初のSSEイベントを送るまでの時間（未計測の場合は負）")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * 段階の所要時間を記録する。
+     * @param stage 段階
+     * @param nanos 所要時間（ナノ秒）
+     */
+    public void recordStage(Stage stage, long nanos) {
+        stageTimers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 段階のエラーを記録する。
+     * @param stage 段階
+     */
+    public void recordError(Stage stage) {
+        errorCounters.get(stage).increment();
+    }
+
+    /**
+     * 最初のトークンが届くまでの時間を記録する。
+     * @param nanos 所要時間（ナノ秒）
+     */
+    public void recordFirstToken(long nanos) {
+        firstTokenTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 生成が完了するまでの時間を記録する。
+     * @param nanos 所要時間（ナノ秒）
+     */
+    public void recordGeneration(long nanos) {
+        generationTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 生成の終わり方と、それまでにかかった生成時間を記録する。
+     * @param outcome 終わり方
+     * @param nanos   生成の開始から終わりまでの時間（ナノ秒）
+     */
+    public void recordGenerationOutcome(Outcome outcome, long nanos) {
+        outcomeTimers.get(outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * リクエストの期限を過ぎたことを記録する。
+     * @param stage 期限を過ぎた段階
+     */
+    public void recordDeadlineExceeded(String stage) {
+        deadlineCounters.computeIfAbsent(stage, key -> Counter.builder("fermat.deadline.exceeded")
+                        .description("リクエストの期限を過ぎて打ち切ったリクエスト数")
+                        .tag("stage", key)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * 生成時間の内訳（配信・無駄）と期限切れの統計情報を取得する。
+     * @return 統計情報のスナップショット
+     */
+    public GenerationTimeStats generationTimeStats() {
+        Timer delivered = outcomeTimers.get(Outcome.DELIVERED);
+        long wastedCount = 0;
+        double wastedSeconds = 0;
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome != Outcome.DELIVERED) {
+                Timer timer = outcomeTimers.get(outcome);
+                wastedCount += timer.count();
+                wastedSeconds += timer.totalTime(TimeUnit.SECONDS);
+            }
+        }
+        Map<String, Long> deadlineExceeded = new TreeMap<>();
+        deadlineCounters.forEach((stage, counter) -> deadlineExceeded.put(stage, (long) counter.count()));
+        return new GenerationTimeStats(delivered.count(), delivered.totalTime(TimeUnit.SECONDS),
+                wastedCount, wastedSeconds,
+                outcomeTimers.get(Outcome.CANCELLED).count(),
+                outcomeTimers.get(Outcome.DEADLINE_EXCEEDED).count(),
+                outcomeTimers.get(Outcome.FAILED).count(),
+                deadlineExceeded);
+    }
+
+    /**
+     * ChromaDBへの検索のヘッジを記録する。
+     * @param won ヘッジの方が先に返った場合は true（送った時点では false）
+     */
+    public void recordChromaHedge(boolean won) {
+        (won ? chromaHedgeWins : chromaHedges).increment();
+    }
+
+    /**
+     * ChromaDBへの検索のサーキットブレーカーが開いたことを記録する。
+     */
+    public void recordChromaCircuitTrip() {
+        chromaCircuitTrips.increment();
+    }
+
+    /**
+     * ChromaDBへの検索に失敗した際のフォールバックを記録する。
+     * @param stale 直近の検索結果で代替できた場合は true、空のコンテキストにした場合は false
+     */
+    public void recordChromaFallback(boolean stale) {
+        (stale ? chromaStaleFallbacks : chromaEmptyFallbacks).increment();
+    }
+
+    /**
+     * プロンプトの文字数を記録する。
+     * @param chars 文字数
+     */
+    public void recordPrompt(int chars) {
+        promptChars.record(chars);
+    }
+
+    /**
+     * プロンプトに含めたコンテキストの見積もりトークン数と、削減したトークン数を記録する。
+     * @param tokens      コンテキストの見積もりトークン数
+     * @param savedTokens 削減した見積もりトークン数
+     */
+    public void recordContext(int tokens, int savedTokens) {
+        contextTokens.record(tokens);
+        contextSavedTokens.increment(savedTokens);
+    }
+
+    /**
+     * Ollamaの完了行から生成速度・生成トークン数・プロンプトのトークン数を記録する。
+     * @param done 完了行のトークン
+     */
+    public void recordEval(OllamaToken done) {
+        if (done.evalCount() > 0) {
+            generatedTokens.increment(done.evalCount());
+            if (done.evalDuration() > 0) {
+                tokensPerSecond.record(done.evalCount() * 1_000_000_000.0 / done.evalDuration());
+            }
+        }
+        if (done.promptEvalCount() > 0) {
+            promptTokens.record(done.promptEvalCount());
+        }
+    }
+
+    /**
+     * リクエストから回答の最初のSSEイベントを送るまでの時間を記録する（起動後最初のリクエストの値は別に保持する）。
+     * @param nanos 所要時間（ナノ秒）
+     */
+    public void recordFirstEvent(long nanos) {
+        firstEventTimer.record(nanos, TimeUnit.NANOSECONDS);
+        firstRequestNanos.compareAndSet(-1, nanos);
+    }
+
+    /**
+     * JVMの起動から準備完了までの時間を記録する。
+     * @param millis 所要時間（ミリ秒）
+     */
+    public void recordReady(long millis) {
+        timeToReadyMillis.set(millis);
+    }
+
+    /**
+     * JVMの起動から準備完了までの時間。
+     * @return 所要時間（ミリ秒。未完了の場合は −1）
+     */
+    public long timeToReadyMillis() {
+        return timeToReadyMillis.get();
+    }
+
+    /**
+     * 起動後最初のリクエストの、最初のSSEイベントまでの時間。
+     * @return 所要時間（ミリ秒。未計測の場合は −1）
+     */
+    public long firstRequestMillis() {
+        long nanos = firstRequestNanos.get();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * SSEストリームの配信開始を記録する。
+     */
+    public void streamOpened() {
+        activeStreams.incrementAndGet();
+    }
+
+    /**
+     * SSEストリームの配信終了（完了・エラー・切断）を記録する。
+     */
+    public void streamClosed() {
+        activeStreams.decrementAndGet();
+    }
+}
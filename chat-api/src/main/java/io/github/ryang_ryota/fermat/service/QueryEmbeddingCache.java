@@ -0,0 +1,86 @@
+package io.github.ryang_ryota.fermat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.github.ryang_ryota.fermat.model.EmbeddingCacheStats;
+import io.github.ryang_ryota.fermat.util.QueryNormalizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * このクラスは、正規化した質問文をキーとしてクエリの埋め込みベクトルを保持するキャッシュです。
+ * - 同じ質問（再送・再読み込み・表記揺れのみ異なる質問）の埋め込み推論を省略します。
+ * - ベクトルは float[] のまま保持し、Float のボックス化を行いません。
+ * - メモリ使用量の上限（バイト数）を設定でき、上限を超えると W-TinyLFU（Caffeine）で追い出します。
+ * - 返却するベクトルは共有されるため、呼び出し側で書き換えてはいけません。
+ */
+@Service
+public class QueryEmbeddingCache {
+
+    // 1エントリあたりの固定オーバーヘッド（ノード・配列ヘッダ・キー文字列ヘッダ等の概算）
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    // メモリ使用量の上限（バイト）
+    private final long maxBytes;
+
+    // 埋め込みベクトルのキャッシュ（上限が0の場合は null で無効）
+    private final Cache<String, float[]> cache;
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param maxSize キャッシュのメモリ使用量の上限（0 の場合は無効）
+     */
+    public QueryEmbeddingCache(@Value("${fermat.embedding.cache.max-size:16MB}") DataSize maxSize) {
+        this.maxBytes = Math.max(0, maxSize.toBytes());
+        this.cache = maxBytes == 0 ? null : Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(QueryEmbeddingCache::weigh)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * キャッシュ済みの埋め込みベクトルを取得する。
+     * @param query 質問文（内部で正規化してキーにする）
+     * @return 埋め込みベクトル（キャッシュにない場合は null）
+     */
+    public float[] get(String query) {
+        return cache == null ? null : cache.getIfPresent(QueryNormalizer.normalize(query));
+    }
+
+    /**
+     * 埋め込みベクトルを保存する。
+     * @param query     質問文（内部で正規化してキーにする）
+     * @param embedding 埋め込みベクトル
+     */
+    public void put(String query, float[] embedding) {
+        if (cache != null) {
+            cache.put(QueryNormalizer.normalize(query), embedding);
+        }
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 件数・メモリ使用量・ヒット率等のスナップショット
+     */
+    public EmbeddingCacheStats stats() {
+        if (cache == null) {
+            return new EmbeddingCacheStats(0, 0, 0, 0, 0, 0, 0.0);
+        }
+        CacheStats stats = cache.stats();
+        long weight = cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new EmbeddingCacheStats(cache.estimatedSize(), weight, maxBytes,
+                stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate());
+    }
+
+    /**
+     * 1エントリのメモリ使用量を概算する。
+     */
+    private static int weigh(String key, float[] embedding) {
+        return ENTRY_OVERHEAD_BYTES + key.length() * Character.BYTES + embedding.length * Float.BYTES;
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.ryang_ryota.fermat.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * リクエスト全体の期限（デッドライン）。
+ * - ChatController 等がリクエストの受付時に設定し、Reactor の Context で埋め込み・検索・待ち行列・生成の各段階に伝えます。
+ * - 各段階は残り時間を上限として処理を打ち切り、DeadlineExceededException で失敗させます。
+ *   打ち切りは購読のキャンセルとして上流に伝わるため、ChromaDB・Ollamaへのリクエストもその時点で中断されます。
+ * - Context に期限がない場合（ウォームアップ・取り込み等）は打ち切りません。
+ *
+ * @param expiresAtNanos 期限（System.nanoTime() の値）
+ */
+public record RequestDeadline(long expiresAtNanos) {
+
+    /**
+     * Context に期限を設定する際のキー
+     */
+    public static final String CONTEXT_KEY = RequestDeadline.class.getName();
+
+    /**
+     * 現在から指定した時間後を期限とする。
+     * @param budget リクエスト全体に許す時間
+     * @return 期限
+     */
+    public static RequestDeadline after(Duration budget) {
+        return new RequestDeadline(System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * Context から期限を取得する。
+     * @param context 購読者の Context
+     * @return 期限（設定されていない場合は空）
+     */
+    public static Optional<RequestDeadline> from(ContextView context) {
+        return context.getOrEmpty(CONTEXT_KEY);
+    }
+
+    /**
+     * 期限までの残り時間。
+     * @return 残り時間（過ぎている場合は 0）
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    /**
+     * 単一の値を返す段階を、Context の期限までに打ち切る。
+     * @param source 段階の処理
+     * @param stage  段階の名前（例外とメトリクスに使用）
+     * @return 期限を過ぎると DeadlineExceededException で失敗する処理
+     */
+    public static <T> Mono<T> bound(Mono<T> source, String stage) {
+        return Mono.deferContextual(context -> from(context)
+                .map(deadline -> {
+                    Duration remaining = deadline.remaining();
+                    if (remaining.isZero()) {
+                        return Mono.<T>error(new DeadlineExceededException(stage));
+                    }
+                    return source.timeout(Mono.delay(remaining),
+                            Mono.error(() -> new DeadlineExceededException(stage)));
+                })
+                .orElse(source));
+    }
+
+    /**
+     * ストリームの段階を、Context の期限までに打ち切る。
+     * @param source 段階の処理
+     * @param stage  段階の名前（例外とメトリクスに使用）
+     * @return 期限を過ぎると DeadlineExceededException で失敗するストリーム
+     */
+    public static <T> Flux<T> bound(Flux<T> source, String stage) {
+        return Flux.deferContextual(context -> from(context)
+                .map(deadline -> limit(source, deadline.remaining(), stage))
+                .orElse(source));
+    }
+
+    /**
+     * ストリームの段階を、指定した時間までに打ち切る（トークンごとではなく、購読からの合計時間の上限）。
+     * 上限を過ぎると上流をキャンセルし、それまでの要素を配信した後に DeadlineExceededException で失敗させる。
+     * @param source 段階の処理
+     * @param limit  購読からの時間の上限
+     * @param stage  段階の名前（例外とメトリクスに使用）
+     * @return 上限を過ぎると DeadlineExceededException で失敗するストリーム
+     */
+    public static <T> Flux<T> limit(Flux<T> source, Duration limit, String stage) {
+        return Flux.defer(() -> {
+            if (limit.isZero() || limit.isNegative()) {
+                return Flux.error(new DeadlineExceededException(stage));
+            }
+            // 要素ごとにタイマーを張り直さず、購読時に1つだけ設定する
+            AtomicBoolean expired = new AtomicBoolean();
+            return source.takeUntilOther(Mono.delay(limit).doOnNext(tick -> expired.set(true)))
+                    .concatWith(Mono.defer(() -> expired.get()
+                            ? Mono.error(new DeadlineExceededException(stage))
+                            : Mono.empty()));
+        });
+    }
+}
@@ -0,0 +1,336 @@
+package io.github.ryang_ryota.fermat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.github.ryang_ryota.fermat.model.ResumeStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * このクラスは、SSEの回答のイベントを生成ごとにリングバッファに保持し、切断されたクライアントが再開できるようにするストアです。
+ * - 各イベントに「生成ID.連番」のIDを付けます。再接続時に EventSource が送る Last-Event-ID から、その続きを返します。
+ * - 生成（上流の Flux）はクライアントの接続とは別に購読するため、切断されても生成は続き、再接続したクライアントは
+ *   バッファの続きを受け取ってから、生成中のトークンに合流します（埋め込み・検索・生成をやり直しません）。
+ * - 全クライアントが切断してから猶予時間内に再接続がなければ、生成を中断します（Ollama の計算を無駄にしないため）。
+ * - 生成ごとのバッファは直近のイベント数で制限し、全体のメモリ使用量の上限（バイト数）を超えると W-TinyLFU（Caffeine）で
+ *   追い出します。一定時間が過ぎた生成も破棄します。
+ * - 生成が残っていない、またはバッファから続きが失われている場合は再開できません（呼び出し側で生成し直します）。
+ */
+@Service
+public class ResumableStreamStore {
+
+    // 1エントリあたりの固定オーバーヘッド（ノード・リングバッファ・シンク・キー文字列等の概算）
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    // 1イベントあたりの固定オーバーヘッド（ServerSentEvent・ID文字列・データ文字列のヘッダ等の概算）
+    private static final int EVENT_OVERHEAD_BYTES = 128;
+
+    // 生成中のメモリ使用量を計り直す間隔（イベント数）
+    private static final int REWEIGH_INTERVAL = 64;
+
+    // イベントIDの生成IDと連番の区切り文字
+    private static final char SEPARATOR = '.';
+
+    // 生成IDのバイト数（推測して他のクライアントの回答を受け取れないように、乱数で生成する）
+    private static final int ID_BYTES = 16;
+
+    // メモリ使用量の上限（バイト）
+    private final long maxBytes;
+
+    // 生成ごとに保持するイベント数の上限
+    private final int bufferEvents;
+
+    // 全クライアントが切断してから生成を中断するまでの猶予
+    private final Duration detachGrace;
+
+    // 猶予のタイマーを実行するスケジューラ
+    private final Scheduler scheduler;
+
+    // 生成IDの乱数（起動時にシードを読み込み、リクエスト処理中は /dev/urandom を読まない DRBG を使う）
+    private final SecureRandom random;
+
+    // 生成IDをキーとした生成中・生成済みの回答（上限が0の場合は null で無効）
+    private final Cache<String, Generation> generations;
+
+    // 統計情報
+    private final LongAdder started = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param maxSize      保持する回答のメモリ使用量の上限（0 の場合は無効）
+     * @param bufferEvents 生成ごとに保持するイベント数の上限
+     * @param ttl          生成を開始（完了）してから破棄するまでの時間
+     * @param detachGrace  全クライアントが切断してから生成を中断するまでの猶予
+     */
+    @Autowired
+    public ResumableStreamStore(@Value("${fermat.resume.max-size:32MB}") DataSize maxSize,
+                                @Value("${fermat.resume.buffer-events:1024}") int bufferEvents,
+                                @Value("${fermat.resume.ttl:5m}") Duration ttl,
+                                @Value("${fermat.resume.detach-grace:15s}") Duration detachGrace) {
+        this(maxSize, bufferEvents, ttl, detachGrace, Ticker.systemTicker(), Schedulers.parallel());
+    }
+
+    ResumableStreamStore(DataSize maxSize, int bufferEvents, Duration ttl, Duration detachGrace, Ticker ticker,
+                         Scheduler scheduler) {
+        this.maxBytes = Math.max(0, maxSize.toBytes());
+        this.bufferEvents = Math.max(1, bufferEvents);
+        this.detachGrace = detachGrace;
+        this.scheduler = scheduler;
+        try {
+            this.random = SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("DRBG is not available", e);
+        }
+        // シードの読み込みを起動時に済ませる
+        random.nextBytes(new byte[ID_BYTES]);
+        this.generations = maxBytes == 0 ? null : Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String id, Generation generation) -> generation.weight())
+                .expireAfterWrite(ttl)
+                .ticker(ticker)
+                // 追い出された生成も、接続中のクライアントへの配信は続ける（再開できなくなるだけ）
+                .evictionListener((String id, Generation generation, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) {
+                        evictions.increment();
+                    }
+                })
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * 回答のイベントに再開用のIDを付け、バッファに保持しながら配信する。
+     * 上流は購読したクライアントのReactorコンテキストで購読する（生成の待ち行列のクライアントID等を引き継ぐため）。
+     * @param events 回答のイベント
+     * @return IDを付けたイベント（切断しても、猶予時間内であれば上流の購読は続く）
+     */
+    public Flux<ServerSentEvent<String>> start(Flux<ServerSentEvent<String>> events) {
+        if (generations == null) {
+            return events;
+        }
+        return Flux.deferContextual(context -> {
+            Generation generation = new Generation(newId());
+            generations.put(generation.id, generation);
+            started.increment();
+            // 最初のクライアントがシンクを購読し終えてから上流を購読する（バッファの上限を超えて先行しないように）
+            return Flux.merge(generation.attach(-1),
+                    Mono.<ServerSentEvent<String>>fromRunnable(() -> generation.connect(events.contextWrite(context))));
+        });
+    }
+
+    /**
+     * Last-Event-ID の続きから配信を再開する。
+     * @param lastEventId クライアントが最後に受け取ったイベントのID
+     * @return 続きのイベント（生成が残っていない、または続きがバッファから失われている場合は空）
+     */
+    public Optional<Flux<ServerSentEvent<String>>> resume(String lastEventId) {
+        int separator = lastEventId.lastIndexOf(SEPARATOR);
+        Generation generation = generations == null || separator < 0
+                ? null
+                : generations.getIfPresent(lastEventId.substring(0, separator));
+        long lastSeq;
+        try {
+            lastSeq = separator < 0 ? -1 : Long.parseLong(lastEventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            lastSeq = -1;
+        }
+        if (generation == null || lastSeq < 0 || !generation.canResumeAfter(lastSeq)) {
+            misses.increment();
+            return Optional.empty();
+        }
+        resumed.increment();
+        return Optional.of(generation.attach(lastSeq));
+    }
+
+    /**
+     * 推測できない生成IDを作る。
+     */
+    private String newId() {
+        byte[] bytes = new byte[ID_BYTES];
+        random.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 保持している生成の数・メモリ使用量・再開した接続の数等のスナップショット
+     */
+    public ResumeStats stats() {
+        if (generations == null) {
+            return new ResumeStats(0, 0, 0, started.sum(), resumed.sum(), misses.sum(), abandoned.sum(), 0);
+        }
+        long weight = generations.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new ResumeStats(generations.estimatedSize(), weight, maxBytes, started.sum(), resumed.sum(),
+                misses.sum(), abandoned.sum(), evictions.sum());
+    }
+
+    /**
+     * 1つの生成。上流のイベントを直近 bufferEvents 件だけ保持するシンクに流し、クライアントはそこから購読する。
+     */
+    private final class Generation {
+
+        private final String id;
+
+        // 直近のイベントを保持し、後から購読したクライアントにも再送するシンク（上流からの送信は直列化されている）
+        private final Sinks.Many<Sequenced> sink = Sinks.many().replay().limit(bufferEvents);
+
+        // 保持しているイベントのバイト数（連番 % bufferEvents の位置に記録）
+        private final int[] sizes = new int[bufferEvents];
+
+        // 上流から受け取ったイベント数（次のイベントの連番）
+        private volatile long emitted;
+
+        // 保持しているイベントのバイト数の合計
+        private volatile long retainedBytes;
+
+        // 上流が完了（またはエラー）したか
+        private volatile boolean terminated;
+
+        // 上流の購読・接続中のクライアント数・中断までの猶予のタイマー（this で同期する）
+        private Disposable upstream;
+        private int subscribers;
+        private Disposable detachTimer;
+        private boolean cancelled;
+
+        private Generation(String id) {
+            this.id = id;
+        }
+
+        /**
+         * 上流を購読する。
+         */
+        private void connect(Flux<ServerSentEvent<String>> events) {
+            Disposable subscription = events.subscribe(this::append,
+                    error -> {
+                        terminated = true;
+                        sink.tryEmitError(error);
+                        reweigh();
+                    },
+                    () -> {
+                        terminated = true;
+                        sink.tryEmitComplete();
+                        reweigh();
+                    });
+            synchronized (this) {
+                upstream = subscription;
+                if (cancelled) {
+                    subscription.dispose();
+                }
+            }
+        }
+
+        /**
+         * 上流のイベントに連番のIDを付けてバッファに追加する。
+         */
+        private void append(ServerSentEvent<String> event) {
+            long seq = emitted;
+            String data = event.data() == null ? "" : event.data();
+            ServerSentEvent<String> identified = ServerSentEvent.builder(data)
+                    .id(id + SEPARATOR + seq)
+                    .event(event.event())
+                    .build();
+            int slot = (int) (seq % bufferEvents);
+            int size = EVENT_OVERHEAD_BYTES + (id.length() + data.length()) * Character.BYTES;
+            retainedBytes += size - sizes[slot];
+            sizes[slot] = size;
+            emitted = seq + 1;
+            sink.tryEmitNext(new Sequenced(seq, identified));
+            if ((seq + 1) % REWEIGH_INTERVAL == 0) {
+                reweigh();
+            }
+        }
+
+        /**
+         * 指定した連番の続きをバッファから配信できるか。
+         */
+        private boolean canResumeAfter(long lastSeq) {
+            long oldest = Math.max(0, emitted - bufferEvents);
+            return lastSeq < emitted && lastSeq + 1 >= oldest;
+        }
+
+        /**
+         * クライアントを接続し、指定した連番より後のイベントを配信する。
+         */
+        private Flux<ServerSentEvent<String>> attach(long lastSeq) {
+            return sink.asFlux()
+                    .filter(sequenced -> sequenced.seq > lastSeq)
+                    .map(sequenced -> sequenced.event)
+                    .doOnSubscribe(subscription -> attached())
+                    .doFinally(signal -> detached());
+        }
+
+        private synchronized void attached() {
+            subscribers++;
+            if (detachTimer != null) {
+                detachTimer.dispose();
+                detachTimer = null;
+            }
+        }
+
+        private synchronized void detached() {
+            subscribers--;
+            if (subscribers == 0 && !terminated && !cancelled) {
+                // 猶予時間内に再接続がなければ、生成を中断して再開できないようにする
+                detachTimer = scheduler.schedule(this::abandon, detachGrace.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void abandon() {
+            synchronized (this) {
+                if (subscribers > 0 || terminated || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                detachTimer = null;
+                if (upstream != null) {
+                    upstream.dispose();
+                }
+            }
+            abandoned.increment();
+            generations.asMap().remove(id, this);
+        }
+
+        /**
+         * メモリ使用量の見積もりを更新する（Caffeine は登録・置換時に重みを計算するため、同じ値で置き換える）。
+         */
+        private void reweigh() {
+            generations.asMap().replace(id, this, this);
+        }
+
+        private int weight() {
+            return (int) Math.min(Integer.MAX_VALUE,
+                    ENTRY_OVERHEAD_BYTES + (long) bufferEvents * Integer.BYTES + retainedBytes);
+        }
+    }
+
+    /**
+     * 連番付きのイベント。
+     */
+    private record Sequenced(long seq, ServerSentEvent<String> event) {
+    }
+}
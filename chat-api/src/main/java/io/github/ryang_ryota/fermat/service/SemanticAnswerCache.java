@@ -0,0 +1,237 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.model.AnswerCacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * このクラスは、質問の埋め込みベクトルをキーとしてAIの回答を保持する意味的キャッシュです。
+ * - 言い換えられた質問でも、コサイン類似度が閾値以上であれば保存済みの回答を返します。
+ * - ベクトルは正規化した上でヒープ外（ダイレクトバッファ）の連続領域に格納し、Floatのボックス化を避けます。
+ * - 件数上限（最も長く使われていない回答から追い出し）と有効期限（TTL）で回答を破棄します。
+ */
+@Service
+public class SemanticAnswerCache {
+
+    // キャッシュを有効にするか
+    private final boolean enabled;
+
+    // ヒットとみなすコサイン類似度の閾値
+    private final double similarityThreshold;
+
+    // 保持できる回答数の上限
+    private final int capacity;
+
+    // 回答の有効期限（ミリ秒）
+    private final long ttlMillis;
+
+    private final Clock clock;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 正規化済みベクトルの格納領域（capacity × dimension）。最初の登録時に確保する
+    private FloatBuffer vectors;
+
+    // ベクトルの次元数
+    private int dimension;
+
+    // スロットごとの回答トークン（null は空きスロット）
+    private final String[][] answers;
+
+    // スロットごとの登録時刻・最終参照時刻（ミリ秒）。最終参照時刻は読み込みロックのまま複数のスレッドが更新する
+    private final long[] createdAt;
+    private final AtomicLongArray lastAccess;
+
+    private int size;
+
+    // 統計情報
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param enabled             キャッシュを有効にするか
+     * @param similarityThreshold ヒットとみなすコサイン類似度の閾値
+     * @param capacity            保持できる回答数の上限
+     * @param ttl                 回答の有効期限
+     */
+    @Autowired
+    public SemanticAnswerCache(@Value("${fermat.answer-cache.enabled:true}") boolean enabled,
+                               @Value("${fermat.answer-cache.similarity-threshold:0.95}") double similarityThreshold,
+                               @Value("${fermat.answer-cache.max-entries:1024}") int capacity,
+                               @Value("${fermat.answer-cache.ttl:1h}") Duration ttl) {
+        this(enabled, similarityThreshold, capacity, ttl, Clock.systemUTC());
+    }
+
+    SemanticAnswerCache(boolean enabled, double similarityThreshold, int capacity, Duration ttl, Clock clock) {
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.capacity = Math.max(1, capacity);
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.answers = new String[this.capacity][];
+        this.createdAt = new long[this.capacity];
+        this.lastAccess = new AtomicLongArray(this.capacity);
+    }
+
+    /**
+     * 質問の埋め込みベクトルに十分近い質問の回答を探す。
+     * @param embedding 質問の埋め込みベクトル
+     * @return 保存済みの回答トークン（見つからない場合は空）
+     */
+    public Optional<List<String>> lookup(float[] embedding) {
+        if (!enabled || embedding == null || embedding.length == 0) {
+            return Optional.empty();
+        }
+        float[] query = normalize(embedding);
+        long now = clock.millis();
+        lock.readLock().lock();
+        try {
+            if (vectors == null || query.length != dimension) {
+                misses.increment();
+                return Optional.empty();
+            }
+            int best = -1;
+            double bestScore = similarityThreshold;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (answers[slot] == null || isExpired(slot, now)) {
+                    continue;
+                }
+                double score = dot(query, slot);
+                if (score >= bestScore) {
+                    best = slot;
+                    bestScore = score;
+                }
+            }
+            if (best < 0) {
+                misses.increment();
+                return Optional.empty();
+            }
+            // 同時に参照したスレッドのうち、新しい時刻を残す
+            lastAccess.accumulateAndGet(best, now, Math::max);
+            hits.increment();
+            return Optional.of(List.of(answers[best]));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 回答を保存する。満杯の場合は期限切れ、次に最も長く参照されていない回答を追い出す。
+     * @param embedding 質問の埋め込みベクトル
+     * @param tokens    回答トークン
+     */
+    public void put(float[] embedding, List<String> tokens) {
+        if (!enabled || embedding == null || embedding.length == 0 || tokens.isEmpty()) {
+            return;
+        }
+        float[] vector = normalize(embedding);
+        long now = clock.millis();
+        lock.writeLock().lock();
+        try {
+            if (vectors == null) {
+                dimension = vector.length;
+                vectors = ByteBuffer.allocateDirect(capacity * dimension * Float.BYTES)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+            } else if (vector.length != dimension) {
+                return;
+            }
+            int slot = selectSlot(now);
+            vectors.put(slot * dimension, vector);
+            answers[slot] = tokens.toArray(String[]::new);
+            createdAt[slot] = now;
+            lastAccess.set(slot, now);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 件数・ヒット数・ミス数・追い出し数のスナップショット
+     */
+    public AnswerCacheStats stats() {
+        lock.readLock().lock();
+        try {
+            return new AnswerCacheStats(size, capacity, hits.sum(), misses.sum(), evictions.sum(), expirations.sum());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 書き込み先のスロットを決める（書き込みロック取得中に呼ぶこと）。
+     */
+    private int selectSlot(long now) {
+        int emptySlot = -1;
+        int oldestSlot = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (answers[slot] == null) {
+                if (emptySlot < 0) {
+                    emptySlot = slot;
+                }
+            } else if (isExpired(slot, now)) {
+                // 期限切れの回答はこの機会にまとめて破棄する
+                answers[slot] = null;
+                size--;
+                expirations.increment();
+                if (emptySlot < 0) {
+                    emptySlot = slot;
+                }
+            } else if (lastAccess.get(slot) < lastAccess.get(oldestSlot) || answers[oldestSlot] == null) {
+                oldestSlot = slot;
+            }
+        }
+        if (emptySlot >= 0) {
+            size++;
+            return emptySlot;
+        }
+        evictions.increment();
+        return oldestSlot;
+    }
+
+    private boolean isExpired(int slot, long now) {
+        return now - createdAt[slot] >= ttlMillis;
+    }
+
+    private double dot(float[] query, int slot) {
+        int offset = slot * dimension;
+        double sum = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * vectors.get(offset + i);
+        }
+        return sum;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0.0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0.0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+}
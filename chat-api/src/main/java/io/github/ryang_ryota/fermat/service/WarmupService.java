@@ -0,0 +1,300 @@
+package io.github.ryang_ryota.fermat.service;
+
+import io.github.ryang_ryota.fermat.codec.OllamaNdjsonDecoder;
+import io.github.ryang_ryota.fermat.model.WarmupStats;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * このクラスは、起動直後のリクエストが遅くならないよう、トラフィックを受ける前にアプリケーションを暖めるサービスです。
+ * 1. 埋め込みモデルで合成した質問を推論し、ONNX Runtime の初期化とトークナイザー・バッチ処理のJITコンパイルを済ませる
+ * 2. ChromaDB と各Ollamaノードに軽いリクエストを並行して送り、接続プールに接続を開いておく
+ * 3. ChromaDBの検索レスポンスとOllamaのNDJSONの解析を合成データで繰り返し、JSON処理をJITコンパイルさせる
+ * - ApplicationRunner として起動処理の最後に同期的に実行するため、完了するまで readiness（/actuator/health/readiness）は
+ *   DOWN のままで、完了後に Spring Boot が ACCEPTING_TRAFFIC に切り替えます。
+ * - 接続に失敗してもウォームアップは完了扱いにします（依存先の停止で起動が止まらないようにするため）。
+ * - Webサーバーを起動しない実行（一括登録）では行いません。
+ * - 起動から準備完了までの時間を PipelineMetrics に記録します。
+ */
+@Slf4j
+@Service
+public class WarmupService implements ApplicationRunner {
+
+    // 合成する質問（日本語・英語の両方のトークナイザーの経路を通す）
+    private static final List<String> SAMPLE_QUERIES = List.of(
+            "フェルマーの最終定理とは何ですか？",
+            "Who proved Fermat's Last Theorem?",
+            "谷山–志村予想と楕円曲線の関係を教えてください。",
+            "What is the modularity theorem for semistable elliptic curves?");
+
+    // 合成するドキュメント（検索レスポンスの解析用）
+    private static final String SAMPLE_DOCUMENT = "Fermat's Last Theorem states that no three positive integers "
+            + "a, b and c satisfy a^n + b^n = c^n for any integer value of n greater than 2.";
+
+    // 合成する埋め込みベクトルの次元数（all-MiniLM-L6-v2）
+    private static final int SAMPLE_DIMENSION = 384;
+
+    // 埋め込みエンジン
+    private final EmbeddingService embeddingService;
+
+    // ChromaDB操作サービス（検索レスポンスの解析）
+    private final ChromaService chromaService;
+
+    // Ollamaノードの振り分け（接続を開くノードの一覧）
+    private final OllamaBackendPool backendPool;
+
+    // ChromaDB専用の接続プール付きWebClient
+    private final WebClient chromaWebClient;
+
+    // Ollama専用の接続プール付きWebClient
+    private final WebClient ollamaWebClient;
+
+    // パイプラインのメトリクス
+    private final PipelineMetrics pipelineMetrics;
+
+    // Webサーバーを起動する実行かどうかの判定に使う
+    private final ApplicationContext applicationContext;
+
+    // ウォームアップを行うか
+    @Value("${fermat.warmup.enabled:true}")
+    private boolean enabled = true;
+
+    // 埋め込みの推論回数
+    @Value("${fermat.warmup.embedding-iterations:32}")
+    private int embeddingIterations = 32;
+
+    // 応答の解析の繰り返し回数
+    @Value("${fermat.warmup.parse-iterations:2000}")
+    private int parseIterations = 2000;
+
+    // 接続先ごとに開いておく接続の数
+    @Value("${fermat.warmup.connections:4}")
+    private int connections = 4;
+
+    // 各処理の待ち時間の上限
+    @Value("${fermat.warmup.timeout:30s}")
+    private Duration timeout = Duration.ofSeconds(30);
+
+    // 結果
+    private volatile boolean completed;
+    private volatile long warmupMillis;
+    private volatile int embeddings;
+    private volatile int parses;
+    private volatile int openedConnections;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * 依存性注入コンストラクタ
+     * @param embeddingService   埋め込みエンジン
+     * @param chromaService      ChromaDB操作サービス
+     * @param backendPool        Ollamaノードの振り分け
+     * @param chromaWebClient    ChromaDB用WebClient
+     * @param ollamaWebClient    Ollama用WebClient
+     * @param pipelineMetrics    パイプラインのメトリクス
+     * @param applicationContext アプリケーションコンテキスト
+     */
+    @Autowired
+    public WarmupService(EmbeddingService embeddingService, ChromaService chromaService,
+                         OllamaBackendPool backendPool,
+                         @Qualifier("chromaWebClient") WebClient chromaWebClient,
+                         @Qualifier("ollamaWebClient") WebClient ollamaWebClient,
+                         PipelineMetrics pipelineMetrics, ApplicationContext applicationContext) {
+        this.embeddingService = embeddingService;
+        this.chromaService = chromaService;
+        this.backendPool = backendPool;
+        this.chromaWebClient = chromaWebClient;
+        this.ollamaWebClient = ollamaWebClient;
+        this.pipelineMetrics = pipelineMetrics;
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * 起動処理の最後にウォームアップを行う（完了するまで readiness は DOWN）。
+     * @param args 起動引数
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!(applicationContext instanceof WebServerApplicationContext)) {
+            return;
+        }
+        if (enabled) {
+            warmUp();
+        }
+        completed = true;
+        long timeToReady = ManagementFactory.getRuntimeMXBean().getUptime();
+        pipelineMetrics.recordReady(timeToReady);
+        log.info("準備が完了しました（起動から{}ms、ウォームアップ{}ms、失敗{}件）", timeToReady, warmupMillis,
+                failures.get());
+    }
+
+    /**
+     * ウォームアップの各処理を実行する。
+     */
+    void warmUp() {
+        long start = System.nanoTime();
+        // 接続の確立は待ち時間が主のため、推論・解析と並行して進める
+        CompletableFuture<Integer> opened = Flux.merge(openConnections())
+                .count()
+                .map(Long::intValue)
+                .toFuture();
+        embeddings = warmUpEmbedding();
+        parses = warmUpParsing();
+        try {
+            openedConnections = opened.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("接続のウォームアップが時間内に終わりませんでした: {}", e.getMessage());
+        }
+        warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * 現在の結果を取得する。
+     * @return ウォームアップの結果と、準備完了までの時間・最初のリクエストの応答時間
+     */
+    public WarmupStats stats() {
+        return new WarmupStats(enabled, completed, warmupMillis, pipelineMetrics.timeToReadyMillis(),
+                pipelineMetrics.firstRequestMillis(), embeddings, parses, openedConnections, failures.get());
+    }
+
+    /**
+     * 合成した質問を埋め込みエンジンに投入する。同時に投入してバッチ処理の経路も通す。
+     * @return 成功した推論の回数
+     */
+    private int warmUpEmbedding() {
+        List<CompletableFuture<float[]>> futures = new ArrayList<>(embeddingIterations);
+        for (int i = 0; i < embeddingIterations; i++) {
+            // 質問ごとに異なる文にして、トークン列の長さを変える
+            futures.add(embeddingService.embed(SAMPLE_QUERIES.get(i % SAMPLE_QUERIES.size()) + " " + i));
+        }
+        int succeeded = 0;
+        for (CompletableFuture<float[]> future : futures) {
+            try {
+                future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                succeeded++;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.warn("埋め込みのウォームアップに失敗しました: {}", e.getMessage());
+                break;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * ChromaDB（/api/v2/heartbeat）と各Ollamaノード（/api/tags）に並行してリクエストを送り、接続を開く。
+     * @return 接続先ごとのリクエスト（成功した接続ごとに1要素）
+     */
+    private List<Flux<Boolean>> openConnections() {
+        List<Flux<Boolean>> requests = new ArrayList<>();
+        requests.add(ping(chromaWebClient, "/api/v2/heartbeat"));
+        for (OllamaBackendPool.Backend backend : backendPool.backends()) {
+            requests.add(ping(ollamaWebClient, backend.url() + "/api/tags"));
+        }
+        return requests;
+    }
+
+    /**
+     * 同じ接続先に connections 件のリクエストを同時に送る（接続プールに同数の接続が開かれる）。
+     */
+    private Flux<Boolean> ping(WebClient webClient, String uri) {
+        return Flux.range(0, connections)
+                .flatMap(i -> webClient.get()
+                        .uri(uri)
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(timeout)
+                        .map(response -> true)
+                        .onErrorResume(e -> {
+                            failures.incrementAndGet();
+                            log.warn("接続のウォームアップに失敗しました: {} ({})", uri, e.getMessage());
+                            return Mono.empty();
+                        }), connections);
+    }
+
+    /**
+     * ChromaDBの検索レスポンスとOllamaのNDJSONを合成し、繰り返し解析する。
+     * @return 解析した回数
+     */
+    private int warmUpParsing() {
+        String chromaResponse = sampleChromaResponse();
+        byte[] ndjson = sampleNdjson();
+        float[] queryEmbedding = new float[SAMPLE_DIMENSION];
+        int count = 0;
+        try {
+            for (int i = 0; i < parseIterations; i++) {
+                chromaService.parseResponse(SAMPLE_QUERIES.get(0), queryEmbedding, chromaResponse);
+                try (OllamaNdjsonDecoder.TokenParser parser = new OllamaNdjsonDecoder.TokenParser()) {
+                    parser.feed(ByteBuffer.wrap(ndjson), token -> {
+                    });
+                }
+                count++;
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            log.warn("応答の解析のウォームアップに失敗しました: {}", e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * 12件のドキュメント・距離・埋め込みベクトルを含む、ChromaDBの検索レスポンスを合成する。
+     */
+    private static String sampleChromaResponse() {
+        int results = 12;
+        JSONArray documents = new JSONArray();
+        JSONArray distances = new JSONArray();
+        JSONArray embeddings = new JSONArray();
+        for (int i = 0; i < results; i++) {
+            documents.put(SAMPLE_DOCUMENT + " " + i);
+            distances.put(0.1 * (i + 1));
+            JSONArray vector = new JSONArray();
+            for (int j = 0; j < SAMPLE_DIMENSION; j++) {
+                vector.put(Math.sin(i * 31 + j) * 0.1);
+            }
+            embeddings.put(vector);
+        }
+        JSONObject response = new JSONObject();
+        response.put("documents", new JSONArray().put(documents));
+        response.put("distances", new JSONArray().put(distances));
+        response.put("embeddings", new JSONArray().put(embeddings));
+        return response.toString();
+    }
+
+    /**
+     * 生成途中の行と完了行を含む、OllamaのNDJSONを合成する。
+     */
+    private static byte[] sampleNdjson() {
+        StringBuilder sb = new StringBuilder();
+        for (String token : List.of("フェルマー", "の", "最終", "定理", " was", " proved", " by", " Wiles")) {
+            sb.append("{\"model\":\"mistral\",\"created_at\":\"2024-01-01T00:00:00Z\",\"response\":\"")
+                    .append(token)
+                    .append("\",\"done\":false}\n");
+        }
+        sb.append("{\"model\":\"mistral\",\"response\":\"\",\"done\":true,\"context\":[1,2,3,4,5,6,7,8],")
+                .append("\"prompt_eval_count\":26,\"eval_count\":8,\"eval_duration\":1500000000}\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,276 @@
+package io.github.ryang_ryota.fermat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BM25 でスコアを付ける、メモリ上の転置インデックス。
+ * - 検索語は {@link LexicalTokenizer} で分割し、語ごとにドキュメント番号と出現回数の int 配列（ポスティングリスト）を持ちます。
+ * - 文書長による正規化の係数はドキュメントごとに事前に計算しておき、検索時は該当する語のリストをなめるだけにします。
+ * - 構築後は変更できません。ドキュメントを追加する場合は、構築に使った {@link Builder} に追加分だけを登録して構築し直し、
+ *   構築し直したものに差し替えてください（既存のドキュメントは字句解析し直しません。検索は複数スレッドから同時に呼び出せます）。
+ */
+public final class Bm25Index {
+
+    /**
+     * 検索結果1件。
+     * @param doc      登録順のドキュメント番号
+     * @param document ドキュメント本文
+     * @param score    BM25スコア
+     */
+    public record Hit(int doc, String document, float score) {
+    }
+
+    // 語の出現回数に対する飽和の強さ
+    private static final float K1 = 1.2f;
+
+    // 文書長による正規化の強さ
+    private static final float B = 0.75f;
+
+    // 語 → 語の番号
+    private final Map<String, Integer> terms;
+
+    // 語の番号ごとのポスティングリスト（ドキュメント番号の昇順）と出現回数
+    private final int[][] postingDocs;
+    private final int[][] postingFreqs;
+
+    // 語の番号ごとの IDF
+    private final float[] idf;
+
+    // ドキュメントごとの K1 × (1 − B + B × 文書長 / 平均文書長)
+    private final float[] lengthNorms;
+
+    // ドキュメント本文
+    private final String[] documents;
+
+    private Bm25Index(Map<String, Integer> terms, int[][] postingDocs, int[][] postingFreqs, int[] lengths,
+                      String[] documents) {
+        this.terms = terms;
+        this.postingDocs = postingDocs;
+        this.postingFreqs = postingFreqs;
+        this.documents = documents;
+        int count = documents.length;
+        this.idf = new float[postingDocs.length];
+        for (int term = 0; term < postingDocs.length; term++) {
+            int df = postingDocs[term].length;
+            idf[term] = (float) Math.log(1.0 + (count - df + 0.5) / (df + 0.5));
+        }
+        long total = 0;
+        for (int length : lengths) {
+            total += length;
+        }
+        float averageLength = count == 0 ? 1f : Math.max(1f, (float) total / count);
+        this.lengthNorms = new float[count];
+        for (int doc = 0; doc < count; doc++) {
+            lengthNorms[doc] = K1 * (1 - B + B * lengths[doc] / averageLength);
+        }
+    }
+
+    /**
+     * 質問文に含まれる語で検索する。
+     * @param query 質問文
+     * @param limit 取得する件数
+     * @return スコアの高い順の検索結果（該当する語がなければ空）
+     */
+    public List<Hit> search(String query, int limit) {
+        Set<String> queryTerms = new LinkedHashSet<>(LexicalTokenizer.tokenize(query));
+        if (limit <= 0 || queryTerms.isEmpty()) {
+            return List.of();
+        }
+        float[] scores = null;
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (String queryTerm : queryTerms) {
+            Integer term = terms.get(queryTerm);
+            if (term == null) {
+                continue;
+            }
+            if (scores == null) {
+                scores = new float[documents.length];
+            }
+            int[] docs = postingDocs[term];
+            int[] freqs = postingFreqs[term];
+            float weight = idf[term];
+            for (int i = 0; i < docs.length; i++) {
+                int doc = docs[i];
+                if (scores[doc] == 0f) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = doc;
+                }
+                float tf = freqs[i];
+                scores[doc] += weight * tf * (K1 + 1) / (tf + lengthNorms[doc]);
+            }
+        }
+        if (scores == null) {
+            return List.of();
+        }
+
+        // 上位 limit 件だけを最小ヒープ（ドキュメント番号の int 配列）で残す
+        int[] heap = new int[Math.min(limit, touchedCount)];
+        int heapSize = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            if (heapSize < heap.length) {
+                heap[heapSize++] = doc;
+                siftUp(heap, heapSize - 1, scores);
+            } else if (isLower(heap[0], doc, scores)) {
+                heap[0] = doc;
+                siftDown(heap, heapSize, scores);
+            }
+        }
+        Hit[] hits = new Hit[heapSize];
+        while (heapSize > 0) {
+            int doc = heap[0];
+            hits[--heapSize] = new Hit(doc, documents[doc], scores[doc]);
+            heap[0] = heap[heapSize];
+            siftDown(heap, heapSize, scores);
+        }
+        return Arrays.asList(hits);
+    }
+
+    /**
+     * a の順位が b より低いか（スコアが低い、同点の場合はドキュメント番号が大きい）。
+     */
+    private static boolean isLower(int a, int b, float[] scores) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && a > b);
+    }
+
+    private static void siftUp(int[] heap, int index, float[] scores) {
+        int doc = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isLower(doc, heap[parent], scores)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = doc;
+    }
+
+    private static void siftDown(int[] heap, int size, float[] scores) {
+        if (size == 0) {
+            return;
+        }
+        int doc = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isLower(heap[child + 1], heap[child], scores)) {
+                child++;
+            }
+            if (!isLower(heap[child], doc, scores)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = doc;
+    }
+
+    /**
+     * 登録されているドキュメント数。
+     * @return ドキュメント数
+     */
+    public int size() {
+        return documents.length;
+    }
+
+    /**
+     * 登録されている語の種類数。
+     * @return 語の種類数
+     */
+    public int termCount() {
+        return postingDocs.length;
+    }
+
+    /**
+     * インデックスを構築するビルダー。構築後もドキュメントを追加して構築し直せます。スレッドセーフではありません。
+     */
+    public static final class Builder {
+
+        private final Map<String, Integer> terms = new HashMap<>();
+
+        // 語の番号ごとの構築中のポスティングリスト（[0] がドキュメント番号、[1] が出現回数）と件数
+        private final List<int[][]> postings = new ArrayList<>();
+        private int[] postingSizes = new int[1024];
+
+        private int[] lengths = new int[1024];
+
+        private final List<String> documents = new ArrayList<>();
+
+        /**
+         * ドキュメントを追加する。
+         * @param document ドキュメント本文
+         * @return ドキュメント番号（登録順）
+         */
+        public int add(String document) {
+            int doc = documents.size();
+            documents.add(document);
+            List<String> tokens = LexicalTokenizer.tokenize(document);
+            if (doc == lengths.length) {
+                lengths = Arrays.copyOf(lengths, doc * 2);
+            }
+            lengths[doc] = tokens.size();
+
+            // 語ごとの出現回数を数えてから、ポスティングリストの末尾に追加する
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String token : tokens) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                int term = terms.computeIfAbsent(entry.getKey(), key -> {
+                    postings.add(new int[][]{new int[4], new int[4]});
+                    if (postings.size() > postingSizes.length) {
+                        postingSizes = Arrays.copyOf(postingSizes, postingSizes.length * 2);
+                    }
+                    return postings.size() - 1;
+                });
+                int[][] posting = postings.get(term);
+                int size = postingSizes[term];
+                if (size == posting[0].length) {
+                    posting[0] = Arrays.copyOf(posting[0], size * 2);
+                    posting[1] = Arrays.copyOf(posting[1], size * 2);
+                }
+                posting[0][size] = doc;
+                posting[1][size] = entry.getValue();
+                postingSizes[term] = size + 1;
+            }
+            return doc;
+        }
+
+        /**
+         * 登録したドキュメント数。
+         * @return ドキュメント数
+         */
+        public int size() {
+            return documents.size();
+        }
+
+        /**
+         * インデックスを構築する（ビルダーの状態は変更しないため、以前に構築したインデックスはそのまま使える）。
+         * @return 構築したインデックス
+         */
+        public Bm25Index build() {
+            int[][] docs = new int[postings.size()][];
+            int[][] freqs = new int[postings.size()][];
+            for (int term = 0; term < postings.size(); term++) {
+                int[][] posting = postings.get(term);
+                docs[term] = Arrays.copyOf(posting[0], postingSizes[term]);
+                freqs[term] = Arrays.copyOf(posting[1], postingSizes[term]);
+            }
+            return new Bm25Index(new HashMap<>(terms), docs, freqs, Arrays.copyOf(lengths, documents.size()),
+                    documents.toArray(String[]::new));
+        }
+    }
+}
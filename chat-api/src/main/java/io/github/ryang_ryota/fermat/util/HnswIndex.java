@@ -0,0 +1,454 @@
+package io.github.ryang_ryota.fermat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * HNSW（Hierarchical Navigable Small World）による近似最近傍探索インデックス。
+ * - ベクトルは1本の float 配列に連続して格納し、Float のボックス化を行いません。
+ * - 距離の定義は ChromaDB の hnsw:space（l2 / ip / cosine）に合わせています。
+ * - 同じIDを再登録すると古いノードは削除済み（検索結果から除外）となり、新しいノードが追加されます。
+ * - スレッドセーフではありません。読み取りと並行して更新する場合は {@link #copy()} で複製したものを更新し、
+ *   更新後に差し替えてください（検索のみであれば複数スレッドから同時に呼び出せます）。
+ */
+public class HnswIndex {
+
+    /**
+     * 距離の種類（ChromaDB の hnsw:space と同じ定義）。
+     */
+    public enum Space {
+        // 二乗ユークリッド距離
+        L2,
+        // 1 - 内積
+        IP,
+        // 1 - コサイン類似度
+        COSINE;
+
+        /**
+         * 設定値（l2 / ip / cosine）から距離の種類を取得する。
+         * @param value 設定値
+         * @return 距離の種類
+         */
+        public static Space of(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * 検索結果の1件。
+     *
+     * @param id       登録時のID
+     * @param document 登録時のドキュメント本文
+     * @param distance クエリとの距離
+     * @param vector   登録時のベクトル（cosine の場合は正規化済み）
+     */
+    public record SearchResult(String id, String document, float distance, float[] vector) {
+    }
+
+    /**
+     * 探索中の候補（ノード番号と距離）。
+     */
+    private record Candidate(int node, float distance) {
+    }
+
+    private static final Comparator<Candidate> NEAREST_FIRST = Comparator.comparingDouble(Candidate::distance);
+
+    private static final int[] NO_LINKS = new int[0];
+
+    private final Space space;
+
+    private final int dimension;
+
+    // 上位層の最大接続数（最下層はその2倍）
+    private final int m;
+
+    // 構築時の探索幅
+    private final int efConstruction;
+
+    // 層の割り当て確率の係数（1 / ln(M)）
+    private final double levelMultiplier;
+
+    private final SplittableRandom random;
+
+    // ノードごとのベクトル（node × dimension の連続領域）
+    private float[] vectors;
+
+    private String[] ids;
+
+    private String[] documents;
+
+    // ノードごと・層ごとの接続先。内側の配列は書き換えず、変更時は新しい配列に差し替える
+    private int[][][] links;
+
+    private BitSet deleted;
+
+    private Map<String, Integer> nodeById;
+
+    private int nodeCount;
+
+    private int deletedCount;
+
+    private int entryPoint = -1;
+
+    private int maxLevel = -1;
+
+    /**
+     * コンストラクタ
+     * @param space          距離の種類
+     * @param dimension      ベクトルの次元数
+     * @param m              上位層の最大接続数
+     * @param efConstruction 構築時の探索幅
+     * @param seed           層の割り当てに使う乱数の種
+     */
+    public HnswIndex(Space space, int dimension, int m, int efConstruction, long seed) {
+        this.space = space;
+        this.dimension = dimension;
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+        this.random = new SplittableRandom(seed);
+        this.vectors = new float[16 * dimension];
+        this.ids = new String[16];
+        this.documents = new String[16];
+        this.links = new int[16][][];
+        this.deleted = new BitSet();
+        this.nodeById = new HashMap<>();
+    }
+
+    private HnswIndex(HnswIndex source) {
+        this.space = source.space;
+        this.dimension = source.dimension;
+        this.m = source.m;
+        this.efConstruction = source.efConstruction;
+        this.levelMultiplier = source.levelMultiplier;
+        this.random = source.random.split();
+        this.vectors = Arrays.copyOf(source.vectors, source.vectors.length);
+        this.ids = Arrays.copyOf(source.ids, source.ids.length);
+        this.documents = Arrays.copyOf(source.documents, source.documents.length);
+        this.links = new int[source.links.length][][];
+        for (int node = 0; node < source.nodeCount; node++) {
+            // 内側の接続配列は不変として扱うため、層の配列だけを複製すれば十分
+            this.links[node] = source.links[node].clone();
+        }
+        this.deleted = (BitSet) source.deleted.clone();
+        this.nodeById = new HashMap<>(source.nodeById);
+        this.nodeCount = source.nodeCount;
+        this.deletedCount = source.deletedCount;
+        this.entryPoint = source.entryPoint;
+        this.maxLevel = source.maxLevel;
+    }
+
+    /**
+     * 更新用の複製を作成する。複製への追加は元のインデックスに影響しない。
+     * @return 複製したインデックス
+     */
+    public HnswIndex copy() {
+        return new HnswIndex(this);
+    }
+
+    /**
+     * ベクトルを追加する。同じIDが登録済みの場合は古いノードを削除済みにしてから追加する。
+     * @param id       ID
+     * @param vector   ベクトル
+     * @param document ドキュメント本文
+     */
+    public void add(String id, float[] vector, String document) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException(
+                    "ベクトルの次元数が一致しません: expected=" + dimension + ", actual=" + vector.length);
+        }
+        Integer previous = nodeById.get(id);
+        if (previous != null) {
+            deleted.set(previous);
+            deletedCount++;
+        }
+        int node = nodeCount++;
+        ensureCapacity(nodeCount);
+        System.arraycopy(prepare(vector), 0, vectors, node * dimension, dimension);
+        ids[node] = id;
+        documents[node] = document;
+        nodeById.put(id, node);
+
+        int level = randomLevel();
+        links[node] = new int[level + 1][];
+        Arrays.fill(links[node], NO_LINKS);
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        float[] query = Arrays.copyOfRange(vectors, node * dimension, (node + 1) * dimension);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedySearch(query, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(query, current, efConstruction, l);
+            List<Candidate> selected = selectNeighbors(candidates, maxConnections(l));
+            int[] neighbors = new int[selected.size()];
+            for (int i = 0; i < neighbors.length; i++) {
+                neighbors[i] = selected.get(i).node();
+            }
+            links[node][l] = neighbors;
+            for (int neighbor : neighbors) {
+                connect(neighbor, node, l);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * クエリに近い順に最大 k 件を返す（削除済みのノードは含まない）。
+     * @param query クエリベクトル
+     * @param k     取得件数
+     * @param ef    探索幅（大きいほど精度が上がり、遅くなる）
+     * @return 近い順の検索結果
+     */
+    public List<SearchResult> search(float[] query, int k, int ef) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException(
+                    "ベクトルの次元数が一致しません: expected=" + dimension + ", actual=" + query.length);
+        }
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        float[] prepared = prepare(query);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedySearch(prepared, current, l);
+        }
+        List<Candidate> candidates = searchLayer(prepared, current, Math.max(ef, k), 0);
+        List<SearchResult> results = new ArrayList<>(k);
+        for (Candidate candidate : candidates) {
+            if (deleted.get(candidate.node())) {
+                continue;
+            }
+            int node = candidate.node();
+            results.add(new SearchResult(ids[node], documents[node], candidate.distance(),
+                    Arrays.copyOfRange(vectors, node * dimension, (node + 1) * dimension)));
+            if (results.size() == k) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 検索対象のベクトル数（削除済みを除く）。
+     * @return ベクトル数
+     */
+    public int size() {
+        return nodeCount - deletedCount;
+    }
+
+    /**
+     * ベクトルの次元数。
+     * @return 次元数
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * 指定した層で、クエリに最も近いノードへ貪欲に移動する。
+     */
+    private int greedySearch(float[] query, int start, int level) {
+        int current = start;
+        float currentDistance = distance(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbor : links[current][level]) {
+                float d = distance(query, neighbor);
+                if (d < currentDistance) {
+                    current = neighbor;
+                    currentDistance = d;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 指定した層で探索幅 ef のビームサーチを行い、近い順の候補を返す。
+     */
+    private List<Candidate> searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(nodeCount);
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(NEAREST_FIRST);
+        PriorityQueue<Candidate> nearest = new PriorityQueue<>(NEAREST_FIRST.reversed());
+        Candidate first = new Candidate(start, distance(query, start));
+        visited.set(start);
+        frontier.add(first);
+        nearest.add(first);
+        while (!frontier.isEmpty()) {
+            Candidate candidate = frontier.poll();
+            if (candidate.distance() > nearest.peek().distance() && nearest.size() >= ef) {
+                break;
+            }
+            for (int neighbor : links[candidate.node()][level]) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float d = distance(query, neighbor);
+                if (nearest.size() < ef || d < nearest.peek().distance()) {
+                    Candidate next = new Candidate(neighbor, d);
+                    frontier.add(next);
+                    nearest.add(next);
+                    if (nearest.size() > ef) {
+                        nearest.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> results = new ArrayList<>(nearest);
+        results.sort(NEAREST_FIRST);
+        return results;
+    }
+
+    /**
+     * 近い順の候補から接続先を選ぶ（既に選んだノードの方が近い候補は後回しにするヒューリスティック）。
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (distance(candidate.node(), chosen.node()) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        // 接続数に余裕があれば、後回しにした候補で埋めてグラフの連結性を保つ
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * ノード from の層 level に接続先 to を追加する。上限を超える場合は接続先を選び直す。
+     */
+    private void connect(int from, int to, int level) {
+        int[] current = links[from][level];
+        int max = maxConnections(level);
+        if (current.length < max) {
+            int[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = to;
+            links[from][level] = next;
+            return;
+        }
+        List<Candidate> candidates = new ArrayList<>(current.length + 1);
+        for (int neighbor : current) {
+            candidates.add(new Candidate(neighbor, distance(from, neighbor)));
+        }
+        candidates.add(new Candidate(to, distance(from, to)));
+        candidates.sort(NEAREST_FIRST);
+        List<Candidate> selected = selectNeighbors(candidates, max);
+        int[] next = new int[selected.size()];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = selected.get(i).node();
+        }
+        links[from][level] = next;
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? m * 2 : m;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(required, ids.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        ids = Arrays.copyOf(ids, capacity);
+        documents = Arrays.copyOf(documents, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    /**
+     * 距離計算用にベクトルを前処理する（cosine の場合は正規化する）。
+     */
+    private float[] prepare(float[] vector) {
+        if (space != Space.COSINE) {
+            return vector;
+        }
+        double norm = 0.0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] normalized = new float[vector.length];
+        if (norm == 0.0) {
+            return normalized;
+        }
+        double scale = 1.0 / Math.sqrt(norm);
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] * scale);
+        }
+        return normalized;
+    }
+
+    private float distance(float[] query, int node) {
+        int offset = node * dimension;
+        if (space == Space.L2) {
+            float sum = 0f;
+            for (int i = 0; i < dimension; i++) {
+                float diff = query[i] - vectors[offset + i];
+                sum += diff * diff;
+            }
+            return sum;
+        }
+        float dot = 0f;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * vectors[offset + i];
+        }
+        return 1f - dot;
+    }
+
+    private float distance(int a, int b) {
+        int offsetA = a * dimension;
+        int offsetB = b * dimension;
+        if (space == Space.L2) {
+            float sum = 0f;
+            for (int i = 0; i < dimension; i++) {
+                float diff = vectors[offsetA + i] - vectors[offsetB + i];
+                sum += diff * diff;
+            }
+            return sum;
+        }
+        float dot = 0f;
+        for (int i = 0; i < dimension; i++) {
+            dot += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return 1f - dot;
+    }
+}
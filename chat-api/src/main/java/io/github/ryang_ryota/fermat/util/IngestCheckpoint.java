@@ -0,0 +1,79 @@
+package io.github.ryang_ryota.fermat.util;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一括登録の再開位置（入力ファイルごとに、ChromaDBへの登録が完了した行数）をファイルに保存するクラス。
+ * - 保存は一時ファイルへの書き込みと置き換えで行うため、途中で停止しても壊れたファイルは残りません。
+ * - 記録する行数より前の行は全て登録済みです。以降の行は登録済みの可能性があるため、
+ *   再開時に再度登録します（upsertのため重複しません）。
+ */
+public class IngestCheckpoint {
+
+    // 保存先のファイル
+    private final Path file;
+
+    // 入力ファイルのパス → 登録が完了した行数
+    private final Map<String, Long> positions = new HashMap<>();
+
+    /**
+     * 保存先のファイルから再開位置を読み込む（ファイルがない場合は空）。
+     * @param file 保存先のファイル
+     * @throws IOException ファイルを読み込めない場合
+     */
+    public IngestCheckpoint(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            for (String key : json.keySet()) {
+                positions.put(key, json.getLong(key));
+            }
+        }
+    }
+
+    /**
+     * 入力ファイルの再開位置を取得する。
+     * @param input 入力ファイル
+     * @return 登録が完了した行数（未処理の場合は0）
+     */
+    public synchronized long position(Path input) {
+        return positions.getOrDefault(key(input), 0L);
+    }
+
+    /**
+     * 入力ファイルの再開位置を更新し、ファイルに保存する。
+     * @param input 入力ファイル
+     * @param line  登録が完了した行数
+     */
+    public synchronized void save(Path input, long line) {
+        positions.put(key(input), line);
+        JSONObject json = new JSONObject(positions);
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            Files.writeString(temp, json.toString(2), StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String key(Path input) {
+        return input.toAbsolutePath().normalize().toString();
+    }
+}
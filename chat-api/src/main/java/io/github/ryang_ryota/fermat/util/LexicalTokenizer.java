@@ -0,0 +1,114 @@
+package io.github.ryang_ryota.fermat.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 語彙検索（BM25）用に、日本語と英語が混在するテキストを検索語に分割するユーティリティクラス。
+ * - NFKC正規化（全角英数字・半角カナの統一）と小文字化を行います。
+ * - 英数字の連続は1語とします（「Taniyama–Shimura」は taniyama と shimura に分かれます）。英語の機能語は除外します。
+ * - 漢字の連続は文字バイグラム（1文字のみの場合はその1文字）に、カタカナの連続はそのまま1語にします
+ *   （形態素解析を使わずに、人名・用語の部分一致を拾うため）。
+ * - ひらがなは助詞・送り仮名がほとんどのため、検索語にしません。
+ */
+public final class LexicalTokenizer {
+
+    // 除外する英語の機能語（ポスティングリストが長く、スコアにほとんど寄与しない語）
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "how", "in", "is", "it", "of", "on",
+            "or", "that", "the", "this", "to", "was", "what", "when", "where", "which", "who", "why", "with");
+
+    private LexicalTokenizer() {
+    }
+
+    /**
+     * テキストを検索語に分割する。
+     * @param text テキスト
+     * @return 検索語（出現順。重複を含む）
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        int start = 0;
+        Kind runKind = Kind.OTHER;
+        int i = 0;
+        while (i < normalized.length()) {
+            int codePoint = normalized.codePointAt(i);
+            Kind kind = Kind.of(codePoint);
+            if (kind != runKind) {
+                emit(normalized, start, i, runKind, tokens);
+                start = i;
+                runKind = kind;
+            }
+            i += Character.charCount(codePoint);
+        }
+        emit(normalized, start, normalized.length(), runKind, tokens);
+        return tokens;
+    }
+
+    /**
+     * 同じ種類の文字の連続を検索語にする。
+     */
+    private static void emit(String text, int start, int end, Kind kind, List<String> tokens) {
+        if (start >= end) {
+            return;
+        }
+        switch (kind) {
+            case WORD -> {
+                String word = text.substring(start, end);
+                if (!STOP_WORDS.contains(word)) {
+                    tokens.add(word);
+                }
+            }
+            case KATAKANA -> tokens.add(text.substring(start, end));
+            case HAN -> {
+                if (text.codePointCount(start, end) == 1) {
+                    tokens.add(text.substring(start, end));
+                    return;
+                }
+                int first = start;
+                int second = text.offsetByCodePoints(first, 1);
+                while (second < end) {
+                    int next = text.offsetByCodePoints(second, 1);
+                    tokens.add(text.substring(first, next));
+                    first = second;
+                    second = next;
+                }
+            }
+            default -> {
+                // 記号・空白・ひらがなは検索語にしない
+            }
+        }
+    }
+
+    /**
+     * 文字の種類。
+     */
+    private enum Kind {
+        WORD,
+        HAN,
+        KATAKANA,
+        OTHER;
+
+        private static Kind of(int codePoint) {
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            if (script == Character.UnicodeScript.HAN) {
+                return HAN;
+            }
+            // 長音符（ー）は COMMON だが、カタカナ語の一部として扱う
+            if (script == Character.UnicodeScript.KATAKANA || codePoint == 'ー') {
+                return KATAKANA;
+            }
+            if (script == Character.UnicodeScript.HIRAGANA) {
+                return OTHER;
+            }
+            return Character.isLetterOrDigit(codePoint) ? WORD : OTHER;
+        }
+    }
+}
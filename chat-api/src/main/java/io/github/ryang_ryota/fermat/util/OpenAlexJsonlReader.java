@@ -0,0 +1,181 @@
+package io.github.ryang_ryota.fermat.util;
+
+import io.github.ryang_ryota.fermat.model.IngestDocument;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * OpenAlexのWorkを1行1件のJSON（JSONL）で保存したファイルを、先頭から1行ずつ読み込むクラス。
+ * - ファイル全体をメモリに載せず、読み込んだ行から順に IngestDocument に変換します。
+ * - 拡張子が .gz のファイル（OpenAlexのスナップショット形式）はそのまま展開しながら読み込みます。
+ * - 要旨は abstract_inverted_index（単語 → 出現位置）から本文に復元します。
+ * - タイトル・要旨のどちらもない行や、JSONとして解析できない行は読み飛ばします。
+ */
+public class OpenAlexJsonlReader implements Iterator<IngestDocument>, Closeable {
+
+    private static final String OPENALEX_ID_PREFIX = "https://openalex.org/";
+
+    private final BufferedReader reader;
+
+    // 読み込み済みの行数（読み飛ばした行を含む）
+    private long linesRead;
+
+    // テキストがない・解析できないため読み飛ばした行数
+    private long skipped;
+
+    // 次に返すドキュメント（未読み込みの場合は null）
+    private IngestDocument next;
+
+    /**
+     * @param file      入力ファイル（.jsonl または .jsonl.gz）
+     * @param skipLines 読み飛ばす先頭の行数（前回の実行で登録済みの行）
+     * @throws IOException ファイルを開けない場合
+     */
+    public OpenAlexJsonlReader(Path file, long skipLines) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        while (linesRead < skipLines && reader.readLine() != null) {
+            linesRead++;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                linesRead++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                next = parse(line, linesRead);
+                if (next != null) {
+                    return true;
+                }
+                skipped++;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public IngestDocument next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        IngestDocument document = next;
+        next = null;
+        return document;
+    }
+
+    /**
+     * 読み込み済みの行数（読み飛ばした先頭の行を含む）。
+     * @return 行数
+     */
+    public long linesRead() {
+        return linesRead;
+    }
+
+    /**
+     * テキストがない・解析できないため読み飛ばした行数。
+     * @return 行数
+     */
+    public long skipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * OpenAlexのWork（JSON1行）を IngestDocument に変換する。
+     * @param line       JSON文字列
+     * @param lineNumber 行番号
+     * @return 変換したドキュメント（ID・テキストがない、または解析できない場合は null）
+     */
+    static IngestDocument parse(String line, long lineNumber) {
+        JSONObject work;
+        try {
+            work = new JSONObject(line);
+        } catch (JSONException e) {
+            return null;
+        }
+        String id = work.optString("id", "");
+        if (id.startsWith(OPENALEX_ID_PREFIX)) {
+            id = id.substring(OPENALEX_ID_PREFIX.length());
+        }
+        String title = work.optString("title", "");
+        if (title.isEmpty()) {
+            title = work.optString("display_name", "");
+        }
+        String abstractText = work.optString("abstract", "");
+        JSONObject invertedIndex = work.optJSONObject("abstract_inverted_index");
+        if (abstractText.isEmpty() && invertedIndex != null) {
+            abstractText = abstractText(invertedIndex);
+        }
+        if (id.isEmpty() || (title.isEmpty() && abstractText.isEmpty())) {
+            return null;
+        }
+
+        // ChromaDBのメタデータは null を保存できないため、値のある項目のみ設定する
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        String doi = work.optString("doi", "");
+        if (!doi.isEmpty()) {
+            metadata.put("doi", doi);
+        }
+        if (!title.isEmpty()) {
+            metadata.put("title", title);
+        }
+        if (work.has("publication_year") && !work.isNull("publication_year")) {
+            metadata.put("publication_year", work.getInt("publication_year"));
+        }
+        String text = abstractText.isEmpty() ? title : title + "\n" + abstractText;
+        return new IngestDocument(id, text, metadata, lineNumber);
+    }
+
+    /**
+     * abstract_inverted_index（単語 → 出現位置の配列）から要旨の本文を復元する。
+     * @param invertedIndex 転置インデックス
+     * @return 出現位置の順に単語を空白で連結した文字列
+     */
+    static String abstractText(JSONObject invertedIndex) {
+        TreeMap<Integer, String> words = new TreeMap<>();
+        for (String word : invertedIndex.keySet()) {
+            JSONArray positions = invertedIndex.optJSONArray(word);
+            if (positions == null) {
+                continue;
+            }
+            for (int i = 0; i < positions.length(); i++) {
+                words.put(positions.getInt(i), word);
+            }
+        }
+        return String.join(" ", words.values());
+    }
+}
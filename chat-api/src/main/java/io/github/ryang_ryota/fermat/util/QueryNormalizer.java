@@ -0,0 +1,42 @@
+package io.github.ryang_ryota.fermat.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * ユーザーの質問文を、キャッシュや重複排除のキーとして使える形に正規化するユーティリティ。
+ * - 全角英数字・記号をNFKCで半角に揃え、英字を小文字化します。
+ * - 前後の空白を除去し、連続する空白を1つにまとめます。
+ */
+public final class QueryNormalizer {
+
+    private QueryNormalizer() {
+    }
+
+    /**
+     * 質問文を正規化する。
+     * @param query 質問文
+     * @return 正規化済みの質問文（null の場合は空文字）
+     */
+    public static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(normalized.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.ryang_ryota.fermat.util;
+
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ベクトル検索と語彙検索の結果を、RRF（Reciprocal Rank Fusion）で1つの順位に統合するユーティリティクラス。
+ * - score = Σ 1 / (k + 順位)。スコアの尺度が異なる検索結果でも、順位だけで統合できます。
+ * - 同じ本文のドキュメントは1件にまとめます（両方の検索で上位のものほど上に来ます）。
+ * - ベクトル検索の距離・埋め込みベクトルは引き継ぎ、語彙検索でのみ見つかったドキュメントは距離を NaN、
+ *   埋め込みベクトルを null とします。
+ */
+public final class ReciprocalRankFusion {
+
+    private ReciprocalRankFusion() {
+    }
+
+    /**
+     * ベクトル検索の結果に語彙検索の結果を統合する。
+     * @param vector   ベクトル検索の結果
+     * @param lexical  語彙検索の結果（スコアの高い順のドキュメント本文）
+     * @param k        順位の減衰を緩める定数（一般的には60）
+     * @param nResults 統合後の件数の上限
+     * @return 統合後の順位に並べ替えたコンテキスト（語彙検索の結果がなければ vector をそのまま返す）
+     */
+    public static RetrievedContext fuse(RetrievedContext vector, List<String> lexical, int k, int nResults) {
+        if (lexical.isEmpty()) {
+            return vector;
+        }
+        List<String> documents = vector.documents();
+        boolean hasEmbeddings = !documents.isEmpty() && vector.embeddings().size() == documents.size();
+
+        Map<String, Candidate> candidates = new LinkedHashMap<>();
+        for (int rank = 0; rank < documents.size(); rank++) {
+            Candidate candidate = candidates.computeIfAbsent(documents.get(rank), Candidate::new);
+            if (candidate.vectorRank < 0) {
+                candidate.vectorRank = rank;
+                candidate.score += 1.0 / (k + rank + 1);
+            }
+        }
+        for (int rank = 0; rank < lexical.size(); rank++) {
+            Candidate candidate = candidates.computeIfAbsent(lexical.get(rank), Candidate::new);
+            if (!candidate.lexical) {
+                candidate.lexical = true;
+                candidate.score += 1.0 / (k + rank + 1);
+            }
+        }
+
+        List<Candidate> ranked = new ArrayList<>(candidates.values());
+        ranked.sort(Comparator.comparingDouble((Candidate candidate) -> candidate.score).reversed());
+        int size = Math.min(nResults, ranked.size());
+        List<String> fusedDocuments = new ArrayList<>(size);
+        List<Double> fusedDistances = new ArrayList<>(size);
+        List<float[]> fusedEmbeddings = new ArrayList<>(hasEmbeddings ? size : 0);
+        for (Candidate candidate : ranked.subList(0, size)) {
+            int rank = candidate.vectorRank;
+            fusedDocuments.add(candidate.document);
+            fusedDistances.add(rank < 0 || rank >= vector.distances().size() ? Double.NaN : vector.distances().get(rank));
+            if (hasEmbeddings) {
+                fusedEmbeddings.add(rank < 0 ? null : vector.embeddings().get(rank));
+            }
+        }
+        return new RetrievedContext(vector.query(), vector.queryEmbedding(), fusedDocuments, fusedDistances,
+                fusedEmbeddings, vector.fallback());
+    }
+
+    /**
+     * 統合中のドキュメント1件分の状態。
+     */
+    private static final class Candidate {
+
+        private final String document;
+
+        // ベクトル検索での順位（0始まり。見つからなかった場合は −1）
+        private int vectorRank = -1;
+
+        private boolean lexical;
+
+        private double score;
+
+        private Candidate(String document) {
+            this.document = document;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.ryang_ryota.fermat.util;
+
+import io.github.ryang_ryota.fermat.model.SingleFlightStats;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 同じキーの処理が実行中であれば、新たに実行せずその結果を共有するためのクラス（SingleFlight）。
+ * - 最初の購読者が上流処理を開始し、実行中に合流した購読者には先頭から再生（replay）して配信します。
+ * - 上流処理は、最後の購読者が購読をやめた時点でキャンセルされます。
+ * - 上流処理が完了・失敗・キャンセルされると登録は解除され、以降の呼び出しは新たに実行されます。
+ *
+ * @param <K> キーの型
+ * @param <T> 要素の型
+ */
+public class SingleFlight<K, T> {
+
+    // 実行中の上流処理（キー → 共有Flux）
+    private final ConcurrentHashMap<K, Flux<T>> inflight = new ConcurrentHashMap<>();
+
+    // 統計情報
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * キーに対応する処理を実行する。同じキーの処理が実行中であればそれに合流する。
+     * 実際の登録・合流は購読時に行われる。
+     *
+     * @param key      合流のキー
+     * @param supplier 上流処理を生成する関数（実行中の処理がない場合のみ呼ばれる）
+     * @return 共有された要素のストリーム
+     */
+    public Flux<T> execute(K key, Supplier<? extends Flux<T>> supplier) {
+        return Flux.defer(() -> {
+            Flux<T> existing = inflight.get(key);
+            if (existing != null) {
+                coalesced.increment();
+                return existing;
+            }
+            AtomicReference<Flux<T>> self = new AtomicReference<>();
+            Flux<T> shared = Flux.defer(supplier)
+                    // 終了を購読者に伝える前に登録を解除し、完了後の合流を防ぐ
+                    .doOnTerminate(() -> inflight.remove(key, self.get()))
+                    .doOnCancel(() -> inflight.remove(key, self.get()))
+                    .replay()
+                    .refCount(1);
+            self.set(shared);
+            Flux<T> winner = inflight.putIfAbsent(key, shared);
+            if (winner != null) {
+                coalesced.increment();
+                return winner;
+            }
+            executions.increment();
+            return shared;
+        });
+    }
+
+    /**
+     * 単一の値を返す処理を、キーごとに合流させて実行する。
+     *
+     * @param key      合流のキー
+     * @param supplier 上流処理を生成する関数
+     * @return 共有された値
+     */
+    public Mono<T> executeMono(K key, Supplier<? extends Mono<T>> supplier) {
+        return execute(key, () -> supplier.get().flux()).singleOrEmpty();
+    }
+
+    /**
+     * 現在の統計情報を取得する。
+     * @return 実行中の件数・実行回数・合流回数
+     */
+    public SingleFlightStats stats() {
+        return new SingleFlightStats(inflight.size(), executions.sum(), coalesced.sum());
+    }
+}
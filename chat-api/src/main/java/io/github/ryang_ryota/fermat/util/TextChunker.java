@@ -0,0 +1,110 @@
+package io.github.ryang_ryota.fermat.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 長いテキストを、見積もりのトークン数が上限以下のチャンクに分割するユーティリティクラス。
+ * - 文の途中では切らず、文単位でチャンクにまとめます（1文が上限を超える場合のみ文の途中で切ります）。
+ * - 隣り合うチャンクの間で末尾の数文を重複させ、チャンクの境界にまたがる内容も検索できるようにします。
+ */
+public final class TextChunker {
+
+    private TextChunker() {
+    }
+
+    /**
+     * テキストをチャンクに分割する。
+     * @param text          テキスト
+     * @param maxTokens     1チャンクの見積もりトークン数の上限（0以下の場合は分割しない）
+     * @param overlapTokens 前のチャンクと重複させる末尾の文のトークン数の上限
+     * @return チャンクの一覧（テキスト全体が上限に収まる場合は1件）
+     */
+    public static List<String> chunk(String text, int maxTokens, int overlapTokens) {
+        if (maxTokens <= 0 || TokenEstimator.estimate(text) <= maxTokens) {
+            return List.of(text);
+        }
+        List<String> chunks = new ArrayList<>();
+        Deque<String> current = new ArrayDeque<>();
+        int currentTokens = 0;
+        for (String sentence : sentences(text)) {
+            int tokens = TokenEstimator.estimate(sentence);
+            if (tokens > maxTokens) {
+                // 上限を超える1文は、それまでのチャンクを確定させてから上限ごとに切る
+                addChunk(chunks, current);
+                current.clear();
+                currentTokens = 0;
+                String rest = sentence;
+                while (!rest.isEmpty()) {
+                    String head = TokenEstimator.truncate(rest, maxTokens);
+                    if (head.isEmpty()) {
+                        head = rest.substring(0, 1);
+                    }
+                    addChunk(chunks, List.of(head));
+                    rest = rest.substring(head.length());
+                }
+                continue;
+            }
+            if (currentTokens + tokens > maxTokens && !current.isEmpty()) {
+                addChunk(chunks, current);
+                // 末尾の文を次のチャンクの先頭に重複させる
+                Deque<String> overlap = new ArrayDeque<>();
+                int overlapSize = 0;
+                Iterator<String> previous = current.descendingIterator();
+                while (previous.hasNext()) {
+                    String last = previous.next();
+                    int lastTokens = TokenEstimator.estimate(last);
+                    if (overlapSize + lastTokens > overlapTokens || overlapSize + lastTokens + tokens > maxTokens) {
+                        break;
+                    }
+                    overlap.addFirst(last);
+                    overlapSize += lastTokens;
+                }
+                current = overlap;
+                currentTokens = overlapSize;
+            }
+            current.addLast(sentence);
+            currentTokens += tokens;
+        }
+        addChunk(chunks, current);
+        return chunks;
+    }
+
+    /**
+     * テキストを文に分割する。文末の文字（英語の . ! ? は直後が空白の場合のみ）と改行で区切り、区切りの空白は前の文に含める。
+     * @param text テキスト
+     * @return 文の一覧
+     */
+    static List<String> sentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            boolean end = c == '\n' || (TokenEstimator.isSentenceEnd(c) && (c >= 0x80 || i + 1 == text.length()
+                    || Character.isWhitespace(text.charAt(i + 1))));
+            i++;
+            if (end) {
+                while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                sentences.add(text.substring(start, i));
+                start = i;
+            }
+        }
+        if (start < text.length()) {
+            sentences.add(text.substring(start));
+        }
+        return sentences;
+    }
+
+    private static void addChunk(List<String> chunks, Iterable<String> sentences) {
+        String chunk = String.join("", sentences).strip();
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package io.github.ryang_ryota.fermat.util;
+
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * トークンのストリームを、一定時間ごと・一定バイト数ごとにまとめて1つの文字列にするためのクラス。
+ * - 最初の（空でない）トークンはまとめずに即座に送出し、最初の表示までの時間を悪化させません。
+ * - 2つ目以降のトークンは、最初のトークンが溜まってから時間枠が経過するか、
+ *   溜まった量（UTF-8のバイト数）が上限に達した時点でまとめて送出します。
+ * - 空のトークン（Ollamaの完了行など）は送出しません（その分は上流に1件多く要求します）。
+ * - 上流には1件ずつ要求し、下流の要求がない間は送出待ちのトークンが上限（maxBytes）に達するか、時間枠が経過した時点で
+ *   要求を止めます。読み出しの遅いクライアントに対しては、上流（Ollamaのストリーム）の読み出しも止まります。
+ */
+public final class TokenCoalescer {
+
+    private TokenCoalescer() {
+    }
+
+    /**
+     * トークンのストリームをまとめる。
+     * @param tokens    トークンのストリーム
+     * @param window    まとめる時間枠
+     * @param maxBytes  1回に送出する量の上限（UTF-8のバイト数）
+     * @param scheduler 時間枠の計測に使うスケジューラ
+     * @return まとめたトークンのストリーム
+     */
+    public static Flux<String> coalesce(Flux<String> tokens, Duration window, int maxBytes, Scheduler scheduler) {
+        return Flux.create(sink -> {
+            Buffer buffer = new Buffer(sink, window.toNanos(), maxBytes, scheduler);
+            sink.onRequest(buffer::onRequest);
+            sink.onDispose(buffer::dispose);
+            tokens.subscribe(buffer);
+        });
+    }
+
+    /**
+     * 送出待ちのトークンを溜めるバッファ（上流・下流の要求・タイマーから呼ばれるため同期する）。
+     */
+    private static final class Buffer extends BaseSubscriber<String> {
+
+        private final FluxSink<String> sink;
+
+        private final long windowNanos;
+
+        private final int maxBytes;
+
+        private final Scheduler scheduler;
+
+        private final StringBuilder pending = new StringBuilder();
+
+        private int pendingBytes;
+
+        // 下流から要求されていて、まだ送出していない件数
+        private long demand;
+
+        // 上流に要求済みで、まだ受け取っていないか
+        private boolean requested;
+
+        // 送出待ちのトークンを、下流の要求があり次第送出するか（最初のトークン・時間枠の経過・上限への到達）
+        private boolean flushDue;
+
+        private boolean firstReceived;
+
+        private boolean done;
+
+        private Throwable error;
+
+        // drain の再入（送出中に下流が要求した場合等）を防ぐ
+        private boolean draining;
+
+        private boolean missed;
+
+        private Disposable timer;
+
+        private Buffer(FluxSink<String> sink, long windowNanos, int maxBytes, Scheduler scheduler) {
+            this.sink = sink;
+            this.windowNanos = windowNanos;
+            this.maxBytes = maxBytes;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public Context currentContext() {
+            // 上流（生成スケジューラ・期限）にも下流の購読時のReactorコンテキストを渡す
+            return Context.of(sink.contextView());
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            // 要求は drain で1件ずつ行う
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnNext(String token) {
+            requested = false;
+            if (!token.isEmpty()) {
+                pending.append(token);
+                pendingBytes += utf8Length(token);
+                if (!firstReceived) {
+                    firstReceived = true;
+                    flushDue = true;
+                } else if (pendingBytes >= maxBytes) {
+                    flushDue = true;
+                } else if (timer == null) {
+                    timer = scheduler.schedule(this::onTimer, windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnError(Throwable throwable) {
+            error = throwable;
+            done = true;
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnComplete() {
+            done = true;
+            drain();
+        }
+
+        private synchronized void onRequest(long n) {
+            demand = Operators.addCap(demand, n);
+            drain();
+        }
+
+        private synchronized void onTimer() {
+            timer = null;
+            flushDue = true;
+            drain();
+        }
+
+        @Override
+        protected synchronized void hookOnCancel() {
+            cancelTimer();
+        }
+
+        private void drain() {
+            if (draining) {
+                missed = true;
+                return;
+            }
+            draining = true;
+            do {
+                missed = false;
+                if ((flushDue || done) && demand > 0 && !pending.isEmpty()) {
+                    flush();
+                }
+                if (done) {
+                    if (pending.isEmpty()) {
+                        if (error != null) {
+                            sink.error(error);
+                        } else {
+                            sink.complete();
+                        }
+                    }
+                } else if (!requested && !flushDue && pendingBytes < maxBytes && upstream() != null) {
+                    // 送出待ちが上限未満で、送出を待っていない間だけ上流に次のトークンを要求する
+                    requested = true;
+                    request(1);
+                }
+            } while (missed);
+            draining = false;
+        }
+
+        private void flush() {
+            cancelTimer();
+            String chunk = pending.toString();
+            pending.setLength(0);
+            pendingBytes = 0;
+            flushDue = false;
+            demand--;
+            sink.next(chunk);
+        }
+
+        private void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+        }
+        private static int utf8Length(String token) {
+            int bytes = 0;
+            for (int i = 0; i < token.length(); i++) {
+                char c = token.charAt(i);
+                if (c < 0x80) {
+                    bytes += 1;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    // サロゲートペアは2文字で4バイト
+                    bytes += 4;
+                    i++;
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
+    }
+}
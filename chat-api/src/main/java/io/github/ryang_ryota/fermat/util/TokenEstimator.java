@@ -0,0 +1,79 @@
+package io.github.ryang_ryota.fermat.util;
+
+/**
+ * テキストのトークン数を、トークナイザーを使わずに見積もるユーティリティクラス。
+ * - ASCII文字は約4文字で1トークン、それ以外（日本語など）は1文字で1トークンとして数えます。
+ * - Mistral のトークナイザーに対して、英語の論文要旨ではやや多め、日本語ではほぼ同等の見積もりになります。
+ *   コンテキストの上限判定に使うため、少なく見積もるよりは多く見積もる側に寄せています。
+ */
+public final class TokenEstimator {
+
+    // ASCII文字を何文字で1トークンと数えるか
+    private static final int ASCII_CHARS_PER_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * テキストのトークン数を見積もる。
+     * @param text テキスト
+     * @return 見積もりのトークン数
+     */
+    public static int estimate(CharSequence text) {
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+        }
+        return other + (ascii + ASCII_CHARS_PER_TOKEN - 1) / ASCII_CHARS_PER_TOKEN;
+    }
+
+    /**
+     * 見積もりのトークン数が上限に収まるよう、テキストの先頭部分を切り出す。
+     * 途中で切る場合は、上限内で最後の文末（。や. など）または空白の位置で切る。
+     * @param text      テキスト
+     * @param maxTokens トークン数の上限
+     * @return 上限に収まる先頭部分（全体が収まる場合はそのまま）
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (maxTokens <= 0) {
+            return "";
+        }
+        int ascii = 0;
+        int other = 0;
+        int lastBreak = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+            if (other + (ascii + ASCII_CHARS_PER_TOKEN - 1) / ASCII_CHARS_PER_TOKEN > maxTokens) {
+                int end = lastBreak > 0 ? lastBreak : i;
+                if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+                return text.substring(0, end);
+            }
+            if (isSentenceEnd(c) || Character.isWhitespace(c)) {
+                lastBreak = i + 1;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * 文末の文字か（日本語の句点・感嘆符・疑問符と、英語の . ! ?）。
+     * @param c 文字
+     * @return 文末の文字であれば true
+     */
+    static boolean isSentenceEnd(char c) {
+        return c == '。' || c == '．' || c == '！' || c == '？' || c == '.' || c == '!' || c == '?';
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.ryang_ryota.fermat.codec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+class OllamaNdjsonDecoderTest {
+
+    private final OllamaNdjsonDecoder decoder = new OllamaNdjsonDecoder();
+
+    @Test
+    @DisplayName("Test decode(Flux); one line per buffer")
+    void testDecode_oneLinePerBuffer() {
+        // Arrange
+        Flux<DataBuffer> body = buffers(
+                "{\"model\":\"mistral\",\"response\":\"フェルマー\",\"done\":false}\n",
+                "{\"model\":\"mistral\",\"response\":\"の定理\",\"done\":false}\n",
+                "{\"model\":\"mistral\",\"response\":\"\",\"done\":true,\"context\":[1,2,3],"
+                        + "\"prompt_eval_count\":26,\"eval_count\":42,\"eval_duration\":1500000000}\n");
+
+        // Act and Assert
+        StepVerifier.create(decoder.decode(body))
+                .expectNext(new OllamaToken("フェルマー", false, 0, 0, 0))
+                .expectNext(new OllamaToken("の定理", false, 0, 0, 0))
+                .assertNext(token -> {
+                    assertEquals(new OllamaToken("", true, 42, 1_500_000_000L, 26, token.context()), token);
+                    assertArrayEquals(new int[]{1, 2, 3}, token.context());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test decode(Flux); lines and multi-byte characters split across buffers")
+    void testDecode_splitAcrossBuffers() {
+        // Arrange
+        byte[] bytes = ("{\"response\":\"谷山–志村\",\"done\":false}\n"
+                + "{\"response\":\"予想\",\"nested\":{\"response\":\"x\"},\"done\":false}\n")
+                .getBytes(StandardCharsets.UTF_8);
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += 3) {
+            byte[] chunk = new byte[Math.min(3, bytes.length - i)];
+            System.arraycopy(bytes, i, chunk, 0, chunk.length);
+            chunks.add(chunk);
+        }
+        Flux<DataBuffer> body = Flux.fromIterable(chunks).map(DefaultDataBufferFactory.sharedInstance::wrap);
+
+        // Act and Assert
+        StepVerifier.create(decoder.decode(body))
+                .expectNext(new OllamaToken("谷山–志村", false, 0, 0, 0))
+                .expectNext(new OllamaToken("予想", false, 0, 0, 0))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test decode(Flux); several lines in one buffer")
+    void testDecode_severalLinesInOneBuffer() {
+        // Arrange
+        Flux<DataBuffer> body = buffers(
+                "{\"response\":\"a\",\"done\":false}\n{\"response\":\"b\",\"done\":false}\n{\"response\":\"c\"");
+
+        // Act and Assert
+        StepVerifier.create(decoder.decode(body))
+                .expectNext(new OllamaToken("a", false, 0, 0, 0))
+                .expectNext(new OllamaToken("b", false, 0, 0, 0))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test decode(Flux); malformed line is skipped")
+    void testDecode_malformedLineIsSkipped() {
+        // Arrange
+        Flux<DataBuffer> body = buffers(
+                "{\"response\":\"a\",\"done\":false}\n",
+                "{\"response\":oops}\n{\"response\":\"b\",\"done\":false}\n",
+                "{\"response\":\"c\",\"done\":true}\n");
+
+        // Act and Assert
+        StepVerifier.create(decoder.decode(body))
+                .expectNext(new OllamaToken("a", false, 0, 0, 0))
+                .expectNext(new OllamaToken("b", false, 0, 0, 0))
+                .expectNext(new OllamaToken("c", true, 0, 0, 0))
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test decode(Flux); error line fails the stream")
+    void testDecode_errorLineFailsStream() {
+        // Arrange
+        Flux<DataBuffer> body = buffers("{\"error\":\"model 'mistral' not found\"}\n");
+
+        // Act and Assert
+        StepVerifier.create(decoder.decode(body))
+                .expectError(OllamaStreamException.class)
+                .verify();
+    }
+
+    private static Flux<DataBuffer> buffers(String... chunks) {
+        return Flux.fromArray(chunks)
+                .map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -9,7 +9,11 @@ import static org.mockito.Mockito.when;
 
 import com.diffblue.cover.annotations.ManagedByDiffblue;
 import com.diffblue.cover.annotations.MethodsUnderTest;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
 import io.github.ryang_ryota.fermat.service.ChatService;
+import io.github.ryang_ryota.fermat.service.GenerationScheduler;
+import io.github.ryang_ryota.fermat.service.PipelineMetrics;
+import io.github.ryang_ryota.fermat.service.ResumableStreamStore;
 
 import java.util.ArrayList;
 import java.util.function.Function;
@@ -33,7 +37,7 @@ import org.springframework.test.web.reactive.server.WebTestClient.ResponseSpec;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 
-@ContextConfiguration(classes = {ChatController.class})
+@ContextConfiguration(classes = {ChatController.class, ResumableStreamStore.class})
 @DisabledInAotMode
 @ExtendWith(SpringExtension.class)
 @WebFluxTest(controllers = {ChatController.class})
@@ -44,28 +48,34 @@ class ChatControllerDiffblueTest {
     @MockitoBean
     private ChatService chatService;
 
+    @MockitoBean
+    private GenerationScheduler generationScheduler;
+
+    @MockitoBean
+    private PipelineMetrics pipelineMetrics;
+
     @Autowired
     private WebTestClient webTestClient;
 
     /**
-     * Test {@link ChatController#chatStream(String)}.
+     * Test {@link ChatController#chatStream(String, String, boolean, ContextOptions, String, String, String)}.
      *
      * <ul>
-     *   <li>Given {@link ChatService} {@link ChatService#processChatStream(String)} return
+     *   <li>Given {@link ChatService} {@link ChatService#processChatStream(String, ContextOptions, String)} return
      *       fromIterable {@link ArrayList#ArrayList()}.
      * </ul>
      *
-     * <p>Method under test: {@link ChatController#chatStream(String)}
+     * <p>Method under test: {@link ChatController#chatStream(String, String, boolean, ContextOptions, String, String, String)}
      */
     @Test
     @DisplayName(
-            "Test chatStream(String); given ChatService processChatStream(String) return fromIterable ArrayList()")
+            "Test chatStream(String, String, boolean, ContextOptions, String, String, String); given ChatService processChatStream(String, ContextOptions, String) return fromIterable ArrayList()")
     @Tag("ContributionFromDiffblue")
-    @MethodsUnderTest({"Flux ChatController.chatStream(String)"})
+    @MethodsUnderTest({"Flux ChatController.chatStream(String, String, boolean, ContextOptions, String, String, String)"})
     void testChatStream_givenChatServiceProcessChatStreamReturnFromIterableArrayList() {
         // Arrange
         Flux<String> fromIterableResult = Flux.fromIterable(new ArrayList<>());
-        when(chatService.processChatStream(Mockito.<String>any())).thenReturn(fromIterableResult);
+        when(chatService.processChatStream(Mockito.<String>any(), Mockito.any(), Mockito.any())).thenReturn(fromIterableResult);
         RequestHeadersUriSpec<?> getResult = webTestClient.get();
 
         // Act
@@ -79,7 +89,7 @@ class ChatControllerDiffblueTest {
                         .exchange();
 
         // Assert
-        verify(chatService).processChatStream(eq("Query"));
+        verify(chatService).processChatStream(eq("Query"), Mockito.any(), Mockito.any());
         Class<ServerSentEvent> elementClass = ServerSentEvent.class;
         Flux<ServerSentEvent> responseBody =
                 actualExchangeResult.returnResult(elementClass).getResponseBody();
@@ -93,7 +103,7 @@ class ChatControllerDiffblueTest {
     }
 
     /**
-     * Test {@link ChatController#chatStream(String)}.
+     * Test {@link ChatController#chatStream(String, String, boolean, ContextOptions, String, String, String)}.
      *
      * <ul>
      *   <li>Given {@link Flux} {@link Flux#map(Function)} return fromIterable {@link
@@ -101,20 +111,20 @@ class ChatControllerDiffblueTest {
      *   <li>Then calls {@link Flux#map(Function)}.
      * </ul>
      *
-     * <p>Method under test: {@link ChatController#chatStream(String)}
+     * <p>Method under test: {@link ChatController#chatStream(String, String, boolean, ContextOptions, String, String, String)}
      */
     @Test
     @DisplayName(
-            "Test chatStream(String); given Flux map(Function) return fromIterable ArrayList(); then calls map(Function)")
+            "Test chatStream(String, String, boolean, ContextOptions, String, String, String); given Flux map(Function) return fromIterable ArrayList(); then calls map(Function)")
     @Tag("ContributionFromDiffblue")
     @ManagedByDiffblue
-    @MethodsUnderTest({"Flux ChatController.chatStream(String)"})
+    @MethodsUnderTest({"Flux ChatController.chatStream(String, String, boolean, ContextOptions, String, String, String)"})
     void testChatStream_givenFluxMapReturnFromIterableArrayList_thenCallsMap() {
         // Arrange
         Flux<String> flux = mock(Flux.class);
         Flux<Object> fromIterableResult = Flux.fromIterable(new ArrayList<>());
         when(flux.map(Mockito.<Function<String, Object>>any())).thenReturn(fromIterableResult);
-        when(chatService.processChatStream(Mockito.<String>any())).thenReturn(flux);
+        when(chatService.processChatStream(Mockito.<String>any(), Mockito.any(), Mockito.any())).thenReturn(flux);
         RequestHeadersUriSpec<?> getResult = webTestClient.get();
 
         // Act
@@ -128,7 +138,7 @@ class ChatControllerDiffblueTest {
                         .exchange();
 
         // Assert
-        verify(chatService).processChatStream(eq("Query"));
+        verify(chatService).processChatStream(eq("Query"), Mockito.any(), Mockito.any());
         verify(flux).map(isA(Function.class));
         Class<ServerSentEvent> elementClass = ServerSentEvent.class;
         Flux<ServerSentEvent> responseBody =
@@ -0,0 +1,166 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.ryang_ryota.fermat.model.ChatBatchResult;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
+import io.github.ryang_ryota.fermat.service.ChatService;
+import io.github.ryang_ryota.fermat.service.GenerationRejectedException;
+import io.github.ryang_ryota.fermat.service.GenerationScheduler;
+import io.github.ryang_ryota.fermat.service.PipelineMetrics;
+import io.github.ryang_ryota.fermat.service.ResumableStreamStore;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+@ContextConfiguration(classes = {ChatController.class, ChatExceptionHandler.class, ResumableStreamStore.class})
+@WebFluxTest(controllers = {ChatController.class})
+class ChatControllerTest {
+
+    @MockitoBean
+    private ChatService chatService;
+
+    @MockitoBean
+    private GenerationScheduler generationScheduler;
+
+    @MockitoBean
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    @DisplayName("Test chatStream(String, String, boolean, ContextOptions, String, String, String); full generation queue returns 503 with Retry-After")
+    void testChatStream_fullQueueReturns503() {
+        // Arrange
+        doThrow(new GenerationRejectedException("busy", Duration.ofSeconds(7)))
+                .when(generationScheduler).checkAdmission(Mockito.any());
+
+        // Act and Assert
+        webTestClient.get()
+                .uri("/chat/stream?query=Query")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().valueEquals("Retry-After", "7");
+        verify(chatService, never()).processChatStream(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Test chatStream(String, String, boolean, ContextOptions, String, String, String); context parameters are passed to the service")
+    void testChatStream_contextParametersArePassed() {
+        // Arrange
+        when(chatService.processChatStream(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(Flux.just("a"));
+
+        // Act
+        webTestClient.get()
+                .uri("/chat/stream?query=Query&contextTokens=200&contextDocuments=2&mmrLambda=0.5")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .blockLast();
+
+        // Assert
+        verify(chatService).processChatStream(eq("Query"), eq(new ContextOptions(200, 2, 0.5)), Mockito.isNull());
+    }
+
+    @Test
+    @DisplayName("Test chatStream(String, String, boolean, ContextOptions, String, String, String); a reconnect with Last-Event-ID resumes without generating again")
+    void testChatStream_lastEventIdResumes() {
+        // Arrange
+        when(chatService.processChatStream(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Flux.just("a", "b", "c"));
+        List<ServerSentEvent<String>> first = webTestClient.get()
+                .uri("/chat/stream?query=Query")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        // Act
+        List<String> resumed = webTestClient.get()
+                .uri("/chat/stream?query=Query")
+                .header("Last-Event-ID", first.get(0).id())
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody()
+                .filter(event -> event.event() == null)
+                .map(ServerSentEvent::data)
+                .collectList()
+                .block();
+
+        // Assert
+        assertEquals(List.of("b", "c"), resumed);
+        verify(chatService, times(1)).processChatStream(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Test chatBatch(ChatBatchRequest); results are streamed as NDJSON with parallelism clamped to the maximum")
+    void testChatBatch_streamsNdjson() {
+        // Arrange
+        when(chatService.processBatch(Mockito.any(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(Flux.just(new ChatBatchResult(1, "b", "When?", "1994", null, 5),
+                        new ChatBatchResult(0, "a", "Who?", "Wiles", null, 7)));
+
+        // Act
+        List<ChatBatchResult> results = webTestClient.post()
+                .uri("/chat/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue("""
+                        {"questions": [{"id": "a", "query": "Who?"}, {"id": "b", "query": "When?"}], "parallelism": 100}
+                        """)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(ChatBatchResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        // Assert
+        assertEquals(List.of("b", "a"), results.stream().map(ChatBatchResult::id).toList());
+        verify(chatService).processBatch(Mockito.argThat(questions -> questions.size() == 2),
+                eq(ContextOptions.defaults()), eq(4));
+    }
+
+    @Test
+    @DisplayName("Test chatBatch(ChatBatchRequest); a blank question is rejected with 400")
+    void testChatBatch_blankQuestionReturns400() {
+        // Act and Assert
+        webTestClient.post()
+                .uri("/chat/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"questions": [{"query": "Who?"}, {"query": " "}]}
+                        """)
+                .exchange()
+                .expectStatus().isBadRequest();
+        verify(chatService, never()).processBatch(Mockito.any(), Mockito.any(), Mockito.anyInt());
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+import io.github.ryang_ryota.fermat.model.ChatJobStatus;
+import io.github.ryang_ryota.fermat.service.ChatJobLog;
+import io.github.ryang_ryota.fermat.service.ChatJobService;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+@ContextConfiguration(classes = {ChatJobController.class, ChatExceptionHandler.class})
+@WebFluxTest(controllers = {ChatJobController.class})
+class ChatJobControllerTest {
+
+    @MockitoBean
+    private ChatJobService chatJobService;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    @DisplayName("Test submit(ChatJobRequest); the job is accepted with 202 and its location")
+    void testSubmit_returnsAccepted() {
+        // Arrange
+        when(chatJobService.submit("Who?", 3))
+                .thenReturn(new ChatJobStatus("j1", "QUEUED", "Who?", 3, 0, null, null, 1L, null));
+
+        // Act and Assert
+        webTestClient.post()
+                .uri("/chat/jobs")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"query\": \"Who?\", \"priority\": 3}")
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectHeader().location("/chat/jobs/j1")
+                .expectBody()
+                .jsonPath("$.id").isEqualTo("j1")
+                .jsonPath("$.state").isEqualTo("QUEUED");
+    }
+
+    @Test
+    @DisplayName("Test stream(String); tokens are sent as events followed by a done event, and unknown jobs return 404")
+    void testStream_sendsTokensAndDone() {
+        // Arrange
+        when(chatJobService.tail("j1")).thenReturn(Optional.of(Flux.just(
+                new ChatJobLog.Entry(ChatJobLog.Type.TOKEN, 1L, "j1", "a"),
+                new ChatJobLog.Entry(ChatJobLog.Type.COMPLETED, 2L, "j1", "a"))));
+        when(chatJobService.tail("missing")).thenReturn(Optional.empty());
+
+        // Act
+        List<ServerSentEvent<String>> events = webTestClient.get()
+                .uri("/chat/jobs/j1/stream")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<String>>() {
+                })
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        // Assert
+        assertEquals("a", events.get(0).data());
+        assertEquals("done", events.get(1).event());
+        webTestClient.get()
+                .uri("/chat/jobs/missing")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+}
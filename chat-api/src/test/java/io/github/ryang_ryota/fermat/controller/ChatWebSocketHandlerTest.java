@@ -0,0 +1,173 @@
+package io.github.ryang_ryota.fermat.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.model.WebSocketStats;
+import io.github.ryang_ryota.fermat.service.ChatService;
+import io.github.ryang_ryota.fermat.service.ChromaService;
+import io.github.ryang_ryota.fermat.service.ContextAssembler;
+import io.github.ryang_ryota.fermat.service.ConversationSessionStore;
+import io.github.ryang_ryota.fermat.service.GenerationScheduler;
+import io.github.ryang_ryota.fermat.service.OllamaService;
+import io.github.ryang_ryota.fermat.service.PipelineMetrics;
+import io.github.ryang_ryota.fermat.service.SemanticAnswerCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class ChatWebSocketHandlerTest {
+
+    private final ChatService chatService = mock(ChatService.class);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ChatWebSocketHandler handler = new ChatWebSocketHandler(chatService,
+            mock(GenerationScheduler.class), new PipelineMetrics(registry));
+
+    // クライアントに送信されたフレーム
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    private WebSocketSession session;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("session-1");
+        when(session.getHandshakeHeaders()).thenReturn(new HttpHeaders());
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            sent.add((String) message.getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        handler.afterConnectionEstablished(session);
+    }
+
+    private void receive(String frame) {
+        handler.handleTextMessage(session, new TextMessage(frame));
+    }
+
+    @Test
+    @DisplayName("Test handleTextMessage(WebSocketSession, TextMessage); streams are multiplexed by id and limited by credit")
+    void testHandleTextMessage_multiplexesStreamsWithCredit() {
+        // Arrange
+        when(chatService.processChatStream(eq("q1"), any(), any())).thenReturn(Flux.just("a", "b", "c"));
+        when(chatService.processChatStream(eq("q2"), any(), any())).thenReturn(Flux.just("x"));
+
+        // Act
+        receive("{\"op\":\"chat\",\"id\":\"1\",\"query\":\"q1\",\"credit\":1}");
+        receive("{\"op\":\"chat\",\"id\":\"2\",\"query\":\"q2\"}");
+        List<String> beforeCredit = List.copyOf(sent);
+        receive("{\"op\":\"credit\",\"id\":\"1\",\"n\":2}");
+
+        // Assert
+        assertEquals(List.of("t:1:a", "t:2:x", "d:2:"), beforeCredit);
+        assertEquals(List.of("t:1:a", "t:2:x", "d:2:", "t:1:b", "t:1:c", "d:1:"), sent);
+        WebSocketStats stats = handler.stats();
+        assertEquals(2, stats.streams());
+        assertEquals(0, stats.activeStreams());
+        assertEquals(2, registry.get("fermat.pipeline.stage").tag("stage", "stream").timer().count());
+    }
+
+    @Test
+    @DisplayName("Test handleTextMessage(WebSocketSession, TextMessage); cancel frames and disconnects cancel the generation")
+    void testHandleTextMessage_cancelsGeneration() {
+        // Arrange
+        AtomicBoolean firstCancelled = new AtomicBoolean();
+        AtomicBoolean secondCancelled = new AtomicBoolean();
+        when(chatService.processChatStream(eq("q1"), any(), any()))
+                .thenReturn(Flux.<String>never().doOnCancel(() -> firstCancelled.set(true)));
+        when(chatService.processChatStream(eq("q2"), any(), any()))
+                .thenReturn(Flux.<String>never().doOnCancel(() -> secondCancelled.set(true)));
+        receive("{\"op\":\"chat\",\"id\":\"1\",\"query\":\"q1\"}");
+        receive("{\"op\":\"chat\",\"id\":\"2\",\"query\":\"q2\"}");
+
+        // Act
+        receive("{\"op\":\"cancel\",\"id\":\"1\"}");
+        WebSocketStats afterCancel = handler.stats();
+        handler.afterConnectionClosed(session, CloseStatus.GOING_AWAY);
+
+        // Assert
+        assertTrue(firstCancelled.get());
+        assertEquals(1, afterCancel.activeStreams());
+        assertTrue(secondCancelled.get());
+        WebSocketStats stats = handler.stats();
+        assertEquals(0, stats.connections());
+        assertEquals(0, stats.activeStreams());
+        assertEquals(2, stats.cancelled());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test handleTextMessage(WebSocketSession, TextMessage); non-numeric context options reject only that stream")
+    void testHandleTextMessage_rejectsInvalidContextOptions() {
+        // Arrange
+        when(chatService.processChatStream(eq("q2"), any(), any())).thenReturn(Flux.just("x"));
+
+        // Act
+        receive("{\"op\":\"chat\",\"id\":\"1\",\"query\":\"q1\",\"contextTokens\":\"many\"}");
+        receive("{\"op\":\"chat\",\"id\":\"2\",\"query\":\"q2\",\"mmrLambda\":0.5}");
+
+        // Assert
+        assertEquals(List.of("e:1:invalid context options", "t:2:x", "d:2:"), sent);
+        WebSocketStats stats = handler.stats();
+        assertEquals(1, stats.connections());
+        assertEquals(1, stats.rejected());
+    }
+
+    @Test
+    @DisplayName("Test handleTextMessage(WebSocketSession, TextMessage); a slow reader bounds how far the real pipeline reads ahead from Ollama")
+    void testHandleTextMessage_slowReaderBoundsOllamaReads() throws Exception {
+        // Arrange
+        ChromaService chromaService = mock(ChromaService.class);
+        OllamaService ollamaService = mock(OllamaService.class);
+        AtomicLong requested = new AtomicLong();
+        when(chromaService.retrieveContext("q"))
+                .thenReturn(Mono.just(new RetrievedContext("q", new float[]{1.0f}, List.of("doc"), List.of(0.1))));
+        when(ollamaService.generateResponseStream(any()))
+                .thenReturn(Flux.<String>generate(sink -> sink.next("x")).doOnRequest(requested::addAndGet));
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry());
+        GenerationScheduler generationScheduler =
+                new GenerationScheduler(4, 64, 30000, 5);
+        ChatService realChatService = new ChatService(chromaService, ollamaService,
+                new SemanticAnswerCache(true, 0.95, 16, Duration.ofMinutes(10)), generationScheduler, pipelineMetrics,
+                new ContextAssembler(pipelineMetrics, 1024, 3, 0.7, 0.95),
+                new ConversationSessionStore(DataSize.ofMegabytes(1), Duration.ofMinutes(10), 4096));
+        ChatWebSocketHandler realHandler = new ChatWebSocketHandler(realChatService, generationScheduler,
+                pipelineMetrics);
+        realHandler.afterConnectionEstablished(session);
+
+        // Act
+        realHandler.handleTextMessage(session,
+                new TextMessage("{\"op\":\"chat\",\"id\":\"1\",\"query\":\"q\",\"credit\":2,\"queueEvents\":true}"));
+
+        // Assert
+        assertEquals(List.of("t:1:x", "t:1:x"), sent.stream().filter(frame -> frame.startsWith("t:")).toList());
+        // 合流（SingleFlight の replay）の先読み分で止まる
+        assertTrue(requested.get() <= 256, "requested " + requested.get());
+        realHandler.afterConnectionClosed(session, CloseStatus.GOING_AWAY);
+    }
+}
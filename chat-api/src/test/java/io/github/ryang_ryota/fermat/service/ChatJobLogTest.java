@@ -0,0 +1,172 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class ChatJobLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test ChatJobLog(Path, DataSize, int); records survive reopening and appending continues after them")
+    void testChatJobLog_recordsSurviveReopen() throws IOException {
+        // Arrange
+        ChatJobLog first = new ChatJobLog(directory, DataSize.ofKilobytes(4), 4);
+        first.append(ChatJobLog.Type.SUBMITTED, "a", "{\"query\":\"q\"}");
+        first.append(ChatJobLog.Type.TOKEN, "a", "素数");
+        first.append(ChatJobLog.Type.SUBMITTED, "b", "{\"query\":\"r\"}");
+
+        // Act
+        ChatJobLog reopened = new ChatJobLog(directory, DataSize.ofKilobytes(4), 4);
+        reopened.append(ChatJobLog.Type.COMPLETED, "a", "素数です");
+
+        // Assert
+        assertEquals(List.of("a", "b"), reopened.jobIds());
+        List<ChatJobLog.Entry> entries = reopened.read("a");
+        assertEquals(List.of(ChatJobLog.Type.SUBMITTED, ChatJobLog.Type.TOKEN, ChatJobLog.Type.COMPLETED),
+                entries.stream().map(ChatJobLog.Entry::type).toList());
+        assertEquals("素数", entries.get(1).data());
+        assertEquals("素数です", entries.get(2).data());
+        assertTrue(reopened.read("missing").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test ChatJobLog(Path, DataSize, int); a torn record at the tail is discarded and overwritten")
+    void testChatJobLog_discardsTornTail() throws IOException {
+        // Arrange
+        ChatJobLog log = new ChatJobLog(directory, DataSize.ofKilobytes(4), 4);
+        log.append(ChatJobLog.Type.SUBMITTED, "a", "{\"query\":\"q\"}");
+        long torn = log.sizeBytes();
+        log.append(ChatJobLog.Type.TOKEN, "a", "token");
+        try (FileChannel channel = FileChannel.open(directory.resolve("segment-00000001.log"),
+                StandardOpenOption.WRITE)) {
+            // 2件目のレコードの本体の一部を壊す（CRCが一致しなくなる）
+            channel.write(ByteBuffer.wrap(new byte[]{42}), torn + 20);
+        }
+
+        // Act
+        ChatJobLog reopened = new ChatJobLog(directory, DataSize.ofKilobytes(4), 4);
+        reopened.append(ChatJobLog.Type.FAILED, "a", "interrupted");
+
+        // Assert
+        assertEquals(List.of(ChatJobLog.Type.SUBMITTED, ChatJobLog.Type.FAILED),
+                reopened.read("a").stream().map(ChatJobLog.Entry::type).toList());
+        assertEquals(List.of(ChatJobLog.Type.SUBMITTED, ChatJobLog.Type.FAILED),
+                new ChatJobLog(directory, DataSize.ofKilobytes(4), 4).read("a").stream()
+                        .map(ChatJobLog.Entry::type).toList());
+    }
+
+    @Test
+    @DisplayName("Test append(Type, String, String); full segments roll over and the oldest are deleted with their jobs")
+    void testAppend_rollsAndDropsOldestSegments() throws IOException {
+        // Arrange
+        ChatJobLog log = new ChatJobLog(directory, DataSize.ofKilobytes(4), 2, Runnable::run);
+        String payload = "x".repeat(1500);
+
+        // Act
+        for (int i = 0; i < 6; i++) {
+            log.append(ChatJobLog.Type.SUBMITTED, "job" + i, payload);
+            log.append(ChatJobLog.Type.COMPLETED, "job" + i, "done");
+        }
+
+        // Assert
+        assertEquals(2, log.segmentCount());
+        assertEquals(List.of("job2", "job3", "job4", "job5"), log.jobIds());
+        assertTrue(log.read("job0").isEmpty());
+        assertEquals(4, new ChatJobLog(directory, DataSize.ofKilobytes(4), 2).jobIds().size());
+    }
+
+    @Test
+    @DisplayName("Test append(Type, String, String); rolling uses the segment prepared in advance and leaves flushing and deletion to the I/O thread")
+    void testAppend_rollsWithoutIoOnTheAppendingThread() throws IOException {
+        // Arrange
+        List<Runnable> io = new ArrayList<>();
+        ChatJobLog log = new ChatJobLog(directory, DataSize.ofKilobytes(4), 1, io::add);
+        String payload = "x".repeat(1500);
+        assertFalse(Files.exists(directory.resolve("segment-00000002.log")));
+        io.remove(0).run();
+        assertTrue(Files.exists(directory.resolve("segment-00000002.log")));
+
+        // Act
+        for (int i = 0; i < 3; i++) {
+            log.append(ChatJobLog.Type.SUBMITTED, "job" + i, payload);
+            log.append(ChatJobLog.Type.COMPLETED, "job" + i, "done");
+        }
+
+        // Assert
+        // 切り替えた時点では、古いセグメントの削除も次のセグメントの作成も行っていない
+        assertEquals(List.of("job2"), log.jobIds());
+        assertTrue(Files.exists(directory.resolve("segment-00000001.log")));
+        assertFalse(Files.exists(directory.resolve("segment-00000003.log")));
+        assertEquals(2, io.size());
+        io.forEach(Runnable::run);
+        assertFalse(Files.exists(directory.resolve("segment-00000001.log")));
+        assertTrue(Files.exists(directory.resolve("segment-00000003.log")));
+        log.force();
+        assertEquals(List.of("job2"), new ChatJobLog(directory, DataSize.ofKilobytes(4), 1, Runnable::run).jobIds());
+    }
+
+    @Test
+    @DisplayName("Test append(Type, String, String); segments holding unfinished jobs are kept until those jobs finish")
+    void testAppend_keepsSegmentsOfUnfinishedJobs() throws IOException {
+        // Arrange
+        ChatJobLog log = new ChatJobLog(directory, DataSize.ofKilobytes(4), 2);
+        String payload = "x".repeat(1500);
+        log.append(ChatJobLog.Type.SUBMITTED, "pending", payload);
+        for (int i = 0; i < 4; i++) {
+            log.append(ChatJobLog.Type.SUBMITTED, "job" + i, payload);
+            log.append(ChatJobLog.Type.COMPLETED, "job" + i, "done");
+        }
+        int retained = log.segmentCount();
+
+        // Act
+        log.append(ChatJobLog.Type.TOKEN, "pending", "素数");
+        log.append(ChatJobLog.Type.COMPLETED, "pending", "素数です");
+        for (int i = 4; i < 8; i++) {
+            log.append(ChatJobLog.Type.SUBMITTED, "job" + i, payload);
+            log.append(ChatJobLog.Type.COMPLETED, "job" + i, "done");
+        }
+
+        // Assert
+        assertEquals(3, retained);
+        assertEquals(2, log.segmentCount());
+        assertTrue(log.read("pending").isEmpty());
+        assertThrows(IllegalStateException.class, () -> log.append(ChatJobLog.Type.TOKEN, "pending", "late"));
+    }
+
+    @Test
+    @DisplayName("Test ChatJobLog(Path, DataSize, int); jobs whose submission record was lost are forgotten on reopening")
+    void testChatJobLog_forgetsJobsWithoutSubmission() throws IOException {
+        // Arrange
+        ChatJobLog log = new ChatJobLog(directory, DataSize.ofKilobytes(4), 4);
+        String payload = "x".repeat(1500);
+        log.append(ChatJobLog.Type.SUBMITTED, "a", payload);
+        log.append(ChatJobLog.Type.SUBMITTED, "b", payload);
+        log.append(ChatJobLog.Type.TOKEN, "a", payload);
+        log.append(ChatJobLog.Type.SUBMITTED, "c", "{\"query\":\"q\"}");
+        Files.delete(directory.resolve("segment-00000001.log"));
+
+        // Act
+        ChatJobLog reopened = new ChatJobLog(directory, DataSize.ofKilobytes(4), 4);
+
+        // Assert
+        assertEquals(List.of("c"), reopened.jobIds());
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.ryang_ryota.fermat.model.ChatJobStats;
+import io.github.ryang_ryota.fermat.model.ChatJobStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class ChatJobServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final ChatService chatService = mock(ChatService.class);
+
+    private final GenerationScheduler generationScheduler =
+            new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5));
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+    private ChatJobLog jobLog() throws IOException {
+        return new ChatJobLog(directory, DataSize.ofKilobytes(64), 4);
+    }
+
+    private ChatJobService service(ChatJobLog jobLog, int workers) {
+        ChatJobService service = new ChatJobService(chatService, jobLog, generationScheduler, workers, 16,
+                Duration.ofSeconds(1), scheduler);
+        service.startDispatch();
+        return service;
+    }
+
+    @Test
+    @DisplayName("Test submit(String, int); the job is answered in the background and its result can be fetched and replayed")
+    void testSubmit_answersInBackground() throws IOException {
+        // Arrange
+        Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+        when(chatService.processChatStream("q")).thenReturn(tokens.asFlux());
+        ChatJobService service = service(jobLog(), 2);
+
+        // Act
+        ChatJobStatus accepted = service.submit("q", 0);
+        tokens.tryEmitNext("Andrew");
+
+        // Assert
+        assertEquals("QUEUED", accepted.state());
+        assertEquals(0, accepted.position());
+        assertEquals("Andrew", service.status(accepted.id()).orElseThrow().answer());
+        StepVerifier.create(service.tail(accepted.id()).orElseThrow().map(ChatJobLog.Entry::data))
+                .expectNext("Andrew")
+                .then(() -> tokens.tryEmitNext(" Wiles"))
+                .expectNext(" Wiles")
+                .then(tokens::tryEmitComplete)
+                .expectNext("Andrew Wiles")
+                .verifyComplete();
+        ChatJobStatus finished = service.status(accepted.id()).orElseThrow();
+        assertEquals("COMPLETED", finished.state());
+        assertEquals("Andrew Wiles", finished.answer());
+        StepVerifier.create(service.tail(accepted.id()).orElseThrow().map(ChatJobLog.Entry::type))
+                .expectNext(ChatJobLog.Type.TOKEN, ChatJobLog.Type.TOKEN, ChatJobLog.Type.COMPLETED)
+                .verifyComplete();
+        assertEquals(1, service.stats().completed());
+    }
+
+    @Test
+    @DisplayName("Test startDispatch(); unfinished jobs in the log are generated again once the application is ready")
+    void testStartDispatch_recoversUnfinishedJobs() throws IOException {
+        // Arrange
+        ChatJobLog jobLog = jobLog();
+        jobLog.append(ChatJobLog.Type.SUBMITTED, "done", "{\"query\":\"p\",\"priority\":0}");
+        jobLog.append(ChatJobLog.Type.COMPLETED, "done", "answer");
+        jobLog.append(ChatJobLog.Type.SUBMITTED, "cut", "{\"query\":\"q\",\"priority\":0}");
+        jobLog.append(ChatJobLog.Type.STARTED, "cut", "");
+        jobLog.append(ChatJobLog.Type.TOKEN, "cut", "stale");
+        when(chatService.processChatStream("q")).thenReturn(Flux.just("fresh"));
+
+        ChatJobService service = new ChatJobService(chatService, jobLog(), generationScheduler, 2, 16,
+                Duration.ofSeconds(1), scheduler);
+        ChatJobStatus beforeReady = service.status("cut").orElseThrow();
+
+        // Act
+        service.startDispatch();
+
+        // Assert
+        assertEquals("QUEUED", beforeReady.state());
+        assertEquals("fresh", service.status("cut").orElseThrow().answer());
+        StepVerifier.create(service.tail("cut").orElseThrow().map(ChatJobLog.Entry::data))
+                .expectNext("fresh", "fresh")
+                .verifyComplete();
+        assertEquals("answer", service.status("done").orElseThrow().answer());
+        verify(chatService, never()).processChatStream("p");
+        ChatJobStats stats = service.stats();
+        assertEquals(1, stats.recovered());
+        assertEquals(1, stats.completed());
+    }
+
+    @Test
+    @DisplayName("Test submit(String, int); a burst beyond the workers is deferred by priority and waits for interactive requests")
+    void testSubmit_burstIsDeferredByPriority() throws IOException {
+        // Arrange
+        Sinks.Many<String> first = Sinks.many().unicast().onBackpressureBuffer();
+        when(chatService.processChatStream("first")).thenReturn(first.asFlux());
+        when(chatService.processChatStream("low")).thenReturn(Flux.just("l"));
+        when(chatService.processChatStream("high")).thenReturn(Flux.just("h"));
+        ChatJobService service = service(jobLog(), 1);
+        service.submit("first", 0);
+        String low = service.submit("low", 0).id();
+        ChatJobStatus high = service.submit("high", 5);
+
+        // 対話的なリクエストが生成枠を使い、もう1件が生成を待っている状態にする
+        Sinks.Many<String> interactive = Sinks.many().unicast().onBackpressureBuffer();
+        generationScheduler.schedule(interactive::asFlux).subscribe();
+        generationScheduler.schedule(() -> Flux.just("waiting")).subscribe();
+
+        // Act
+        first.tryEmitComplete();
+
+        // Assert
+        assertEquals(0, high.position());
+        assertEquals("QUEUED", service.status(high.id()).orElseThrow().state());
+        assertEquals(1, service.stats().deferred());
+        interactive.tryEmitComplete();
+        scheduler.advanceTimeBy(Duration.ofSeconds(1));
+        assertEquals("COMPLETED", service.status(high.id()).orElseThrow().state());
+        assertEquals("COMPLETED", service.status(low).orElseThrow().state());
+        assertNull(service.status(low).orElseThrow().error());
+        ChatJobStats stats = service.stats();
+        assertEquals(3, stats.submitted());
+        assertEquals(0, stats.queued());
+    }
+}
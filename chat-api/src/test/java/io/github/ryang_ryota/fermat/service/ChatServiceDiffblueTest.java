@@ -1,7 +1,6 @@
 package io.github.ryang_ryota.fermat.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -10,7 +9,10 @@ import static org.mockito.Mockito.when;
 import com.diffblue.cover.annotations.ManagedByDiffblue;
 import com.diffblue.cover.annotations.MethodsUnderTest;
 
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
@@ -22,9 +24,12 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.aot.DisabledInAotMode;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
-@ContextConfiguration(classes = {ChatService.class})
+@ContextConfiguration(classes = {ChatService.class, GenerationScheduler.class, ContextAssembler.class})
 @DisabledInAotMode
 @ExtendWith(SpringExtension.class)
 class ChatServiceDiffblueTest {
@@ -37,6 +42,15 @@ class ChatServiceDiffblueTest {
     @MockitoBean
     private OllamaService ollamaService;
 
+    @MockitoBean
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @MockitoBean
+    private ConversationSessionStore sessionStore;
+
+    @MockitoBean
+    private PipelineMetrics pipelineMetrics;
+
     /**
      * Test {@link ChatService#processChatStream(String)}.
      *
@@ -53,11 +67,15 @@ class ChatServiceDiffblueTest {
     void testProcessChatStream_thenReturnBufferPrefetchIsMinusOne() {
         // Arrange
         ChromaService chromaService = mock(ChromaService.class);
-        when(chromaService.retrieveContext(Mockito.<String>any())).thenReturn("Retrieve Context");
+        when(chromaService.retrieveContext(Mockito.<String>any())).thenReturn(Mono.just(retrievedContext()));
 
         // Act
         Flux<String> actualProcessChatStreamResult =
-                new ChatService(chromaService, new OllamaService()).processChatStream("Query");
+                new ChatService(chromaService, new OllamaService(WebClient.create(), mock(OllamaBackendPool.class), pipelineMetrics),
+                        mock(SemanticAnswerCache.class),
+                        new GenerationScheduler(4, 64, Duration.ofSeconds(30), Duration.ofSeconds(5)), pipelineMetrics,
+                        new ContextAssembler(pipelineMetrics, 1024, 3, 0.7, 0.95), sessionStore)
+                        .processChatStream("Query");
 
         // Assert
         verify(chromaService).retrieveContext(eq("Query"));
@@ -67,7 +85,7 @@ class ChatServiceDiffblueTest {
         assertEquals(-1, actualProcessChatStreamResult.timestamp().getPrefetch());
         assertEquals(256, actualProcessChatStreamResult.parallel().getPrefetch());
         assertEquals(Integer.MAX_VALUE, actualProcessChatStreamResult.cache().getPrefetch());
-        assertEquals(Integer.SIZE, actualProcessChatStreamResult.getPrefetch());
+        assertEquals(-1, actualProcessChatStreamResult.getPrefetch());
     }
 
     /**
@@ -85,7 +103,7 @@ class ChatServiceDiffblueTest {
     @MethodsUnderTest({"Flux ChatService.processChatStream(String)"})
     void testProcessChatStream_thenReturnFromIterableArrayList() {
         // Arrange
-        when(chromaService.retrieveContext(Mockito.<String>any())).thenReturn("Retrieve Context");
+        when(chromaService.retrieveContext(Mockito.<String>any())).thenReturn(Mono.just(retrievedContext()));
         Flux<String> fromIterableResult = Flux.fromIterable(new ArrayList<>());
         when(ollamaService.generateResponseStream(Mockito.<String>any()))
                 .thenReturn(fromIterableResult);
@@ -94,11 +112,15 @@ class ChatServiceDiffblueTest {
         Flux<String> actualProcessChatStreamResult = chatService.processChatStream("Query");
 
         // Assert
+        StepVerifier.create(actualProcessChatStreamResult).verifyComplete();
         verify(chromaService).retrieveContext(eq("Query"));
         verify(ollamaService)
                 .generateResponseStream(
                         eq(
-                                "あなたは数学の専門家です。以下の文脈を参考に日本語で質問に答えてください。\n\n【文脈】\nRetrieve Context\n\n【質問】Query\n【回答】"));
-        assertSame(fromIterableResult, actualProcessChatStreamResult);
+                                "あなたは数学の専門家です。以下の文脈を参考に日本語で質問に答えてください。\n\n【文脈】\nRetrieve Context\n\n\n【質問】Query\n【回答】"));
+    }
+
+    private static RetrievedContext retrievedContext() {
+        return new RetrievedContext("Query", new float[0], List.of("Retrieve Context"), List.of(0.0));
     }
 }
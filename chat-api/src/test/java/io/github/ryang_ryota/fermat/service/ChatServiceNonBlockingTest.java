@@ -0,0 +1,166 @@
+package io.github.ryang_ryota.fermat.service;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.github.ryang_ryota.fermat.config.ChromaClientConfig;
+import io.github.ryang_ryota.fermat.config.ConnectionPoolMetricsRegistry;
+import io.github.ryang_ryota.fermat.config.OllamaClientConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+/**
+ * チャット処理のパイプライン全体がイベントループ（ノンブロッキングスレッド）をブロックしないことを検証するテスト。
+ * - BlockHoundを導入し、ノンブロッキングスレッド上でのブロッキング呼び出しをエラーとして検出します。
+ * - ChromaDBとOllamaはローカルのスタブサーバーで代替します。
+ */
+class ChatServiceNonBlockingTest {
+
+    private static DisposableServer stubServer;
+
+    private static EmbeddingService embeddingService;
+
+    private static ChatService chatService;
+
+    @BeforeAll
+    static void setUp() {
+        BlockHound.install();
+
+        stubServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .post("/api/v2/tenants/t/databases/d/collections/c/query", (request, response) ->
+                                response.header("Content-Type", "application/json")
+                                        .sendString(Mono.just(
+                                                "{\"documents\":[[\"doc A\",\"doc B\"]],\"distances\":[[0.1,0.2]]}")))
+                        .post("/api/generate", (request, response) ->
+                                response.header("Content-Type", "application/x-ndjson")
+                                        .sendString(Flux.just(
+                                                        "{\"response\":\"Hello\",\"done\":false}\n",
+                                                        "{\"response\":\" world\",\"done\":false}\n",
+                                                        "{\"response\":\"\",\"done\":true}\n")
+                                                .delayElements(Duration.ofMillis(5)))))
+                .bindNow();
+
+        // 推論の重さを Thread.sleep で模擬する（イベントループ上で実行されればBlockHoundが検出する）
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry());
+        embeddingService = new EmbeddingService(new SleepingEmbeddingModel(), 8, 1, 64, 1);
+        WebClient chromaWebClient = new ChromaClientConfig().chromaWebClient("localhost", stubServer.port(),
+                10, 100, 30000, 2000, 10000);
+        ChromaService chromaService = new ChromaService(embeddingService, chromaWebClient,
+                new QueryEmbeddingCache(DataSize.ofMegabytes(1)),
+                new LocalVectorIndex(chromaWebClient, false, "l2", 16, 200, 64, 500, Duration.ofSeconds(5),
+                        Duration.ofHours(1)),
+                pipelineMetrics, new LexicalIndex(chromaWebClient, false, 1000, Duration.ofSeconds(5)),
+                new ChromaQueryGuard(true, 0.95, 10, 20, 0.1, 5, 10000, 64, Duration.ofMinutes(1), 0.9,
+                        pipelineMetrics));
+        ReflectionTestUtils.setField(chromaService, "chromaTenant", "t");
+        ReflectionTestUtils.setField(chromaService, "chromaDatabase", "d");
+        ReflectionTestUtils.setField(chromaService, "collectionId", "c");
+        ReflectionTestUtils.setField(chromaService, "nResults", 2);
+
+        WebClient ollamaWebClient = new OllamaClientConfig().ollamaWebClient(10, 100, 30000, 2000, 10000,
+                new ConnectionPoolMetricsRegistry());
+        OllamaService ollamaService = new OllamaService(ollamaWebClient,
+                new OllamaBackendPool(ollamaWebClient, "http://localhost:" + stubServer.port(), 3, 30000, 2000),
+                pipelineMetrics);
+        ReflectionTestUtils.setField(ollamaService, "ollamaModel", "mistral");
+
+        chatService = new ChatService(chromaService, ollamaService,
+                new SemanticAnswerCache(false, 0.95, 16, Duration.ofMinutes(1)),
+                new GenerationScheduler(4, 64, Duration.ofSeconds(30), Duration.ofSeconds(5)), pipelineMetrics,
+                new ContextAssembler(pipelineMetrics, 1024, 3, 0.7, 0.95),
+                new ConversationSessionStore(DataSize.ofMegabytes(1), Duration.ofMinutes(1), 4096));
+    }
+
+    @AfterAll
+    static void tearDown() {
+        embeddingService.shutdown();
+        stubServer.disposeNow();
+    }
+
+    @Test
+    @DisplayName("Test BlockHound is installed; blocking on a non-blocking thread is detected")
+    void testBlockHoundDetectsBlocking() {
+        // Arrange
+        Mono<String> blocking = Mono.fromCallable(() -> {
+            Thread.sleep(1);
+            return "";
+        }).subscribeOn(Schedulers.parallel());
+
+        // Act and Assert
+        StepVerifier.create(blocking)
+                .expectError(BlockingOperationError.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    @DisplayName("Test processChatStream(String); never blocks the event loop")
+    void testProcessChatStream_neverBlocksEventLoop() {
+        // Arrange
+        Flux<String> stream = Flux.defer(() -> chatService.processChatStream("What is Fermat's Last Theorem?"))
+                .subscribeOn(Schedulers.parallel());
+
+        // Act and Assert
+        StepVerifier.create(stream)
+                .expectNext("Hello", " world", "")
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    @DisplayName("Test processChatStream(String); concurrent streams never block the event loop")
+    void testProcessChatStream_concurrentStreamsNeverBlockEventLoop() {
+        // Arrange
+        Flux<List<String>> streams = Flux.range(0, 16)
+                .flatMap(i -> Flux.defer(() -> chatService.processChatStream("question " + i))
+                        .subscribeOn(Schedulers.parallel())
+                        .collectList());
+
+        // Act and Assert
+        StepVerifier.create(streams)
+                .expectNextCount(16)
+                .expectComplete()
+                .verify(Duration.ofSeconds(20));
+    }
+
+    /**
+     * 推論時間を Thread.sleep で模擬するスタブモデル。
+     */
+    private static class SleepingEmbeddingModel implements EmbeddingModel {
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (TextSegment segment : textSegments) {
+                embeddings.add(Embedding.from(new float[]{segment.text().length(), 1.0f}));
+            }
+            return Response.from(embeddings);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.ryang_ryota.fermat.model.ChatBatchResult;
+import io.github.ryang_ryota.fermat.model.ChatRequest;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ChatServiceTest {
+
+    private final ChromaService chromaService = mock(ChromaService.class);
+
+    private final OllamaService ollamaService = mock(OllamaService.class);
+
+    private final SemanticAnswerCache semanticAnswerCache =
+            new SemanticAnswerCache(true, 0.95, 16, Duration.ofMinutes(10));
+
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry());
+
+    private final ConversationSessionStore sessionStore =
+            new ConversationSessionStore(DataSize.ofMegabytes(1), Duration.ofMinutes(10), 4096);
+
+    private final ChatService chatService = new ChatService(chromaService, ollamaService, semanticAnswerCache,
+            new GenerationScheduler(4, 64, Duration.ofSeconds(30), Duration.ofSeconds(5)), pipelineMetrics,
+            new ContextAssembler(pipelineMetrics, 1024, 3, 0.7, 0.95), sessionStore);
+
+    @Test
+    @DisplayName("Test processChatStream(String); paraphrased question is answered from the cache")
+    void testProcessChatStream_paraphraseIsAnsweredFromCache() {
+        // Arrange
+        when(chromaService.retrieveContext("Who proved it?"))
+                .thenReturn(Mono.just(context("Who proved it?", new float[]{1.0f, 0.0f})));
+        when(chromaService.retrieveContext("Who proved the theorem?"))
+                .thenReturn(Mono.just(context("Who proved the theorem?", new float[]{0.99f, 0.05f})));
+        when(ollamaService.generateResponseStream(anyString())).thenReturn(Flux.just("Andrew", " Wiles"));
+
+        // Act and Assert
+        StepVerifier.create(chatService.processChatStream("Who proved it?"))
+                .expectNext("Andrew", " Wiles")
+                .verifyComplete();
+        StepVerifier.create(chatService.processChatStream("Who proved the theorem?"))
+                .expectNext("Andrew", " Wiles")
+                .verifyComplete();
+        verify(ollamaService).generateResponseStream(any());
+        verify(ollamaService, never()).generateResponseStream(eq(
+                chatService.buildPrompt("doc\n", "Who proved the theorem?")));
+    }
+
+    @Test
+    @DisplayName("Test processChatStream(String); cancelled generation is not cached")
+    void testProcessChatStream_cancelledGenerationIsNotCached() {
+        // Arrange
+        when(chromaService.retrieveContext(anyString()))
+                .thenReturn(Mono.just(context("q", new float[]{1.0f, 0.0f})));
+        when(ollamaService.generateResponseStream(anyString())).thenReturn(Flux.just("a", "b", "c"));
+
+        // Act
+        StepVerifier.create(chatService.processChatStream("q").take(1))
+                .expectNext("a")
+                .verifyComplete();
+
+        // Assert
+        StepVerifier.create(chatService.processChatStream("q"))
+                .expectNext("a", "b", "c")
+                .verifyComplete();
+        verify(ollamaService, times(2)).generateResponseStream(anyString());
+    }
+
+    @Test
+    @DisplayName("Test processChatStream(String); an answer built from a fallback context is not cached")
+    void testProcessChatStream_fallbackContextIsNotCached() {
+        // Arrange
+        when(chromaService.retrieveContext(anyString())).thenReturn(Mono.just(
+                new RetrievedContext("q", new float[]{1.0f, 0.0f}, List.of("stale"), List.of(0.1), List.of(), true)));
+        when(ollamaService.generateResponseStream(anyString())).thenReturn(Flux.just("a", "b"));
+
+        // Act
+        StepVerifier.create(chatService.processChatStream("q"))
+                .expectNext("a", "b")
+                .verifyComplete();
+
+        // Assert
+        StepVerifier.create(chatService.processChatStream("q"))
+                .expectNext("a", "b")
+                .verifyComplete();
+        verify(ollamaService, times(2)).generateResponseStream(anyString());
+    }
+
+    @Test
+    @DisplayName("Test processChatStream(String, ContextOptions); answers for non-default context options bypass the cache")
+    void testProcessChatStream_customContextOptionsBypassCache() {
+        // Arrange
+        when(chromaService.retrieveContext(anyString()))
+                .thenReturn(Mono.just(context("q", new float[]{1.0f, 0.0f})));
+        when(ollamaService.generateResponseStream(anyString())).thenReturn(Flux.just("a", "b"));
+        ContextOptions narrow = new ContextOptions(32, 1, null);
+
+        // Act
+        StepVerifier.create(chatService.processChatStream("q", narrow))
+                .expectNext("a", "b")
+                .verifyComplete();
+        StepVerifier.create(chatService.processChatStream("q"))
+                .expectNext("a", "b")
+                .verifyComplete();
+        StepVerifier.create(chatService.processChatStream("q", narrow))
+                .expectNext("a", "b")
+                .verifyComplete();
+        StepVerifier.create(chatService.processChatStream("q", new ContextOptions(1024, 3, 0.7)))
+                .expectNext("a", "b")
+                .verifyComplete();
+
+        // Assert
+        // 設定ファイルと同じ値を明示した場合だけキャッシュから返す
+        verify(ollamaService, times(3)).generateResponseStream(anyString());
+    }
+
+    @Test
+    @DisplayName("Test processChatStream(String, ContextOptions, String); follow-up turn sends only the new turn with the saved context")
+    void testProcessChatStream_followUpTurnReusesContext() {
+        // Arrange
+        when(chromaService.retrieveContext(anyString()))
+                .thenReturn(Mono.just(context("q", new float[]{1.0f, 0.0f})));
+        when(ollamaService.generateTokenStream(anyString(), isNull(), eq("s1")))
+                .thenReturn(Flux.just(new OllamaToken("Wiles", false, 0, 0, 0),
+                        new OllamaToken("", true, 1, 1, 10, new int[]{1, 2, 3})));
+        when(ollamaService.generateTokenStream(anyString(), any(int[].class), eq("s1")))
+                .thenReturn(Flux.just(new OllamaToken("1994", false, 0, 0, 0),
+                        new OllamaToken("", true, 1, 1, 5, new int[]{1, 2, 3, 4, 5})));
+
+        // Act
+        StepVerifier.create(chatService.processChatStream("Who proved it?", ContextOptions.defaults(), "s1"))
+                .expectNext("Wiles", "")
+                .verifyComplete();
+        StepVerifier.create(chatService.processChatStream("When?", ContextOptions.defaults(), "s1"))
+                .expectNext("1994", "")
+                .verifyComplete();
+
+        // Assert
+        verify(ollamaService).generateTokenStream(eq(chatService.buildPrompt("doc\n", "Who proved it?")), isNull(),
+                eq("s1"));
+        verify(ollamaService).generateTokenStream(eq(chatService.buildTurn("doc\n", "When?")),
+                eq(new int[]{1, 2, 3}), eq("s1"));
+        verify(ollamaService, never()).generateResponseStream(anyString());
+        assertEquals(1, sessionStore.stats().resumed());
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, sessionStore.context("s1"));
+    }
+
+    @Test
+    @DisplayName("Test processBatch(List, ContextOptions, int); questions are retrieved together and a failed generation does not stop the others")
+    void testProcessBatch_retrievesTogetherAndIsolatesFailures() {
+        // Arrange
+        when(chromaService.retrieveContexts(List.of("Who proved it?", "When?")))
+                .thenReturn(Mono.just(List.of(context("Who proved it?", new float[]{1.0f, 0.0f}),
+                        context("When?", new float[]{0.0f, 1.0f}))));
+        when(ollamaService.generateResponseStream(eq(chatService.buildPrompt("doc\n", "Who proved it?"))))
+                .thenReturn(Flux.just("Andrew", " Wiles"));
+        when(ollamaService.generateResponseStream(eq(chatService.buildPrompt("doc\n", "When?"))))
+                .thenReturn(Flux.error(new IllegalStateException("down")));
+
+        // Act
+        List<ChatBatchResult> results = chatService.processBatch(List.of(question("a", "Who proved it?"),
+                        question(null, "When?")), ContextOptions.defaults(), 2)
+                .collectSortedList(Comparator.comparingInt(ChatBatchResult::index))
+                .block();
+
+        // Assert
+        assertEquals(2, results.size());
+        assertEquals("a", results.get(0).id());
+        assertEquals("Andrew Wiles", results.get(0).answer());
+        assertEquals(null, results.get(0).error());
+        assertEquals("When?", results.get(1).query());
+        assertEquals(null, results.get(1).answer());
+        assertEquals("down", results.get(1).error());
+        verify(chromaService, never()).retrieveContext(anyString());
+    }
+
+    @Test
+    @DisplayName("Test processBatch(List, ContextOptions, int); questions rejected by the generation scheduler wait and are generated later")
+    void testProcessBatch_rejectedGenerationIsRetried() {
+        // Arrange
+        GenerationScheduler generationScheduler =
+                new GenerationScheduler(1, 0, Duration.ofSeconds(30), Duration.ofMillis(10));
+        ChatService batchService = new ChatService(chromaService, ollamaService, semanticAnswerCache,
+                generationScheduler, pipelineMetrics, new ContextAssembler(pipelineMetrics, 1024, 3, 0.7, 0.95),
+                sessionStore);
+        when(chromaService.retrieveContexts(List.of("Who proved it?", "When?")))
+                .thenReturn(Mono.just(List.of(context("Who proved it?", new float[]{1.0f, 0.0f}),
+                        context("When?", new float[]{0.0f, 1.0f}))));
+        when(ollamaService.generateResponseStream(anyString()))
+                .thenReturn(Flux.just("1994").delayElements(Duration.ofMillis(50)));
+
+        // Act
+        List<ChatBatchResult> results = batchService.processBatch(List.of(question("a", "Who proved it?"),
+                        question("b", "When?")), ContextOptions.defaults(), 2)
+                .collectSortedList(Comparator.comparingInt(ChatBatchResult::index))
+                .block(Duration.ofSeconds(5));
+
+        // Assert
+        assertEquals(List.of("1994", "1994"), results.stream().map(ChatBatchResult::answer).toList());
+        assertTrue(generationScheduler.stats().rejected() > 0);
+    }
+
+    private static ChatRequest question(String id, String query) {
+        ChatRequest request = new ChatRequest();
+        request.setId(id);
+        request.setQuery(query);
+        return request;
+    }
+
+    private static RetrievedContext context(String query, float[] embedding) {
+        return new RetrievedContext(query, embedding, List.of("doc"), List.of(0.1));
+    }
+}
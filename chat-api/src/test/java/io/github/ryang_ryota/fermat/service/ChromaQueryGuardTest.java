@@ -0,0 +1,192 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.ChromaQueryStats;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class ChromaQueryGuardTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private ChromaQueryGuard guard(boolean hedgeEnabled, int failureThreshold) {
+        return new ChromaQueryGuard(hedgeEnabled, 0.95, 10, 2, 1.0, failureThreshold, 1000, 16,
+                Duration.ofMinutes(5), 0.9, new PipelineMetrics(registry), clock::get, scheduler);
+    }
+
+    @Test
+    @DisplayName("Test execute(Supplier); a query slower than the p95 delay is hedged and the faster answer wins")
+    void testExecute_hedgesSlowQuery() {
+        // Arrange
+        ChromaQueryGuard guard = guard(true, 5);
+        guard.execute(() -> Mono.just("warm")).block();
+        guard.execute(() -> Mono.just("warm")).block();
+        AtomicInteger calls = new AtomicInteger();
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+
+        // Act and Assert
+        StepVerifier.create(guard.execute(() -> calls.incrementAndGet() == 1
+                        ? Mono.<String>never().doOnCancel(() -> primaryCancelled.set(true))
+                        : Mono.just("hedge")))
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(10)))
+                .expectNext("hedge")
+                .verifyComplete();
+        assertTrue(primaryCancelled.get());
+        ChromaQueryStats stats = guard.stats();
+        assertEquals(1, stats.hedges());
+        assertEquals(1, stats.hedgeWins());
+        assertEquals(10, stats.hedgeDelayMillis());
+        assertEquals(1, registry.get("fermat.chroma.hedges").tag("result", "won").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test execute(Supplier); a slow primary cancelled by a winning hedge still counts toward the p95 delay")
+    void testExecute_cancelledPrimaryIsSampled() {
+        // Arrange
+        ChromaQueryGuard guard = guard(true, 5);
+        guard.execute(() -> Mono.just("warm")).block();
+        guard.execute(() -> Mono.just("warm")).block();
+
+        // Act
+        // 30件の1回目をそれぞれ実時間で20ミリ秒以上待たせてからヘッジに勝たせる（32件目で待ち時間を計算し直す）
+        for (int i = 0; i < 30; i++) {
+            AtomicInteger calls = new AtomicInteger();
+            StepVerifier.create(guard.execute(() -> calls.incrementAndGet() == 1 ? Mono.<String>never()
+                            : Mono.just("hedge")))
+                    .then(() -> {
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        scheduler.advanceTimeBy(Duration.ofMillis(10));
+                    })
+                    .expectNext("hedge")
+                    .verifyComplete();
+        }
+
+        // Assert
+        ChromaQueryStats stats = guard.stats();
+        assertEquals(30, stats.hedgeWins());
+        assertTrue(stats.hedgeDelayMillis() >= 20, "hedgeDelayMillis " + stats.hedgeDelayMillis());
+    }
+
+    @Test
+    @DisplayName("Test execute(Supplier); a primary that fails before the hedge delay fails immediately without hedging")
+    void testExecute_fastFailureIsNotHedged() {
+        // Arrange
+        ChromaQueryGuard guard = guard(true, 5);
+        guard.execute(() -> Mono.just("warm")).block();
+        guard.execute(() -> Mono.just("warm")).block();
+        AtomicInteger calls = new AtomicInteger();
+
+        // Act and Assert
+        StepVerifier.create(guard.execute(() -> {
+                    calls.incrementAndGet();
+                    return Mono.error(new IllegalStateException("down"));
+                }))
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ZERO);
+        scheduler.advanceTimeBy(Duration.ofMillis(10));
+        assertEquals(1, calls.get());
+        assertEquals(0, guard.stats().hedges());
+    }
+
+    @Test
+    @DisplayName("Test execute(Supplier); a long healthy history does not let a slow burst hedge every query")
+    void testExecute_hedgeBudgetIsBoundedByRecentQueries() {
+        // Arrange
+        ChromaQueryGuard guard = new ChromaQueryGuard(true, 0.95, 10, 2, 0.1, 5, 1000, 16, Duration.ofMinutes(5), 0.9,
+                new PipelineMetrics(registry), clock::get, scheduler);
+        for (int i = 0; i < 1000; i++) {
+            guard.execute(() -> Mono.just("warm")).block();
+        }
+
+        // Act
+        for (int i = 0; i < 20; i++) {
+            AtomicInteger calls = new AtomicInteger();
+            Disposable query = guard.execute(() -> calls.incrementAndGet() == 1 ? Mono.<String>never()
+                    : Mono.just("hedge")).subscribe();
+            scheduler.advanceTimeBy(Duration.ofMillis(10));
+            query.dispose();
+        }
+
+        // Assert
+        // 貯められる予算は100件分の検索の1割（10件）と、遅延中の20件分の2件まで
+        long hedges = guard.stats().hedges();
+        assertTrue(hedges >= 10 && hedges <= 12, "hedges " + hedges);
+    }
+
+    @Test
+    @DisplayName("Test execute(Supplier); consecutive failures open the circuit until a probe succeeds")
+    void testExecute_circuitOpensAndRecovers() {
+        // Arrange
+        ChromaQueryGuard guard = guard(false, 2);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(guard.execute(() -> Mono.error(new IllegalStateException("down"))))
+                    .expectError(IllegalStateException.class)
+                    .verify();
+        }
+
+        // Act and Assert
+        StepVerifier.create(guard.execute(() -> {
+                    calls.incrementAndGet();
+                    return Mono.just("ok");
+                }))
+                .expectError(ChromaQueryGuard.CircuitOpenException.class)
+                .verify();
+        assertEquals(0, calls.get());
+        assertEquals("OPEN", guard.stats().circuitState());
+        clock.addAndGet(1000);
+        StepVerifier.create(guard.execute(() -> Mono.just("probe")))
+                .expectNext("probe")
+                .verifyComplete();
+        ChromaQueryStats stats = guard.stats();
+        assertEquals("CLOSED", stats.circuitState());
+        assertEquals(1, stats.trips());
+        assertEquals(1, stats.shortCircuited());
+    }
+
+    @Test
+    @DisplayName("Test fallback(String, float[]); returns the last good result for the same or a similar query")
+    void testFallback_returnsSameOrSimilarQuery() {
+        // Arrange
+        ChromaQueryGuard guard = guard(false, 5);
+        guard.remember(new RetrievedContext("What is a prime?", new float[]{1, 0, 0}, List.of("doc"), List.of(0.1)));
+
+        // Act
+        RetrievedContext same = guard.fallback("  WHAT is a  prime?", new float[]{0, 1, 0});
+        RetrievedContext similar = guard.fallback("Define prime numbers", new float[]{0.99f, 0.1f, 0});
+        RetrievedContext unrelated = guard.fallback("Who was Euler?", new float[]{0, 1, 0});
+
+        // Assert
+        assertEquals(List.of("doc"), same.documents());
+        assertEquals("Define prime numbers", similar.query());
+        assertEquals(List.of("doc"), similar.documents());
+        assertTrue(unrelated.documents().isEmpty());
+        assertTrue(same.fallback() && similar.fallback() && unrelated.fallback());
+        ChromaQueryStats stats = guard.stats();
+        assertEquals(2, stats.staleFallbacks());
+        assertEquals(1, stats.emptyFallbacks());
+    }
+}
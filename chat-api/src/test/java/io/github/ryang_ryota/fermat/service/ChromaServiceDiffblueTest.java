@@ -2,6 +2,7 @@ package io.github.ryang_ryota.fermat.service;
 
 import com.diffblue.cover.annotations.ManagedByDiffblue;
 import com.diffblue.cover.annotations.MethodsUnderTest;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
@@ -10,6 +11,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import reactor.core.publisher.Mono;
 
 @ContextConfiguration(classes = {ChromaService.class})
 @ExtendWith(SpringExtension.class)
@@ -26,7 +28,7 @@ class ChromaServiceDiffblueTest {
     @DisplayName("Test retrieveContext(String)")
     @Disabled("TODO: Complete this test")
     @Tag("ContributionFromDiffblue")
-    @MethodsUnderTest({"String ChromaService.retrieveContext(String)"})
+    @MethodsUnderTest({"Mono ChromaService.retrieveContext(String)"})
     void testRetrieveContext() {
         // TODO: Diffblue Cover was only able to create a partial test for this method:
         //   Reason: Missing Spring properties.
@@ -42,7 +44,7 @@ class ChromaServiceDiffblueTest {
         String query = "";
 
         // Act
-        String actualRetrieveContextResult = this.chromaService.retrieveContext(query);
+        Mono<RetrievedContext> actualRetrieveContextResult = this.chromaService.retrieveContext(query);
 
         // Assert
         // TODO: Add assertions on result
@@ -0,0 +1,100 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.AssembledContext;
+import io.github.ryang_ryota.fermat.model.ContextOptions;
+import io.github.ryang_ryota.fermat.model.ContextStats;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+import io.github.ryang_ryota.fermat.util.TokenEstimator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ContextAssemblerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ContextAssembler contextAssembler =
+            new ContextAssembler(new PipelineMetrics(registry), 1024, 2, 0.5, 0.95);
+
+    @Test
+    @DisplayName("Test assemble(RetrievedContext, ContextOptions); near-duplicates are dropped and MMR prefers a diverse document")
+    void testAssemble_dropsDuplicatesAndDiversifies() {
+        // Arrange
+        RetrievedContext context = new RetrievedContext("q", new float[]{1f, 0f},
+                List.of("wiles", "wiles copy", "wiles paraphrase", "taylor"),
+                List.of(0.1, 0.1, 0.12, 0.4),
+                List.of(new float[]{1f, 0.05f}, new float[]{1f, 0.05f}, new float[]{0.9f, 0.4f},
+                        new float[]{0.6f, 0.8f}));
+
+        // Act
+        AssembledContext actual = contextAssembler.assemble(context, new ContextOptions(null, null, 0.3));
+
+        // Assert
+        assertEquals(List.of("wiles", "taylor"), actual.documents());
+        assertEquals(1, actual.duplicates());
+    }
+
+    @Test
+    @DisplayName("Test assemble(RetrievedContext, ContextOptions); context is capped at the requested token budget")
+    void testAssemble_capsTokens() {
+        // Arrange
+        String longDocument = "Fermat's Last Theorem states that no three positive integers satisfy the equation. "
+                .repeat(20);
+        RetrievedContext context = new RetrievedContext("q", new float[]{1f, 0f},
+                List.of(longDocument, longDocument + "x"), List.of(0.1, 0.2));
+
+        // Act
+        AssembledContext actual = contextAssembler.assemble(context, new ContextOptions(100, null, null));
+
+        // Assert
+        assertEquals(1, actual.documents().size());
+        assertTrue(actual.tokens() <= 100);
+        assertEquals(actual.tokens(), TokenEstimator.estimate(actual.documents().get(0)));
+        assertEquals(TokenEstimator.estimate(longDocument) + TokenEstimator.estimate(longDocument + "x") - actual.tokens(),
+                actual.savedTokens());
+        ContextStats stats = contextAssembler.stats();
+        assertEquals(1, stats.truncated());
+        assertEquals(actual.savedTokens(), stats.savedTokens());
+        assertEquals(actual.savedTokens(), registry.get("fermat.context.tokens.saved").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test assemble(RetrievedContext, ContextOptions); without embeddings keeps the retrieval order")
+    void testAssemble_withoutEmbeddingsKeepsOrder() {
+        // Arrange
+        RetrievedContext context = new RetrievedContext("q", new float[]{1f, 0f},
+                List.of("a", "a", "b", "c"), List.of(0.1, 0.1, 0.2, 0.3));
+
+        // Act
+        AssembledContext actual = contextAssembler.assemble(context, ContextOptions.defaults());
+
+        // Assert
+        assertEquals(List.of("a", "b"), actual.documents());
+        assertEquals("a\nb\n", actual.text());
+    }
+
+    @Test
+    @DisplayName("Test assemble(RetrievedContext, ContextOptions); requested limits above the configured ones are capped")
+    void testAssemble_requestedLimitsAreCapped() {
+        // Arrange
+        ContextAssembler small = new ContextAssembler(new PipelineMetrics(registry), 100, 2, 0.5, 0.95);
+        String longDocument = "Fermat's Last Theorem states that no three positive integers satisfy the equation. "
+                .repeat(20);
+        RetrievedContext context = new RetrievedContext("q", new float[]{1f, 0f},
+                List.of(longDocument, "b", "c"), List.of(0.1, 0.2, 0.3));
+
+        // Act
+        AssembledContext actual = small.assemble(context, new ContextOptions(100_000_000, 3, null));
+
+        // Assert
+        assertEquals(1, actual.documents().size());
+        assertTrue(actual.tokens() <= 100);
+        assertTrue(small.usesDefaults(new ContextOptions(100_000_000, 3, null)));
+    }
+}
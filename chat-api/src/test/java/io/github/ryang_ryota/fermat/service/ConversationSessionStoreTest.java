@@ -0,0 +1,64 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.SessionStats;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class ConversationSessionStoreTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final ConversationSessionStore sessionStore = new ConversationSessionStore(DataSize.ofKilobytes(1),
+            Duration.ofMinutes(30), 8, nanos::get);
+
+    @Test
+    @DisplayName("Test context(String); idle sessions expire and over-long contexts reset the session")
+    void testContext_expiresIdleSessionsAndResetsLongContexts() {
+        // Arrange
+        sessionStore.update("a", new int[]{1, 2, 3});
+        sessionStore.update("b", new int[]{1, 2, 3});
+
+        // Act
+        int[] resumed = sessionStore.context("a");
+        sessionStore.update("b", new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(31));
+        int[] expired = sessionStore.context("a");
+
+        // Assert
+        assertArrayEquals(new int[]{1, 2, 3}, resumed);
+        assertNull(expired);
+        SessionStats stats = sessionStore.stats();
+        assertEquals(0, stats.size());
+        assertEquals(1, stats.started());
+        assertEquals(1, stats.resumed());
+        assertEquals(1, stats.resets());
+        assertEquals(1, stats.expirations());
+    }
+
+    @Test
+    @DisplayName("Test update(String, int[]); sessions are evicted to stay within the memory limit")
+    void testUpdate_staysWithinMemoryLimit() {
+        // Act（1セッション = 96 + 2 × 2 + 8 × 4 = 132バイト）
+        for (int i = 0; i < 20; i++) {
+            sessionStore.update("s" + (char) ('a' + i), new int[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+
+        // Assert
+        SessionStats stats = sessionStore.stats();
+        assertEquals(1024, stats.maxBytes());
+        assertEquals(stats.size() * 132, stats.weightBytes());
+        assertEquals(20, stats.size() + stats.evictions());
+        assertTrue(stats.weightBytes() <= stats.maxBytes());
+    }
+}
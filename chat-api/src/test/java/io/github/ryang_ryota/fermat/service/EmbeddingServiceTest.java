@@ -0,0 +1,132 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.github.ryang_ryota.fermat.model.EmbeddingStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class EmbeddingServiceTest {
+
+    // embedAll の呼び出しごとのバッチサイズを記録するスタブモデル
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    private EmbeddingService embeddingService;
+
+    @AfterEach
+    void tearDown() {
+        if (embeddingService != null) {
+            embeddingService.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Test embed(String); concurrent calls are coalesced into one embedAll batch")
+    void testEmbed_concurrentCallsAreBatched() {
+        // Arrange
+        embeddingService = new EmbeddingService(new LengthEmbeddingModel(), 16, 200, 64, 1);
+
+        // Act
+        List<CompletableFuture<float[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(embeddingService.embed("q".repeat(i + 1)));
+        }
+        List<float[]> vectors = futures.stream().map(CompletableFuture::join).toList();
+
+        // Assert
+        for (int i = 0; i < vectors.size(); i++) {
+            assertArrayEquals(new float[]{i + 1}, vectors.get(i));
+        }
+        assertEquals(List.of(8), batchSizes);
+        EmbeddingStats stats = embeddingService.stats();
+        assertEquals(8, stats.submitted());
+        assertEquals(1, stats.batches());
+        assertEquals(8, stats.maxBatchSize());
+        assertEquals(0, stats.queueDepth());
+    }
+
+    @Test
+    @DisplayName("Test embed(String); batches never exceed max batch size")
+    void testEmbed_respectsMaxBatchSize() {
+        // Arrange
+        embeddingService = new EmbeddingService(new LengthEmbeddingModel(), 3, 200, 64, 1);
+
+        // Act
+        List<CompletableFuture<float[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            futures.add(embeddingService.embed("q"));
+        }
+        futures.forEach(CompletableFuture::join);
+
+        // Assert
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 3));
+        assertEquals(7, batchSizes.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(3, embeddingService.stats().maxBatchSize());
+    }
+
+    @Test
+    @DisplayName("Test embedAll(List); texts are embedded in bulk batches in order, bypassing the micro-batch queue")
+    void testEmbedAll_embedsInBulkBatches() {
+        // Arrange
+        embeddingService = new EmbeddingService(new LengthEmbeddingModel(), 2, 200, 4, 1, 3);
+        List<String> texts = List.of("a", "bb", "ccc", "dddd", "eeeee", "ffffff", "ggggggg");
+
+        // Act
+        List<float[]> vectors = embeddingService.embedAll(texts).block();
+
+        // Assert
+        assertEquals(texts.size(), vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            assertArrayEquals(new float[]{i + 1}, vectors.get(i));
+        }
+        assertEquals(List.of(3, 3, 1), batchSizes);
+        assertEquals(0, embeddingService.stats().submitted());
+    }
+
+    @Test
+    @DisplayName("Test embed(String); rejected after shutdown")
+    void testEmbed_rejectedAfterShutdown() {
+        // Arrange
+        embeddingService = new EmbeddingService(new LengthEmbeddingModel(), 4, 0, 4, 1);
+        embeddingService.shutdown();
+
+        // Act
+        CompletableFuture<float[]> future = embeddingService.embed("q");
+
+        // Assert
+        CompletionException thrown = assertThrows(CompletionException.class, future::join);
+        assertTrue(thrown.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, embeddingService.stats().rejected());
+    }
+
+    /**
+     * テキストの長さを1次元ベクトルとして返すスタブ。
+     */
+    private class LengthEmbeddingModel implements EmbeddingModel {
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            batchSizes.add(textSegments.size());
+            List<Embedding> embeddings = new ArrayList<>();
+            for (TextSegment segment : textSegments) {
+                embeddings.add(Embedding.from(new float[]{segment.text().length()}));
+            }
+            return Response.from(embeddings);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.GenerationStats;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+class GenerationSchedulerTest {
+
+    @Test
+    @DisplayName("Test schedule(Supplier); generations beyond the limit wait until a slot is released")
+    void testSchedule_waitsForFreeSlot() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        Sinks.Many<String> first = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> started = new CopyOnWriteArrayList<>();
+
+        // Act
+        scheduler.schedule(() -> {
+            started.add("first");
+            return first.asFlux();
+        }).subscribe();
+        scheduler.schedule(() -> {
+            started.add("second");
+            return Flux.just("done");
+        }).subscribe();
+
+        // Assert
+        assertEquals(List.of("first"), started);
+        assertEquals(1, scheduler.stats().queued());
+        first.tryEmitComplete();
+        assertEquals(List.of("first", "second"), started);
+        GenerationStats stats = scheduler.stats();
+        assertEquals(0, stats.running());
+        assertEquals(0, stats.queued());
+        assertEquals(2, stats.admitted());
+    }
+
+    @Test
+    @DisplayName("Test schedule(Supplier); the concurrency limit is per backend and follows the number of available backends")
+    void testSchedule_limitScalesWithAvailableBackends() {
+        // Arrange
+        AtomicInteger backends = new AtomicInteger(2);
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5),
+                backends::get);
+        List<Sinks.Many<String>> generations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Sinks.Many<String> generation = Sinks.many().unicast().onBackpressureBuffer();
+            generations.add(generation);
+            scheduler.schedule(generation::asFlux).subscribe();
+        }
+
+        // Act
+        GenerationStats twoBackends = scheduler.stats();
+        backends.set(1);
+        generations.get(0).tryEmitComplete();
+        GenerationStats oneBackend = scheduler.stats();
+        backends.set(3);
+        generations.get(1).tryEmitComplete();
+
+        // Assert
+        assertEquals(2, twoBackends.running());
+        assertEquals(2, twoBackends.maxConcurrent());
+        // ノードが減った場合は、上限を下回るまで次の生成に枠を渡さない
+        assertEquals(1, oneBackend.running());
+        assertEquals(1, oneBackend.maxConcurrent());
+        // ノードが増えた場合は、空いた分の待機中の生成にまとめて枠を渡す
+        GenerationStats threeBackends = scheduler.stats();
+        assertEquals(2, threeBackends.running());
+        assertEquals(0, threeBackends.queued());
+        assertEquals(3, threeBackends.maxConcurrent());
+    }
+
+    @Test
+    @DisplayName("Test schedule(Supplier); waiting clients are served in turn")
+    void testSchedule_servesClientsInTurn() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        Sinks.Many<String> blocker = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> started = new CopyOnWriteArrayList<>();
+        scheduler.schedule(() -> blocker.asFlux()).contextWrite(client("a")).subscribe();
+
+        // Act
+        for (String name : List.of("a1", "a2", "a3")) {
+            scheduler.schedule(() -> record(started, name)).contextWrite(client("a")).subscribe();
+        }
+        scheduler.schedule(() -> record(started, "b1")).contextWrite(client("b")).subscribe();
+        blocker.tryEmitComplete();
+
+        // Assert
+        assertEquals(List.of("a1", "b1", "a2", "a3"), started);
+    }
+
+    @Test
+    @DisplayName("Test schedule(Supplier); queue positions are reported while waiting")
+    void testSchedule_reportsQueuePositions() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        Sinks.Many<String> blocker = Sinks.many().unicast().onBackpressureBuffer();
+        scheduler.schedule(() -> blocker.asFlux()).subscribe();
+        List<Integer> positions = new ArrayList<>();
+
+        // Act
+        scheduler.schedule(() -> Flux.just("x")).contextWrite(client("a")).subscribe();
+        scheduler.schedule(() -> Flux.just("y"))
+                .contextWrite(client("b").put(GenerationScheduler.QUEUE_LISTENER_KEY, (IntConsumer) positions::add))
+                .subscribe();
+        blocker.tryEmitComplete();
+
+        // Assert
+        assertEquals(List.of(2, 1), positions);
+    }
+
+    @Test
+    @DisplayName("Test schedule(Supplier); queue positions are delivered outside the scheduler lock and only when they change")
+    void testSchedule_reportsOnlyChangedPositionsOutsideLock() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        Sinks.Many<String> blocker = Sinks.many().unicast().onBackpressureBuffer();
+        scheduler.schedule(() -> blocker.asFlux()).subscribe();
+        List<Integer> positions = new ArrayList<>();
+        List<Boolean> locked = new ArrayList<>();
+        IntConsumer listener = position -> {
+            positions.add(position);
+            locked.add(Thread.holdsLock(scheduler));
+        };
+
+        // Act
+        scheduler.schedule(() -> Flux.just("x"))
+                .contextWrite(client("a").put(GenerationScheduler.QUEUE_LISTENER_KEY, listener))
+                .subscribe();
+        // 後から並んだ生成は先頭の順位を変えない
+        scheduler.schedule(() -> Flux.just("y")).contextWrite(client("a")).subscribe();
+        scheduler.schedule(() -> Flux.just("z")).contextWrite(client("b")).subscribe();
+        blocker.tryEmitComplete();
+
+        // Assert
+        assertEquals(List.of(1), positions);
+        assertEquals(List.of(false), locked);
+    }
+
+    @Test
+    @DisplayName("Test checkAdmission(Reservation); full queue is rejected with a retry hint")
+    void testCheckAdmission_fullQueueIsRejected() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 1, Duration.ofSeconds(30), Duration.ofSeconds(7));
+        scheduler.schedule(Flux::<String>never).subscribe();
+        scheduler.schedule(Flux::<String>never).subscribe();
+
+        // Act and Assert
+        GenerationRejectedException thrown = assertThrows(GenerationRejectedException.class,
+                () -> scheduler.checkAdmission(new GenerationScheduler.Reservation()));
+        assertEquals(Duration.ofSeconds(7), thrown.getRetryAfter());
+        StepVerifier.create(scheduler.schedule(() -> Flux.just("z")))
+                .expectError(GenerationRejectedException.class)
+                .verify();
+        assertEquals(2, scheduler.stats().rejected());
+    }
+
+    @Test
+    @DisplayName("Test checkAdmission(Reservation); admitted requests hold their slot until they generate or answer without generating")
+    void testCheckAdmission_reservesSlotUntilUsed() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 1, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        GenerationScheduler.Reservation first = new GenerationScheduler.Reservation();
+        GenerationScheduler.Reservation second = new GenerationScheduler.Reservation();
+        GenerationScheduler.Reservation cached = new GenerationScheduler.Reservation();
+
+        // Act
+        scheduler.checkAdmission(first);
+        scheduler.checkAdmission(second);
+        assertThrows(GenerationRejectedException.class,
+                () -> scheduler.checkAdmission(new GenerationScheduler.Reservation()));
+        first.bind(scheduler.schedule(Flux::<String>never)).subscribe();
+        // 確保済みの枠（second）の分、確保していない生成は待ち行列に空きがあっても拒否される
+        StepVerifier.create(scheduler.schedule(() -> Flux.just("z")))
+                .expectError(GenerationRejectedException.class)
+                .verify();
+        StepVerifier.create(second.bind(Flux.just("cached")))
+                .expectNext("cached")
+                .verifyComplete();
+        scheduler.checkAdmission(cached);
+
+        // Assert
+        StepVerifier.create(cached.bind(scheduler.schedule(() -> Flux.just("a"))))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenCancel()
+                .verify();
+        GenerationStats stats = scheduler.stats();
+        assertEquals(1, stats.running());
+        assertEquals(0, stats.queued());
+        assertEquals(2, stats.rejected());
+    }
+
+    @Test
+    @DisplayName("Test schedule(Supplier); waiting longer than the limit fails and frees the queue slot")
+    void testSchedule_waitTimeoutFails() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofMillis(50), Duration.ofSeconds(5));
+        scheduler.schedule(Flux::<String>never).subscribe();
+
+        // Act and Assert
+        StepVerifier.create(scheduler.schedule(() -> Flux.just("late")))
+                .expectError(GenerationRejectedException.class)
+                .verify(Duration.ofSeconds(5));
+        GenerationStats stats = scheduler.stats();
+        assertEquals(0, stats.queued());
+        assertEquals(1, stats.timedOut());
+        assertTrue(stats.running() <= 1);
+    }
+
+    @Test
+    @DisplayName("Test schedule(Supplier); a request deadline earlier than the wait limit ends the wait with DeadlineExceededException")
+    void testSchedule_deadlineEndsWait() {
+        // Arrange
+        GenerationScheduler scheduler = new GenerationScheduler(1, 8, Duration.ofSeconds(30), Duration.ofSeconds(5));
+        scheduler.schedule(Flux::<String>never).subscribe();
+
+        // Act and Assert
+        StepVerifier.create(scheduler.schedule(() -> Flux.just("late"))
+                        .contextWrite(Context.of(RequestDeadline.CONTEXT_KEY,
+                                RequestDeadline.after(Duration.ofMillis(50)))))
+                .expectErrorSatisfies(e -> assertEquals("queue", ((DeadlineExceededException) e).getStage()))
+                .verify(Duration.ofSeconds(5));
+        GenerationStats stats = scheduler.stats();
+        assertEquals(0, stats.queued());
+        assertEquals(0, stats.timedOut());
+    }
+
+    private static Context client(String clientId) {
+        return Context.of(GenerationScheduler.CLIENT_ID_KEY, clientId);
+    }
+
+    private static Flux<String> record(List<String> started, String name) {
+        started.add(name);
+        return Flux.just(name);
+    }
+}
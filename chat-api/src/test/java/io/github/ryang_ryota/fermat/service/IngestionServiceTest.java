@@ -0,0 +1,172 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.github.ryang_ryota.fermat.config.ChromaClientConfig;
+import io.github.ryang_ryota.fermat.model.IngestionStats;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * ChromaDBのupsert APIをスタブサーバーで代替し、JSONLファイルからの一括登録・再開・再試行を検証するテスト。
+ */
+class IngestionServiceTest {
+
+    private static final String COLLECTION = "/api/v2/tenants/t/databases/d/collections/c";
+
+    // スタブが受け付けたupsertのリクエストボディ
+    private final List<JSONObject> upserts = new CopyOnWriteArrayList<>();
+
+    // 失敗させるupsertの残り回数
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    @TempDir
+    Path tempDir;
+
+    private DisposableServer stubServer;
+
+    private IngestionService ingestionService;
+
+    @BeforeEach
+    void setUp() {
+        stubServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .post(COLLECTION + "/upsert", (request, response) -> request.receive().aggregate().asString()
+                                .flatMap(body -> {
+                                    if (failuresLeft.getAndDecrement() > 0) {
+                                        return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send().then();
+                                    }
+                                    upserts.add(new JSONObject(body));
+                                    return response.sendString(Mono.just("true")).then();
+                                })))
+                .bindNow();
+        // テキストの長さを1次元のベクトルとして返す埋め込みモデル
+        EmbeddingModel embeddingModel = new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                List<Embedding> embeddings = new ArrayList<>();
+                for (TextSegment segment : segments) {
+                    embeddings.add(Embedding.from(new float[]{segment.text().length()}));
+                }
+                return Response.from(embeddings);
+            }
+        };
+        ingestionService = new IngestionService(embeddingModel,
+                new ChromaClientConfig().chromaWebClient("localhost", stubServer.port(), 10, 100, 30000, 2000, 10000),
+                2, 0, 0, 2, 2, 3, 10000, "", tempDir.resolve("checkpoint.json").toString());
+        ReflectionTestUtils.setField(ingestionService, "chromaTenant", "t");
+        ReflectionTestUtils.setField(ingestionService, "chromaDatabase", "d");
+        ReflectionTestUtils.setField(ingestionService, "collectionId", "c");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stubServer.disposeNow();
+    }
+
+    @Test
+    @DisplayName("Test ingest(List); upserts every work in batches and saves the checkpoint")
+    void testIngest_upsertsAllWorks() throws IOException {
+        // Arrange
+        Path input = writeWorks("works.jsonl", 5);
+
+        // Act
+        IngestionStats actual = ingestionService.ingest(List.of(input));
+
+        // Assert
+        assertEquals(5, actual.documents());
+        assertEquals(3, actual.batches());
+        assertEquals(List.of("W1#0", "W2#0", "W3#0", "W4#0", "W5#0"), upsertedIds());
+        JSONObject first = upserts.stream()
+                .filter(upsert -> upsert.getJSONArray("ids").getString(0).equals("W1#0"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals("Title 1", first.getJSONArray("metadatas").getJSONObject(0).getString("title"));
+        assertEquals("Title 1", first.getJSONArray("documents").getString(0));
+        assertEquals(7.0, first.getJSONArray("embeddings").getJSONArray(0).getDouble(0));
+        assertEquals(5, new JSONObject(Files.readString(tempDir.resolve("checkpoint.json")))
+                .getLong(input.toAbsolutePath().normalize().toString()));
+    }
+
+    @Test
+    @DisplayName("Test ingest(List); resumes after the lines recorded in the checkpoint")
+    void testIngest_resumesFromCheckpoint() throws IOException {
+        // Arrange
+        Path input = writeWorks("works.jsonl", 5);
+        Files.writeString(tempDir.resolve("checkpoint.json"),
+                new JSONObject().put(input.toAbsolutePath().normalize().toString(), 3).toString());
+
+        // Act
+        IngestionStats actual = ingestionService.ingest(List.of(input));
+
+        // Assert
+        assertEquals(2, actual.documents());
+        assertEquals(List.of("W4#0", "W5#0"), upsertedIds());
+    }
+
+    @Test
+    @DisplayName("Test ingest(List); retries a failed upsert")
+    void testIngest_retriesFailedUpsert() throws IOException {
+        // Arrange
+        Path input = writeWorks("works.jsonl", 2);
+        failuresLeft.set(1);
+
+        // Act
+        IngestionStats actual = ingestionService.ingest(List.of(input));
+
+        // Assert
+        assertEquals(2, actual.documents());
+        assertEquals(List.of("W1#0", "W2#0"), upsertedIds());
+    }
+
+    private Path writeWorks(String name, int count) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            lines.add(new JSONObject()
+                    .put("id", "https://openalex.org/W" + i)
+                    .put("title", "Title " + i)
+                    .toString());
+        }
+        return Files.write(tempDir.resolve(name), lines);
+    }
+
+    /**
+     * upsertされたIDの一覧（upsertは並行して届くためID順に並べる）。
+     */
+    private List<String> upsertedIds() {
+        List<String> ids = new ArrayList<>();
+        for (JSONObject upsert : upserts) {
+            JSONArray batch = upsert.getJSONArray("ids");
+            for (int i = 0; i < batch.length(); i++) {
+                ids.add(batch.getString(i));
+            }
+        }
+        ids.sort(null);
+        return ids;
+    }
+}
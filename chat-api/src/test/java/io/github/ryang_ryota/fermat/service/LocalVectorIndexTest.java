@@ -0,0 +1,178 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.config.ChromaClientConfig;
+import io.github.ryang_ryota.fermat.model.LocalIndexStats;
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * ChromaDBのコレクションをスタブサーバーで代替し、ローカルインデックスへの読み込みと検索を検証するテスト。
+ */
+class LocalVectorIndexTest {
+
+    private static final String COLLECTION = "/api/v2/tenants/t/databases/d/collections/c";
+
+    // スタブのコレクション（ID → ベクトル）。ID "doc-i" のドキュメント本文は "document i"
+    private final List<float[]> collection = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger pageRequests = new AtomicInteger();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private DisposableServer stubServer;
+
+    private LocalVectorIndex localVectorIndex;
+
+    @BeforeEach
+    void setUp() {
+        stubServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get(COLLECTION + "/count", (request, response) ->
+                                response.sendString(Mono.fromSupplier(() -> String.valueOf(collection.size()))))
+                        .post(COLLECTION + "/get", (request, response) ->
+                                response.header("Content-Type", "application/json")
+                                        .sendString(request.receive().aggregate().asString().map(this::page))))
+                .bindNow();
+        localVectorIndex = new LocalVectorIndex(
+                new ChromaClientConfig().chromaWebClient("localhost", stubServer.port(), 10, 100, 30000, 2000, 10000),
+                true, "l2", 8, 50, 32, 2, Duration.ofSeconds(5), Duration.ofHours(1), clock::get);
+        ReflectionTestUtils.setField(localVectorIndex, "chromaTenant", "t");
+        ReflectionTestUtils.setField(localVectorIndex, "chromaDatabase", "d");
+        ReflectionTestUtils.setField(localVectorIndex, "collectionId", "c");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stubServer.disposeNow();
+    }
+
+    @Test
+    @DisplayName("Test search(String, float[], int); not ready before the first refresh")
+    void testSearch_notReadyBeforeRefresh() {
+        // Arrange
+        collection.add(new float[]{0f, 0f});
+
+        // Act
+        Optional<RetrievedContext> actual = localVectorIndex.search("query", new float[]{0f, 0f}, 3);
+
+        // Assert
+        assertFalse(localVectorIndex.isReady());
+        assertTrue(actual.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test refresh(); bulk loads the collection page by page and answers locally")
+    void testRefresh_bulkLoadsAndAnswersLocally() {
+        // Arrange
+        for (int i = 0; i < 5; i++) {
+            collection.add(new float[]{i, 0f});
+        }
+
+        // Act
+        localVectorIndex.refresh();
+        Optional<RetrievedContext> actual = localVectorIndex.search("query", new float[]{3.2f, 0f}, 2);
+
+        // Assert
+        assertEquals(3, pageRequests.get());
+        assertTrue(actual.isPresent());
+        assertEquals(List.of("document 3", "document 4"), actual.get().documents());
+        assertEquals(0.04, actual.get().distances().get(0), 1e-4);
+    }
+
+    @Test
+    @DisplayName("Test refresh(); later refreshes load only the new records")
+    void testRefresh_incrementallyLoadsNewRecords() {
+        // Arrange
+        collection.add(new float[]{0f, 0f});
+        collection.add(new float[]{1f, 0f});
+        localVectorIndex.refresh();
+        pageRequests.set(0);
+
+        // Act
+        collection.add(new float[]{10f, 10f});
+        localVectorIndex.refresh();
+        localVectorIndex.refresh();
+        Optional<RetrievedContext> actual = localVectorIndex.search("query", new float[]{9f, 9f}, 1);
+
+        // Assert
+        assertEquals(1, pageRequests.get());
+        assertEquals(List.of("document 2"), actual.orElseThrow().documents());
+        LocalIndexStats stats = localVectorIndex.stats();
+        assertEquals(3, stats.size());
+        assertEquals(3, stats.loadedOffset());
+        assertEquals(3, stats.refreshes());
+    }
+
+    @Test
+    @DisplayName("Test refresh(); updates of existing ids are picked up by the periodic full rebuild")
+    void testRefresh_fullRebuildPicksUpUpdates() {
+        // Arrange
+        collection.add(new float[]{0f, 0f});
+        collection.add(new float[]{1f, 0f});
+        localVectorIndex.refresh();
+
+        // Act
+        // doc-1 を更新する（件数は変わらない）
+        collection.set(1, new float[]{10f, 10f});
+        clock.addAndGet(Duration.ofMinutes(30).toMillis());
+        localVectorIndex.refresh();
+        Optional<RetrievedContext> beforeRebuild = localVectorIndex.search("query", new float[]{9f, 9f}, 1);
+        clock.addAndGet(Duration.ofMinutes(30).toMillis());
+        localVectorIndex.refresh();
+        Optional<RetrievedContext> afterRebuild = localVectorIndex.search("query", new float[]{9f, 9f}, 1);
+
+        // Assert
+        assertEquals(145.0, beforeRebuild.orElseThrow().distances().get(0), 1e-4);
+        assertEquals(List.of("document 1"), afterRebuild.orElseThrow().documents());
+        assertEquals(2.0, afterRebuild.orElseThrow().distances().get(0), 1e-4);
+        LocalIndexStats stats = localVectorIndex.stats();
+        assertEquals(2, stats.size());
+        assertEquals(2, stats.fullRebuilds());
+    }
+
+    /**
+     * Chroma の /get と同じ形式で、リクエストの offset・limit に対応するページを返す。
+     */
+    private String page(String requestBody) {
+        pageRequests.incrementAndGet();
+        JSONObject request = new JSONObject(requestBody);
+        int offset = request.getInt("offset");
+        int limit = request.getInt("limit");
+        JSONArray ids = new JSONArray();
+        JSONArray embeddings = new JSONArray();
+        JSONArray documents = new JSONArray();
+        for (int i = offset; i < Math.min(collection.size(), offset + limit); i++) {
+            ids.put("doc-" + i);
+            JSONArray vector = new JSONArray();
+            for (float value : collection.get(i)) {
+                vector.put(value);
+            }
+            embeddings.put(vector);
+            documents.put("document " + i);
+        }
+        return new JSONObject().put("ids", ids).put("embeddings", embeddings).put("documents", documents).toString();
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.config.ConnectionPoolMetricsRegistry;
+import io.github.ryang_ryota.fermat.config.OllamaClientConfig;
+import io.github.ryang_ryota.fermat.model.OllamaBackendStats;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+/**
+ * 2台のOllamaをスタブサーバーで代替し、ノードの振り分け・再試行・除外・ヘルスチェックを検証するテスト。
+ * - failing: 生成リクエストに 500 を返し、/api/tags を持たないノード
+ * - healthy: 生成リクエストに応答し、/api/tags を持つノード
+ */
+class OllamaBackendPoolTest {
+
+    // 各スタブサーバーが受け取った生成リクエスト数
+    private final AtomicInteger failingRequests = new AtomicInteger();
+    private final AtomicInteger healthyRequests = new AtomicInteger();
+
+    private DisposableServer failingServer;
+
+    private DisposableServer healthyServer;
+
+    private WebClient webClient;
+
+    private OllamaBackendPool backendPool;
+
+    @BeforeEach
+    void setUp() {
+        failingServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes.post("/api/generate", (request, response) -> {
+                    failingRequests.incrementAndGet();
+                    return response.status(500).sendString(Mono.just("model not loaded"));
+                }))
+                .bindNow();
+        healthyServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .post("/api/generate", (request, response) -> {
+                            healthyRequests.incrementAndGet();
+                            return response.header("Content-Type", "application/x-ndjson")
+                                    .sendString(Mono.just("{\"response\":\"ok\",\"done\":true}\n"));
+                        })
+                        .get("/api/tags", (request, response) ->
+                                response.header("Content-Type", "application/json")
+                                        .sendString(Mono.just("{\"models\":[]}"))))
+                .bindNow();
+        webClient = new OllamaClientConfig().ollamaWebClient(4, 16, 30000, 2000, 10000,
+                new ConnectionPoolMetricsRegistry());
+        backendPool = new OllamaBackendPool(webClient,
+                "http://localhost:" + failingServer.port() + ", http://localhost:" + healthyServer.port() + "/",
+                2, 30000, 2000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        failingServer.disposeNow();
+        healthyServer.disposeNow();
+    }
+
+    @Test
+    @DisplayName("Test select(Collection); picks the backend with the fewest outstanding requests")
+    void testSelect_picksLeastOutstanding() {
+        // Arrange
+        OllamaBackendPool.Backend first = backendPool.backends().get(0);
+        OllamaBackendPool.Backend second = backendPool.backends().get(1);
+
+        // Act
+        Disposable running = backendPool.track(first, Flux.never()).subscribe();
+        OllamaBackendPool.Backend selected = backendPool.select(List.of());
+        running.dispose();
+
+        // Assert
+        assertSame(second, selected);
+        assertEquals(0, first.outstanding());
+        assertEquals("http://localhost:" + healthyServer.port(), second.url());
+    }
+
+    @Test
+    @DisplayName("Test select(Collection, String); the same key goes to the same backend regardless of load")
+    void testSelect_affinityKeyIsSticky() {
+        // Arrange
+        OllamaBackendPool.Backend preferred = backendPool.select(List.of(), "session");
+
+        // Act
+        Disposable running = backendPool.track(preferred, Flux.never()).subscribe();
+        OllamaBackendPool.Backend loaded = backendPool.select(List.of(), "session");
+        OllamaBackendPool.Backend fallback = backendPool.select(List.of(preferred), "session");
+        running.dispose();
+
+        // Assert
+        assertSame(preferred, loaded);
+        assertNotSame(preferred, fallback);
+    }
+
+    @Test
+    @DisplayName("Test generateResponseStream(String); retries on another backend when one fails before the first token")
+    void testGenerateResponseStream_retriesOnAnotherBackend() {
+        // Arrange
+        OllamaService ollamaService = new OllamaService(webClient, backendPool,
+                new PipelineMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(ollamaService, "ollamaModel", "mistral");
+
+        // Act and Assert
+        StepVerifier.create(ollamaService.generateResponseStream("prompt"))
+                .expectNext("ok")
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        assertEquals(1, failingRequests.get());
+        assertEquals(1, healthyRequests.get());
+        List<OllamaBackendStats> stats = backendPool.stats();
+        assertEquals(1, stats.get(0).failures());
+        assertEquals(0, stats.get(1).failures());
+        assertEquals(0, stats.get(0).outstanding());
+        assertEquals(0, stats.get(1).outstanding());
+    }
+
+    @Test
+    @DisplayName("Test track(Backend, Flux); ejects a backend after consecutive failures")
+    void testTrack_ejectsAfterConsecutiveFailures() {
+        // Arrange
+        OllamaBackendPool.Backend first = backendPool.backends().get(0);
+        OllamaBackendPool.Backend second = backendPool.backends().get(1);
+        Disposable running = backendPool.track(second, Flux.never()).subscribe();
+
+        // Act
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(backendPool.track(first, Flux.error(new IllegalStateException("boom"))))
+                    .expectError(IllegalStateException.class)
+                    .verify(Duration.ofSeconds(5));
+        }
+
+        // Assert: 実行中のリクエストが多くても、除外されていないノードが選ばれる
+        assertTrue(backendPool.stats().get(0).ejected());
+        assertSame(second, backendPool.select(List.of()));
+        // 試行済みのノードを除くと、除外中のノードでも選ばれる
+        assertSame(first, backendPool.select(List.of(second)));
+        running.dispose();
+    }
+
+    @Test
+    @DisplayName("Test checkHealth(); marks a backend without /api/tags unhealthy")
+    void testCheckHealth_marksUnhealthy() throws InterruptedException {
+        // Act
+        backendPool.checkHealth();
+
+        // Assert
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (backendPool.stats().get(0).healthy() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(backendPool.stats().get(0).healthy());
+        assertTrue(backendPool.stats().get(1).healthy());
+        assertSame(backendPool.backends().get(1), backendPool.select(List.of()));
+    }
+}
@@ -1,12 +1,14 @@
 package io.github.ryang_ryota.fermat.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
 
 import com.diffblue.cover.annotations.ManagedByDiffblue;
 import com.diffblue.cover.annotations.MethodsUnderTest;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 
 class OllamaServiceDiffblueTest {
@@ -27,7 +29,8 @@ class OllamaServiceDiffblueTest {
     void testGenerateResponseStream_whenModel() {
         // Arrange and Act
         Flux<String> actualGenerateResponseStreamResult =
-                new OllamaService().generateResponseStream("model");
+                new OllamaService(WebClient.create(), mock(OllamaBackendPool.class),
+                        mock(PipelineMetrics.class)).generateResponseStream("model");
 
         // Assert
         assertEquals(-1, actualGenerateResponseStreamResult.buffer().getPrefetch());
@@ -36,7 +39,7 @@ class OllamaServiceDiffblueTest {
         assertEquals(-1, actualGenerateResponseStreamResult.timestamp().getPrefetch());
         assertEquals(256, actualGenerateResponseStreamResult.parallel().getPrefetch());
         assertEquals(Integer.MAX_VALUE, actualGenerateResponseStreamResult.cache().getPrefetch());
-        assertEquals(Integer.SIZE, actualGenerateResponseStreamResult.getPrefetch());
+        assertEquals(-1, actualGenerateResponseStreamResult.getPrefetch());
     }
 
     /**
@@ -56,7 +59,8 @@ class OllamaServiceDiffblueTest {
     void testGenerateResponseStream_whenPrompt() {
         // Arrange and Act
         Flux<String> actualGenerateResponseStreamResult =
-                new OllamaService().generateResponseStream("Prompt");
+                new OllamaService(WebClient.create(), mock(OllamaBackendPool.class),
+                        mock(PipelineMetrics.class)).generateResponseStream("Prompt");
 
         // Assert
         assertEquals(-1, actualGenerateResponseStreamResult.buffer().getPrefetch());
@@ -65,6 +69,6 @@ class OllamaServiceDiffblueTest {
         assertEquals(-1, actualGenerateResponseStreamResult.timestamp().getPrefetch());
         assertEquals(256, actualGenerateResponseStreamResult.parallel().getPrefetch());
         assertEquals(Integer.MAX_VALUE, actualGenerateResponseStreamResult.cache().getPrefetch());
-        assertEquals(Integer.SIZE, actualGenerateResponseStreamResult.getPrefetch());
+        assertEquals(-1, actualGenerateResponseStreamResult.getPrefetch());
     }
 }
@@ -0,0 +1,181 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.config.ConnectionPoolMetricsRegistry;
+import io.github.ryang_ryota.fermat.config.OllamaClientConfig;
+import io.github.ryang_ryota.fermat.model.GenerationTimeStats;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+/**
+ * Ollamaをスタブサーバーで代替し、送信するリクエストと接続プールのメトリクスを検証するテスト。
+ */
+class OllamaServiceTest {
+
+    // スタブサーバーが受け取ったリクエストボディ
+    private final List<JSONObject> requests = new CopyOnWriteArrayList<>();
+
+    private final ConnectionPoolMetricsRegistry metricsRegistry = new ConnectionPoolMetricsRegistry();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // スタブサーバーの終わらない生成が、接続を閉じられて中断されたか
+    private final AtomicBoolean stubCancelled = new AtomicBoolean();
+
+    private DisposableServer stubServer;
+
+    private PipelineMetrics pipelineMetrics;
+
+    private OllamaService ollamaService;
+
+    @BeforeEach
+    void setUp() {
+        stubServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes.post("/api/generate", (request, response) ->
+                        response.header("Content-Type", "application/x-ndjson")
+                                .sendString(request.receive().aggregate().asString()
+                                        .doOnNext(body -> requests.add(new JSONObject(body)))
+                                        .flatMapMany(body -> body.contains("\"slow\"")
+                                                // 終わらない生成（接続が閉じられるまでトークンを送り続ける）
+                                                ? Flux.interval(Duration.ofMillis(20))
+                                                        .map(tick -> "{\"response\":\"t\",\"done\":false}\n")
+                                                        .doOnCancel(() -> stubCancelled.set(true))
+                                                : Mono.just("{\"response\":\"ok\",\"done\":true,\"prompt_eval_count\":12,"
+                                                        + "\"eval_count\":4,\"eval_duration\":2000000000}\n")))))
+                .bindNow();
+        WebClient webClient = new OllamaClientConfig().ollamaWebClient(4, 16, 30000, 2000, 10000, metricsRegistry);
+        pipelineMetrics = new PipelineMetrics(meterRegistry);
+        ollamaService = new OllamaService(webClient,
+                new OllamaBackendPool(webClient, "http://localhost:" + stubServer.port(), 3, 30000, 2000),
+                pipelineMetrics, "{\"num_ctx\":4096}", 1024);
+        ReflectionTestUtils.setField(ollamaService, "ollamaModel", "mistral");
+    }
+
+    @AfterEach
+    void tearDown() {
+        stubServer.disposeNow();
+    }
+
+    @Test
+    @DisplayName("Test generateTokenStream(String); sends keep_alive and options, and reports pool metrics")
+    void testGenerateTokenStream_sendsKeepAliveAndOptions() {
+        // Act
+        StepVerifier.create(ollamaService.generateResponseStream("prompt"))
+                .expectNext("ok")
+                .verifyComplete();
+
+        // Assert
+        JSONObject body = requests.get(0);
+        assertEquals("mistral", body.getString("model"));
+        assertEquals("30m", body.getString("keep_alive"));
+        assertEquals(4096, body.getJSONObject("options").getInt("num_ctx"));
+        assertEquals(1024, body.getJSONObject("options").getInt("num_predict"));
+        assertEquals(1, metricsRegistry.stats().size());
+        assertEquals("ollama", metricsRegistry.stats().get(0).pool());
+        assertEquals(4, metricsRegistry.stats().get(0).maxAllocated());
+    }
+
+    @Test
+    @DisplayName("Test generateTokenStream(String); records time to first token, tokens/sec and prompt tokens")
+    void testGenerateTokenStream_recordsMetrics() {
+        // Act
+        StepVerifier.create(ollamaService.generateResponseStream("prompt"))
+                .expectNext("ok")
+                .verifyComplete();
+
+        // Assert
+        assertEquals(1, meterRegistry.get("fermat.generation.first.token").timer().count());
+        assertEquals(1, meterRegistry.get("fermat.generation.duration").timer().count());
+        assertEquals(2.0, meterRegistry.get("fermat.generation.tokens.per.second").summary().mean());
+        assertEquals(12.0, meterRegistry.get("fermat.prompt.tokens").summary().totalAmount());
+        assertEquals(4.0, meterRegistry.get("fermat.generation.tokens").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test generateTokenStream(String); the request deadline aborts the Ollama request and counts wasted time")
+    void testGenerateTokenStream_deadlineAbortsGeneration() throws InterruptedException {
+        // Act
+        StepVerifier.create(ollamaService.generateResponseStream("slow")
+                        .contextWrite(Context.of(RequestDeadline.CONTEXT_KEY,
+                                RequestDeadline.after(Duration.ofMillis(300)))))
+                .thenConsumeWhile("t"::equals)
+                .expectErrorSatisfies(e -> assertEquals("generation", ((DeadlineExceededException) e).getStage()))
+                .verify(Duration.ofSeconds(5));
+
+        // Assert
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!stubCancelled.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(stubCancelled.get());
+        GenerationTimeStats stats = pipelineMetrics.generationTimeStats();
+        assertEquals(0, stats.delivered());
+        assertEquals(1, stats.timedOut());
+        assertTrue(stats.wastedSeconds() > 0.2);
+    }
+
+    @Test
+    @DisplayName("Test generateTokenStream(String); a cancelled subscription aborts the Ollama request")
+    void testGenerateTokenStream_cancelAbortsGeneration() throws InterruptedException {
+        // Act
+        StepVerifier.create(ollamaService.generateResponseStream("slow"))
+                .expectNext("t", "t")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        // Assert
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!stubCancelled.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(stubCancelled.get());
+        assertEquals(1, pipelineMetrics.generationTimeStats().cancelled());
+    }
+
+    @Test
+    @DisplayName("Test keepModelLoaded(); pings only when no generation ran within the interval")
+    void testKeepModelLoaded_pingsOnlyWhenIdle() throws InterruptedException {
+        // Act
+        ollamaService.keepModelLoaded();
+        waitForRequests(1);
+        ollamaService.keepModelLoaded();
+
+        // Assert
+        Thread.sleep(200);
+        assertEquals(1, requests.size());
+        JSONObject ping = requests.get(0);
+        assertFalse(ping.has("prompt"));
+        assertFalse(ping.getBoolean("stream"));
+        assertTrue(ping.has("keep_alive"));
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (requests.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.github.ryang_ryota.fermat.model.GenerationTimeStats;
+import io.github.ryang_ryota.fermat.model.OllamaToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class PipelineMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+
+    @Test
+    @DisplayName("Test recordStage(Stage, long) and recordError(Stage); meters are tagged by stage")
+    void testRecordStage_taggedByStage() {
+        // Act
+        pipelineMetrics.recordStage(PipelineMetrics.Stage.EMBEDDING, 5_000_000);
+        pipelineMetrics.recordStage(PipelineMetrics.Stage.CHROMA_QUERY, 20_000_000);
+        pipelineMetrics.recordError(PipelineMetrics.Stage.CHROMA_QUERY);
+
+        // Assert
+        assertEquals(5.0, registry.get("fermat.pipeline.stage").tag("stage", "embedding").timer()
+                .totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(1, registry.get("fermat.pipeline.stage").tag("stage", "chroma_query").timer().count());
+        assertEquals(0, registry.get("fermat.pipeline.errors").tag("stage", "embedding").counter().count());
+        assertEquals(1, registry.get("fermat.pipeline.errors").tag("stage", "chroma_query").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test recordEval(OllamaToken); ignores lines without eval counts")
+    void testRecordEval_ignoresMissingCounts() {
+        // Act
+        pipelineMetrics.recordEval(new OllamaToken("", true, 0, 0, 0));
+        pipelineMetrics.recordEval(new OllamaToken("", true, 30, 1_500_000_000L, 100));
+
+        // Assert
+        assertEquals(1, registry.get("fermat.generation.tokens.per.second").summary().count());
+        assertEquals(20.0, registry.get("fermat.generation.tokens.per.second").summary().mean());
+        assertEquals(1, registry.get("fermat.prompt.tokens").summary().count());
+    }
+
+    @Test
+    @DisplayName("Test generationTimeStats(); splits generation time into delivered and wasted")
+    void testGenerationTimeStats_splitsDeliveredAndWasted() {
+        // Act
+        pipelineMetrics.recordGenerationOutcome(PipelineMetrics.Outcome.DELIVERED, 3_000_000_000L);
+        pipelineMetrics.recordGenerationOutcome(PipelineMetrics.Outcome.CANCELLED, 1_000_000_000L);
+        pipelineMetrics.recordGenerationOutcome(PipelineMetrics.Outcome.DEADLINE_EXCEEDED, 2_000_000_000L);
+        pipelineMetrics.recordDeadlineExceeded("queue");
+        pipelineMetrics.recordDeadlineExceeded("queue");
+
+        // Assert
+        GenerationTimeStats stats = pipelineMetrics.generationTimeStats();
+        assertEquals(1, stats.delivered());
+        assertEquals(3.0, stats.deliveredSeconds());
+        assertEquals(2, stats.wasted());
+        assertEquals(3.0, stats.wastedSeconds());
+        assertEquals(1, stats.cancelled());
+        assertEquals(1, stats.timedOut());
+        assertEquals(0, stats.failed());
+        assertEquals(2L, stats.deadlineExceeded().get("queue"));
+        assertEquals(2, registry.get("fermat.deadline.exceeded").tag("stage", "queue").counter().count());
+    }
+
+    @Test
+    @DisplayName("Test streamOpened() and streamClosed(); gauge follows active streams")
+    void testStreamGauge() {
+        // Act
+        pipelineMetrics.streamOpened();
+        pipelineMetrics.streamOpened();
+        pipelineMetrics.streamClosed();
+
+        // Assert
+        assertEquals(1.0, registry.get("fermat.sse.active").gauge().value());
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.EmbeddingCacheStats;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class QueryEmbeddingCacheTest {
+
+    @Test
+    @DisplayName("Test get(String); queries differing only in case and whitespace share one vector")
+    void testGet_normalizedQueriesShareVector() {
+        // Arrange
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(DataSize.ofMegabytes(1));
+        float[] embedding = {0.1f, 0.2f, 0.3f};
+        cache.put("What is  Fermat's Last Theorem?", embedding);
+
+        // Act
+        float[] actual = cache.get("  what is fermat's last theorem?");
+
+        // Assert
+        assertSame(embedding, actual);
+        EmbeddingCacheStats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(0, stats.misses());
+        assertEquals(1.0, stats.hitRatio());
+    }
+
+    @Test
+    @DisplayName("Test put(String, float[]); total weight stays within the memory budget")
+    void testPut_staysWithinBudget() {
+        // Arrange
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(DataSize.ofKilobytes(64));
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            cache.put("question " + i, new float[384]);
+        }
+        cache.get("question 0");
+
+        // Assert
+        EmbeddingCacheStats stats = cache.stats();
+        assertTrue(stats.weightBytes() <= 64 * 1024);
+        assertTrue(stats.size() < 1000);
+        assertTrue(stats.evictions() > 0);
+    }
+
+    @Test
+    @DisplayName("Test get(String); zero budget disables the cache")
+    void testGet_zeroBudgetDisablesCache() {
+        // Arrange
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(DataSize.ofBytes(0));
+
+        // Act
+        cache.put("query", new float[]{1.0f});
+
+        // Assert
+        assertNull(cache.get("query"));
+        assertEquals(0, cache.stats().size());
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+class RequestDeadlineTest {
+
+    private static Context deadline(Duration budget) {
+        return Context.of(RequestDeadline.CONTEXT_KEY, RequestDeadline.after(budget));
+    }
+
+    @Test
+    @DisplayName("Test bound(Mono, String); a stage still running at the deadline is cancelled and fails")
+    void testBound_cancelsStageAtDeadline() {
+        // Arrange
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Mono<String> stage = Mono.<String>never().doOnCancel(() -> cancelled.set(true));
+
+        // Act and Assert
+        StepVerifier.create(RequestDeadline.bound(stage, "embedding").contextWrite(deadline(Duration.ofMillis(50))))
+                .expectErrorSatisfies(e -> assertEquals("embedding", ((DeadlineExceededException) e).getStage()))
+                .verify(Duration.ofSeconds(5));
+        assertTrue(cancelled.get());
+        StepVerifier.create(RequestDeadline.bound(Mono.just("ok"), "embedding"))
+                .expectNext("ok")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test limit(Flux, Duration, String); elements before the limit are delivered, then the stream fails")
+    void testLimit_deliversThenFails() {
+        // Arrange
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<Integer> tokens = Flux.concat(Flux.just(1, 2, 3), Flux.<Integer>never())
+                .doOnCancel(() -> cancelled.set(true));
+
+        // Act and Assert
+        StepVerifier.create(RequestDeadline.limit(tokens, Duration.ofMillis(50), "generation"))
+                .expectNext(1, 2, 3)
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(5));
+        assertTrue(cancelled.get());
+        StepVerifier.create(RequestDeadline.limit(Flux.just(1, 2), Duration.ofSeconds(1), "generation"))
+                .expectNext(1, 2)
+                .verifyComplete();
+    }
+}
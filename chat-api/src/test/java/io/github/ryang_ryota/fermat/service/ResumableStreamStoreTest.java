@@ -0,0 +1,114 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.github.ryang_ryota.fermat.model.ResumeStats;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class ResumableStreamStoreTest {
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+    private ResumableStreamStore store(int bufferEvents) {
+        return new ResumableStreamStore(DataSize.ofMegabytes(1), bufferEvents, Duration.ofMinutes(5),
+                Duration.ofSeconds(15), Ticker.systemTicker(), scheduler);
+    }
+
+    private static ServerSentEvent<String> event(String data) {
+        return ServerSentEvent.builder(data).build();
+    }
+
+    @Test
+    @DisplayName("Test resume(String); a reconnect replays the buffer and re-attaches to the running generation")
+    void testResume_replaysBufferAndReattaches() {
+        // Arrange
+        ResumableStreamStore store = store(16);
+        AtomicInteger subscriptions = new AtomicInteger();
+        Sinks.Many<ServerSentEvent<String>> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        Flux<ServerSentEvent<String>> generation = upstream.asFlux().doOnSubscribe(s -> subscriptions.incrementAndGet());
+        List<ServerSentEvent<String>> received = new ArrayList<>();
+        Disposable first = store.start(generation).subscribe(received::add);
+        upstream.tryEmitNext(event("a"));
+        upstream.tryEmitNext(event("b"));
+        first.dispose();
+        upstream.tryEmitNext(event("c"));
+
+        // Act
+        Flux<ServerSentEvent<String>> resumed = store.resume(received.get(0).id()).orElseThrow();
+
+        // Assert
+        StepVerifier.create(resumed.map(ServerSentEvent::data))
+                .expectNext("b", "c")
+                .then(() -> upstream.tryEmitNext(event("d")))
+                .expectNext("d")
+                .then(upstream::tryEmitComplete)
+                .verifyComplete();
+        assertEquals(List.of("a", "b"), received.stream().map(ServerSentEvent::data).toList());
+        assertTrue(received.get(1).id().endsWith(".1"));
+        assertEquals(1, subscriptions.get());
+        ResumeStats stats = store.stats();
+        assertEquals(1, stats.started());
+        assertEquals(1, stats.resumed());
+    }
+
+    @Test
+    @DisplayName("Test resume(String); generations without a reconnect within the grace period are cancelled")
+    void testResume_abandonsAfterGracePeriod() {
+        // Arrange
+        ResumableStreamStore store = store(16);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Sinks.Many<ServerSentEvent<String>> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        List<ServerSentEvent<String>> received = new ArrayList<>();
+        Disposable client = store.start(upstream.asFlux().doOnCancel(() -> cancelled.set(true))).subscribe(received::add);
+        upstream.tryEmitNext(event("a"));
+
+        // Act
+        client.dispose();
+        scheduler.advanceTimeBy(Duration.ofSeconds(16));
+
+        // Assert
+        assertTrue(cancelled.get());
+        assertTrue(store.resume(received.get(0).id()).isEmpty());
+        ResumeStats stats = store.stats();
+        assertEquals(1, stats.abandoned());
+        assertEquals(1, stats.misses());
+        assertEquals(0, stats.size());
+    }
+
+    @Test
+    @DisplayName("Test start(Flux); the first client receives every event even beyond the buffer, and gaps cannot be resumed")
+    void testStart_firstClientReceivesAllEvents() {
+        // Arrange
+        ResumableStreamStore store = store(2);
+
+        // Act
+        List<ServerSentEvent<String>> received = store.start(Flux.just("a", "b", "c", "d", "e")
+                        .map(ResumableStreamStoreTest::event))
+                .collectList()
+                .block();
+
+        // Assert
+        assertEquals(List.of("a", "b", "c", "d", "e"), received.stream().map(ServerSentEvent::data).toList());
+        assertTrue(store.resume(received.get(0).id()).isEmpty());
+        StepVerifier.create(store.resume(received.get(2).id()).orElseThrow().map(ServerSentEvent::data))
+                .expectNext("d", "e")
+                .verifyComplete();
+    }
+}
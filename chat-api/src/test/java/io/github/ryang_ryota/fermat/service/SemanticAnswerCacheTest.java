@@ -0,0 +1,121 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.AnswerCacheStats;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class SemanticAnswerCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    @DisplayName("Test lookup(float[]); similar query above threshold hits")
+    void testLookup_similarQueryHits() {
+        // Arrange
+        SemanticAnswerCache cache = new SemanticAnswerCache(true, 0.95, 4, Duration.ofMinutes(10), clock);
+        cache.put(new float[]{1.0f, 0.0f, 0.0f}, List.of("Wiles", "が証明"));
+
+        // Act
+        Optional<List<String>> hit = cache.lookup(new float[]{2.0f, 0.1f, 0.0f});
+        Optional<List<String>> miss = cache.lookup(new float[]{0.0f, 1.0f, 0.0f});
+
+        // Assert
+        assertEquals(Optional.of(List.of("Wiles", "が証明")), hit);
+        assertTrue(miss.isEmpty());
+        AnswerCacheStats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    @DisplayName("Test lookup(float[]); expired answer is not returned")
+    void testLookup_expiredAnswerIsNotReturned() {
+        // Arrange
+        SemanticAnswerCache cache = new SemanticAnswerCache(true, 0.9, 4, Duration.ofSeconds(30), clock);
+        cache.put(new float[]{1.0f, 0.0f}, List.of("answer"));
+
+        // Act
+        clock.advance(Duration.ofSeconds(31));
+        Optional<List<String>> result = cache.lookup(new float[]{1.0f, 0.0f});
+        cache.put(new float[]{0.0f, 1.0f}, List.of("other"));
+
+        // Assert
+        assertTrue(result.isEmpty());
+        assertEquals(1, cache.stats().expirations());
+        assertEquals(1, cache.stats().size());
+    }
+
+    @Test
+    @DisplayName("Test put(float[], List); least recently used answer is evicted when full")
+    void testPut_evictsLeastRecentlyUsed() {
+        // Arrange
+        SemanticAnswerCache cache = new SemanticAnswerCache(true, 0.99, 2, Duration.ofMinutes(10), clock);
+        cache.put(new float[]{1.0f, 0.0f, 0.0f}, List.of("x"));
+        clock.advance(Duration.ofSeconds(1));
+        cache.put(new float[]{0.0f, 1.0f, 0.0f}, List.of("y"));
+        clock.advance(Duration.ofSeconds(1));
+        cache.lookup(new float[]{1.0f, 0.0f, 0.0f});
+        clock.advance(Duration.ofSeconds(1));
+
+        // Act
+        cache.put(new float[]{0.0f, 0.0f, 1.0f}, List.of("z"));
+
+        // Assert
+        assertEquals(Optional.of(List.of("x")), cache.lookup(new float[]{1.0f, 0.0f, 0.0f}));
+        assertTrue(cache.lookup(new float[]{0.0f, 1.0f, 0.0f}).isEmpty());
+        assertEquals(Optional.of(List.of("z")), cache.lookup(new float[]{0.0f, 0.0f, 1.0f}));
+        assertEquals(1, cache.stats().evictions());
+        assertEquals(2, cache.stats().size());
+    }
+
+    @Test
+    @DisplayName("Test lookup(float[]); disabled cache never hits")
+    void testLookup_disabledCacheNeverHits() {
+        // Arrange
+        SemanticAnswerCache cache = new SemanticAnswerCache(false, 0.5, 4, Duration.ofMinutes(10), clock);
+        cache.put(new float[]{1.0f}, List.of("answer"));
+
+        // Act and Assert
+        assertTrue(cache.lookup(new float[]{1.0f}).isEmpty());
+        assertEquals(0, cache.stats().size());
+    }
+
+    /**
+     * テストから時刻を進められる Clock。
+     */
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2026-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
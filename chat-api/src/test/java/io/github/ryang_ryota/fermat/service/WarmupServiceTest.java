@@ -0,0 +1,138 @@
+package io.github.ryang_ryota.fermat.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.ryang_ryota.fermat.config.ConnectionPoolMetricsRegistry;
+import io.github.ryang_ryota.fermat.config.OllamaClientConfig;
+import io.github.ryang_ryota.fermat.model.WarmupStats;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * ChromaDB と Ollama を1つのスタブサーバーで代替し、ウォームアップの各処理と準備完了の記録を検証するテスト。
+ */
+class WarmupServiceTest {
+
+    // スタブサーバーが受け取ったリクエスト数
+    private final AtomicInteger heartbeats = new AtomicInteger();
+    private final AtomicInteger tags = new AtomicInteger();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics(registry);
+
+    private DisposableServer server;
+
+    private EmbeddingService embeddingService;
+
+    private ChromaService chromaService;
+
+    private OllamaBackendPool backendPool;
+
+    private WebClient chromaWebClient;
+
+    private WebClient ollamaWebClient;
+
+    @BeforeEach
+    void setUp() {
+        server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/api/v2/heartbeat", (request, response) -> {
+                            heartbeats.incrementAndGet();
+                            return response.sendString(Mono.just("{\"nanosecond heartbeat\":1}"));
+                        })
+                        .get("/api/tags", (request, response) -> {
+                            tags.incrementAndGet();
+                            return response.sendString(Mono.just("{\"models\":[]}"));
+                        }))
+                .bindNow();
+        embeddingService = mock(EmbeddingService.class);
+        when(embeddingService.embed(anyString())).thenReturn(CompletableFuture.completedFuture(new float[384]));
+        // 解析は実際の処理を使う（フィールドを参照しないため、モックのままでも呼び出せる）
+        chromaService = mock(ChromaService.class);
+        when(chromaService.parseResponse(anyString(), any(), anyString())).thenCallRealMethod();
+        chromaWebClient = WebClient.create("http://localhost:" + server.port());
+        ollamaWebClient = new OllamaClientConfig().ollamaWebClient(4, 16, 30000, 2000, 10000,
+                new ConnectionPoolMetricsRegistry());
+        backendPool = new OllamaBackendPool(ollamaWebClient, "http://localhost:" + server.port(), 2, 30000, 2000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.disposeNow();
+    }
+
+    private WarmupService warmupService(ApplicationContext applicationContext) {
+        WarmupService warmupService = new WarmupService(embeddingService, chromaService, backendPool,
+                chromaWebClient, ollamaWebClient, pipelineMetrics, applicationContext);
+        ReflectionTestUtils.setField(warmupService, "embeddingIterations", 8);
+        ReflectionTestUtils.setField(warmupService, "parseIterations", 10);
+        ReflectionTestUtils.setField(warmupService, "connections", 3);
+        return warmupService;
+    }
+
+    @Test
+    @DisplayName("Test run(ApplicationArguments); warms up embeddings, parsing and connections, then records readiness")
+    void testRun_warmsUpAndRecordsReadiness() {
+        // Arrange
+        WarmupService warmupService = warmupService(mock(WebServerApplicationContext.class));
+
+        // Act
+        warmupService.run(new DefaultApplicationArguments());
+
+        // Assert
+        WarmupStats stats = warmupService.stats();
+        assertTrue(stats.completed());
+        assertEquals(8, stats.embeddings());
+        assertEquals(10, stats.parses());
+        assertEquals(6, stats.connections());
+        assertEquals(0, stats.failures());
+        assertEquals(3, heartbeats.get());
+        assertEquals(3, tags.get());
+        assertTrue(stats.timeToReadyMillis() > 0);
+        assertEquals(stats.timeToReadyMillis() / 1000.0,
+                registry.get("fermat.startup.time.to.ready").gauge().value());
+        assertEquals(-1, stats.firstRequestMillis());
+    }
+
+    @Test
+    @DisplayName("Test run(ApplicationArguments); runs without a web server (bulk ingestion) skip the warm-up")
+    void testRun_skipsWithoutWebServer() {
+        // Arrange
+        WarmupService warmupService = warmupService(new StaticApplicationContext());
+
+        // Act
+        warmupService.run(new DefaultApplicationArguments());
+
+        // Assert
+        WarmupStats stats = warmupService.stats();
+        assertFalse(stats.completed());
+        assertEquals(0, stats.embeddings());
+        assertEquals(0, heartbeats.get());
+        assertEquals(-1, stats.timeToReadyMillis());
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class Bm25IndexTest {
+
+    @Test
+    @DisplayName("Test tokenize(String); splits English words, Han bigrams and katakana words, dropping stop words and hiragana")
+    void testTokenize_mixedJapaneseAndEnglish() {
+        // Act
+        List<String> actual = LexicalTokenizer.tokenize("What is the Taniyama–Shimura 予想? フェルマーの最終定理");
+
+        // Assert
+        assertEquals(List.of("taniyama", "shimura", "予想", "フェルマー", "最終", "終定", "定理"), actual);
+    }
+
+    @Test
+    @DisplayName("Test search(String, int); exact rare terms rank the matching document first")
+    void testSearch_rareTermRanksFirst() {
+        // Arrange
+        Bm25Index.Builder builder = new Bm25Index.Builder();
+        builder.add("Modular forms and elliptic curves over the rationals.");
+        builder.add("The Taniyama-Shimura conjecture relates elliptic curves to modular forms.");
+        builder.add("Elliptic curves in cryptography.");
+        builder.add("谷山–志村予想は楕円曲線とモジュラー形式を結びつける。");
+        Bm25Index index = builder.build();
+
+        // Act
+        List<Bm25Index.Hit> english = index.search("Who stated the Shimura conjecture?", 2);
+        List<Bm25Index.Hit> japanese = index.search("志村予想とは", 2);
+        List<Bm25Index.Hit> none = index.search("Galois", 2);
+
+        // Assert
+        assertEquals(1, english.get(0).doc());
+        assertEquals(1, english.size());
+        assertEquals(3, japanese.get(0).doc());
+        assertTrue(none.isEmpty());
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    @DisplayName("Test search(String, int); returns at most limit hits in descending score order")
+    void testSearch_topKInScoreOrder() {
+        // Arrange
+        Bm25Index.Builder builder = new Bm25Index.Builder();
+        for (int i = 0; i < 50; i++) {
+            builder.add("curve ".repeat(i % 7 + 1) + "filler text number " + i);
+        }
+        Bm25Index index = builder.build();
+
+        // Act
+        List<Bm25Index.Hit> actual = index.search("curve", 5);
+
+        // Assert
+        assertEquals(5, actual.size());
+        for (int i = 1; i < actual.size(); i++) {
+            assertTrue(actual.get(i - 1).score() >= actual.get(i).score());
+        }
+    }
+
+    @Test
+    @DisplayName("Test build(); documents added after a build are indexed incrementally without changing the earlier index")
+    void testBuild_incrementalAddMatchesFullBuild() {
+        // Arrange
+        List<String> documents = List.of("Elliptic curves over the rationals.", "Modular forms and Hecke operators.",
+                "Wiles proved the modularity of semistable elliptic curves.", "Galois representations of curves.");
+        Bm25Index.Builder incremental = new Bm25Index.Builder();
+        incremental.add(documents.get(0));
+        incremental.add(documents.get(1));
+        Bm25Index first = incremental.build();
+        Bm25Index.Builder full = new Bm25Index.Builder();
+        documents.forEach(full::add);
+
+        // Act
+        incremental.add(documents.get(2));
+        incremental.add(documents.get(3));
+        Bm25Index second = incremental.build();
+
+        // Assert
+        assertEquals(2, first.size());
+        assertTrue(first.search("Wiles", 2).isEmpty());
+        assertEquals(4, incremental.size());
+        assertEquals(full.build().search("elliptic curves", 4), second.search("elliptic curves", 4));
+        assertEquals(full.build().termCount(), second.termCount());
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    @Test
+    @DisplayName("Test search(float[], int, int); recall against brute force is high")
+    void testSearch_highRecallAgainstBruteForce() {
+        // Arrange
+        Random random = new Random(42);
+        HnswIndex index = new HnswIndex(HnswIndex.Space.L2, DIMENSION, 16, 200, 7);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            float[] vector = randomVector(random);
+            vectors.add(vector);
+            index.add("id-" + i, vector, "doc " + i);
+        }
+
+        // Act
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            List<String> expected = IntStream.range(0, vectors.size()).boxed()
+                    .sorted(Comparator.comparingDouble(i -> squaredDistance(query, vectors.get(i))))
+                    .limit(3)
+                    .map(i -> "id-" + i)
+                    .toList();
+            List<String> actual = index.search(query, 3, 64).stream().map(HnswIndex.SearchResult::id).toList();
+            found += (int) actual.stream().filter(expected::contains).count();
+        }
+
+        // Assert
+        assertEquals(2000, index.size());
+        assertTrue(found >= queries * 3 * 0.9, "recall@3 = " + found / (queries * 3.0));
+    }
+
+    @Test
+    @DisplayName("Test add(String, float[], String); re-adding an id replaces the old vector")
+    void testAdd_reAddingIdReplacesOldVector() {
+        // Arrange
+        HnswIndex index = new HnswIndex(HnswIndex.Space.COSINE, 2, 4, 16, 1);
+        index.add("a", new float[]{1f, 0f}, "old");
+        index.add("b", new float[]{0f, 1f}, "other");
+
+        // Act
+        index.add("a", new float[]{0.7f, 0.7f}, "new");
+        List<HnswIndex.SearchResult> results = index.search(new float[]{1f, 0f}, 3, 16);
+
+        // Assert
+        assertEquals(2, index.size());
+        assertEquals(List.of("new", "other"), results.stream().map(HnswIndex.SearchResult::document).toList());
+        assertEquals(1f - (float) Math.sqrt(0.5), results.get(0).distance(), 1e-3);
+    }
+
+    @Test
+    @DisplayName("Test copy(); additions to the copy do not affect the original")
+    void testCopy_additionsDoNotAffectOriginal() {
+        // Arrange
+        Random random = new Random(3);
+        HnswIndex original = new HnswIndex(HnswIndex.Space.L2, DIMENSION, 8, 50, 1);
+        for (int i = 0; i < 100; i++) {
+            original.add("id-" + i, randomVector(random), "doc " + i);
+        }
+
+        // Act
+        HnswIndex copy = original.copy();
+        for (int i = 100; i < 300; i++) {
+            copy.add("id-" + i, randomVector(random), "doc " + i);
+        }
+        float[] query = randomVector(random);
+        List<HnswIndex.SearchResult> originalResults = original.search(query, 10, 32);
+
+        // Assert
+        assertEquals(100, original.size());
+        assertEquals(300, copy.size());
+        assertTrue(originalResults.stream().allMatch(r -> Integer.parseInt(r.id().substring(3)) < 100));
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double squaredDistance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        return sum;
+    }
+}
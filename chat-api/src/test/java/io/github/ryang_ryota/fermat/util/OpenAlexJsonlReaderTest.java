@@ -0,0 +1,104 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import io.github.ryang_ryota.fermat.model.IngestDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * OpenAlexのJSONL（通常・gzip）を一時ファイルに書き出し、ドキュメントへの変換と再開位置からの読み込みを検証するテスト。
+ */
+class OpenAlexJsonlReaderTest {
+
+    private static final String WORK = "{\"id\":\"https://openalex.org/W1\",\"doi\":\"https://doi.org/10.2307/2118559\","
+            + "\"title\":\"Modular elliptic curves\",\"publication_year\":1995,"
+            + "\"abstract_inverted_index\":{\"proof\":[1],\"A\":[0],\"Fermat\":[3],\"of\":[2]}}";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Test next(); restores the abstract from the inverted index and sets metadata")
+    void testNext_restoresAbstract() throws IOException {
+        // Arrange
+        Path file = tempDir.resolve("works.jsonl");
+        Files.writeString(file, WORK + "\n");
+
+        // Act
+        List<IngestDocument> actual = readAll(file, 0);
+
+        // Assert
+        assertEquals(1, actual.size());
+        IngestDocument document = actual.get(0);
+        assertEquals("W1", document.id());
+        assertEquals("Modular elliptic curves\nA proof of Fermat", document.text());
+        assertEquals(Map.of("doi", "https://doi.org/10.2307/2118559", "title", "Modular elliptic curves",
+                "publication_year", 1995), document.metadata());
+        assertEquals(1, document.line());
+    }
+
+    @Test
+    @DisplayName("Test next(); skips blank, malformed and textless lines and counts them")
+    void testNext_skipsInvalidLines() throws IOException {
+        // Arrange
+        Path file = tempDir.resolve("works.jsonl");
+        Files.writeString(file, String.join("\n",
+                "{not json",
+                "",
+                "{\"id\":\"https://openalex.org/W2\",\"title\":null}",
+                WORK.replace("W1", "W3")) + "\n");
+
+        // Act
+        OpenAlexJsonlReader reader = new OpenAlexJsonlReader(file, 0);
+        IngestDocument actual = reader.next();
+
+        // Assert
+        assertEquals("W3", actual.id());
+        assertEquals(4, actual.line());
+        assertFalse(reader.hasNext());
+        assertEquals(2, reader.skipped());
+        assertEquals(4, reader.linesRead());
+        reader.close();
+    }
+
+    @Test
+    @DisplayName("Test OpenAlexJsonlReader(Path, long); resumes after the given line of a gzip file")
+    void testOpenAlexJsonlReader_resumesGzip() throws IOException {
+        // Arrange
+        Path file = tempDir.resolve("works.jsonl.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            for (int i = 1; i <= 5; i++) {
+                out.write((WORK.replace("W1", "W" + i) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        // Act
+        List<IngestDocument> actual = readAll(file, 3);
+
+        // Assert
+        assertEquals(List.of("W4", "W5"), actual.stream().map(IngestDocument::id).toList());
+        assertEquals(List.of(4L, 5L), actual.stream().map(IngestDocument::line).toList());
+    }
+
+    private static List<IngestDocument> readAll(Path file, long skipLines) throws IOException {
+        List<IngestDocument> documents = new ArrayList<>();
+        try (OpenAlexJsonlReader reader = new OpenAlexJsonlReader(file, skipLines)) {
+            reader.forEachRemaining(documents::add);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.RetrievedContext;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ReciprocalRankFusionTest {
+
+    @Test
+    @DisplayName("Test fuse(RetrievedContext, List, int, int); documents found by both searches rise and lexical-only documents carry no vector")
+    void testFuse_mergesRankings() {
+        // Arrange
+        RetrievedContext vector = new RetrievedContext("q", new float[]{1f, 0f}, List.of("a", "b", "c"),
+                List.of(0.1, 0.2, 0.3), List.of(new float[]{1f, 0f}, new float[]{0f, 1f}, new float[]{1f, 1f}));
+
+        // Act
+        RetrievedContext actual = ReciprocalRankFusion.fuse(vector, List.of("c", "x"), 60, 4);
+
+        // Assert
+        // 同点（b と x）はベクトル検索の結果を優先する
+        assertEquals(List.of("c", "a", "b", "x"), actual.documents());
+        assertEquals(List.of(0.3, 0.1, 0.2), actual.distances().subList(0, 3));
+        assertTrue(actual.distances().get(3).isNaN());
+        assertArrayEquals(new float[]{1f, 1f}, actual.embeddings().get(0));
+        assertNull(actual.embeddings().get(3));
+    }
+
+    @Test
+    @DisplayName("Test fuse(RetrievedContext, List, int, int); lexical results fill in when vector search returned nothing")
+    void testFuse_lexicalOnly() {
+        // Act
+        RetrievedContext actual = ReciprocalRankFusion.fuse(RetrievedContext.empty("q", new float[]{1f}),
+                List.of("x", "y"), 60, 12);
+
+        // Assert
+        assertEquals(List.of("x", "y"), actual.documents());
+        assertTrue(actual.embeddings().isEmpty());
+    }
+}
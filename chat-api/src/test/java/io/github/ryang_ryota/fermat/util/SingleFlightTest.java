@@ -0,0 +1,119 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.ryang_ryota.fermat.model.SingleFlightStats;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    @DisplayName("Test execute(Object, Supplier); late joiner receives tokens replayed from the first one")
+    void testExecute_lateJoinerReceivesReplay() {
+        // Arrange
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger invocations = new AtomicInteger();
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+
+        // Act
+        singleFlight.execute("prompt", () -> {
+            invocations.incrementAndGet();
+            return upstream.asFlux();
+        }).subscribe(first::add);
+        upstream.tryEmitNext("Hello");
+        singleFlight.execute("prompt", () -> {
+            invocations.incrementAndGet();
+            return Flux.just("unexpected");
+        }).subscribe(second::add);
+        upstream.tryEmitNext(" world");
+        upstream.tryEmitComplete();
+
+        // Assert
+        assertEquals(1, invocations.get());
+        assertEquals(List.of("Hello", " world"), first);
+        assertEquals(List.of("Hello", " world"), second);
+        SingleFlightStats stats = singleFlight.stats();
+        assertEquals(0, stats.inFlight());
+        assertEquals(1, stats.executions());
+        assertEquals(1, stats.coalesced());
+    }
+
+    @Test
+    @DisplayName("Test execute(Object, Supplier); upstream is cancelled only when the last subscriber leaves")
+    void testExecute_cancelledWhenLastSubscriberLeaves() {
+        // Arrange
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<String> upstream = Flux.<String>never().doOnCancel(() -> cancelled.set(true));
+
+        // Act and Assert
+        Disposable first = singleFlight.execute("prompt", () -> upstream).subscribe();
+        Disposable second = singleFlight.execute("prompt", () -> upstream).subscribe();
+        first.dispose();
+        assertFalse(cancelled.get());
+        assertEquals(1, singleFlight.stats().inFlight());
+        second.dispose();
+        assertTrue(cancelled.get());
+        assertEquals(0, singleFlight.stats().inFlight());
+    }
+
+    @Test
+    @DisplayName("Test execute(Object, Supplier); a new call after completion runs upstream again")
+    void testExecute_newCallAfterCompletionRunsAgain() {
+        // Arrange
+        AtomicInteger invocations = new AtomicInteger();
+
+        // Act
+        List<String> first = singleFlight.execute("prompt", () -> {
+            invocations.incrementAndGet();
+            return Flux.just("a", "b");
+        }).collectList().block();
+        List<String> second = singleFlight.execute("prompt", () -> {
+            invocations.incrementAndGet();
+            return Flux.just("c");
+        }).collectList().block();
+
+        // Assert
+        assertEquals(List.of("a", "b"), first);
+        assertEquals(List.of("c"), second);
+        assertEquals(2, invocations.get());
+    }
+
+    @Test
+    @DisplayName("Test executeMono(Object, Supplier); concurrent callers share one value")
+    void testExecuteMono_sharesValue() {
+        // Arrange
+        SingleFlight<String, Integer> retrievals = new SingleFlight<>();
+        Sinks.One<Integer> upstream = Sinks.one();
+        AtomicInteger invocations = new AtomicInteger();
+        List<Integer> results = new CopyOnWriteArrayList<>();
+
+        // Act
+        for (int i = 0; i < 3; i++) {
+            retrievals.executeMono("query", () -> {
+                invocations.incrementAndGet();
+                return upstream.asMono();
+            }).subscribe(results::add);
+        }
+        upstream.tryEmitValue(42);
+
+        // Assert
+        assertEquals(1, invocations.get());
+        assertEquals(List.of(42, 42, 42), results);
+        assertEquals(1, retrievals.stats().executions());
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TextChunkerTest {
+
+    @Test
+    @DisplayName("Test chunk(String, int, int); short text is returned as a single chunk")
+    void testChunk_shortTextIsSingleChunk() {
+        // Act
+        List<String> actual = TextChunker.chunk("A short abstract.", 64, 8);
+
+        // Assert
+        assertEquals(List.of("A short abstract."), actual);
+    }
+
+    @Test
+    @DisplayName("Test chunk(String, int, int); splits on sentences within the limit and overlaps the last sentence")
+    void testChunk_splitsOnSentencesWithOverlap() {
+        // Arrange（1文 = 20文字 = 5トークン）
+        String text = "Sentence number one. Sentence number two. Sentence number 333. Sentence number 444.";
+
+        // Act
+        List<String> actual = TextChunker.chunk(text, 12, 6);
+
+        // Assert
+        assertEquals(List.of(
+                "Sentence number one. Sentence number two.",
+                "Sentence number two. Sentence number 333.",
+                "Sentence number 333. Sentence number 444."), actual);
+    }
+
+    @Test
+    @DisplayName("Test chunk(String, int, int); a sentence longer than the limit is cut")
+    void testChunk_cutsLongSentence() {
+        // Arrange
+        String text = "フェルマーの最終定理".repeat(10);
+
+        // Act
+        List<String> actual = TextChunker.chunk(text, 30, 0);
+
+        // Assert
+        assertEquals(4, actual.size());
+        assertEquals(text, String.join("", actual));
+        for (String chunk : actual) {
+            assertTrue(TokenEstimator.estimate(chunk) <= 30);
+        }
+    }
+}
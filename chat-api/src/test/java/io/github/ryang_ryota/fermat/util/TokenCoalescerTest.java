@@ -0,0 +1,130 @@
+package io.github.ryang_ryota.fermat.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import reactor.util.context.Context;
+
+class TokenCoalescerTest {
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+    @Test
+    @DisplayName("Test coalesce(Flux, Duration, int, Scheduler); first token is sent immediately, the rest per window")
+    void testCoalesce_firstTokenImmediatelyRestPerWindow() {
+        // Arrange
+        Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+
+        // Act and Assert
+        StepVerifier.create(TokenCoalescer.coalesce(tokens.asFlux(), Duration.ofMillis(30), 512, scheduler))
+                .then(() -> tokens.tryEmitNext("フェルマー"))
+                .expectNext("フェルマー")
+                .then(() -> {
+                    tokens.tryEmitNext("の");
+                    tokens.tryEmitNext("最終");
+                    scheduler.advanceTimeBy(Duration.ofMillis(29));
+                })
+                .expectNoEvent(Duration.ZERO)
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(1)))
+                .expectNext("の最終")
+                .then(() -> {
+                    tokens.tryEmitNext("定理");
+                    tokens.tryEmitNext("");
+                    tokens.tryEmitComplete();
+                })
+                .expectNext("定理")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test coalesce(Flux, Duration, int, Scheduler); byte budget flushes before the window ends")
+    void testCoalesce_byteBudgetFlushesEarly() {
+        // Arrange
+        Flux<String> tokens = Flux.just("a", "bb", "cc", "d");
+
+        // Act and Assert
+        StepVerifier.create(TokenCoalescer.coalesce(tokens, Duration.ofSeconds(10), 4, scheduler))
+                .expectNext("a")
+                .expectNext("bbcc")
+                .expectNext("d")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Test coalesce(Flux, Duration, int, Scheduler); cancelling cancels upstream")
+    void testCoalesce_cancelCancelsUpstream() {
+        // Arrange
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<String> tokens = Flux.concat(Flux.just("a", "b"), Flux.<String>never())
+                .doOnCancel(() -> cancelled.set(true));
+
+        // Act
+        StepVerifier.create(TokenCoalescer.coalesce(tokens, Duration.ofMillis(30), 512, scheduler))
+                .expectNext("a")
+                .thenCancel()
+                .verify();
+
+        // Assert
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    @DisplayName("Test coalesce(Flux, Duration, int, Scheduler); upstream is pulled only up to the byte budget while downstream has no demand")
+    void testCoalesce_upstreamDemandIsBounded() {
+        // Arrange
+        AtomicLong requested = new AtomicLong();
+        Flux<String> tokens = Flux.<String>generate(sink -> sink.next("x"))
+                .doOnRequest(requested::addAndGet);
+
+        // Act and Assert
+        StepVerifier.create(TokenCoalescer.coalesce(tokens, Duration.ofSeconds(10), 4, scheduler), 1)
+                .expectNext("x")
+                .expectNoEvent(Duration.ZERO)
+                // 最初のトークン1件と、送出を待つ上限（4バイト）分だけ要求して止まる
+                .then(() -> assertEquals(5, requested.get()))
+                .thenRequest(1)
+                .expectNext("xxxx")
+                .then(() -> assertEquals(9, requested.get()))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Test coalesce(Flux, Duration, int, Scheduler); empty tokens are replaced by requesting upstream again")
+    void testCoalesce_emptyTokensAreReplenished() {
+        // Arrange
+        AtomicLong requested = new AtomicLong();
+        Flux<String> tokens = Flux.just("a", "", "", "b").doOnRequest(requested::addAndGet);
+
+        // Act and Assert
+        StepVerifier.create(TokenCoalescer.coalesce(tokens, Duration.ofMillis(30), 512, scheduler), 2)
+                .expectNext("a")
+                .expectNext("b")
+                .verifyComplete();
+        // 空のトークン2件の分も要求し直す（"a"・空・空・"b" の4件）
+        assertEquals(4, requested.get());
+    }
+
+    @Test
+    @DisplayName("Test coalesce(Flux, Duration, int, Scheduler); the subscriber context reaches upstream")
+    void testCoalesce_propagatesContext() {
+        // Arrange
+        Flux<String> tokens = Flux.deferContextual(context -> Flux.just(context.<String>get("client")));
+
+        // Act and Assert
+        StepVerifier.create(TokenCoalescer.coalesce(tokens, Duration.ofMillis(30), 512, scheduler)
+                        .contextWrite(Context.of("client", "c1")))
+                .expectNext("c1")
+                .verifyComplete();
+    }
+}
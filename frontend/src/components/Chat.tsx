@@ -13,6 +13,9 @@ import { type Message } from "../types";
 const API_BASE_URL =
   import.meta.env.VITE_API_BASE_URL || "http://localhost:8080";
 
+// 回答の途中で切断された場合に、続きから再開するための自動再接続の回数の上限
+const MAX_RECONNECTS = 3;
+
 /**
  * Chatコンポーネント
  * チャットの送信・受信・表示を行うメインUI
@@ -28,6 +31,10 @@ const Chat: React.FC = () => {
   const eventSourceRef = useRef<EventSource | null>(null);
   // AIメッセージの一時バッファ（ストリーミングで受信した内容を逐次結合）
   const aiMessageBuffer = useRef<string>("");
+  // 受信中の回答の生成ID（イベントIDの「.」より前。再接続で生成し直された場合に変わる）
+  const generationIdRef = useRef<string | null>(null);
+  // 現在の回答で自動再接続した回数
+  const reconnectsRef = useRef<number>(0);
 
   /**
    * メッセージが追加されたとき、画面を自動で一番下までスクロールする
@@ -66,6 +73,8 @@ const Chat: React.FC = () => {
     // AIメッセージの空プレースホルダーを追加（ここにストリームで内容を追加していく）
     setMessages((prev) => [...prev, { text: "", isUser: false }]);
     aiMessageBuffer.current = ""; // バッファも初期化
+    generationIdRef.current = null;
+    reconnectsRef.current = 0;
 
     // 既存のSSE接続があればクローズ（多重接続を防ぐため）
     if (eventSourceRef.current) {
@@ -85,6 +94,12 @@ const Chat: React.FC = () => {
      * - 最新のAIメッセージ（リストの末尾）にバッファの内容を反映
      */
     eventSourceRef.current.onmessage = (event: MessageEvent) => {
+      // 再接続で生成し直された場合は、途中まで受信した回答を捨てる
+      const generationId = event.lastEventId.split(".")[0];
+      if (generationIdRef.current !== null && generationIdRef.current !== generationId) {
+        aiMessageBuffer.current = "";
+      }
+      generationIdRef.current = generationId;
       aiMessageBuffer.current += event.data;
       setMessages((prev) => {
         const newMessages = [...prev];
@@ -101,15 +116,32 @@ const Chat: React.FC = () => {
     };
 
     /**
-     * エラー発生時の処理
-     * - 接続をクローズしてリソースを解放
-     * - 必要に応じてエラーメッセージ表示も追加可能
+     * 回答の終わり（done）・サーバーからのエラー（error）を受け取ったら接続をクローズする
+     * （クローズしないと、EventSource が自動で再接続してしまうため）
      */
-    eventSourceRef.current.onerror = () => {
+    const closeStream = () => {
       if (eventSourceRef.current) {
         eventSourceRef.current.close();
       }
     };
+    eventSourceRef.current.addEventListener("done", closeStream);
+    eventSourceRef.current.addEventListener("error", (event) => {
+      if (event instanceof MessageEvent) {
+        closeStream();
+      }
+    });
+
+    /**
+     * 接続エラー発生時の処理
+     * - 回答の途中で切断された場合は、EventSource の自動再接続（Last-Event-ID 付き）で続きから再開する
+     * - 再接続の回数が上限を超えた場合は、接続をクローズしてリソースを解放
+     */
+    eventSourceRef.current.onerror = () => {
+      reconnectsRef.current += 1;
+      if (reconnectsRef.current > MAX_RECONNECTS) {
+        closeStream();
+      }
+    };
   };
 
   return (